@@ -213,7 +213,151 @@ public class AnnotationUtils {
 	}
 	
 	/**
-	 * Produce a comparator from a specific annotation type nesting order.
+	 * Obtain the numerical ID of an annotation type. The IDs are small
+	 * non-negative integers assigned in order of first request, and they are
+	 * valid JVM-wide. This allows for data structures that handle many
+	 * annotations to compare and index annotation types by int rather than by
+	 * String. If the argument type does not have an ID yet, this method
+	 * assigns one.
+	 * @param type the annotation type to obtain the ID for
+	 * @return the ID of the argument annotation type
+	 */
+	public static int getTypeID(String type) {
+		return getTypeID(type, true);
+	}
+	
+	/**
+	 * Obtain the numerical ID of an annotation type. The IDs are small
+	 * non-negative integers assigned in order of first request, and they are
+	 * valid JVM-wide. If the argument type does not have an ID yet, this
+	 * method either assigns one or returns -1, depending on the create flag.
+	 * Lookups that should not register types, e.g. for queries, should use
+	 * the latter option.
+	 * @param type the annotation type to obtain the ID for
+	 * @param create assign an ID if the argument type does not have one yet?
+	 * @return the ID of the argument annotation type, or -1 if the type does
+	 *         not have an ID and create is false
+	 */
+	public static int getTypeID(String type, boolean create) {
+		if (type == null)
+			return -1;
+		Integer typeId = ((Integer) typeIDs.get(type)); // no need to synchronize, map is never modified after publication
+		if (typeId != null)
+			return typeId.intValue();
+		if (!create)
+			return -1;
+		synchronized (AnnotationUtils.class) {
+			typeId = ((Integer) typeIDs.get(type));
+			if (typeId != null)
+				return typeId.intValue();
+			
+			//	copy on write, as types are few and lookups many
+			HashMap typeIDs = new HashMap(AnnotationUtils.typeIDs);
+			typeId = new Integer(typeIDs.size());
+			typeIDs.put(type, typeId);
+			if (typesByID.length == typeId.intValue()) {
+				String[] typesByID = new String[AnnotationUtils.typesByID.length * 2];
+				System.arraycopy(AnnotationUtils.typesByID, 0, typesByID, 0, AnnotationUtils.typesByID.length);
+				AnnotationUtils.typesByID = typesByID;
+			}
+			typesByID[typeId.intValue()] = type;
+			AnnotationUtils.typeIDs = typeIDs;
+			return typeId.intValue();
+		}
+	}
+	
+	/**
+	 * Retrieve the annotation type with a given numerical ID.
+	 * @param typeId the ID of the sought annotation type
+	 * @return the annotation type with the argument ID, or null if there is
+	 *         no such type
+	 */
+	public static String getTypeForID(int typeId) {
+		String[] typesByID = AnnotationUtils.typesByID;
+		return (((typeId < 0) || (typesByID.length <= typeId)) ? null : typesByID[typeId]);
+	}
+	
+	private static volatile HashMap typeIDs = new HashMap();
+	private static volatile String[] typesByID = new String[64];
+	
+	/**
+	 * Comparator for annotation types that resolves nesting order ranks by
+	 * numerical type ID rather than by type name. Besides comparing types
+	 * handed over as Strings, instances of this class can compare type IDs
+	 * obtained from <code>getTypeID()</code> directly, which saves any lookup
+	 * in hot sorting paths.
+	 * 
+	 * @author sautter
+	 */
+	public static final class TypeComparator implements Comparator {
+		private final String nestingOrder;
+		private final int[] ranks; // rank in nesting order plus one, indexed by type ID, 0 for unspecified types
+		private final int documentTypeId;
+		TypeComparator(String nestingOrder, int[] ranks) {
+			this.nestingOrder = nestingOrder;
+			this.ranks = ranks;
+			this.documentTypeId = getTypeID(DocumentRoot.DOCUMENT_TYPE);
+		}
+		public int compare(Object type1, Object type2) {
+			if ((type1 == null) ? (type2 == null) : type1.equals(type2))
+				return 0;
+			return this.compareTypeIDs(((type1 instanceof String) ? getTypeID(((String) type1), false) : -1), ((type2 instanceof String) ? getTypeID(((String) type2), false) : -1));
+		}
+		
+		/**
+		 * Compare two annotation types by their numerical IDs. Negative IDs
+		 * are treated as types not included in the nesting order.
+		 * @param typeId1 the ID of the first type
+		 * @param typeId2 the ID of the second type
+		 * @return a value less than, equal to, or greater than zero, depending
+		 *         on whether the first type nests outside, alongside, or inside
+		 *         the second one
+		 */
+		public int compareTypeIDs(int typeId1, int typeId2) {
+			if (typeId1 == typeId2)
+				return 0;
+			
+			//	keep documents outside every other Annotation, regardless of configuration
+			if (typeId1 == this.documentTypeId)
+				return -1;
+			if (typeId2 == this.documentTypeId)
+				return 1;
+			
+			//	get ordering numbers
+			int r1 = (((typeId1 < 0) || (this.ranks.length <= typeId1)) ? 0 : this.ranks[typeId1]);
+			int r2 = (((typeId2 < 0) || (this.ranks.length <= typeId2)) ? 0 : this.ranks[typeId2]);
+			
+			//	both specified, compare
+			if ((r1 != 0) && (r2 != 0))
+				return ((r1 < r2) ? -1 : ((r1 == r2) ? 0 : 1));
+			
+			//	second type not specified, assume it to be some detail
+			else if (r1 != 0)
+				return -1;
+			
+			//	first type not specified, assume it to be some detail
+			else if (r2 != 0)
+				return 1;
+			
+			//	none of the types specified
+			else return 0;
+		}
+		public String toString() {
+			return this.nestingOrder;
+		}
+		public boolean equals(Object obj) {
+			return ((obj != null) && this.nestingOrder.equals(obj.toString()));
+		}
+		public int hashCode() {
+			return this.nestingOrder.hashCode();
+		}
+	}
+	
+	/**
+	 * Produce a comparator from a specific annotation type nesting order. The
+	 * returned comparator is a <code>TypeComparator</code>, so client code
+	 * that works with numerical type IDs can cast it and compare these IDs
+	 * directly.
 	 * @param nestingOrder the nesting order to use, as a space-separated string
 	 *            concatenation of annotation types, outmost type first
 	 * @return a comparator for the specified type nesting order (will assume
@@ -250,53 +394,23 @@ public class AnnotationUtils {
 		noBuilder.addContentIgnoreDuplicates(noParser);
 		System.out.println("Nesting order is " + noBuilder.concatStrings(", "));
 		
-		//	index nesting order
-		final HashMap noRanking = new HashMap();
+		//	index nesting order by type ID
+		int[] noRanking = new int[0];
 		for (int t = 0; t < noBuilder.size(); t++) {
 			String type = noBuilder.get(t).trim();
-			if ((type.length() != 0) && !DocumentRoot.DOCUMENT_TYPE.equals(type))
-				noRanking.put(type, new Integer(t));
+			if ((type.length() == 0) || DocumentRoot.DOCUMENT_TYPE.equals(type))
+				continue;
+			int typeId = getTypeID(type);
+			if (noRanking.length <= typeId) {
+				int[] ranking = new int[typeId + 1];
+				System.arraycopy(noRanking, 0, ranking, 0, noRanking.length);
+				noRanking = ranking;
+			}
+			noRanking[typeId] = (t + 1);
 		}
 		
 		//	create comparator
-		comparator = new Comparator() {
-			public int compare(Object type1, Object type2) {
-				
-				//	keep documents outside every other Annotation, regardless of configuration
-				if (DocumentRoot.DOCUMENT_TYPE.equals(type1))
-					return (DocumentRoot.DOCUMENT_TYPE.equals(type2) ? 0 : -1);
-				if (DocumentRoot.DOCUMENT_TYPE.equals(type2))
-					return 1;
-				
-				//	get ordering numbers
-				Integer i1 = ((Integer) noRanking.get(type1));
-				Integer i2 = ((Integer) noRanking.get(type2));
-				
-				//	both specified, compare
-				if ((i1 != null) && (i2 != null))
-					return i1.compareTo(i2);
-				
-				//	second type not specified, assume it to be some detail
-				else if (i1 != null)
-					return -1;
-				
-				//	first type not specified, assume it to be some detail
-				else if (i2 != null)
-					return 1;
-				
-				//	none of the types specified
-				else return 0;
-			}
-			public String toString() {
-				return nestingOrder;
-			}
-			public boolean equals(Object obj) {
-				return ((obj != null) && nestingOrder.equals(obj.toString()));
-			}
-			public int hashCode() {
-				return nestingOrder.hashCode();
-			}
-		};
+		comparator = new TypeComparator(nestingOrder, noRanking);
 		
 		//	cache comparator
 		typeComparatorCache.put(nestingOrder, comparator);
@@ -1039,6 +1153,20 @@ public class AnnotationUtils {
 	 */
 	public static String escapeForXml(String string, boolean escapeControl) {
 		StringBuffer escapedString = new StringBuffer();
+		escapeForXml(string, escapeControl, escapedString);
+		return escapedString.toString();
+	}
+	
+	/**
+	 * Escape a string to be well-formed XML - in particular, escape &amp;,
+	 * &lt;, &gt;, &quot;, and optionally control characters - and append the
+	 * result to a StringBuffer. This helps avoiding intermediate strings when
+	 * escaping many strings in a row.
+	 * @param string the string to escape
+	 * @param escapeControl escape control characters?
+	 * @param escapedString the StringBuffer to append the escaped string to
+	 */
+	public static void escapeForXml(String string, boolean escapeControl, StringBuffer escapedString) {
 		for (int c = 0; c < string.length(); c++) {
 			char ch = string.charAt(c);
 			if (ch == '<')
@@ -1058,7 +1186,6 @@ public class AnnotationUtils {
 			}
 			else escapedString.append(ch);
 		}
-		return escapedString.toString();
 	}
 	
 	/**
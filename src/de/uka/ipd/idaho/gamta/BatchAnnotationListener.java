@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.gamta;
+
+
+/**
+ * An observer for Annotations being added, removed, and renamed in a document
+ * that additionally wants to know about batches of modifications (see
+ * BatchableAnnotation.beginBatch()). The notifications about the individual
+ * changes made in a batch are delivered in between the calls to the two
+ * methods of this interface. This enables listeners to defer expensive work,
+ * like re-building a display, until the end of the batch and do it only once.
+ * 
+ * @author sautter
+ */
+public interface BatchAnnotationListener extends AnnotationListener {
+	
+	/** receive notification that the notifications about a batch of changes are about to be delivered
+	 * @param	doc			the document the batch of changes was made to
+	 */
+	public abstract void batchStarted(QueriableAnnotation doc);
+	
+	/** receive notification that all notifications about a batch of changes have been delivered
+	 * @param	doc			the document the batch of changes was made to
+	 */
+	public abstract void batchFinished(QueriableAnnotation doc);
+}
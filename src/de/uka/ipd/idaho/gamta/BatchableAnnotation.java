@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.gamta;
+
+
+/**
+ * A mutable Annotation that can collect the notifications about a batch of
+ * modifications and deliver them to annotation listeners in coalesced form.
+ * This is an optional extension of the MutableAnnotation interface; client
+ * code has to check for it via <code>instanceof</code> before starting a
+ * batch.
+ * 
+ * @author sautter
+ */
+public interface BatchableAnnotation extends MutableAnnotation {
+	
+	/**
+	 * Start a batch of modifications. Until the matching call to
+	 * commitBatch(), notifications to annotation listeners are collected
+	 * rather than fired right away. On commit, they are delivered in coalesced
+	 * form, e.g. an Annotation added and removed within the batch results in
+	 * no notification at all, and an Annotation added and then modified within
+	 * the batch results in a single notification about its addition. Listeners
+	 * implementing BatchAnnotationListener are notified before and after the
+	 * delivery of the collected notifications. Batches may be nested, in which
+	 * case only the commit of the outermost batch delivers the collected
+	 * notifications. Listeners to the underlying token sequence are still
+	 * notified right away, as annotations have to be adjusted to changes of
+	 * the tokens immediately. If this mutable Annotation is not the root of the
+	 * document Annotation hierarchy, the batch extends to the whole document.
+	 * Every batch has to end with either commitBatch() or abortBatch(), the
+	 * latter e.g. in a catch block, as notifications are held back until then.
+	 */
+	public abstract void beginBatch();
+	
+	/**
+	 * Commit a batch of modifications started via beginBatch(), delivering the
+	 * notifications collected since then to annotation listeners.
+	 * @throws IllegalStateException if there is no batch to commit
+	 */
+	public abstract void commitBatch() throws IllegalStateException;
+	
+	/**
+	 * Abort all batches of modifications currently open, including any outer
+	 * ones, e.g. after an exception interrupted the code making modifications.
+	 * This does not undo any modifications. Rather, the notifications about
+	 * the modifications made so far are delivered right away, exactly as on
+	 * commit of the outermost batch, so listeners remain consistent with the
+	 * actual state of the document.
+	 * @throws IllegalStateException if there is no batch to abort
+	 */
+	public abstract void abortBatch() throws IllegalStateException;
+}
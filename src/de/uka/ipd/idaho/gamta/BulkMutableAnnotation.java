@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.gamta;
+
+
+/**
+ * A mutable Annotation that can add a whole batch of Annotations more
+ * efficiently than one by one. This is an optional extension of the
+ * MutableAnnotation interface; client code that does not want to check for it
+ * via <code>instanceof</code> can simply use
+ * <code>Gamta.addAnnotations()</code>, which falls back to adding Annotations
+ * one by one for any other mutable Annotation.
+ * 
+ * @author sautter
+ */
+public interface BulkMutableAnnotation extends MutableAnnotation {
+	
+	/**
+	 * Add a whole batch of Annotations to this mutable Annotation in one go.
+	 * The result is the same as adding the argument Annotations one by one via
+	 * <code>addAnnotation(Annotation)</code>, but implementations may store the
+	 * Annotations more efficiently, e.g. sorting the batch once and merging it
+	 * into existing indexes rather than inserting each Annotation separately.
+	 * As with the single Annotation version, start indexes are relative to
+	 * this mutable Annotation, and the Annotations are also added to all
+	 * mutable Annotations above this one. Since QueriableAnnotation extends
+	 * Annotation, this method also accepts arrays of QueriableAnnotations.
+	 * @param annotations the Annotations marking the Tokens to annotate
+	 * @return an array holding the Annotations equal to the ones just added,
+	 *         at the same positions as in the argument array, with null
+	 *         entries for any Annotations that could not be added
+	 */
+	public abstract MutableAnnotation[] addAnnotations(Annotation[] annotations);
+}
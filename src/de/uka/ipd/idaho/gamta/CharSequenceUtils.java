@@ -28,9 +28,10 @@
 package de.uka.ipd.idaho.gamta;
 
 
-import java.util.HashMap;
 import java.util.regex.Pattern;
 
+import de.uka.ipd.idaho.stringUtils.regExUtils.PatternCache;
+
 /**
  * Static class providing comparison finctinality for character sequences.
  * 
@@ -297,14 +298,6 @@ public class CharSequenceUtils {
 	
 	//	produce a Pattern from a regular expression, or retrieve one from cache
 	private static Pattern getPattern(String regex) {
-		Pattern pattern = ((Pattern) patternCache.get(regex));
-		if (pattern == null) {
-			pattern = Pattern.compile(regex);
-			patternCache.put(regex, pattern);
-		}
-		return pattern;
+		return PatternCache.getSharedCache().getPattern(regex);
 	}
-	
-	//	cache patterns to save compilation effort when used frequently
-	private static HashMap patternCache = new HashMap();
 }
@@ -31,17 +31,14 @@ package de.uka.ipd.idaho.gamta;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
-import java.util.Set;
 import java.util.TreeSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import de.uka.ipd.idaho.gamta.defaultImplementation.CompactTokenizedMutableCharSequence;
 import de.uka.ipd.idaho.gamta.defaultImplementation.GamtaDocument;
 import de.uka.ipd.idaho.gamta.defaultImplementation.GamtaTokenSequence;
 import de.uka.ipd.idaho.gamta.defaultImplementation.RegExTokenizer;
@@ -49,6 +46,8 @@ import de.uka.ipd.idaho.gamta.defaultImplementation.StringBufferCharSequence;
 import de.uka.ipd.idaho.gamta.defaultImplementation.TemporaryAnnotation;
 import de.uka.ipd.idaho.gamta.defaultImplementation.TemporaryAnnotationSet;
 import de.uka.ipd.idaho.gamta.defaultImplementation.TokenizedMutableCharSequence;
+import de.uka.ipd.idaho.gamta.util.DictionaryMatcher;
+import de.uka.ipd.idaho.gamta.util.MultiPatternExtractor;
 import de.uka.ipd.idaho.gamta.util.TestDocumentProvider;
 import de.uka.ipd.idaho.gamta.util.analyzers.LineEndMarker;
 import de.uka.ipd.idaho.gamta.util.analyzers.ParagraphStructureNormalizer;
@@ -60,7 +59,6 @@ import de.uka.ipd.idaho.stringUtils.Dictionary;
 import de.uka.ipd.idaho.stringUtils.StringIterator;
 import de.uka.ipd.idaho.stringUtils.StringUtils;
 import de.uka.ipd.idaho.stringUtils.StringVector;
-import de.uka.ipd.idaho.stringUtils.regExUtils.RegExUtils;
 
 
 /**
@@ -291,6 +289,31 @@ public class Gamta extends StringUtils {
 		Gamta.dataFactory = dataFactory;
 	}
 	
+	/**
+	 * Check whether or not the default implementation of the GAMTA data model
+	 * uses the column-wise CompactTokenizedMutableCharSequence for token
+	 * sequences, instead of the object-per-token TokenizedMutableCharSequence.
+	 * @return true if compact token sequences are used
+	 */
+	public static boolean isUsingCompactTokenSequences() {
+		return useCompactTokenSequences;
+	}
+	
+	/**
+	 * Switch the default implementation of the GAMTA data model to using the
+	 * column-wise CompactTokenizedMutableCharSequence for token sequences, or
+	 * back to the object-per-token TokenizedMutableCharSequence. The compact
+	 * implementation needs considerably less memory for large documents, but
+	 * creates Token objects as views on demand, so client code must not hold
+	 * on to tokens across modifications. This setting has no effect if a
+	 * custom data factory is installed.
+	 * @param useCompactTokenSequences use compact token sequences?
+	 */
+	public static void setUseCompactTokenSequences(boolean useCompactTokenSequences) {
+		Gamta.useCompactTokenSequences = useCompactTokenSequences;
+	}
+	private static boolean useCompactTokenSequences = false;
+	
 	/**
 	 * Obtain a new MutableCharSequence object.
 	 * @return a new mutable char sequence object, using the
@@ -313,7 +336,12 @@ public class Gamta extends StringUtils {
 	 */
 	public static MutableTokenSequence newTokenSequence(CharSequence charData, Tokenizer tokenizer) {
 		if (dataFactory == null) {
-			if (charData == null)
+			if (useCompactTokenSequences) {
+				if (charData == null)
+					return new CompactTokenizedMutableCharSequence((tokenizer == null) ? INNER_PUNCTUATION_TOKENIZER : tokenizer);
+				else return new CompactTokenizedMutableCharSequence(((tokenizer == null) ? INNER_PUNCTUATION_TOKENIZER : tokenizer), charData);
+			}
+			else if (charData == null)
 				return new TokenizedMutableCharSequence((tokenizer == null) ? INNER_PUNCTUATION_TOKENIZER : tokenizer);
 			else return new TokenizedMutableCharSequence(((tokenizer == null) ? INNER_PUNCTUATION_TOKENIZER : tokenizer), charData);
 		}
@@ -332,7 +360,9 @@ public class Gamta extends StringUtils {
 	 */
 	public static MutableTokenSequence newTokenSequence(MutableCharSequence charData, Tokenizer tokenizer) {
 		if (dataFactory == null) {
-			if (charData == null)
+			if ((charData == null) && useCompactTokenSequences)
+				return new CompactTokenizedMutableCharSequence((tokenizer == null) ? INNER_PUNCTUATION_TOKENIZER : tokenizer); 
+			else if (charData == null)
 				return new TokenizedMutableCharSequence((tokenizer == null) ? INNER_PUNCTUATION_TOKENIZER : tokenizer); 
 			else return new GamtaTokenSequence(charData, ((tokenizer == null) ? INNER_PUNCTUATION_TOKENIZER : tokenizer));
 		}
@@ -348,7 +378,12 @@ public class Gamta extends StringUtils {
 	 */
 	public static MutableTokenSequence copyTokenSequence(TokenSequence data) {
 		if (dataFactory == null) {
-			if (data == null)
+			if (useCompactTokenSequences) {
+				if (data == null)
+					return new CompactTokenizedMutableCharSequence(INNER_PUNCTUATION_TOKENIZER);
+				else return new CompactTokenizedMutableCharSequence(data);
+			}
+			else if (data == null)
 				return new TokenizedMutableCharSequence(INNER_PUNCTUATION_TOKENIZER);
 			else return new TokenizedMutableCharSequence(data);
 		}
@@ -518,6 +553,29 @@ public class Gamta extends StringUtils {
 		else return dataFactory.newAnnotationSet(model);
 	}
 	
+	/**
+	 * Add a whole batch of Annotations to a mutable Annotation. If the latter
+	 * is a BulkMutableAnnotation, this method uses its bulk insertion path;
+	 * otherwise, it adds the argument Annotations one by one. Null entries in
+	 * the argument array and Annotations with a negative start index or no
+	 * tokens at all are skipped.
+	 * @param target the mutable Annotation to add the Annotations to
+	 * @param annotations the Annotations marking the Tokens to annotate
+	 * @return an array holding the Annotations equal to the ones just added,
+	 *         at the same positions as in the argument array, with null
+	 *         entries for any Annotations that could not be added
+	 */
+	public static MutableAnnotation[] addAnnotations(MutableAnnotation target, Annotation[] annotations) {
+		if (target instanceof BulkMutableAnnotation)
+			return ((BulkMutableAnnotation) target).addAnnotations(annotations);
+		MutableAnnotation[] added = new MutableAnnotation[annotations.length];
+		for (int a = 0; a < annotations.length; a++) {
+			if ((annotations[a] != null) && (annotations[a].getStartIndex() >= 0) && (annotations[a].size() > 0))
+				added[a] = target.addAnnotation(annotations[a]);
+		}
+		return added;
+	}
+	
 	//	factory methods for easier change of default implementations
 	
 	/**
@@ -897,92 +955,61 @@ public class Gamta extends StringUtils {
 	 * 
 	 */
 	public static int getLevenshteinDistance(TokenSequence start, TokenSequence goal, int threshold, boolean caseSensitive, int insertCost, int deleteCost) {
-		
-		int[][] distanceMatrix; // matrix
-		int startSize; // length of s
-		int goalSize; // length of t
-		int minSize; // the limit for the quadratic computation
+		int startSize = ((start == null) ? 0 : start.size());
+		int goalSize = ((goal == null) ? 0 : goal.size());
 		int substitutionFactor = (insertCost + deleteCost);
-		int cost; // cost
-		int distance = 0;
-	
-		//	fill the matrix top-left to bottom-right instead of line-wise
-		int limit = 1;
-	
-		// Step 1
-		startSize = ((start == null) ? 0 : start.size());
-		goalSize = ((goal == null) ? 0 : goal.size());
-		minSize = ((startSize > goalSize) ? goalSize : startSize);
-		
-		//	Step 1.5
-		if ((Math.abs(startSize - goalSize) > threshold) && (threshold > 0)) return threshold;
-		
-		// Step 2
-		distanceMatrix = new int[startSize + 1][goalSize + 1];
-		distanceMatrix[0][0] = 0;
 		
-		while (limit <= minSize) {
-			distanceMatrix[limit][0] = (limit * insertCost);
-			distanceMatrix[0][limit] = (limit * deleteCost);
-			
-			//	compute line
-			for (int c = 1; c < limit; c++) {
-				cost = getCost(start.tokenAt(c - 1), goal.tokenAt(limit - 1), substitutionFactor, caseSensitive);
-				distance = min3(distanceMatrix[c - 1][limit] + deleteCost, distanceMatrix[c][limit - 1] + insertCost, distanceMatrix[c - 1][limit - 1] + cost);
-				distanceMatrix[c][limit] = distance;
-			}
-			
-			//	compute column
-			for (int l = 1; l < limit; l++) {
-				cost = getCost(start.tokenAt(limit - 1), goal.tokenAt(l - 1), substitutionFactor, caseSensitive);
-				distance = min3(distanceMatrix[limit - 1][l] + deleteCost, distanceMatrix[limit][l - 1] + insertCost, distanceMatrix[limit - 1][l - 1] + cost);
-				distanceMatrix[limit][l] = distance;
-			}
-			
-			//	compute new corner
-			cost = getCost(start.tokenAt(limit - 1), goal.tokenAt(limit - 1), substitutionFactor, caseSensitive);
-			distance = min3(distanceMatrix[limit - 1][limit] + deleteCost, distanceMatrix[limit][limit - 1] + insertCost, distanceMatrix[limit - 1][limit - 1] + cost);
-			if ((distance > threshold) && (threshold > 0)) return threshold;
-			distanceMatrix[limit][limit] = distance;
-			
-			//	increment limit
-			limit ++;
-		}
-		
-		//	Step 2.5a (compute remaining columns)
-		while (limit <= startSize) {
-			distanceMatrix[limit][0] = (limit * insertCost);
-			
-			//	compute column
-			for (int l = 1; l <= goalSize; l++) {
-				cost = getCost(start.tokenAt(limit - 1), goal.tokenAt(l - 1), substitutionFactor, caseSensitive);
-				distance = min3(distanceMatrix[limit - 1][l] + deleteCost, distanceMatrix[limit][l - 1] + insertCost, distanceMatrix[limit - 1][l - 1] + cost);
-				distanceMatrix[limit][l] = distance;
-			}
-			if ((distance > threshold) && (threshold > 0)) return threshold;
-			
-			//	increment limit
-			limit ++;
+		//	size difference alone exceeds threshold
+		int minEditCost = Math.min(insertCost, deleteCost);
+		if ((threshold > 0) && ((Math.abs(startSize - goalSize) * minEditCost) > threshold))
+			return threshold;
+		
+		//	compute band of diagonals a path within the threshold can visit (offsets of goal index from start index)
+		int minOffset = -startSize;
+		int maxOffset = goalSize;
+		if ((threshold > 0) && (minEditCost > 0)) {
+			int sizeDifference = (goalSize - startSize);
+			int bandExtension = (((threshold / minEditCost) - Math.abs(sizeDifference)) / 2);
+			minOffset = Math.max(minOffset, (Math.min(0, sizeDifference) - bandExtension));
+			maxOffset = Math.min(maxOffset, (Math.max(0, sizeDifference) + bandExtension));
 		}
-		
-		//	Step 2.5b (compute remaining rows)
-		while (limit <= goalSize) {
-			distanceMatrix[0][limit] = (limit * deleteCost);
-			
-			//	compute line
-			for (int c = 1; c <= startSize; c++) {
-				cost = getCost(start.tokenAt(c - 1), goal.tokenAt(limit - 1), substitutionFactor, caseSensitive);
-				distance = min3(distanceMatrix[c - 1][limit] + deleteCost, distanceMatrix[c][limit - 1] + insertCost, distanceMatrix[c - 1][limit - 1] + cost);
-				distanceMatrix[c][limit] = distance;
+		int outOfBand = ((threshold > 0) ? (threshold + 1) : Integer.MAX_VALUE);
+		
+		//	keep only two rows of distance matrix, initialize first one
+		int[] lastRow = new int[goalSize + 1];
+		int[] row = new int[goalSize + 1];
+		for (int l = 0; l <= goalSize; l++)
+			lastRow[l] = ((l <= maxOffset) ? (l * deleteCost) : outOfBand);
+		
+		//	compute remaining rows, stopping as soon as a whole row exceeds the threshold (row minimums never decrease)
+		for (int c = 1; c <= startSize; c++) {
+			int from = Math.max(0, (c + minOffset));
+			int to = Math.min(goalSize, (c + maxOffset));
+			if (from > 0)
+				row[from - 1] = outOfBand;
+			int rowMin = outOfBand;
+			Token startToken = start.tokenAt(c - 1);
+			for (int l = from; l <= to; l++) {
+				int distance;
+				if (l == 0)
+					distance = (c * insertCost);
+				else {
+					int cost = getCost(startToken, goal.tokenAt(l - 1), substitutionFactor, caseSensitive);
+					distance = Math.min(min3(lastRow[l] + deleteCost, row[l - 1] + insertCost, lastRow[l - 1] + cost), outOfBand);
+				}
+				row[l] = distance;
+				if (distance < rowMin)
+					rowMin = distance;
 			}
-			if ((distance > threshold) && (threshold > 0)) return threshold;
-			
-			//	increment limit
-			limit ++;
+			if (to < goalSize)
+				row[to + 1] = outOfBand;
+			if ((threshold > 0) && (rowMin > threshold))
+				return threshold;
+			int[] swap = lastRow;
+			lastRow = row;
+			row = swap;
 		}
-		
-		// Step 7
-		return distanceMatrix[startSize][goalSize];
+		return (((threshold > 0) && (lastRow[goalSize] > threshold)) ? threshold : lastRow[goalSize]);
 	}
 	
 	/**
@@ -1514,432 +1541,10 @@ public class Gamta extends StringUtils {
 	 * @return an array of Annotations marking all subsequences of the specified
 	 *         TokenSequence that match the specified regular expression
 	 */
-	public static Annotation[] extractAllMatches(TokenSequence tokens, String regEx, int maxTokens, Dictionary startExclude, final Dictionary exclude, boolean allowOverlap, boolean ignoreLinebreaks, boolean normalize) {
-		
-		/*
-		 * Inspect regex in order to find excludable punctuation marks (keep
-		 * match token sequences short). This is only a heuristic, though,
-		 * better would be inspecting the NFA produced by Pattern.compile() in
-		 * order to check which characters can appear in matches of the regular
-		 * expression.
-		 * 
-		 * Possible representations of punctuation marks in RegEx:
-		 * - . (matches any, if given omit check)
-		 * - \W (non-word character, matches any but _, if given omit check)
-		 * - \S (non-space character, matches any but _, if given omit check)
-		 * - \p{Punct}, \p{Graph}, \p{Print}, \p{ASCII} (matches any, if given omit check)
-		 * - \<mark> (matches punctuation mark <mark>)
-		 * - ^ (negation of something else)
-		 * - inclusions in character ranges
-		 */
-		
-		//	test if we have wildcard matches
-//		System.out.println("Extracting matches of " + regEx);
-		boolean allDotsEscped = true;
-		String adeTestRegEx = regEx;
-		while (adeTestRegEx.indexOf("\\\\") != -1) // remove all double backslashes
-			adeTestRegEx = adeTestRegEx.replaceAll("\\\\\\\\", "");
-//		System.out.println(" - ADE test pattern: " + adeTestRegEx);
-//		System.out.println("   - dot split is " + adeTestRegEx.split("\\.").length);
-//		System.out.println("   - escaped dot split: " + adeTestRegEx.split("\\\\\\.").length);
-		allDotsEscped = (adeTestRegEx.split("\\.").length == adeTestRegEx.split("\\\\\\.").length);
-		
-		//	collect range-matched characters
-		HashSet encodedMatchedChars = new HashSet();
-		if (allDotsEscped && (regEx.indexOf("\\p{Print}") == -1) && (regEx.indexOf("\\p{ASCII}") == -1) && (regEx.indexOf('^') == -1)) {
-			for (Matcher m = xRangePattern.matcher(regEx); m.find();) {
-				int min = Integer.parseInt(m.group(1), 16);
-				int max = Integer.parseInt(m.group(2), 16);
-//				System.out.println(" - x-range-including " + min + "-" + max);
-				for (int c = Math.max(min, 0x09); c <= Math.min(max, 0x7E); c++)
-					encodedMatchedChars.add("" + ((char) c));
-				for (int c = Math.max(min, 0xA0); c <= Math.min(max, 0xFF); c++)
-					encodedMatchedChars.add("" + ((char) c));
-			}
-			for (Matcher m = xCharPattern.matcher(regEx); m.find();) {
-				int c = Integer.parseInt(m.group(1), 16);
-//				System.out.println(" - x-char-including " + c);
-				if ((0x09 <= c) && (c <= 0x7E))
-					encodedMatchedChars.add("" + ((char) c));
-				else if ((0xA0 <= c) && (c <= 0xFF))
-					encodedMatchedChars.add("" + ((char) c));
-			}
-			for (Matcher m = uRangePattern.matcher(regEx); m.find();) {
-				int min = Integer.parseInt(m.group(1), 16);
-				int max = Integer.parseInt(m.group(2), 16);
-//				System.out.println(" - u-range-including " + min + "-" + max);
-				for (int c = Math.max(min, 0x09); c <= Math.min(max, 0x7E); c++)
-					encodedMatchedChars.add("" + ((char) c));
-				for (int c = Math.max(min, 0xA0); c <= Math.min(max, 0xFF); c++)
-					encodedMatchedChars.add("" + ((char) c));
-			}
-			for (Matcher m = uCharPattern.matcher(regEx); m.find();) {
-				int c = Integer.parseInt(m.group(1), 16);
-//				System.out.println(" - u-char-including " + c);
-				if ((0x09 <= c) && (c <= 0x7E))
-					encodedMatchedChars.add("" + ((char) c));
-				else if ((0xA0 <= c) && (c <= 0xFF))
-					encodedMatchedChars.add("" + ((char) c));
-			}
-		}
-//		System.out.println(" - range matched characters are " + encodedMatchedChars);
-		
-		//	check if space matched
-		boolean excludeSpace = false;
-		if (allDotsEscped && (regEx.indexOf("\\W") == -1) && (regEx.indexOf("\\s") == -1) && (regEx.indexOf("\\p{Blank}") == -1) && (regEx.indexOf("\\p{Space}") == -1) && (regEx.indexOf("\\p{Print}") == -1) && (regEx.indexOf("\\p{ASCII}") == -1) && (regEx.indexOf('^') == -1)) {
-			excludeSpace = true;
-			excludeSpace &= !encodedMatchedChars.contains("" + ((char) 0x20)); // space
-			excludeSpace &= !encodedMatchedChars.contains("" + ((char) 0x09)); // tab
-			excludeSpace &= !encodedMatchedChars.contains("" + ((char) 0x0A)); // newline
-			excludeSpace &= !encodedMatchedChars.contains("" + ((char) 0x0C)); // form feed (also page break)
-			excludeSpace &= !encodedMatchedChars.contains("" + ((char) 0x0D)); // carriage return
-		}
-//		System.out.println(" - exclude space is " + excludeSpace);
-		
-		//	collect punctuation marks without explicit matcher or range matcher inclusion
-		Set excludePunct = new HashSet(); // hash set is enough, no case insensitivity required for punctuation marks
-		if (allDotsEscped && (regEx.indexOf("\\W") == -1) && (regEx.indexOf("\\S") == -1) && (regEx.indexOf("\\p{Punct}") == -1) && (regEx.indexOf("\\p{Graph}") == -1) && (regEx.indexOf("\\p{Print}") == -1) && (regEx.indexOf("\\p{ASCII}") == -1) && (regEx.indexOf('^') == -1)) {
-			for (int p = 0; p < PUNCTUATION.length(); p++) {
-				String punct = PUNCTUATION.substring(p, (p+1));
-				if ((regEx.indexOf("\\" + punct) == -1) && !encodedMatchedChars.contains(punct))
-					excludePunct.add(punct);
-			}
-		}
-//		System.out.println(" - excluding punctuation " + excludePunct);
-		
-		//	normalize reg ex if necessary, and compile pattern
-		if ((regEx.indexOf("\n") != -1) || (regEx.indexOf("\r") != -1) || (regEx.indexOf("\f") != -1))
-			regEx = RegExUtils.normalizeRegEx(regEx);
-		
-		Pattern pattern = ((Pattern) patternCache.get(regEx));
-		if (pattern == null) {
-			pattern = Pattern.compile(regEx);
-			patternCache.put(regEx, pattern);
-		}
-		
-		//	build normalized copy of token sequence and extract pre matches
-		ArrayList preMatches = new ArrayList();
-		MatchTokenSequence normalizedTokenSequence = null;
-		Token last = null;
-		Token current;
-		String currentValue;
-		for (int t = 0; t < tokens.size(); t++) {
-			current = tokens.tokenAt(t);
-			currentValue = current.getValue();
-			
-			//	current token cannot belong to a match, stop adding tokens and do extraction
-			if (excludePunct.contains(currentValue) || ((exclude != null) && exclude.lookup(currentValue))) {
-				if (normalizedTokenSequence != null) {
-					addPreMatches(normalizedTokenSequence, preMatches, tokens, pattern, maxTokens, startExclude, allowOverlap);
-					normalizedTokenSequence.tokens.clear();
-					normalizedTokenSequence = null;
-					last = null;
-				}
-				continue; // skip over current (excluded) token
-			}
-			
-			//	test if whitespace to add
-			boolean addSpace = ((last != null) && (normalize ? insertSpace(last, current) : (tokens.getWhitespaceAfter(t-1).length() != 0)));
-			
-			//	not matching spaces, do extraction and afterwards start over with current token
-			if (addSpace && excludeSpace && (normalizedTokenSequence != null)) {
-				addPreMatches(normalizedTokenSequence, preMatches, tokens, pattern, maxTokens, startExclude, allowOverlap);
-				normalizedTokenSequence.tokens.clear();
-				normalizedTokenSequence = null;
-				last = null;
-//				System.out.println(" - starting over at space before " + current);
-			}
-			
-			//	token can start a match, or we are in the middle of a sequence
-			if ((normalizedTokenSequence != null) || (startExclude == null) || !startExclude.lookup(currentValue)) {
-				
-				//	start new sequence
-				if (normalizedTokenSequence == null)
-					normalizedTokenSequence = new MatchTokenSequence(t);
-				
-				//	add whitespace to current sequence if required
-				else if (addSpace)
-					normalizedTokenSequence.appendWhitespace((!ignoreLinebreaks && last.hasAttribute(Token.PARAGRAPH_END_ATTRIBUTE)) ? "\r\n" : " ");
-				
-				//	append current token
-				normalizedTokenSequence.appendToken(currentValue);
-				
-				//	remember Token
-				last = current;
-			}
-		}
-		
-		//	process last sequence
-		if (normalizedTokenSequence != null) {
-			addPreMatches(normalizedTokenSequence, preMatches, tokens, pattern, maxTokens, startExclude, allowOverlap);
-			normalizedTokenSequence = null;
-		}
-		
-		//	sort pre matches
-		Collections.sort(preMatches);
-		
-		//	overlapping matches allowed, return all pre matches
-		if (allowOverlap) return ((Annotation[]) preMatches.toArray(new Annotation[preMatches.size()]));
-		
-		//	sort out overlapping matches if not allowed
-		else {
-			ArrayList matches = new ArrayList();
-			
-			//	sort out overlapping pre matches
-			int lastEndIndex = 0;
-			for (int m = 0; m < preMatches.size(); m++) {
-				Annotation preMatch = ((Annotation) preMatches.get(m));
-				if (preMatch.getStartIndex() >= lastEndIndex) {
-					matches.add(preMatch);
-					lastEndIndex = preMatch.getEndIndex();
-				}
-			}
-			
-			//	return the rest
-			return ((Annotation[]) matches.toArray(new Annotation[matches.size()]));
-		}
-	}
-	
-	private static Pattern xCharPattern = Pattern.compile("\\\\x([0-9A-Fa-f]{2})");
-	private static Pattern xRangePattern = Pattern.compile("\\\\x([0-9A-Fa-f]{2})\\-\\\\x([0-9A-Fa-f]{2})");
-	private static Pattern uCharPattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})");
-	private static Pattern uRangePattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})\\-\\\\u([0-9A-Fa-f]{4})");
-	private static Map patternCache = Collections.synchronizedMap(new HashMap());
-//	
-//	public static void main(String[] args) throws Exception {
-//		TokenSequence ts = newTokenSequence("This is a test, with punctuation, and with spaces!", null);
-//		Annotation[] as;
-//		as = extractAllMatches(ts, "[A-Za-z]+");
-//		System.out.println(" ==> " + Arrays.toString(as));
-//		as = extractAllMatches(ts, "[A-Za-z\\,]+");
-//		System.out.println(" ==> " + Arrays.toString(as));
-//		as = extractAllMatches(ts, "[A-Za-z\\s]+");
-//		System.out.println(" ==> " + Arrays.toString(as));
-//		as = extractAllMatches(ts, "[\\x20-\\x7E]+");
-//		System.out.println(" ==> " + Arrays.toString(as));
-//		as = extractAllMatches(ts, "[\\u0020-\\u007E]+");
-//		System.out.println(" ==> " + Arrays.toString(as));
-//	}
-	
-	private static void addPreMatches(MatchTokenSequence normalizedTokenSequence, ArrayList preMatches, TokenSequence tokens, Pattern pattern, int maxTokens, Dictionary startExclude, boolean allowOverlap) {
-		int matchingStartOffset;
-		int matchStartOffset, matchEndOffset;
-		MatchToken startMt, endMt;
-		
-		Matcher matcher = pattern.matcher(normalizedTokenSequence);
-		matchingStartOffset = 0;
-		
-//		THIS HELPS INVESTIGATING PATTERNS THAT DRIVE THE MATCHER INTO ENDLESS LOOPS
-//		final boolean[] done = {false};
-//		final Thread ct = Thread.currentThread();
-//		Thread wt = new Thread() {
-//			public void run() {
-//				do {
-//					try {
-//						sleep(100);
-//					} catch (InterruptedException ie) {}
-//					StackTraceElement[] ste = ct.getStackTrace();
-//					for (int s = 0; s < ste.length; s++)
-//						System.out.println(ste[s].toString());
-//					System.out.println();
-//				}
-//				while (!done[0]);
-//			}
-//		};
-//		wt.start();
-		
-		//	find matching char sequences
-		while ((matchingStartOffset < normalizedTokenSequence.length()) && matcher.find(matchingStartOffset)) {
-			matchStartOffset = matcher.start();
-			startMt = normalizedTokenSequence.tokenAtOffset(matchStartOffset);
-			if (startMt != null) { // this may happen if regex matches the empty string
-				
-				//	current match starts at token start, and is not filtered
-				if ((startMt.startOffset == matchStartOffset) && ((startExclude == null) || !startExclude.lookup(startMt.value))) {
-					matchEndOffset = matcher.end();
-					endMt = normalizedTokenSequence.tokenAtOffset(matchEndOffset - 1);
-					if (endMt != null) { // this may happen if regex matches the empty string
-						
-						//	current match ends at token end and is below token limit ==> preMatch
-						if (((endMt.startOffset + endMt.value.length()) == matchEndOffset) && (startMt.index <= endMt.index) && ((maxTokens == 0) || ((endMt.index - startMt.index) < maxTokens)))
-							preMatches.add(newAnnotation(tokens, null, (normalizedTokenSequence.startIndex + startMt.index), (endMt.index - startMt.index + 1)));
-						
-						//	prefixes of current match might also match (test if overlapping matches allowed, or main match does not end at token border, or main match is longer than token limit)
-						if ((startMt.index < endMt.index) && (allowOverlap || ((maxTokens > 0) && ((endMt.index - startMt.index + 1) > maxTokens)) || ((endMt.startOffset + endMt.value.length()) != matchEndOffset))) {
-							CharSequence preMatchSequence = matcher.group();
-							while (startMt.index < endMt.index) {
-								
-								//	try one token less
-								endMt = ((MatchToken) normalizedTokenSequence.tokens.get(endMt.index - 1));
-								
-								//	size of match below token limit
-								if ((maxTokens == 0) || ((endMt.index - startMt.index) < maxTokens)) {
-									preMatchSequence = preMatchSequence.subSequence(0, (endMt.startOffset - startMt.startOffset + endMt.value.length()));
-									
-									//	found match ending at token border
-									if (pattern.matcher(preMatchSequence).matches()) {
-										preMatches.add(newAnnotation(tokens, null, (normalizedTokenSequence.startIndex + startMt.index), (endMt.index - startMt.index + 1)));
-										
-										//	stop here if overlapping matches not allowed
-										if (!allowOverlap)
-											endMt = startMt;
-									}
-								}
-							}
-						}
-					}
-				}
-				
-				//	start next 
-				matchingStartOffset = startMt.endOffset;
-			}
-			
-			//	avoid endless loop
-			else matchingStartOffset++;
-		}
-//		
-//		done[0] = true;
-	}
-	
-	private static class MatchToken {
-		final int index;
-		final int startOffset;
-		int endOffset;
-		final String value;
-		final StringBuffer token;
-		private MatchToken(int index, int startOffset, String value) {
-			this.index = index;
-			this.startOffset = startOffset;
-			this.value = value;
-			this.token = new StringBuffer(this.value);
-			this.endOffset = (this.startOffset + value.length());
-		}
-		private void addWhitespace(String whitespace) {
-			this.token.append(whitespace);
-			this.endOffset += whitespace.length();
-		}
-		private int length() {
-			return this.token.length();
-		}
-		private char charAt(int offset) {
-			return this.token.charAt(offset);
-		}
-	}
-	
-	private static class MatchTokenSequence implements CharSequence {
-		int startIndex;
-		ArrayList tokens = new ArrayList();
-		int length = 0;
-		private MatchTokenSequence(int startIndex) {
-			this.startIndex = startIndex;
-		}
-		
-		private void appendToken(String value) {
-			MatchToken mt = new MatchToken(this.tokens.size(), this.length, value);
-			this.tokens.add(mt);
-			this.length += mt.length();
-		}
-		
-		private void appendWhitespace(String whitespace) {
-			if (this.tokens.size() != 0) {
-				MatchToken mt = ((MatchToken) this.tokens.get(this.tokens.size() - 1));
-				mt.addWhitespace(whitespace);
-				this.length += whitespace.length();
-			}
-		}
-		
-		private int lastOffsetTokenIndex = -1;
-		private MatchToken tokenAtOffset(int offset) {
-			
-			//	check for leading and tailing tokens
-			if (offset < ((MatchToken) this.tokens.get(0)).startOffset) {
-				this.lastOffsetTokenIndex = -1;
-				return null;
-			}
-			if (offset >= ((MatchToken) this.tokens.get(this.tokens.size() - 1)).endOffset) {
-				this.lastOffsetTokenIndex = -1;
-				return null;
-			}
-			
-			//	do cache lookup
-			if (this.lastOffsetTokenIndex != -1) {
-				MatchToken gt = ((MatchToken) this.tokens.get(this.lastOffsetTokenIndex));
-				
-				//	request for same token
-				if ((gt.startOffset <= offset) && (offset < gt.endOffset))
-					return ((MatchToken) this.tokens.get(this.lastOffsetTokenIndex));
-				
-				//	request for subsequent token
-				else if (offset == gt.endOffset) {
-					this.lastOffsetTokenIndex++;
-					if (this.lastOffsetTokenIndex == this.tokens.size()) {
-						this.lastOffsetTokenIndex = -1;
-						return null;
-					}
-					else return ((MatchToken) this.tokens.get(this.lastOffsetTokenIndex));
-				}
-				
-				//	request for previous token
-				else if (gt.startOffset == (offset + 1)) {
-					this.lastOffsetTokenIndex--;
-					return ((MatchToken) this.tokens.get(this.lastOffsetTokenIndex));
-				}
-			}
-			
-			//	use binary search to narrow search interval
-			int left = 0;
-			int right = this.tokens.size();
-			int tIndex = 0;
-			MatchToken mt;
-			while ((right - left) > 2) {
-				tIndex = ((left + right) / 2);
-				mt = ((MatchToken) this.tokens.get(tIndex));
-				if (mt.endOffset <= offset)
-					left = tIndex;
-				else if (mt.startOffset <= offset) {
-					this.lastOffsetTokenIndex = tIndex;
-					return ((MatchToken) this.tokens.get(tIndex));
-				}
-				else right = tIndex;
-			}
-			
-			//	scan remaining interval
-			tIndex = left;
-			while (tIndex < this.tokens.size()) {
-				mt = ((MatchToken) this.tokens.get(tIndex));
-				if (mt.endOffset <= offset)
-					tIndex++;
-				else if (mt.startOffset <= offset) {
-					this.lastOffsetTokenIndex = tIndex;
-					return ((MatchToken) this.tokens.get(tIndex));
-				}
-				else tIndex++;
-			}
-			
-			this.lastOffsetTokenIndex = -1;
-			return null;
-		}
-		public char charAt(int offset) {
-			MatchToken mt = this.tokenAtOffset(offset);
-			return mt.charAt(offset - mt.startOffset);
-		}
-		public int length() {
-			return this.length;
-		}
-		public CharSequence subSequence(int start, int end) {
-			StringBuffer subSequence = new StringBuffer();
-			MatchToken mt = this.tokenAtOffset(start);
-			subSequence.append(mt.token.subSequence((start - mt.startOffset), Math.min(mt.token.length(), (end - mt.startOffset))));
-			while ((mt.endOffset < end) && ((mt.index + 1) < this.tokens.size())) {
-				mt = ((MatchToken) this.tokens.get(mt.index + 1));
-				subSequence.append(mt.token.subSequence(0, Math.min(mt.token.length(), (end - mt.startOffset))));
-			}
-			return subSequence;
-		}
-		public String toString() {
-			// not used in this special purpose implementation
-			return super.toString();
-		}
+	public static Annotation[] extractAllMatches(TokenSequence tokens, String regEx, int maxTokens, Dictionary startExclude, Dictionary exclude, boolean allowOverlap, boolean ignoreLinebreaks, boolean normalize) {
+		MultiPatternExtractor mpe = new MultiPatternExtractor(ignoreLinebreaks, normalize);
+		mpe.addPattern(regEx, maxTokens, startExclude, exclude, allowOverlap);
+		return mpe.extractAllMatchesByPattern(tokens)[0];
 	}
 	
 	/**
@@ -2048,7 +1653,11 @@ public class Gamta extends StringUtils {
 	}
 	
 	/**
-	 * Extract all parts from a String that are contained in a list of Strings
+	 * Extract all parts from a String that are contained in a list of Strings.
+	 * For multi-token matching, this method compiles the argument dictionary
+	 * anew on every invocation, tokenizing all its entries. Client code that
+	 * repeatedly matches the same dictionary should create a
+	 * <code>DictionaryMatcher</code> once and re-use it instead.
 	 * @param tokens the TokenSequence to be rooted through
 	 * @param list the Dictionary containing the Strings to be found
 	 * @param maxTokens the maximum number of tokens a String contained in the
@@ -2067,6 +1676,10 @@ public class Gamta extends StringUtils {
 		//	check parameters
 		if ((tokens == null) || (list == null) || list.isEmpty()) return new Annotation[0];
 		
+		//	multi-token matches against normalized entries or a string vector (whose lookup the trie replicates), compile dictionary and match in one pass
+		if ((maxTokens != 1) && (normalize || (list instanceof StringVector)))
+			return new DictionaryMatcher(list, tokens.getTokenizer(), maxTokens, caseSensitive, normalize).extractAllContained(tokens, allowOverlap);
+		
 		ArrayList annotations = new ArrayList();
 		
 		int lastStartIndex = 0;
@@ -2077,30 +1690,17 @@ public class Gamta extends StringUtils {
 		//	compute maximum number of Tokens in match, and extract valid start tokens
 		int maximumTokens = 1;
 		StringVector startTokens = new StringVector();
-		Tokenizer tokenizer = tokens.getTokenizer();
-		if (maxTokens == 1)
-			maximumTokens = 1;
-		
-		else {
-			StringVector normalizedList = new StringVector();
-			
+		if (maxTokens != 1) {
 			maximumTokens = maxTokens;
-			StringIterator si = list.getEntryIterator();
-			
-			while (si.hasMoreStrings()) {
+			Tokenizer tokenizer = tokens.getTokenizer();
+			for (StringIterator si = list.getEntryIterator(); si.hasMoreStrings();) {
 				TokenSequence ts = tokenizer.tokenize(si.nextString());
 				if (ts.size() != 0) {
 					if ((maxTokens == 0) && (ts.size() > maximumTokens))
 						maximumTokens = ts.size();
-					
 					startTokens.addElementIgnoreDuplicates(ts.firstValue());
-					if (normalize)
-						normalizedList.addElementIgnoreDuplicates(TokenSequenceUtils.concatTokens(ts, true, true));
 				}
 			}
-			
-			if (normalize)
-				list = normalizedList;
 		}
 		
 		//	find matches
@@ -2681,33 +2281,46 @@ public class Gamta extends StringUtils {
 	 * @return a new 128 bit hex String
 	 */
 	public static String getAnnotationID() {
-		
-		//	generate 128 random bits, packed in a char array
-		char[] bits = new char[8];
-		for (int i = 0; i < 8; i++) {
-//			double r = Math.random();
-//			bits[i] = (char) (r * 65536);
-			bits[i] = ((char) random.nextInt(0x00010000));
-		}
-		
-		//	convert each 16 bit block (char) into it's four-char hex representation
+		Random random = ((Random) idRandom.get());
+		return getAnnotationID(random.nextLong(), random.nextLong());
+	}
+	
+	/**
+	 * Obtain 64 random bits for composing an Annotation ID. Two calls to this
+	 * method provide the 128 bits of one Annotation ID. Implementations that
+	 * handle many Annotations can use this method to store IDs as two longs
+	 * and render the hex String via <code>getAnnotationID(long, long)</code>
+	 * only when the ID is actually requested. The random number generator is
+	 * local to the calling thread, so concurrent callers do not contend.
+	 * @return 64 random bits
+	 */
+	public static long getAnnotationIdBits() {
+		return ((Random) idRandom.get()).nextLong();
+	}
+	
+	/**
+	 * Render an Annotation ID from its 128 bits, e.g. ones obtained from two
+	 * calls to <code>getAnnotationIdBits()</code>. The result has the same
+	 * format as the Strings returned by <code>getAnnotationID()</code>, i.e.,
+	 * 32 upper case hex digits, most significant first.
+	 * @param high the upper 64 bits of the ID
+	 * @param low the lower 64 bits of the ID
+	 * @return the hex String representation of the ID
+	 */
+	public static String getAnnotationID(long high, long low) {
 		char[] hex = new char[32];
-		for (int i = 0; i < 8; i++) {
-			char c = bits[i];
-			for (int j = 0; j < 4; j++) {
-				byte b = ((byte) (c & 15));
-//				hex[((4*i) + (3-j))] = ((b < 10) ? ((char) (b + '0')) : ((char) (b + '7'))); //	'7' = 'A' - 10
-				hex[((4*i) + (3-j))] = ((b < 10) ? ((char) (b + '0')) : ((char) (b - 10 + 'A')));
-				c >>= 4;
-			}
+		for (int i = 15; i >= 0; i--) {
+			hex[i] = HEX_DIGITS[((int) (high & 15))];
+			high >>>= 4;
+			hex[i + 16] = HEX_DIGITS[((int) (low & 15))];
+			low >>>= 4;
 		}
-		
-		//	compose ID String and return it
-//		StringBuffer id = new StringBuffer();
-//		for (int i = 0; i < hex.length; i++)
-//			id.append(hex[i]);
-//		return (id.toString());
 		return new String(hex);
 	}
-	private static final Random random = new Random();
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+	private static final ThreadLocal idRandom = new ThreadLocal() {
+		protected Object initialValue() {
+			return new Random(); // seeds differ between instances even if created at the same time
+		}
+	};
 }
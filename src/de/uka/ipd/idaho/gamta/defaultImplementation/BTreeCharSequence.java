@@ -32,7 +32,19 @@ import de.uka.ipd.idaho.gamta.MutableCharSequence;
 
 /**
  * Implementation of a mutable char sequence using a storage structure similar
- * to a b*-tree for fast random access and modification
+ * to a b*-tree for fast random access and modification. The chars are stored
+ * in leaf blocks of up to the dimension size, which in turn are organized in
+ * a balanced tree of inner nodes with up to the dimension size children each.
+ * Thus, charAt(), as well as inserting and removing chars, take logarithmic
+ * time in the length of the sequence, rather than linear time as with a plain
+ * StringBuffer. Sequential access via charAt() is constant time on average,
+ * as the leaf block last accessed is cached.<br>
+ * In addition, every node of the tree caches the number of line breaks and
+ * the number of whitespace delimited blocks in the chars it contains. This
+ * facilitates finding lines and blocks by number or offset in logarithmic time
+ * as well. Whitespace delimited blocks are the units tokenizers work through
+ * (see Tokenizer.TokenIterator), so the latter can be used as an entry point
+ * for re-tokenizing a region around an edit.
  * 
  * @author sautter
  */
@@ -42,104 +54,616 @@ public class BTreeCharSequence extends AbstractMutableCharSequence {
 	 */
 	public static final int DEFAULT_DIMENSION_SIZE = 1024;
 	
-	/**
-	 * 
+	private final int dimensionSize;
+	private Node root;
+	
+	//	cache for sequential access
+	private Leaf cacheLeaf = null;
+	private int cacheLeafStart = 0;
+	
+	/** Constructor
 	 */
-	public BTreeCharSequence() {}
-
+	public BTreeCharSequence() {
+		this(DEFAULT_DIMENSION_SIZE);
+	}
+	
+	/** Constructor
+	 * @param	chars	the initial content of this BTreeCharSequence 
+	 */
+	public BTreeCharSequence(CharSequence chars) {
+		this(chars, DEFAULT_DIMENSION_SIZE);
+	}
+	
+	/** Constructor
+	 * @param	dimensionSize	the maximum number of chars per leaf block and of children per inner node (at least 4)
+	 */
+	public BTreeCharSequence(int dimensionSize) {
+		if (dimensionSize < 4)
+			throw new IllegalArgumentException("Dimension size must be at least 4");
+		this.dimensionSize = dimensionSize;
+		this.root = new Leaf(this.dimensionSize);
+	}
+	
+	/** Constructor
+	 * @param	chars			the initial content of this BTreeCharSequence 
+	 * @param	dimensionSize	the maximum number of chars per leaf block and of children per inner node (at least 4)
+	 */
+	public BTreeCharSequence(CharSequence chars, int dimensionSize) {
+		this(dimensionSize);
+		this.doInsert(chars, 0);
+	}
+	
 	/* (non-Javadoc)
-	 * @see de.gamta.MutableCharSequence#addChar(char)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#addChar(char)
 	 */
 	public void addChar(char ch) {
-		// TODO Auto-generated method stub
-
+		this.insertChar(ch, this.root.length);
 	}
-
+	
 	/* (non-Javadoc)
-	 * @see de.gamta.MutableCharSequence#addChars(java.lang.CharSequence)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#addChars(java.lang.CharSequence)
 	 */
 	public void addChars(CharSequence chars) {
-		// TODO Auto-generated method stub
-
+		this.insertChars(chars, this.root.length);
 	}
-
+	
 	/* (non-Javadoc)
-	 * @see de.gamta.MutableCharSequence#insertChar(char, int)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#insertChar(char, int)
 	 */
 	public void insertChar(char ch, int offset) {
-		// TODO Auto-generated method stub
-
+		this.insertChars(("" + ch), offset);
 	}
-
+	
 	/* (non-Javadoc)
-	 * @see de.gamta.MutableCharSequence#insertChars(java.lang.CharSequence, int)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#insertChars(java.lang.CharSequence, int)
 	 */
 	public void insertChars(CharSequence chars, int offset) {
-		// TODO Auto-generated method stub
-
+		this.checkRange(offset, offset);
+		this.doInsert(chars, offset);
+		this.notifyCharSequenceChanged(offset, chars, "");
 	}
-
+	
 	/* (non-Javadoc)
-	 * @see de.gamta.MutableCharSequence#removeChar(int)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#removeChar(int)
 	 */
 	public char removeChar(int offset) {
-		// TODO Auto-generated method stub
-		return 0;
+		char ch = this.charAt(offset);
+		this.doRemove(offset, 1);
+		this.notifyCharSequenceChanged(offset, "", ("" + ch));
+		return ch;
 	}
-
+	
 	/* (non-Javadoc)
-	 * @see de.gamta.MutableCharSequence#removeChars(int, int)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#removeChars(int, int)
 	 */
 	public CharSequence removeChars(int offset, int length) {
-		// TODO Auto-generated method stub
-		return null;
+		CharSequence removed = this.subSequence(offset, (offset + length));
+		this.doRemove(offset, length);
+		this.notifyCharSequenceChanged(offset, "", removed);
+		return removed;
 	}
-
+	
 	/* (non-Javadoc)
-	 * @see de.gamta.MutableCharSequence#setChar(char, int)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#setChar(char, int)
 	 */
 	public char setChar(char ch, int offset) {
-		// TODO Auto-generated method stub
-		return 0;
+		char oldCh = this.charAt(offset);
+		this.doRemove(offset, 1);
+		this.doInsert(("" + ch), offset);
+		this.notifyCharSequenceChanged(offset, ("" + ch), ("" + oldCh));
+		return oldCh;
 	}
-
+	
 	/* (non-Javadoc)
-	 * @see de.gamta.MutableCharSequence#setChars(java.lang.CharSequence, int, int)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#setChars(java.lang.CharSequence, int, int)
 	 */
 	public CharSequence setChars(CharSequence chars, int offset, int length) {
-		// TODO Auto-generated method stub
-		return null;
+		CharSequence oldChars = this.subSequence(offset, (offset + length));
+		this.doRemove(offset, length);
+		this.doInsert(chars, offset);
+		this.notifyCharSequenceChanged(offset, chars, oldChars);
+		return oldChars;
 	}
-
+	
 	/* (non-Javadoc)
 	 * @see java.lang.CharSequence#length()
 	 */
 	public int length() {
-		// TODO Auto-generated method stub
-		return 0;
+		return this.root.length;
 	}
-
+	
 	/* (non-Javadoc)
 	 * @see java.lang.CharSequence#charAt(int)
 	 */
 	public char charAt(int index) {
-		// TODO Auto-generated method stub
-		return 0;
+		if ((index < 0) || (index >= this.root.length))
+			throw new StringIndexOutOfBoundsException(index);
+		
+		//	try cache first
+		if ((this.cacheLeaf != null) && (this.cacheLeafStart <= index) && (index < (this.cacheLeafStart + this.cacheLeaf.length)))
+			return this.cacheLeaf.chars[index - this.cacheLeafStart];
+		
+		//	find leaf
+		Node node = this.root;
+		int nodeStart = 0;
+		while (node instanceof Inner) {
+			Inner inner = ((Inner) node);
+			int c = 0;
+			while ((nodeStart + inner.children[c].length) <= index)
+				nodeStart += inner.children[c++].length;
+			node = inner.children[c];
+		}
+		
+		//	remember leaf and return char
+		this.cacheLeaf = ((Leaf) node);
+		this.cacheLeafStart = nodeStart;
+		return this.cacheLeaf.chars[index - nodeStart];
 	}
-
+	
 	/* (non-Javadoc)
 	 * @see java.lang.CharSequence#subSequence(int, int)
 	 */
 	public CharSequence subSequence(int start, int end) {
-		// TODO Auto-generated method stub
-		return null;
+		this.checkRange(start, end);
+		char[] chars = new char[end - start];
+		getChars(this.root, start, end, chars, 0);
+		return new String(chars);
 	}
-
+	
 	/* (non-Javadoc)
-	 * @see de.gamta.MutableCharSequence#mutableSubSequence(int, int)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#mutableSubSequence(int, int)
 	 */
 	public MutableCharSequence mutableSubSequence(int start, int end) {
-		// TODO Auto-generated method stub
-		return null;
+		return new BTreeCharSequence(this.subSequence(start, end), this.dimensionSize);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return this.subSequence(0, this.root.length).toString();
+	}
+	
+	/**
+	 * Retrieve the number of lines in this char sequence, i.e., the number of
+	 * line break chars ('\n') plus one.
+	 * @return the number of lines
+	 */
+	public int getLineCount() {
+		return (this.root.lineBreaks + 1);
+	}
+	
+	/**
+	 * Find the line a given offset lies in, counting from 0. A line break
+	 * char belongs to the line it terminates.
+	 * @param offset the offset to find the line for
+	 * @return the number of the line the argument offset lies in
+	 */
+	public int getLineAt(int offset) {
+		this.checkRange(offset, offset);
+		
+		Node node = this.root;
+		int lineBreaks = 0;
+		while (node instanceof Inner) {
+			Inner inner = ((Inner) node);
+			int c = 0;
+			while ((c < (inner.childCount - 1)) && (inner.children[c].length <= offset)) {
+				offset -= inner.children[c].length;
+				lineBreaks += inner.children[c++].lineBreaks;
+			}
+			node = inner.children[c];
+		}
+		Leaf leaf = ((Leaf) node);
+		for (int c = 0; c < Math.min(offset, leaf.length); c++) {
+			if (leaf.chars[c] == '\n')
+				lineBreaks++;
+		}
+		return lineBreaks;
+	}
+	
+	/**
+	 * Find the offset a given line starts at, counting lines from 0.
+	 * @param line the number of the line
+	 * @return the offset of the first char of the argument line
+	 */
+	public int getLineStartOffset(int line) {
+		if ((line < 0) || (line > this.root.lineBreaks))
+			throw new IndexOutOfBoundsException("" + line + " of " + (this.root.lineBreaks + 1));
+		if (line == 0)
+			return 0;
+		
+		//	find the line-th line break, lines start right after it
+		Node node = this.root;
+		int offset = 0;
+		while (node instanceof Inner) {
+			Inner inner = ((Inner) node);
+			int c = 0;
+			while (inner.children[c].lineBreaks < line) {
+				line -= inner.children[c].lineBreaks;
+				offset += inner.children[c++].length;
+			}
+			node = inner.children[c];
+		}
+		Leaf leaf = ((Leaf) node);
+		for (int c = 0; c < leaf.length; c++)
+			if ((leaf.chars[c] == '\n') && (--line == 0))
+				return (offset + c + 1);
+		return -1; // never gonna happen with correct aggregates
+	}
+	
+	/**
+	 * Retrieve the number of whitespace delimited blocks in this char
+	 * sequence. Whitespace are all chars below 33, as in the tokenizers.
+	 * @return the number of blocks
+	 */
+	public int getBlockCount() {
+		return this.root.blockStarts;
+	}
+	
+	/**
+	 * Find the whitespace delimited block a given offset lies in, counting from
+	 * 0. Whitespace chars belong to the block preceding them; offsets in
+	 * leading whitespace yield -1.
+	 * @param offset the offset to find the block for
+	 * @return the number of the block the argument offset lies in
+	 */
+	public int getBlockAt(int offset) {
+		this.checkRange(offset, offset);
+		if (offset == this.root.length)
+			return (this.root.blockStarts - 1);
+		
+		//	count block starts up to and including offset
+		Node node = this.root;
+		int blockStarts = 0;
+		boolean inBlock = false;
+		offset++;
+		while (node instanceof Inner) {
+			Inner inner = ((Inner) node);
+			int c = 0;
+			while ((c < (inner.childCount - 1)) && (inner.children[c].length <= offset)) {
+				Node child = inner.children[c++];
+				offset -= child.length;
+				blockStarts += (child.blockStarts - ((inBlock && child.startsInBlock) ? 1 : 0));
+				if (child.length != 0)
+					inBlock = child.endsInBlock;
+			}
+			node = inner.children[c];
+		}
+		Leaf leaf = ((Leaf) node);
+		for (int c = 0; c < offset; c++) {
+			boolean blockChar = (leaf.chars[c] > 32);
+			if (blockChar && !inBlock)
+				blockStarts++;
+			inBlock = blockChar;
+		}
+		return (blockStarts - 1);
+	}
+	
+	/**
+	 * Find the offset a given whitespace delimited block starts at, counting
+	 * blocks from 0.
+	 * @param block the number of the block
+	 * @return the offset of the first char of the argument block
+	 */
+	public int getBlockStartOffset(int block) {
+		if ((block < 0) || (block >= this.root.blockStarts))
+			throw new IndexOutOfBoundsException("" + block + " of " + this.root.blockStarts);
+		
+		//	find the (block+1)-th block start
+		int blockStarts = (block + 1);
+		Node node = this.root;
+		int offset = 0;
+		boolean inBlock = false;
+		while (node instanceof Inner) {
+			Inner inner = ((Inner) node);
+			int c = 0;
+			while (true) {
+				Node child = inner.children[c];
+				int childBlockStarts = (child.blockStarts - ((inBlock && child.startsInBlock) ? 1 : 0));
+				if (blockStarts <= childBlockStarts)
+					break;
+				blockStarts -= childBlockStarts;
+				offset += child.length;
+				if (child.length != 0)
+					inBlock = child.endsInBlock;
+				c++;
+			}
+			node = inner.children[c];
+		}
+		Leaf leaf = ((Leaf) node);
+		for (int c = 0; c < leaf.length; c++) {
+			boolean blockChar = (leaf.chars[c] > 32);
+			if (blockChar && !inBlock && (--blockStarts == 0))
+				return (offset + c);
+			inBlock = blockChar;
+		}
+		return -1; // never gonna happen with correct aggregates
+	}
+	
+	private void checkRange(int start, int end) {
+		if ((start < 0) || (end > this.root.length) || (start > end))
+			throw new StringIndexOutOfBoundsException("" + start + "-" + end + " of " + this.root.length);
+	}
+	
+	private void doInsert(CharSequence chars, int offset) {
+		if (chars.length() == 0)
+			return;
+		this.cacheLeaf = null;
+		
+		//	insert in chunks no larger than a leaf block, so at most one split per level is required
+		char[] cs = chars.toString().toCharArray();
+		for (int from = 0; from < cs.length; from += this.dimensionSize) {
+			int to = Math.min(cs.length, (from + this.dimensionSize));
+			Node split = this.insert(this.root, (offset + from), cs, from, to);
+			if (split != null) {
+				Inner root = new Inner(this.dimensionSize);
+				root.children[0] = this.root;
+				root.children[1] = split;
+				root.childCount = 2;
+				root.updateAggregates();
+				this.root = root;
+			}
+		}
+	}
+	
+	/* insert chars into the subtree rooted at a given node, returning the new right sibling if the node had to be split */
+	private Node insert(Node node, int offset, char[] cs, int from, int to) {
+		int count = (to - from);
+		
+		//	insert in leaf, splitting it if necessary
+		if (node instanceof Leaf) {
+			Leaf leaf = ((Leaf) node);
+			if ((leaf.length + count) <= this.dimensionSize) {
+				System.arraycopy(leaf.chars, offset, leaf.chars, (offset + count), (leaf.length - offset));
+				System.arraycopy(cs, from, leaf.chars, offset, count);
+				leaf.length += count;
+				leaf.updateAggregates();
+				return null;
+			}
+			char[] chars = new char[leaf.length + count];
+			System.arraycopy(leaf.chars, 0, chars, 0, offset);
+			System.arraycopy(cs, from, chars, offset, count);
+			System.arraycopy(leaf.chars, offset, chars, (offset + count), (leaf.length - offset));
+			Leaf split = new Leaf(this.dimensionSize);
+			int leftLength = (chars.length / 2);
+			System.arraycopy(chars, 0, leaf.chars, 0, leftLength);
+			leaf.length = leftLength;
+			leaf.updateAggregates();
+			System.arraycopy(chars, leftLength, split.chars, 0, (chars.length - leftLength));
+			split.length = (chars.length - leftLength);
+			split.updateAggregates();
+			return split;
+		}
+		
+		//	find child to insert in (the one ending at the offset in case of a tie, to fill up leafs at the end)
+		Inner inner = ((Inner) node);
+		int c = 0;
+		while ((c < (inner.childCount - 1)) && (inner.children[c].length < offset))
+			offset -= inner.children[c++].length;
+		Node childSplit = this.insert(inner.children[c], offset, cs, from, to);
+		if (childSplit == null) {
+			inner.updateAggregates();
+			return null;
+		}
+		
+		//	insert split child, splitting this node as well if necessary
+		if (inner.childCount < this.dimensionSize) {
+			System.arraycopy(inner.children, (c + 1), inner.children, (c + 2), (inner.childCount - c - 1));
+			inner.children[c + 1] = childSplit;
+			inner.childCount++;
+			inner.updateAggregates();
+			return null;
+		}
+		Node[] children = new Node[inner.childCount + 1];
+		System.arraycopy(inner.children, 0, children, 0, (c + 1));
+		children[c + 1] = childSplit;
+		System.arraycopy(inner.children, (c + 1), children, (c + 2), (inner.childCount - c - 1));
+		Inner split = new Inner(this.dimensionSize);
+		int leftCount = (children.length / 2);
+		inner.setChildren(children, 0, leftCount);
+		split.setChildren(children, leftCount, children.length);
+		return split;
+	}
+	
+	private void doRemove(int offset, int length) {
+		this.checkRange(offset, (offset + length));
+		if (length == 0)
+			return;
+		this.cacheLeaf = null;
+		this.remove(this.root, offset, (offset + length));
+		
+		//	shrink tree if root has only one child left
+		while ((this.root instanceof Inner) && (((Inner) this.root).childCount < 2)) {
+			if (((Inner) this.root).childCount == 0)
+				this.root = new Leaf(this.dimensionSize);
+			else this.root = ((Inner) this.root).children[0];
+		}
+	}
+	
+	/* remove a range of chars from the subtree rooted at a given node */
+	private void remove(Node node, int start, int end) {
+		
+		//	remove chars from leaf
+		if (node instanceof Leaf) {
+			Leaf leaf = ((Leaf) node);
+			System.arraycopy(leaf.chars, end, leaf.chars, start, (leaf.length - end));
+			leaf.length -= (end - start);
+			leaf.updateAggregates();
+			return;
+		}
+		
+		//	remove chars from affected children, dropping the ones that become empty
+		Inner inner = ((Inner) node);
+		int childStart = 0;
+		int keepCount = 0;
+		for (int c = 0; c < inner.childCount; c++) {
+			Node child = inner.children[c];
+			int childEnd = (childStart + child.length);
+			if ((childStart < end) && (start < childEnd)) {
+				if ((start <= childStart) && (childEnd <= end))
+					child = null; // completely removed
+				else this.remove(child, Math.max(0, (start - childStart)), (Math.min(childEnd, end) - childStart));
+			}
+			childStart = childEnd;
+			if (child != null)
+				inner.children[keepCount++] = child;
+		}
+		for (int c = keepCount; c < inner.childCount; c++)
+			inner.children[c] = null;
+		inner.childCount = keepCount;
+		
+		//	merge or re-distribute underfull children with a neighbor
+		for (int c = 0; (c < inner.childCount) && (inner.childCount > 1);) {
+			if (this.isUnderfull(inner.children[c])) {
+				int left = ((c == 0) ? 0 : (c - 1));
+				if (this.balance(inner, left))
+					continue; // merged, re-check this position
+			}
+			c++;
+		}
+		inner.updateAggregates();
+	}
+	
+	private boolean isUnderfull(Node node) {
+		if (node instanceof Leaf)
+			return (node.length < (this.dimensionSize / 2));
+		else return (((Inner) node).childCount < (this.dimensionSize / 2));
+	}
+	
+	/* merge the children at a given index and the one after, or re-distribute their content if they don't fit into one node, returning true in the former case */
+	private boolean balance(Inner parent, int index) {
+		Node left = parent.children[index];
+		Node right = parent.children[index + 1];
+		
+		//	leaves
+		if (left instanceof Leaf) {
+			Leaf leftLeaf = ((Leaf) left);
+			Leaf rightLeaf = ((Leaf) right);
+			int total = (leftLeaf.length + rightLeaf.length);
+			if (total <= this.dimensionSize) {
+				System.arraycopy(rightLeaf.chars, 0, leftLeaf.chars, leftLeaf.length, rightLeaf.length);
+				leftLeaf.length = total;
+				leftLeaf.updateAggregates();
+				this.removeChild(parent, (index + 1));
+				return true;
+			}
+			char[] chars = new char[total];
+			System.arraycopy(leftLeaf.chars, 0, chars, 0, leftLeaf.length);
+			System.arraycopy(rightLeaf.chars, 0, chars, leftLeaf.length, rightLeaf.length);
+			leftLeaf.length = (total / 2);
+			System.arraycopy(chars, 0, leftLeaf.chars, 0, leftLeaf.length);
+			leftLeaf.updateAggregates();
+			rightLeaf.length = (total - leftLeaf.length);
+			System.arraycopy(chars, leftLeaf.length, rightLeaf.chars, 0, rightLeaf.length);
+			rightLeaf.updateAggregates();
+			return false;
+		}
+		
+		//	inner nodes
+		Inner leftInner = ((Inner) left);
+		Inner rightInner = ((Inner) right);
+		int total = (leftInner.childCount + rightInner.childCount);
+		Node[] children = new Node[total];
+		System.arraycopy(leftInner.children, 0, children, 0, leftInner.childCount);
+		System.arraycopy(rightInner.children, 0, children, leftInner.childCount, rightInner.childCount);
+		if (total <= this.dimensionSize) {
+			leftInner.setChildren(children, 0, total);
+			this.removeChild(parent, (index + 1));
+			return true;
+		}
+		leftInner.setChildren(children, 0, (total / 2));
+		rightInner.setChildren(children, (total / 2), total);
+		return false;
+	}
+	
+	private void removeChild(Inner parent, int index) {
+		System.arraycopy(parent.children, (index + 1), parent.children, index, (parent.childCount - index - 1));
+		parent.children[--parent.childCount] = null;
+	}
+	
+	/* copy the chars in a range of the subtree rooted at a given node to an array */
+	private static void getChars(Node node, int start, int end, char[] dest, int destPos) {
+		if (node instanceof Leaf) {
+			System.arraycopy(((Leaf) node).chars, start, dest, destPos, (end - start));
+			return;
+		}
+		Inner inner = ((Inner) node);
+		int childStart = 0;
+		for (int c = 0; (c < inner.childCount) && (childStart < end); c++) {
+			Node child = inner.children[c];
+			int childEnd = (childStart + child.length);
+			if (start < childEnd) {
+				int from = Math.max(start, childStart);
+				int to = Math.min(end, childEnd);
+				getChars(child, (from - childStart), (to - childStart), dest, (destPos + from - start));
+			}
+			childStart = childEnd;
+		}
+	}
+	
+	/*
+	 * a node in the tree, with aggregates over the chars in its subtree
+	 */
+	private static abstract class Node {
+		int length = 0;
+		int lineBreaks = 0;
+		int blockStarts = 0; // number of whitespace delimited blocks, counting as if the node was preceded by whitespace
+		boolean startsInBlock = false; // first char is not whitespace
+		boolean endsInBlock = false; // last char is not whitespace
+		abstract void updateAggregates();
+	}
+	
+	private static class Leaf extends Node {
+		char[] chars;
+		Leaf(int dimensionSize) {
+			this.chars = new char[dimensionSize];
+		}
+		void updateAggregates() {
+			this.lineBreaks = 0;
+			this.blockStarts = 0;
+			boolean inBlock = false;
+			for (int c = 0; c < this.length; c++) {
+				char ch = this.chars[c];
+				if (ch == '\n')
+					this.lineBreaks++;
+				boolean blockChar = (ch > 32);
+				if (blockChar && !inBlock)
+					this.blockStarts++;
+				inBlock = blockChar;
+			}
+			this.startsInBlock = ((this.length != 0) && (this.chars[0] > 32));
+			this.endsInBlock = inBlock;
+		}
+	}
+	
+	private static class Inner extends Node {
+		Node[] children;
+		int childCount = 0;
+		Inner(int dimensionSize) {
+			this.children = new Node[dimensionSize];
+		}
+		void setChildren(Node[] children, int from, int to) {
+			System.arraycopy(children, from, this.children, 0, (to - from));
+			for (int c = (to - from); c < this.childCount; c++)
+				this.children[c] = null;
+			this.childCount = (to - from);
+			this.updateAggregates();
+		}
+		void updateAggregates() {
+			this.length = 0;
+			this.lineBreaks = 0;
+			this.blockStarts = 0;
+			boolean inBlock = false;
+			for (int c = 0; c < this.childCount; c++) {
+				Node child = this.children[c];
+				this.length += child.length;
+				this.lineBreaks += child.lineBreaks;
+				this.blockStarts += (child.blockStarts - ((inBlock && child.startsInBlock) ? 1 : 0));
+				if (child.length != 0)
+					inBlock = child.endsInBlock;
+			}
+			this.startsInBlock = ((this.childCount != 0) && this.children[0].startsInBlock);
+			this.endsInBlock = inBlock;
+		}
 	}
 }
@@ -0,0 +1,481 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.gamta.defaultImplementation;
+
+
+import de.uka.ipd.idaho.gamta.Attributed;
+import de.uka.ipd.idaho.gamta.Token;
+import de.uka.ipd.idaho.gamta.TokenSequence;
+import de.uka.ipd.idaho.gamta.Tokenizer;
+
+/**
+ * This class implements a char sequence and a token sequence in combination,
+ * just like TokenizedCharSequence, but stores the token overlay column-wise
+ * in primitive arrays over a single shared char buffer instead of as one
+ * object per token. Whitespace is not stored separately, but implied by the
+ * gap between the end of a token value and the start of the next token.
+ * Token objects are only created as lightweight views when requested via
+ * tokenAt() and the like; they reflect the token at their index, so client
+ * code should not hold on to them across modifications of a mutable sub
+ * class. Token attributes are kept in a parallel array that is only created
+ * once the first token attribute is set.
+ * 
+ * @author sautter
+ */
+public class CompactTokenizedCharSequence implements TokenSequence {
+	
+	char[] buffer;
+	int length = 0;
+	
+	int[] tokenStarts;
+	int[] tokenEnds;
+	AbstractAttributed[] tokenAttributes = null;
+	int tokenCount = 0;
+	
+	Tokenizer tokenizer;
+	
+	/**	Constructor
+	 * @param	tokenizer	the Tokenizer to use for creating tokens from the character data
+	 * @param	charData	the character data
+	 */
+	public CompactTokenizedCharSequence(Tokenizer tokenizer, CharSequence charData) {
+		this(tokenizer);
+		this.ensureCharCapacity(charData.length());
+		for (int c = 0; c < charData.length(); c++)
+			this.buffer[c] = charData.charAt(c);
+		this.length = charData.length();
+		
+		//	generate tokens (whitespace is implicit)
+		Tokenizer.TokenIterator ti = this.tokenizer.getTokenIterator(charData);
+		while (ti.hasMoreTokens()) {
+			Tokenizer.CharSequenceToken cst = ti.getNextToken();
+			this.ensureTokenCapacity(this.tokenCount + 1);
+			this.tokenStarts[this.tokenCount] = cst.startOffset;
+			this.tokenEnds[this.tokenCount] = cst.endOffset;
+			this.tokenCount++;
+		}
+	}
+	
+	/**	Constructor for character data whose token boundaries are known already,
+	 * e.g. from a serialized document, so the data does not have to be
+	 * tokenized again. The token boundaries have to be in ascending order and
+	 * must not overlap.
+	 * @param	tokenizer	the Tokenizer to use for creating tokens from the character data in modifications
+	 * @param	charData	the character data
+	 * @param	tokenStarts	the start offsets of the tokens
+	 * @param	tokenEnds	the end offsets of the tokens
+	 */
+	public CompactTokenizedCharSequence(Tokenizer tokenizer, CharSequence charData, int[] tokenStarts, int[] tokenEnds) {
+		this(tokenizer);
+		if (tokenStarts.length != tokenEnds.length)
+			throw new IllegalArgumentException("Token start and end offsets do not match up.");
+		for (int t = 0, lastEnd = 0; t < tokenStarts.length; t++) {
+			if ((tokenStarts[t] < lastEnd) || (tokenEnds[t] <= tokenStarts[t]) || (charData.length() < tokenEnds[t]))
+				throw new IllegalArgumentException("Invalid token boundaries at index " + t + ": " + tokenStarts[t] + "-" + tokenEnds[t]);
+			lastEnd = tokenEnds[t];
+		}
+		this.ensureCharCapacity(charData.length());
+		for (int c = 0; c < charData.length(); c++)
+			this.buffer[c] = charData.charAt(c);
+		this.length = charData.length();
+		this.ensureTokenCapacity(tokenStarts.length);
+		System.arraycopy(tokenStarts, 0, this.tokenStarts, 0, tokenStarts.length);
+		System.arraycopy(tokenEnds, 0, this.tokenEnds, 0, tokenEnds.length);
+		this.tokenCount = tokenStarts.length;
+	}
+	
+	/** package visible constructor used by CompactTokenizedMutableCharSequence
+	 * @param tokenizer
+	 */
+	CompactTokenizedCharSequence(Tokenizer tokenizer) {
+		this.tokenizer = tokenizer;
+		this.buffer = new char[16];
+		this.tokenStarts = new int[8];
+		this.tokenEnds = new int[8];
+	}
+	
+	void ensureCharCapacity(int capacity) {
+		if (capacity <= this.buffer.length)
+			return;
+		char[] buffer = new char[Math.max(capacity, (this.buffer.length * 2))];
+		System.arraycopy(this.buffer, 0, buffer, 0, this.length);
+		this.buffer = buffer;
+	}
+	
+	void ensureTokenCapacity(int capacity) {
+		if (capacity <= this.tokenStarts.length)
+			return;
+		int newCapacity = Math.max(capacity, (this.tokenStarts.length * 2));
+		int[] tokenStarts = new int[newCapacity];
+		System.arraycopy(this.tokenStarts, 0, tokenStarts, 0, this.tokenCount);
+		this.tokenStarts = tokenStarts;
+		int[] tokenEnds = new int[newCapacity];
+		System.arraycopy(this.tokenEnds, 0, tokenEnds, 0, this.tokenCount);
+		this.tokenEnds = tokenEnds;
+		if (this.tokenAttributes != null) {
+			AbstractAttributed[] tokenAttributes = new AbstractAttributed[newCapacity];
+			System.arraycopy(this.tokenAttributes, 0, tokenAttributes, 0, this.tokenCount);
+			this.tokenAttributes = tokenAttributes;
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#tokenAt(int)
+	 */
+	public Token tokenAt(int index) {
+		this.checkTokenIndex(index);
+		return new CompactToken(index);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#firstToken()
+	 */
+	public Token firstToken() {
+		return this.tokenAt(0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#lastToken()
+	 */
+	public Token lastToken() {
+		return this.tokenAt(this.tokenCount - 1);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#valueAt(int)
+	 */
+	public String valueAt(int index) {
+		this.checkTokenIndex(index);
+		return new String(this.buffer, this.tokenStarts[index], (this.tokenEnds[index] - this.tokenStarts[index]));
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#firstValue()
+	 */
+	public String firstValue() {
+		return this.valueAt(0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#lastValue()
+	 */
+	public String lastValue() {
+		return this.valueAt(this.tokenCount - 1);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#getLeadingWhitespace()
+	 */
+	public String getLeadingWhitespace() {
+		return new String(this.buffer, 0, this.getLeadingWhitespaceLength());
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#getWhitespaceAfter(int)
+	 */
+	public String getWhitespaceAfter(int index) {
+		this.checkTokenIndex(index);
+		return new String(this.buffer, this.tokenEnds[index], (this.getTokenBlockEnd(index) - this.tokenEnds[index]));
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#size()
+	 */
+	public int size() {
+		return this.tokenCount;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#getTokenizer()
+	 */
+	public Tokenizer getTokenizer() {
+		return this.tokenizer;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#getSubsequence(int, int)
+	 */
+	public TokenSequence getSubsequence(int start, int size) {
+		CompactTokenizedCharSequence ctcs = new CompactTokenizedCharSequence(this.tokenizer);
+		this.copyTokensTo(ctcs, start, size);
+		return ctcs;
+	}
+	
+	/* copy a range of tokens into an empty compact sequence, without leading
+	 * whitespace and without the whitespace after the last token, just like
+	 * TokenizedCharSequence.getSubsequence() */
+	void copyTokensTo(CompactTokenizedCharSequence ctcs, int start, int size) {
+		if (size == 0)
+			return;
+		int startOffset = this.tokenStarts[start];
+		int endOffset = this.tokenEnds[start + size - 1];
+		ctcs.ensureCharCapacity(endOffset - startOffset);
+		System.arraycopy(this.buffer, startOffset, ctcs.buffer, 0, (endOffset - startOffset));
+		ctcs.length = (endOffset - startOffset);
+		ctcs.ensureTokenCapacity(size);
+		for (int t = 0; t < size; t++) {
+			ctcs.tokenStarts[t] = (this.tokenStarts[start + t] - startOffset);
+			ctcs.tokenEnds[t] = (this.tokenEnds[start + t] - startOffset);
+		}
+		ctcs.tokenCount = size;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.CharSequence#length()
+	 */
+	public int length() {
+		return this.length;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.CharSequence#charAt(int)
+	 */
+	public char charAt(int index) {
+		if ((index < 0) || (index >= this.length))
+			throw new StringIndexOutOfBoundsException(index);
+		return this.buffer[index];
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.CharSequence#subSequence(int, int)
+	 */
+	public CharSequence subSequence(int start, int end) {
+		if ((start < 0) || (end > this.length) || (start > end))
+			throw new StringIndexOutOfBoundsException("" + start + "-" + end + " of " + this.length);
+		return new String(this.buffer, start, (end - start));
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return new String(this.buffer, 0, this.length);
+	}
+	
+	int getLeadingWhitespaceLength() {
+		return ((this.tokenCount == 0) ? this.length : this.tokenStarts[0]);
+	}
+	
+	/* get the end offset of a token including the whitespace after it */
+	int getTokenBlockEnd(int index) {
+		return (((index + 1) < this.tokenCount) ? this.tokenStarts[index + 1] : this.length);
+	}
+	
+	void checkTokenIndex(int index) {
+		if ((index < 0) || (index >= this.tokenCount))
+			throw new ArrayIndexOutOfBoundsException("" + index);
+	}
+	
+	/*
+	 * find the index of the token holding the char at some given offset, with
+	 * the whitespace after a token counting to that token, -1 if the offset
+	 * lies in the leading whitespace, and size() if it lies beyond the end of
+	 * the last token
+	 */
+	int indexAtOffset(int offset) {
+		if ((this.tokenCount == 0) || (offset < this.tokenStarts[0]))
+			return -1;
+		if (offset >= this.length)
+			return this.tokenCount;
+		int left = 0;
+		int right = (this.tokenCount - 1);
+		while (left < right) {
+			int middle = ((left + right + 1) / 2);
+			if (this.tokenStarts[middle] <= offset)
+				left = middle;
+			else right = (middle - 1);
+		}
+		return left;
+	}
+	
+	AbstractAttributed getTokenAttributes(int index, boolean create) {
+		if (this.tokenAttributes == null) {
+			if (!create)
+				return null;
+			this.tokenAttributes = new AbstractAttributed[this.tokenStarts.length];
+		}
+		if ((this.tokenAttributes[index] == null) && create)
+			this.tokenAttributes[index] = new AbstractAttributed();
+		return this.tokenAttributes[index];
+	}
+	
+	/*
+	 * lightweight token view, backed by the arrays of the surrounding sequence
+	 */
+	class CompactToken implements Token {
+		final int index;
+		
+		CompactToken(int index) {
+			this.index = index;
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.Token#getValue()
+		 */
+		public String getValue() {
+			return valueAt(this.index);
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.Token#getTokenizer()
+		 */
+		public Tokenizer getTokenizer() {
+			return CompactTokenizedCharSequence.this.getTokenizer();
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.CharSpan#getStartOffset()
+		 */
+		public int getStartOffset() {
+			return tokenStarts[this.index];
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.CharSpan#getEndOffset()
+		 */
+		public int getEndOffset() {
+			return tokenEnds[this.index];
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.CharSequence#length()
+		 */
+		public int length() {
+			return (tokenEnds[this.index] - tokenStarts[this.index]);
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.CharSequence#charAt(int)
+		 */
+		public char charAt(int index) {
+			if ((index < 0) || (index >= this.length()))
+				throw new StringIndexOutOfBoundsException(index);
+			return buffer[tokenStarts[this.index] + index];
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.CharSequence#subSequence(int, int)
+		 */
+		public CharSequence subSequence(int start, int end) {
+			return this.getValue().substring(start, end);
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.Attributed#setAttribute(java.lang.String)
+		 */
+		public void setAttribute(String name) {
+			getTokenAttributes(this.index, true).setAttribute(name);
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.Attributed#setAttribute(java.lang.String, java.lang.Object)
+		 */
+		public Object setAttribute(String name, Object value) {
+			AbstractAttributed attributes = getTokenAttributes(this.index, (value != null));
+			return ((attributes == null) ? null : attributes.setAttribute(name, value));
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.Attributed#copyAttributes(de.uka.ipd.idaho.gamta.Attributed)
+		 */
+		public void copyAttributes(Attributed source) {
+			if ((source != null) && (source.getAttributeNames().length != 0))
+				getTokenAttributes(this.index, true).copyAttributes(source);
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.Attributed#getAttribute(java.lang.String)
+		 */
+		public Object getAttribute(String name) {
+			return this.getAttribute(name, null);
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.Attributed#getAttribute(java.lang.String, java.lang.Object)
+		 */
+		public Object getAttribute(String name, Object def) {
+			if (TOKEN_VALUE_ATTRIBUTE.equals(name))
+				return this.getValue();
+			AbstractAttributed attributes = getTokenAttributes(this.index, false);
+			return ((attributes == null) ? def : attributes.getAttribute(name, def));
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.Attributed#hasAttribute(java.lang.String)
+		 */
+		public boolean hasAttribute(String name) {
+			AbstractAttributed attributes = getTokenAttributes(this.index, false);
+			return ((attributes != null) && attributes.hasAttribute(name));
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.Attributed#getAttributeNames()
+		 */
+		public String[] getAttributeNames() {
+			AbstractAttributed attributes = getTokenAttributes(this.index, false);
+			return ((attributes == null) ? new String[0] : attributes.getAttributeNames());
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.Attributed#removeAttribute(java.lang.String)
+		 */
+		public Object removeAttribute(String name) {
+			return this.setAttribute(name, null);
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.Attributed#clearAttributes()
+		 */
+		public void clearAttributes() {
+			AbstractAttributed attributes = getTokenAttributes(this.index, false);
+			if (attributes != null)
+				attributes.clearAttributes();
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString() {
+			return this.getValue();
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		public boolean equals(Object obj) {
+			return this.getValue().equals(obj);
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.Object#hashCode()
+		 */
+		public int hashCode() {
+			return this.getValue().hashCode();
+		}
+	}
+}
@@ -0,0 +1,562 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.gamta.defaultImplementation;
+
+
+import java.util.ArrayList;
+
+import de.uka.ipd.idaho.gamta.CharSequenceListener;
+import de.uka.ipd.idaho.gamta.MutableCharSequence;
+import de.uka.ipd.idaho.gamta.MutableTokenSequence;
+import de.uka.ipd.idaho.gamta.Token;
+import de.uka.ipd.idaho.gamta.TokenSequence;
+import de.uka.ipd.idaho.gamta.TokenSequenceListener;
+import de.uka.ipd.idaho.gamta.Tokenizer;
+import de.uka.ipd.idaho.stringUtils.StringUtils;
+
+/**
+ * Column-wise counterpart of TokenizedMutableCharSequence. The text is held
+ * in a single char buffer, the token overlay in primitive arrays of start and
+ * end offsets, so a document costs a handful of arrays instead of several
+ * objects per token. Modifications re-tokenize the affected region exactly
+ * like TokenizedMutableCharSequence does, so listeners receive the same
+ * events from both implementations. Token objects are views created on
+ * demand; client code should re-fetch them after modifications.
+ * 
+ * @author sautter
+ */
+public class CompactTokenizedMutableCharSequence extends CompactTokenizedCharSequence implements MutableTokenSequence {
+	
+	private static final boolean DEBUG = false;
+	
+	/**	Constructor
+	 * @param	tokenizer	the tokenizer to use for creating tokens from the character data
+	 */
+	public CompactTokenizedMutableCharSequence(Tokenizer tokenizer) {
+		super(tokenizer);
+	}
+	
+	/**	Constructor
+	 * @param	tokenizer	the tokenizer to use for creating tokens from the character data
+	 * @param	data		the character data to be initially contained in this mutable token sequence
+	 */
+	public CompactTokenizedMutableCharSequence(Tokenizer tokenizer, CharSequence data) {
+		super(tokenizer, data);
+	}
+	
+	/**	Constructor cloning a token sequence.
+	 * @param	original	the token sequence to copy
+	 */
+	public CompactTokenizedMutableCharSequence(TokenSequence original) {
+		super(original.getTokenizer());
+		this.ensureTokenCapacity(original.size());
+		
+		//	copy leading whitespace
+		this.appendToBuffer(original.getLeadingWhitespace());
+		
+		//	copy tokens
+		for (int t = 0; t < original.size(); t++) {
+			Token originalToken = original.tokenAt(t);
+			
+			//	copy token data
+			this.tokenStarts[t] = this.length;
+			this.appendToBuffer(originalToken.getValue());
+			this.tokenEnds[t] = this.length;
+			this.appendToBuffer(original.getWhitespaceAfter(t));
+			if (originalToken.getAttributeNames().length != 0)
+				this.getTokenAttributes(t, true).copyAttributes(originalToken);
+			this.tokenCount++;
+		}
+	}
+	
+	private void appendToBuffer(CharSequence chars) {
+		this.ensureCharCapacity(this.length + chars.length());
+		for (int c = 0; c < chars.length(); c++)
+			this.buffer[this.length++] = chars.charAt(c);
+	}
+	
+	/* replace a range of the char buffer, leaving the token overlay alone */
+	private void replaceInBuffer(int offset, int length, CharSequence chars) {
+		int delta = (chars.length() - length);
+		this.ensureCharCapacity(this.length + delta);
+		System.arraycopy(this.buffer, (offset + length), this.buffer, (offset + chars.length()), (this.length - offset - length));
+		for (int c = 0; c < chars.length(); c++)
+			this.buffer[offset + c] = chars.charAt(c);
+		this.length += delta;
+	}
+	
+	/* shift the offsets of all tokens from some index onward */
+	private void shiftTokens(int index, int delta) {
+		if (delta == 0) return;
+		for (int t = index; t < this.tokenCount; t++) {
+			this.tokenStarts[t] += delta;
+			this.tokenEnds[t] += delta;
+		}
+	}
+	
+	/* replace a range of tokens with a number of (as yet uninitialized) new tokens, clearing the attributes of the latter */
+	private void replaceTokens(int index, int removeCount, int insertCount) {
+		int delta = (insertCount - removeCount);
+		this.ensureTokenCapacity(this.tokenCount + delta);
+		int moveCount = (this.tokenCount - index - removeCount);
+		System.arraycopy(this.tokenStarts, (index + removeCount), this.tokenStarts, (index + insertCount), moveCount);
+		System.arraycopy(this.tokenEnds, (index + removeCount), this.tokenEnds, (index + insertCount), moveCount);
+		if (this.tokenAttributes != null) {
+			System.arraycopy(this.tokenAttributes, (index + removeCount), this.tokenAttributes, (index + insertCount), moveCount);
+			for (int t = index; t < (index + insertCount); t++)
+				this.tokenAttributes[t] = null;
+			for (int t = (this.tokenCount + delta); t < this.tokenCount; t++)
+				this.tokenAttributes[t] = null;
+		}
+		this.tokenCount += delta;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableTokenSequence#setLeadingWhitespace(java.lang.CharSequence)
+	 */
+	public CharSequence setLeadingWhitespace(CharSequence whitespace) throws IllegalArgumentException {
+		if (whitespace.toString().trim().length() != 0)
+			throw new IllegalArgumentException("Whitespace must not contain non-whitespace characters.");
+		
+		int olwl = this.getLeadingWhitespaceLength();
+		String olw = new String(this.buffer, 0, olwl);
+		
+		this.replaceInBuffer(0, olwl, whitespace);
+		this.shiftTokens(0, (whitespace.length() - olwl));
+		
+		this.notifyCharSequenceChanged(0, whitespace.toString(), olw);
+		return olw;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableTokenSequence#setValueAt(java.lang.CharSequence, int)
+	 */
+	public CharSequence setValueAt(CharSequence value, int index) throws IllegalArgumentException {
+		if (DEBUG) System.out.println("SETTING VALUE AT " + index + " TO '" + value + "'");
+		
+		this.checkTokenIndex(index);
+		int startOffset = this.tokenStarts[index];
+		int endOffset = this.tokenEnds[index];
+		if (TokenizedMutableCharSequence.tokensMergeAtBoundary(this.tokenizer, this, startOffset, value, 0))
+			value = (" " + value);
+		if (TokenizedMutableCharSequence.tokensMergeAtBoundary(this.tokenizer, value, value.length(), this, endOffset))
+			value = (value + " ");
+		
+		if (DEBUG) System.out.println("- value padded to '" + value + "'");
+		this.setChars(value, startOffset, (endOffset - startOffset));
+		return value;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableTokenSequence#setWhitespaceAfter(java.lang.CharSequence, int)
+	 */
+	public CharSequence setWhitespaceAfter(CharSequence whitespace, int index) throws IllegalArgumentException {
+		if (whitespace.toString().trim().length() != 0) {
+			System.out.println("Illegal whitespace:");
+			for (int c = 0; c < whitespace.length(); c++)
+				System.out.println("- '" + whitespace.charAt(c) + "': " + ((int) whitespace.charAt(c)));
+			throw new IllegalArgumentException("Whitespace must not contain non-whitespace characters: " + whitespace);
+		}
+		
+		this.checkTokenIndex(index);
+		int wsStart = this.tokenEnds[index];
+		int owl = (this.getTokenBlockEnd(index) - wsStart);
+		String ow = new String(this.buffer, wsStart, owl);
+		
+		this.replaceInBuffer(wsStart, owl, whitespace);
+		this.shiftTokens((index + 1), (whitespace.length() - owl));
+		
+		this.notifyCharSequenceChanged(wsStart, whitespace.toString(), ow);
+		return ow;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableTokenSequence#removeTokensAt(int, int)
+	 */
+	public TokenSequence removeTokensAt(int index, int size) {
+		if (DEBUG) System.out.println("REMOVING " + size + " TOKENS AT " + index);
+		
+		this.checkTokenIndex(index);
+		this.checkTokenIndex(index + size - 1);
+		int startOffset = this.tokenStarts[index];
+		char bc = ((startOffset == 0) ? StringUtils.NULLCHAR : this.buffer[startOffset - 1]);
+		int endOffset = (((index + size) == this.tokenCount) ? this.length : this.tokenEnds[index + size - 1]);
+		char ac = ((endOffset == this.length) ? StringUtils.NULLCHAR : this.buffer[endOffset]);
+		if (DEBUG) System.out.println("- removing " + startOffset + "-" + endOffset + ", char before is '" + bc + "', char after is '" + ac + "'");
+		
+		String paddingWhitespace = "";
+		char transferWhitespace = ' ';
+		if (bc == StringUtils.NULLCHAR) {
+			if ((ac != StringUtils.NULLCHAR) && (ac < 33))
+				endOffset++;
+		}
+		else if (ac == StringUtils.NULLCHAR) {}
+		else if (ac == 32) {
+			if (bc < 33)
+				endOffset++;
+		}
+		else if (bc == 32) {
+			if (ac < 33) {
+				endOffset++;
+				transferWhitespace = ac;
+			}
+		}
+		else if ((bc < 33) && (ac < 33))
+			endOffset++;
+		else if (TokenizedMutableCharSequence.tokensMergeAtBoundary(this.tokenizer, this, startOffset, this, endOffset))
+			paddingWhitespace = " ";
+		
+		if (DEBUG) System.out.println("- transfer whitespace is '" + transferWhitespace + "', padding whitespace is '" + paddingWhitespace + "'");
+		CharSequence removedChars = this.setChars(paddingWhitespace, startOffset, (endOffset - startOffset));
+		if ((transferWhitespace != ' ') && (index != 0)) {
+			int wsEnd = this.getTokenBlockEnd(index-1);
+			if (wsEnd != this.tokenEnds[index-1])
+				this.buffer[wsEnd-1] = transferWhitespace;
+		}
+		return new CompactTokenizedCharSequence(this.tokenizer, removedChars);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableTokenSequence#insertTokensAt(java.lang.CharSequence, int)
+	 */
+	public CharSequence insertTokensAt(CharSequence tokens, int index) {
+		
+		//	check parameter
+		if ((tokens == null) || (tokens.length() == 0))
+			return tokens;
+		if (DEBUG) System.out.println("INSERTING TOKENS '" + tokens + "' at " + index);
+		
+		//	insert padding if necessary
+		int insertOffset = ((index == this.tokenCount) ? this.length : this.tokenAt(index).getStartOffset());
+		if (TokenizedMutableCharSequence.tokensMergeAtBoundary(this.tokenizer, this, insertOffset, tokens, 0))
+			tokens = (" " + tokens);
+		if (TokenizedMutableCharSequence.tokensMergeAtBoundary(this.tokenizer, tokens, tokens.length(), this, insertOffset))
+			tokens = (tokens + " ");
+		
+		//	insert and return prepared sequence (token overlay is adjusted in setChars())
+		if (DEBUG) System.out.println("- tokens padded to '" + tokens + "'");
+		this.insertChars(tokens, insertOffset);
+		return tokens;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableTokenSequence#addTokens(java.lang.CharSequence)
+	 */
+	public CharSequence addTokens(CharSequence tokens) {
+		
+		//	check parameter
+		if ((tokens == null) || (tokens.length() == 0))
+			return tokens;
+		if (DEBUG) System.out.println("ADDING TOKENS '" + tokens + "'");
+		
+		//	insert padding if necessary
+		if (TokenizedMutableCharSequence.tokensMergeAtBoundary(this.tokenizer, this, this.length, tokens, 0))
+			tokens = (" " + tokens);
+		
+		//	append and return prepared sequence
+		if (DEBUG) System.out.println("- tokens padded to '" + tokens + "'");
+		this.addChars(tokens);
+		return tokens;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableTokenSequence#clear()
+	 */
+	public void clear() {
+		this.tokenCount = 0;
+		this.tokenAttributes = null;
+		this.length = 0;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableTokenSequence#getMutableSubsequence(int, int)
+	 */
+	public MutableTokenSequence getMutableSubsequence(int start, int size) {
+		CompactTokenizedMutableCharSequence ctmcs = new CompactTokenizedMutableCharSequence(this.tokenizer);
+		this.copyTokensTo(ctmcs, start, size);
+		return ctmcs;
+	}
+	
+	private ArrayList charListeners = new ArrayList();
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#addCharSequenceListener(de.uka.ipd.idaho.gamta.CharSequenceListener)
+	 */
+	public void addCharSequenceListener(CharSequenceListener csl) {
+		this.charListeners.add(csl);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#removeCharSequenceListener(de.uka.ipd.idaho.gamta.CharSequenceListener)
+	 */
+	public void removeCharSequenceListener(CharSequenceListener csl) {
+		this.charListeners.remove(csl);
+	}
+	
+	private void notifyCharSequenceChanged(int offset, CharSequence inserted, CharSequence removed) {
+		this.notifyCharSequenceChanged(new CharSequenceEvent(this, offset, inserted, removed));
+	}
+	
+	private void notifyCharSequenceChanged(CharSequenceEvent cse) {
+		for (int l = 0; l < this.charListeners.size(); l++)
+			((CharSequenceListener) this.charListeners.get(l)).charSequenceChanged(cse);
+	}
+	
+	private ArrayList tokenListeners = new ArrayList();
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableTokenSequence#addTokenSequenceListener(de.uka.ipd.idaho.gamta.TokenSequenceListener)
+	 */
+	public void addTokenSequenceListener(TokenSequenceListener tsl) {
+		this.tokenListeners.add(tsl);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableTokenSequence#removeTokenSequenceListener(de.uka.ipd.idaho.gamta.TokenSequenceListener)
+	 */
+	public void removeTokenSequenceListener(TokenSequenceListener tsl) {
+		this.tokenListeners.remove(tsl);
+	}
+	
+	private void notifyTokenSequenceChanged(TokenSequenceEvent tse) {
+		for (int l = 0; l < this.tokenListeners.size(); l++)
+			((TokenSequenceListener) this.tokenListeners.get(l)).tokenSequenceChanged(tse);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#addChar(char)
+	 */
+	public void addChar(char ch) {
+		this.setChars(("" + ch), this.length, 0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#addChars(java.lang.CharSequence)
+	 */
+	public void addChars(CharSequence chars) {
+		this.setChars(chars, this.length, 0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#insertChar(char, int)
+	 */
+	public void insertChar(char ch, int offset) {
+		this.setChars(("" + ch), offset, 0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#insertChars(java.lang.CharSequence, int)
+	 */
+	public void insertChars(CharSequence chars, int offset) {
+		this.setChars(chars, offset, 0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#removeChar(int)
+	 */
+	public char removeChar(int offset) {
+		CharSequence removed = this.setChars("", offset, 1);
+		return removed.charAt(0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#removeChars(int, int)
+	 */
+	public CharSequence removeChars(int offset, int length) {
+		return this.setChars("", offset, length);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#setChar(char, int)
+	 */
+	public char setChar(char ch, int offset) {
+		CharSequence removed = this.setChars(("" + ch), offset, 1);
+		return removed.charAt(0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#setChars(java.lang.CharSequence, int, int)
+	 */
+	public CharSequence setChars(CharSequence chars, int offset, int length) {
+		if ((offset + length) > this.length)
+			throw new IndexOutOfBoundsException("" + offset + "+" + length + " > " + this.length);
+		
+		if (DEBUG) System.out.println("REPLACING " + length + " CHARS AT " + offset + " WITH '" + chars + "'");
+		try {
+			String removed = new String(this.buffer, offset, length);
+			if (DEBUG) System.out.println("- replaced is '" + removed + "'");
+			
+			CharSequenceEvent cse = new CharSequenceEvent(this, offset, chars, removed);
+			TokenSequenceEvent tse = null;
+			
+			//	replacement only inside leading whitespace, or at end of empty token sequence
+			int lwl = this.getLeadingWhitespaceLength();
+			if ((this.tokenCount == 0) || ((offset + length) < lwl)) {
+				if (DEBUG) System.out.println("- replacement inside leading whitespace");
+				
+				//	tokenize leading whitespace with replacement in place
+				this.replaceInBuffer(offset, length, chars);
+				int nlwl = (lwl + chars.length() - length);
+				CompactTokenizedCharSequence nts = new CompactTokenizedCharSequence(this.tokenizer, new String(this.buffer, 0, nlwl));
+				
+				//	add any new tokens
+				this.shiftTokens(0, (chars.length() - length));
+				this.replaceTokens(0, 0, nts.tokenCount);
+				System.arraycopy(nts.tokenStarts, 0, this.tokenStarts, 0, nts.tokenCount);
+				System.arraycopy(nts.tokenEnds, 0, this.tokenEnds, 0, nts.tokenCount);
+				
+				//	notify listeners
+				this.notifyCharSequenceChanged(cse);
+				if (nts.tokenCount != 0) {
+					tse = new TokenSequenceEvent(this, 0, nts.getSubsequence(0, nts.tokenCount), null, cse);
+					this.notifyTokenSequenceChanged(tse);
+				}
+				
+				//	finally ...
+				return removed;
+			}
+			
+			//	get affected token index
+			int from = this.indexAtOffset(offset);
+			if (DEBUG) System.out.println("- from index is " + from);
+			
+			//	handle part of replacement in leading whitespace (if we get here, leading whitespace is removed completely from offset onward)
+			if (from == -1) {
+				if (DEBUG) System.out.println("- start is in leading whitespace");
+				
+				//	replace end of leading whitespace with leading whitespace of inserted character sequence
+				int dlw = (lwl - offset);
+				int alw = 0;
+				while ((alw < chars.length()) && (chars.charAt(alw) < 33))
+					alw++;
+				this.replaceInBuffer(offset, dlw, chars.subSequence(0, alw));
+				this.shiftTokens(0, (alw - dlw));
+				
+				//	adjust arguments
+				offset += alw;
+				length -= dlw;
+				chars = chars.subSequence(alw, chars.length());
+				from = 0;
+			}
+			
+			//	replacement somewhere inside the text, find affected tokens (including ones sticking to them)
+			boolean replacementAfterFromValue = ((from < this.tokenCount) && (offset >= this.tokenEnds[from]));
+			int fti = from;
+			while ((fti != 0) && (this.getTokenBlockEnd(fti-1) == this.tokenEnds[fti-1]))
+				fti--;
+			int ftOffset = ((fti == this.tokenCount) ? this.length : this.tokenStarts[fti]);
+			if (DEBUG) System.out.println("- first affected token is " + fti + ", offset is " + ftOffset);
+			
+			int to = from;
+			while ((to < this.tokenCount) && (this.getTokenBlockEnd(to) < (offset + length)))
+				to++;
+			if (DEBUG) System.out.println("- to index is " + to);
+			
+			int lti = to;
+			while ((lti < this.tokenCount) && ((this.getTokenBlockEnd(lti) == this.tokenEnds[lti]) || (lti == to)))
+				lti++;
+			if (lti == this.tokenCount)
+				lti--;
+			int ltEndOffset = this.getTokenBlockEnd(lti);
+			if (DEBUG) System.out.println("- last affected token is " + lti + ", end offset is " + ltEndOffset);
+			
+			//	do actual replacement and re-tokenize affected range
+			CompactTokenizedCharSequence ots = new CompactTokenizedCharSequence(this.tokenizer);
+			this.copyTokensTo(ots, fti, (lti - fti + 1));
+			int delta = (chars.length() - length);
+			this.replaceInBuffer(offset, length, chars);
+			CompactTokenizedCharSequence nts = new CompactTokenizedCharSequence(this.tokenizer, new String(this.buffer, ftOffset, (ltEndOffset + delta - ftOffset)));
+			if (DEBUG) System.out.println("- original token sequence is '" + ots + "'");
+			if (DEBUG) System.out.println("- new token sequence is '" + nts + "'");
+			
+			//	determine how many tokens remain the same on either end
+			int lk = 0;
+			int rk = 0;
+			while (((fti + lk) < (replacementAfterFromValue ? (from + 1) : from)) && ((lk + rk) < ots.tokenCount) && ((lk + rk) < nts.tokenCount) && valuesEqual(ots, lk, nts, lk))
+				lk++;
+			while (((lti - rk + 1) > to) && ((lk + rk) < ots.tokenCount) && ((lk + rk) < nts.tokenCount) && valuesEqual(ots, (ots.tokenCount - rk - 1), nts, (nts.tokenCount - rk - 1)))
+				rk++;
+			while (((lk + rk) < ots.tokenCount) && ((lk + rk) < nts.tokenCount) && valuesEqual(ots, lk, nts, lk))
+				lk++;
+			while (((lk + rk) < ots.tokenCount) && ((lk + rk) < nts.tokenCount) && valuesEqual(ots, (ots.tokenCount - rk - 1), nts, (nts.tokenCount - rk - 1)))
+				rk++;
+			if (DEBUG) System.out.println("- left keep is " + lk + ", right keep is " + rk);
+			
+			//	exchange tokens in between, and update offsets of retained ones
+			this.shiftTokens((lti + 1), delta);
+			this.replaceTokens((fti + lk), (ots.tokenCount - lk - rk), (nts.tokenCount - lk - rk));
+			for (int t = 0; t < nts.tokenCount; t++) {
+				this.tokenStarts[fti + t] = (ftOffset + nts.tokenStarts[t]);
+				this.tokenEnds[fti + t] = (ftOffset + nts.tokenEnds[t]);
+			}
+			
+			if (((lk + rk) != nts.tokenCount) || ((lk + rk) != ots.tokenCount))
+				tse = new TokenSequenceEvent(this, (fti + lk), nts.getSubsequence(lk, (nts.tokenCount - lk - rk)), ots.getSubsequence(lk, (ots.tokenCount - lk - rk)), cse);
+			
+			this.notifyCharSequenceChanged(cse);
+			if (tse != null)
+				this.notifyTokenSequenceChanged(tse);
+			
+			return removed;
+		}
+		catch (RuntimeException re) {
+			re.printStackTrace(System.out);
+			this.printSanityCheck(offset - length, offset + length + chars.length());
+			throw re;
+		}
+	}
+	
+	private static boolean valuesEqual(CompactTokenizedCharSequence cts1, int index1, CompactTokenizedCharSequence cts2, int index2) {
+		int start1 = cts1.tokenStarts[index1];
+		int start2 = cts2.tokenStarts[index2];
+		int length = (cts1.tokenEnds[index1] - start1);
+		if (length != (cts2.tokenEnds[index2] - start2))
+			return false;
+		for (int c = 0; c < length; c++) {
+			if (cts1.buffer[start1 + c] != cts2.buffer[start2 + c])
+				return false;
+		}
+		return true;
+	}
+	
+	public void printSanityCheck(int from, int to) {
+		System.out.println("CompactTokenizedMutableCharSequence statistics: size is " + this.tokenCount + ", length is " + this.length);
+		System.out.println("-1, 0, '" + this.getLeadingWhitespace() + "'");
+		for (int t = 0; t < this.tokenCount; t++) {
+			if ((this.tokenStarts[t] >= from) && (this.tokenStarts[t] < to))
+				System.out.println(t + ", " + this.tokenStarts[t] + "-" + this.tokenEnds[t] + ", '" + this.valueAt(t) + this.getWhitespaceAfter(t) + "'");
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.MutableCharSequence#mutableSubSequence(int, int)
+	 */
+	public MutableCharSequence mutableSubSequence(int start, int end) {
+		return new StringBufferCharSequence(this.subSequence(start, end));
+	}
+}
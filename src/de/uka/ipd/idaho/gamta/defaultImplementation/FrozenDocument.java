@@ -0,0 +1,1019 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.gamta.defaultImplementation;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+import de.uka.ipd.idaho.gamta.Annotation;
+import de.uka.ipd.idaho.gamta.AnnotationUtils;
+import de.uka.ipd.idaho.gamta.AnnotationUtils.TypeComparator;
+import de.uka.ipd.idaho.gamta.Attributed;
+import de.uka.ipd.idaho.gamta.DocumentRoot;
+import de.uka.ipd.idaho.gamta.QueriableAnnotation;
+import de.uka.ipd.idaho.gamta.Token;
+import de.uka.ipd.idaho.gamta.TokenSequence;
+import de.uka.ipd.idaho.gamta.Tokenizer;
+
+/**
+ * Immutable, compact snapshot of a document. On construction, the text,
+ * tokens, annotations, and attributes of the argument document are packed
+ * into flat arrays, with annotations sorted in nesting order and indexed by
+ * type. Queries for nested, spanning, and overlapping annotations run as
+ * range queries against these indexes, so there are no caches to maintain.
+ * As nothing ever changes after construction, instances of this class can be
+ * shared between threads without any locking. Any attempt at modification
+ * results in a RuntimeException, just like with ReadOnlyDocument.
+ * 
+ * @author sautter
+ */
+public class FrozenDocument implements QueriableAnnotation {
+	
+	private static final String EXCEPTION_TEXT = "This document is frozen and cannot be modified.";
+	private static final int[] emptyPositions = new int[0];
+	
+	//	token data
+	private final String text;
+	private final int[] tokenStartOffsets;
+	private final int[] tokenEndOffsets;
+	private final String[] tokenValues;
+	private final FrozenAttributes[] tokenAttributes; // null if no token has attributes
+	private final Tokenizer tokenizer;
+	
+	//	document data
+	private final String annotationId;
+	private final FrozenAttributes attributes;
+	private final FrozenAttributes documentProperties;
+	private final String annotationNestingOrder;
+	private final Comparator nestingOrder;
+	private final TypeComparator typeNestingOrder;
+	
+	//	annotation data, in nesting order
+	private final int[] annotStartIndexes;
+	private final int[] annotEndIndexes;
+	private final int[] annotTypeIds;
+	private final String[] annotTypes;
+	private final String[] annotIds;
+	private final FrozenAttributes[] annotAttributes;
+	private final HashMap annotPositionsById;
+	private final AnnotationIndex annotIndex;
+	private final AnnotationIndex[] annotIndexesByTypeId;
+	private final String[] annotationTypes;
+	
+	/**
+	 * Constructor freezing a document or annotation. The resulting frozen
+	 * document is completely independent of the argument, so subsequent
+	 * modifications to the latter do not affect the former. Annotation IDs
+	 * are preserved.
+	 * @param data the document to freeze
+	 */
+	public FrozenDocument(QueriableAnnotation data) {
+		
+		//	pack tokens, sharing repeated token values
+		int tokenCount = data.size();
+		StringBuffer text = new StringBuffer(data.length());
+		this.tokenStartOffsets = new int[tokenCount];
+		this.tokenEndOffsets = new int[tokenCount];
+		this.tokenValues = new String[tokenCount];
+		FrozenAttributes[] tokenAttributes = null;
+		HashMap tokenValuePool = new HashMap();
+		text.append(data.getLeadingWhitespace());
+		for (int t = 0; t < tokenCount; t++) {
+			Token token = data.tokenAt(t);
+			String value = token.getValue();
+			String pooledValue = ((String) tokenValuePool.get(value));
+			if (pooledValue == null)
+				tokenValuePool.put(value, value);
+			else value = pooledValue;
+			this.tokenValues[t] = value;
+			this.tokenStartOffsets[t] = text.length();
+			text.append(value);
+			this.tokenEndOffsets[t] = text.length();
+			text.append(data.getWhitespaceAfter(t));
+			FrozenAttributes tas = FrozenAttributes.freeze(token);
+			if (tas == null)
+				continue;
+			if (tokenAttributes == null)
+				tokenAttributes = new FrozenAttributes[tokenCount];
+			tokenAttributes[t] = tas;
+		}
+		this.text = text.toString();
+		this.tokenAttributes = tokenAttributes;
+		this.tokenizer = data.getTokenizer();
+		
+		//	copy document level data
+		this.annotationId = data.getAnnotationID();
+		this.attributes = FrozenAttributes.freeze(data);
+		String[] documentPropertyNames = data.getDocumentPropertyNames();
+		Object[] documentPropertyValues = new Object[documentPropertyNames.length];
+		for (int p = 0; p < documentPropertyNames.length; p++)
+			documentPropertyValues[p] = data.getDocumentProperty(documentPropertyNames[p]);
+		this.documentProperties = FrozenAttributes.freeze(documentPropertyNames, documentPropertyValues);
+		this.annotationNestingOrder = data.getAnnotationNestingOrder();
+		this.nestingOrder = AnnotationUtils.getComparator(this.annotationNestingOrder);
+		this.typeNestingOrder = ((TypeComparator) AnnotationUtils.getTypeComparator(this.annotationNestingOrder));
+		
+		//	collect annotations (document root would only duplicate this document proper)
+		Annotation[] annotations = data.getAnnotations();
+		ArrayList annotList = new ArrayList(annotations.length);
+		for (int a = 0; a < annotations.length; a++) {
+			if (!DocumentRoot.DOCUMENT_TYPE.equals(annotations[a].getType()))
+				annotList.add(annotations[a]);
+		}
+		annotations = ((Annotation[]) annotList.toArray(new Annotation[annotList.size()]));
+		Arrays.sort(annotations, this.nestingOrder);
+		
+		//	pack annotations
+		this.annotStartIndexes = new int[annotations.length];
+		this.annotEndIndexes = new int[annotations.length];
+		this.annotTypeIds = new int[annotations.length];
+		this.annotTypes = new String[annotations.length];
+		this.annotIds = new String[annotations.length];
+		this.annotAttributes = new FrozenAttributes[annotations.length];
+		this.annotPositionsById = new HashMap((annotations.length * 2) + 16);
+		int maxTypeId = 0;
+		for (int a = 0; a < annotations.length; a++) {
+			this.annotStartIndexes[a] = annotations[a].getStartIndex();
+			this.annotEndIndexes[a] = annotations[a].getEndIndex();
+			this.annotTypes[a] = annotations[a].getType();
+			this.annotTypeIds[a] = AnnotationUtils.getTypeID(this.annotTypes[a]);
+			maxTypeId = Math.max(maxTypeId, this.annotTypeIds[a]);
+			this.annotIds[a] = annotations[a].getAnnotationID();
+			this.annotAttributes[a] = FrozenAttributes.freeze(annotations[a]);
+			this.annotPositionsById.put(this.annotIds[a], new Integer(a));
+		}
+		
+		//	build indexes, overall and by type
+		int[] positions = new int[annotations.length];
+		for (int a = 0; a < positions.length; a++)
+			positions[a] = a;
+		this.annotIndex = new AnnotationIndex(positions, this.annotStartIndexes, this.annotEndIndexes);
+		int[] typeCounts = new int[maxTypeId + 1];
+		for (int a = 0; a < annotations.length; a++)
+			typeCounts[this.annotTypeIds[a]]++;
+		int[][] typePositions = new int[typeCounts.length][];
+		for (int t = 0; t < typeCounts.length; t++) {
+			if (typeCounts[t] != 0)
+				typePositions[t] = new int[typeCounts[t]];
+			typeCounts[t] = 0;
+		}
+		for (int a = 0; a < annotations.length; a++) {
+			int typeId = this.annotTypeIds[a];
+			typePositions[typeId][typeCounts[typeId]++] = a;
+		}
+		this.annotIndexesByTypeId = new AnnotationIndex[typeCounts.length];
+		TreeSet annotationTypes = new TreeSet();
+		for (int t = 0; t < typePositions.length; t++) {
+			if (typePositions[t] == null)
+				continue;
+			this.annotIndexesByTypeId[t] = new AnnotationIndex(typePositions[t], this.annotStartIndexes, this.annotEndIndexes);
+			annotationTypes.add(AnnotationUtils.getTypeForID(t));
+		}
+		this.annotationTypes = ((String[]) annotationTypes.toArray(new String[annotationTypes.size()]));
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.QueriableAnnotation#getAbsoluteStartIndex()
+	 */
+	public int getAbsoluteStartIndex() {
+		return 0;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.QueriableAnnotation#getAbsoluteStartOffset()
+	 */
+	public int getAbsoluteStartOffset() {
+		return 0;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.QueriableAnnotation#getAnnotation(java.lang.String)
+	 */
+	public QueriableAnnotation getAnnotation(String id) {
+		int pos = this.getAnnotationPosition(id);
+		return ((pos == -1) ? null : new AnnotationView(pos, 0, 0));
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.QueriableAnnotation#getAnnotations()
+	 */
+	public QueriableAnnotation[] getAnnotations() {
+		return this.getAnnotations(null);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.QueriableAnnotation#getAnnotations(java.lang.String)
+	 */
+	public QueriableAnnotation[] getAnnotations(String type) {
+		AnnotationIndex ai = this.getAnnotationIndex(type);
+		return this.wrapAnnotations(((ai == null) ? emptyPositions : ai.positions), 0, 0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.QueriableAnnotation#getAnnotationsSpanning(int, int)
+	 */
+	public QueriableAnnotation[] getAnnotationsSpanning(int startIndex, int endIndex) {
+		return this.getAnnotationsSpanning(null, startIndex, endIndex);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.QueriableAnnotation#getAnnotationsSpanning(java.lang.String, int, int)
+	 */
+	public QueriableAnnotation[] getAnnotationsSpanning(String type, int startIndex, int endIndex) {
+		return this.getAnnotationsIn(type, 0, startIndex, endIndex, Integer.MAX_VALUE, 0, 0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.QueriableAnnotation#getAnnotationsOverlapping(int, int)
+	 */
+	public QueriableAnnotation[] getAnnotationsOverlapping(int startIndex, int endIndex) {
+		return this.getAnnotationsOverlapping(null, startIndex, endIndex);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.QueriableAnnotation#getAnnotationsOverlapping(java.lang.String, int, int)
+	 */
+	public QueriableAnnotation[] getAnnotationsOverlapping(String type, int startIndex, int endIndex) {
+		return this.getAnnotationsIn(type, 0, (endIndex - 1), (startIndex + 1), Integer.MAX_VALUE, 0, 0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.QueriableAnnotation#getAnnotationTypes()
+	 */
+	public String[] getAnnotationTypes() {
+		return ((String[]) this.annotationTypes.clone());
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.QueriableAnnotation#getAnnotationNestingOrder()
+	 */
+	public String getAnnotationNestingOrder() {
+		return this.annotationNestingOrder;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Annotation#getStartIndex()
+	 */
+	public int getStartIndex() {
+		return 0;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Annotation#getEndIndex()
+	 */
+	public int getEndIndex() {
+		return this.size();
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Annotation#getType()
+	 */
+	public String getType() {
+		return DocumentRoot.DOCUMENT_TYPE;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Annotation#changeTypeTo(java.lang.String)
+	 */
+	public String changeTypeTo(String newType) {
+		throw new RuntimeException(EXCEPTION_TEXT);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Annotation#getAnnotationID()
+	 */
+	public String getAnnotationID() {
+		return this.annotationId;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Annotation#getValue()
+	 */
+	public String getValue() {
+		return ((this.tokenValues.length == 0) ? "" : this.text.substring(this.tokenStartOffsets[0], this.tokenEndOffsets[this.tokenValues.length - 1]));
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Annotation#toXML()
+	 */
+	public String toXML() {
+		return (AnnotationUtils.produceStartTag(this) + AnnotationUtils.escapeForXml(this.getValue()) + AnnotationUtils.produceEndTag(this));
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Annotation#getDocument()
+	 */
+	public QueriableAnnotation getDocument() {
+		return this;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Annotation#getDocumentProperty(java.lang.String)
+	 */
+	public String getDocumentProperty(String propertyName) {
+		return this.getDocumentProperty(propertyName, null);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Annotation#getDocumentProperty(java.lang.String, java.lang.String)
+	 */
+	public String getDocumentProperty(String propertyName, String defaultValue) {
+		return ((String) FrozenAttributes.getAttribute(this.documentProperties, propertyName, defaultValue));
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Annotation#getDocumentPropertyNames()
+	 */
+	public String[] getDocumentPropertyNames() {
+		return FrozenAttributes.getAttributeNames(this.documentProperties);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Attributed#getAttribute(java.lang.String)
+	 */
+	public Object getAttribute(String name) {
+		return this.getAttribute(name, null);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Attributed#getAttribute(java.lang.String, java.lang.Object)
+	 */
+	public Object getAttribute(String name, Object def) {
+		if (START_INDEX_ATTRIBUTE.equals(name))
+			return new Integer(this.getStartIndex());
+		else if (SIZE_ATTRIBUTE.equals(name))
+			return new Integer(this.size());
+		else if (END_INDEX_ATTRIBUTE.equals(name))
+			return new Integer(this.getEndIndex());
+		else if (ANNOTATION_VALUE_ATTRIBUTE.equals(name))
+			return this.getValue();
+		else if (ANNOTATION_ID_ATTRIBUTE.equals(name))
+			return this.annotationId;
+		else return FrozenAttributes.getAttribute(this.attributes, name, def);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Attributed#hasAttribute(java.lang.String)
+	 */
+	public boolean hasAttribute(String name) {
+		return (isSpecialAttribute(name) || FrozenAttributes.hasAttribute(this.attributes, name));
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Attributed#getAttributeNames()
+	 */
+	public String[] getAttributeNames() {
+		return FrozenAttributes.getAttributeNames(this.attributes);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Attributed#setAttribute(java.lang.String)
+	 */
+	public void setAttribute(String name) {
+		throw new RuntimeException(EXCEPTION_TEXT);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Attributed#setAttribute(java.lang.String, java.lang.Object)
+	 */
+	public Object setAttribute(String name, Object value) {
+		throw new RuntimeException(EXCEPTION_TEXT);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Attributed#copyAttributes(de.uka.ipd.idaho.gamta.Attributed)
+	 */
+	public void copyAttributes(Attributed source) {
+		throw new RuntimeException(EXCEPTION_TEXT);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Attributed#removeAttribute(java.lang.String)
+	 */
+	public Object removeAttribute(String name) {
+		throw new RuntimeException(EXCEPTION_TEXT);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.Attributed#clearAttributes()
+	 */
+	public void clearAttributes() {
+		throw new RuntimeException(EXCEPTION_TEXT);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#tokenAt(int)
+	 */
+	public Token tokenAt(int index) {
+		if (index >= this.tokenValues.length)
+			throw new IndexOutOfBoundsException("" + index + " >= " + this.tokenValues.length);
+		return new TokenView(index, 0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#firstToken()
+	 */
+	public Token firstToken() {
+		return this.tokenAt(0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#lastToken()
+	 */
+	public Token lastToken() {
+		return this.tokenAt(this.tokenValues.length - 1);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#valueAt(int)
+	 */
+	public String valueAt(int index) {
+		return this.tokenValues[index];
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#firstValue()
+	 */
+	public String firstValue() {
+		return this.valueAt(0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#lastValue()
+	 */
+	public String lastValue() {
+		return this.valueAt(this.tokenValues.length - 1);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#getLeadingWhitespace()
+	 */
+	public String getLeadingWhitespace() {
+		return ((this.tokenValues.length == 0) ? this.text : this.text.substring(0, this.tokenStartOffsets[0]));
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#getWhitespaceAfter(int)
+	 */
+	public String getWhitespaceAfter(int index) {
+		if (index >= this.tokenValues.length)
+			throw new IndexOutOfBoundsException("" + index + " >= " + this.tokenValues.length);
+		return this.text.substring(this.tokenEndOffsets[index], (((index + 1) == this.tokenValues.length) ? this.text.length() : this.tokenStartOffsets[index + 1]));
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#size()
+	 */
+	public int size() {
+		return this.tokenValues.length;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#getTokenizer()
+	 */
+	public Tokenizer getTokenizer() {
+		return this.tokenizer;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.TokenSequence#getSubsequence(int, int)
+	 */
+	public TokenSequence getSubsequence(int start, int size) {
+		if ((start + size) > this.tokenValues.length)
+			throw new IndexOutOfBoundsException("" + start + "+" + size + " > " + this.tokenValues.length);
+		return new TokenSpan(start, size);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.CharSpan#getStartOffset()
+	 */
+	public int getStartOffset() {
+		return 0;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.CharSpan#getEndOffset()
+	 */
+	public int getEndOffset() {
+		return this.length();
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.CharSequence#length()
+	 */
+	public int length() {
+		return this.text.length();
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.CharSequence#charAt(int)
+	 */
+	public char charAt(int index) {
+		return this.text.charAt(index);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.CharSequence#subSequence(int, int)
+	 */
+	public CharSequence subSequence(int start, int end) {
+		return this.text.substring(start, end);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Comparable#compareTo(java.lang.Object)
+	 */
+	public int compareTo(Object obj) {
+		return -1;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return this.text;
+	}
+	
+	private static boolean isSpecialAttribute(String name) {
+		return (START_INDEX_ATTRIBUTE.equals(name) || SIZE_ATTRIBUTE.equals(name) || END_INDEX_ATTRIBUTE.equals(name) || ANNOTATION_VALUE_ATTRIBUTE.equals(name) || ANNOTATION_ID_ATTRIBUTE.equals(name));
+	}
+	
+	int getAnnotationPosition(String id) {
+		Integer pos = ((Integer) this.annotPositionsById.get(id));
+		return ((pos == null) ? -1 : pos.intValue());
+	}
+	
+	AnnotationIndex getAnnotationIndex(String type) {
+		if (type == null)
+			return this.annotIndex;
+		int typeId = AnnotationUtils.getTypeID(type, false);
+		if ((typeId < 0) || (this.annotIndexesByTypeId.length <= typeId))
+			return null;
+		return this.annotIndexesByTypeId[typeId];
+	}
+	
+	QueriableAnnotation[] getAnnotationsIn(String type, int minStartIndex, int maxStartIndex, int minEndIndex, int maxEndIndex, int baseStartIndex, int baseStartOffset) {
+		AnnotationIndex ai = this.getAnnotationIndex(type);
+		return this.wrapAnnotations(((ai == null) ? emptyPositions : ai.getPositions(minStartIndex, maxStartIndex, minEndIndex, maxEndIndex)), baseStartIndex, baseStartOffset);
+	}
+	
+	QueriableAnnotation[] wrapAnnotations(int[] positions, int baseStartIndex, int baseStartOffset) {
+		QueriableAnnotation[] annots = new QueriableAnnotation[positions.length];
+		for (int a = 0; a < positions.length; a++)
+			annots[a] = new AnnotationView(positions[a], baseStartIndex, baseStartOffset);
+		return annots; // positions come in nesting order already
+	}
+	
+	int getTokenStartOffset(int index) {
+		return ((index < this.tokenStartOffsets.length) ? this.tokenStartOffsets[index] : this.text.length());
+	}
+	
+	/**
+	 * Immutable attribute storage, keeping names sorted for binary search.
+	 * Static accessors handle the null instances used in place of empty
+	 * attribute sets.
+	 */
+	private static class FrozenAttributes {
+		private final String[] names;
+		private final Object[] values;
+		private FrozenAttributes(String[] names, Object[] values) {
+			this.names = names;
+			this.values = values;
+		}
+		static FrozenAttributes freeze(Attributed attributed) {
+			String[] names = attributed.getAttributeNames();
+			Object[] values = new Object[names.length];
+			for (int a = 0; a < names.length; a++)
+				values[a] = attributed.getAttribute(names[a]);
+			return freeze(names, values);
+		}
+		static FrozenAttributes freeze(String[] names, Object[] values) {
+			if (names.length == 0)
+				return null;
+			String[] sortedNames = ((String[]) names.clone());
+			Arrays.sort(sortedNames);
+			Object[] sortedValues = new Object[values.length];
+			for (int a = 0; a < names.length; a++)
+				sortedValues[Arrays.binarySearch(sortedNames, names[a])] = values[a];
+			return new FrozenAttributes(sortedNames, sortedValues);
+		}
+		static Object getAttribute(FrozenAttributes fas, String name, Object def) {
+			if ((fas == null) || (name == null))
+				return def;
+			int a = Arrays.binarySearch(fas.names, name);
+			return ((a < 0) ? def : fas.values[a]);
+		}
+		static boolean hasAttribute(FrozenAttributes fas, String name) {
+			return ((fas != null) && (name != null) && (Arrays.binarySearch(fas.names, name) >= 0));
+		}
+		static String[] getAttributeNames(FrozenAttributes fas) {
+			return ((fas == null) ? new String[0] : ((String[]) fas.names.clone()));
+		}
+	}
+	
+	/**
+	 * Index over annotation positions in nesting order, i.e., sorted by start
+	 * index, with a tree of maximum end indexes on top for finding all
+	 * annotations reaching beyond a given end index without a linear scan.
+	 */
+	private static class AnnotationIndex {
+		final int[] positions;
+		private final int[] startIndexes;
+		private final int[] endIndexes;
+		private final int leafOffset;
+		private final int[] maxEndIndexes;
+		AnnotationIndex(int[] positions, int[] annotStartIndexes, int[] annotEndIndexes) {
+			this.positions = positions;
+			this.startIndexes = new int[positions.length];
+			this.endIndexes = new int[positions.length];
+			for (int p = 0; p < positions.length; p++) {
+				this.startIndexes[p] = annotStartIndexes[positions[p]];
+				this.endIndexes[p] = annotEndIndexes[positions[p]];
+			}
+			int leafOffset = 1;
+			while (leafOffset < positions.length)
+				leafOffset *= 2;
+			this.leafOffset = leafOffset;
+			this.maxEndIndexes = new int[leafOffset * 2];
+			Arrays.fill(this.maxEndIndexes, -1);
+			System.arraycopy(this.endIndexes, 0, this.maxEndIndexes, leafOffset, positions.length);
+			for (int n = (leafOffset - 1); n > 0; n--)
+				this.maxEndIndexes[n] = Math.max(this.maxEndIndexes[n * 2], this.maxEndIndexes[(n * 2) + 1]);
+		}
+		int[] getPositions(int minStartIndex, int maxStartIndex, int minEndIndex, int maxEndIndex) {
+			int left = this.findPosition(minStartIndex);
+			int right = this.findPosition(maxStartIndex + 1);
+			if (right <= left)
+				return emptyPositions;
+			PositionList positions = new PositionList();
+			this.collectPositions(1, 0, this.leafOffset, left, right, minEndIndex, maxEndIndex, positions);
+			return positions.toArray();
+		}
+		private void collectPositions(int node, int nodeLeft, int nodeRight, int left, int right, int minEndIndex, int maxEndIndex, PositionList positions) {
+			if ((nodeRight <= left) || (right <= nodeLeft))
+				return; // outside start index range
+			if (this.maxEndIndexes[node] < minEndIndex)
+				return; // all annotations in node end before range
+			if ((nodeRight - nodeLeft) == 1) {
+				if (this.endIndexes[nodeLeft] <= maxEndIndex) // end index in range, we have a match
+					positions.add(this.positions[nodeLeft]);
+				return;
+			}
+			int nodeMiddle = ((nodeLeft + nodeRight) / 2);
+			this.collectPositions((node * 2), nodeLeft, nodeMiddle, left, right, minEndIndex, maxEndIndex, positions);
+			this.collectPositions(((node * 2) + 1), nodeMiddle, nodeRight, left, right, minEndIndex, maxEndIndex, positions);
+		}
+		private int findPosition(int startIndex) {
+			
+			//	binary search first annotation starting at or after argument index
+			int left = 0;
+			int right = this.startIndexes.length;
+			while (left < right) {
+				int middle = ((left + right) / 2);
+				if (this.startIndexes[middle] < startIndex)
+					left = (middle + 1);
+				else right = middle;
+			}
+			return left;
+		}
+	}
+	
+	private static class PositionList {
+		private int[] positions = new int[16];
+		private int size = 0;
+		void add(int position) {
+			if (this.size == this.positions.length) {
+				int[] positions = new int[this.positions.length * 2];
+				System.arraycopy(this.positions, 0, positions, 0, this.size);
+				this.positions = positions;
+			}
+			this.positions[this.size++] = position;
+		}
+		int[] toArray() {
+			int[] positions = new int[this.size];
+			System.arraycopy(this.positions, 0, positions, 0, this.size);
+			return positions;
+		}
+	}
+	
+	private class TokenView implements Token {
+		private final int index; // the absolute index of the token
+		private final int baseStartOffset; // the absolute start offset of the sequence the token was retrieved from
+		TokenView(int index, int baseStartOffset) {
+			this.index = index;
+			this.baseStartOffset = baseStartOffset;
+		}
+		public boolean equals(Object obj) {
+			return this.getValue().equals(obj);
+		}
+		public int hashCode() {
+			return this.getValue().hashCode();
+		}
+		public String toString() {
+			return this.getValue();
+		}
+		public char charAt(int index) {
+			return tokenValues[this.index].charAt(index);
+		}
+		public int getEndOffset() {
+			return (tokenEndOffsets[this.index] - this.baseStartOffset);
+		}
+		public int getStartOffset() {
+			return (tokenStartOffsets[this.index] - this.baseStartOffset);
+		}
+		public Tokenizer getTokenizer() {
+			return tokenizer;
+		}
+		public String getValue() {
+			return tokenValues[this.index];
+		}
+		public int length() {
+			return tokenValues[this.index].length();
+		}
+		public CharSequence subSequence(int start, int end) {
+			return tokenValues[this.index].substring(start, end);
+		}
+		public Object getAttribute(String name, Object def) {
+			return FrozenAttributes.getAttribute(this.getAttributes(), name, def);
+		}
+		public Object getAttribute(String name) {
+			return FrozenAttributes.getAttribute(this.getAttributes(), name, null);
+		}
+		public String[] getAttributeNames() {
+			return FrozenAttributes.getAttributeNames(this.getAttributes());
+		}
+		public boolean hasAttribute(String name) {
+			return FrozenAttributes.hasAttribute(this.getAttributes(), name);
+		}
+		private FrozenAttributes getAttributes() {
+			return ((tokenAttributes == null) ? null : tokenAttributes[this.index]);
+		}
+		public void clearAttributes() {
+			throw new RuntimeException(EXCEPTION_TEXT);
+		}
+		public void copyAttributes(Attributed source) {
+			throw new RuntimeException(EXCEPTION_TEXT);
+		}
+		public Object removeAttribute(String name) {
+			throw new RuntimeException(EXCEPTION_TEXT);
+		}
+		public void setAttribute(String name) {
+			throw new RuntimeException(EXCEPTION_TEXT);
+		}
+		public Object setAttribute(String name, Object value) {
+			throw new RuntimeException(EXCEPTION_TEXT);
+		}
+	}
+	
+	private class TokenSpan implements TokenSequence {
+		final int absoluteStartIndex; // the index of the first token of this span in the frozen document
+		final int size; // the number of tokens in this span
+		TokenSpan(int absoluteStartIndex, int size) {
+			this.absoluteStartIndex = absoluteStartIndex;
+			this.size = size;
+		}
+		public Token tokenAt(int index) {
+			if (index >= this.size)
+				throw new IndexOutOfBoundsException("" + index + " >= " + this.size);
+			return new TokenView((index + this.absoluteStartIndex), this.getAbsoluteStartOffset());
+		}
+		public Token firstToken() {
+			return this.tokenAt(0);
+		}
+		public Token lastToken() {
+			return this.tokenAt(this.size - 1);
+		}
+		public String valueAt(int index) {
+			if (index >= this.size)
+				throw new IndexOutOfBoundsException("" + index + " >= " + this.size);
+			return tokenValues[index + this.absoluteStartIndex];
+		}
+		public String firstValue() {
+			return this.valueAt(0);
+		}
+		public String lastValue() {
+			return this.valueAt(this.size - 1);
+		}
+		public String getLeadingWhitespace() {
+			return "";
+		}
+		public String getWhitespaceAfter(int index) {
+			if (index >= this.size)
+				throw new IndexOutOfBoundsException("" + index + " >= " + this.size);
+			if ((index + 1) == this.size)
+				return "";
+			return FrozenDocument.this.getWhitespaceAfter(index + this.absoluteStartIndex);
+		}
+		public int size() {
+			return this.size;
+		}
+		public Tokenizer getTokenizer() {
+			return tokenizer;
+		}
+		public TokenSequence getSubsequence(int start, int size) {
+			if ((start + size) > this.size)
+				throw new IndexOutOfBoundsException("" + start + "+" + size + " > " + this.size);
+			return new TokenSpan((start + this.absoluteStartIndex), size);
+		}
+		public int getAbsoluteStartOffset() {
+			return getTokenStartOffset(this.absoluteStartIndex);
+		}
+		int getAbsoluteEndOffset() {
+			return ((this.size == 0) ? this.getAbsoluteStartOffset() : tokenEndOffsets[this.absoluteStartIndex + this.size - 1]);
+		}
+		public int length() {
+			return (this.getAbsoluteEndOffset() - this.getAbsoluteStartOffset());
+		}
+		public char charAt(int index) {
+			if (index >= this.length())
+				throw new IndexOutOfBoundsException("" + index + " >= " + this.length());
+			return text.charAt(index + this.getAbsoluteStartOffset());
+		}
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0)
+				throw new IndexOutOfBoundsException("" + start + " < " + 0);
+			else if (end > this.length())
+				throw new IndexOutOfBoundsException("" + end + " > " + this.length());
+			return text.substring((start + this.getAbsoluteStartOffset()), (end + this.getAbsoluteStartOffset()));
+		}
+		public String getValue() {
+			return text.substring(this.getAbsoluteStartOffset(), this.getAbsoluteEndOffset());
+		}
+		public String toString() {
+			return this.getValue();
+		}
+	}
+	
+	private class AnnotationView extends TokenSpan implements QueriableAnnotation {
+		private final int pos; // the position of the annotation in the frozen document
+		private final int baseStartIndex; // the absolute start index of the annotation this view was retrieved from
+		private final int baseStartOffset; // the absolute start offset of the annotation this view was retrieved from
+		AnnotationView(int pos, int baseStartIndex, int baseStartOffset) {
+			super(annotStartIndexes[pos], (annotEndIndexes[pos] - annotStartIndexes[pos]));
+			this.pos = pos;
+			this.baseStartIndex = baseStartIndex;
+			this.baseStartOffset = baseStartOffset;
+		}
+		public int getAbsoluteStartIndex() {
+			return this.absoluteStartIndex;
+		}
+		public QueriableAnnotation getAnnotation(String id) {
+			int pos = getAnnotationPosition(id);
+			if (pos == -1)
+				return null;
+			if ((annotStartIndexes[pos] < this.absoluteStartIndex) || (this.getAbsoluteEndIndex() < annotEndIndexes[pos]))
+				return null;
+			return new AnnotationView(pos, this.absoluteStartIndex, this.getAbsoluteStartOffset());
+		}
+		public QueriableAnnotation[] getAnnotations() {
+			return this.getAnnotations(null);
+		}
+		public QueriableAnnotation[] getAnnotations(String type) {
+			return getAnnotationsIn(type, this.absoluteStartIndex, (this.getAbsoluteEndIndex() - 1), (this.absoluteStartIndex + 1), this.getAbsoluteEndIndex(), this.absoluteStartIndex, this.getAbsoluteStartOffset());
+		}
+		public QueriableAnnotation[] getAnnotationsSpanning(int startIndex, int endIndex) {
+			return this.getAnnotationsSpanning(null, startIndex, endIndex);
+		}
+		public QueriableAnnotation[] getAnnotationsSpanning(String type, int startIndex, int endIndex) {
+			return getAnnotationsIn(type, this.absoluteStartIndex, (this.absoluteStartIndex + startIndex), (this.absoluteStartIndex + endIndex), this.getAbsoluteEndIndex(), this.absoluteStartIndex, this.getAbsoluteStartOffset());
+		}
+		public QueriableAnnotation[] getAnnotationsOverlapping(int startIndex, int endIndex) {
+			return this.getAnnotationsOverlapping(null, startIndex, endIndex);
+		}
+		public QueriableAnnotation[] getAnnotationsOverlapping(String type, int startIndex, int endIndex) {
+			return getAnnotationsIn(type, this.absoluteStartIndex, (this.absoluteStartIndex + endIndex - 1), (this.absoluteStartIndex + startIndex + 1), this.getAbsoluteEndIndex(), this.absoluteStartIndex, this.getAbsoluteStartOffset());
+		}
+		public String[] getAnnotationTypes() {
+			int[] positions = annotIndex.getPositions(this.absoluteStartIndex, (this.getAbsoluteEndIndex() - 1), (this.absoluteStartIndex + 1), this.getAbsoluteEndIndex());
+			TreeSet types = new TreeSet();
+			for (int p = 0; p < positions.length; p++)
+				types.add(annotTypes[positions[p]]);
+			return ((String[]) types.toArray(new String[types.size()]));
+		}
+		public String getAnnotationNestingOrder() {
+			return annotationNestingOrder;
+		}
+		int getAbsoluteEndIndex() {
+			return annotEndIndexes[this.pos];
+		}
+		public int getStartIndex() {
+			return (this.absoluteStartIndex - this.baseStartIndex);
+		}
+		public int getEndIndex() {
+			return (this.getAbsoluteEndIndex() - this.baseStartIndex);
+		}
+		public int getStartOffset() {
+			return (this.getAbsoluteStartOffset() - this.baseStartOffset);
+		}
+		public int getEndOffset() {
+			return (this.getAbsoluteEndOffset() - this.baseStartOffset);
+		}
+		public String getType() {
+			return annotTypes[this.pos];
+		}
+		public String changeTypeTo(String newType) {
+			throw new RuntimeException(EXCEPTION_TEXT);
+		}
+		public String getAnnotationID() {
+			return annotIds[this.pos];
+		}
+		public String toXML() {
+			return (AnnotationUtils.produceStartTag(this) + AnnotationUtils.escapeForXml(this.getValue()) + AnnotationUtils.produceEndTag(this));
+		}
+		public QueriableAnnotation getDocument() {
+			return FrozenDocument.this;
+		}
+		public String getDocumentProperty(String propertyName) {
+			return FrozenDocument.this.getDocumentProperty(propertyName);
+		}
+		public String getDocumentProperty(String propertyName, String defaultValue) {
+			return FrozenDocument.this.getDocumentProperty(propertyName, defaultValue);
+		}
+		public String[] getDocumentPropertyNames() {
+			return FrozenDocument.this.getDocumentPropertyNames();
+		}
+		public Object getAttribute(String name) {
+			return this.getAttribute(name, null);
+		}
+		public Object getAttribute(String name, Object def) {
+			if (START_INDEX_ATTRIBUTE.equals(name))
+				return new Integer(this.getStartIndex());
+			else if (SIZE_ATTRIBUTE.equals(name))
+				return new Integer(this.size);
+			else if (END_INDEX_ATTRIBUTE.equals(name))
+				return new Integer(this.getEndIndex());
+			else if (ANNOTATION_VALUE_ATTRIBUTE.equals(name))
+				return this.getValue();
+			else if (ANNOTATION_ID_ATTRIBUTE.equals(name))
+				return this.getAnnotationID();
+			else return FrozenAttributes.getAttribute(annotAttributes[this.pos], name, def);
+		}
+		public boolean hasAttribute(String name) {
+			return (isSpecialAttribute(name) || FrozenAttributes.hasAttribute(annotAttributes[this.pos], name));
+		}
+		public String[] getAttributeNames() {
+			return FrozenAttributes.getAttributeNames(annotAttributes[this.pos]);
+		}
+		public void setAttribute(String name) {
+			throw new RuntimeException(EXCEPTION_TEXT);
+		}
+		public Object setAttribute(String name, Object value) {
+			throw new RuntimeException(EXCEPTION_TEXT);
+		}
+		public void copyAttributes(Attributed source) {
+			throw new RuntimeException(EXCEPTION_TEXT);
+		}
+		public Object removeAttribute(String name) {
+			throw new RuntimeException(EXCEPTION_TEXT);
+		}
+		public void clearAttributes() {
+			throw new RuntimeException(EXCEPTION_TEXT);
+		}
+		public int compareTo(Object obj) {
+			if (obj instanceof Annotation) {
+				int c = AnnotationUtils.compare(this, ((Annotation) obj));
+				if (c != 0) return c;
+				if (obj instanceof AnnotationView)
+					c = typeNestingOrder.compareTypeIDs(annotTypeIds[this.pos], annotTypeIds[((AnnotationView) obj).pos]);
+				else c = typeNestingOrder.compare(this.getType(), ((Annotation) obj).getType());
+				if (c != 0) return c;
+				return this.getType().compareTo(((Annotation) obj).getType());
+			}
+			else return -1;
+		}
+		public boolean equals(Object obj) {
+			return (this.compareTo(obj) == 0);
+		}
+		public int hashCode() {
+			return ((((31 * this.getStartIndex()) + this.size()) * 31) + this.getType().hashCode()); // consistent with equals(), which compares position and type
+		}
+	}
+}
@@ -28,23 +28,25 @@
 package de.uka.ipd.idaho.gamta.defaultImplementation;
 
 
-import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.TreeSet;
 
 import de.uka.ipd.idaho.gamta.Annotation;
 import de.uka.ipd.idaho.gamta.AnnotationListener;
 import de.uka.ipd.idaho.gamta.AnnotationUtils;
+import de.uka.ipd.idaho.gamta.AnnotationUtils.TypeComparator;
 import de.uka.ipd.idaho.gamta.Attributed;
+import de.uka.ipd.idaho.gamta.BatchAnnotationListener;
+import de.uka.ipd.idaho.gamta.BatchableAnnotation;
+import de.uka.ipd.idaho.gamta.BulkMutableAnnotation;
 import de.uka.ipd.idaho.gamta.CharSequenceListener;
 import de.uka.ipd.idaho.gamta.DocumentRoot;
 import de.uka.ipd.idaho.gamta.Gamta;
@@ -56,6 +58,7 @@ import de.uka.ipd.idaho.gamta.Token;
 import de.uka.ipd.idaho.gamta.TokenSequence;
 import de.uka.ipd.idaho.gamta.TokenSequenceListener;
 import de.uka.ipd.idaho.gamta.Tokenizer;
+import de.uka.ipd.idaho.gamta.util.CacheManager;
 import de.uka.ipd.idaho.gamta.util.ImmutableAnnotation;
 //import java.util.Vector;
 
@@ -64,12 +67,13 @@ import de.uka.ipd.idaho.gamta.util.ImmutableAnnotation;
  * 
  * @author sautter
  */
-public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
+public class GamtaDocument extends AbstractAttributed implements DocumentRoot, BatchableAnnotation, BulkMutableAnnotation {
 	
 	private String annotationId = Gamta.getAnnotationID();
 	
 	private MutableTokenSequence tokenData; // the token sequence the annotations kept in this document refers to
 	
+	private final CacheManager cacheManager = new CacheManager(defaultCacheSize); // the memory bounded cache for derived data, like nested annotations
 	private AnnotationStore annotations = new AnnotationStore(); // the storage for the annotations
 	private AnnotationAdjuster adjuster = new AnnotationAdjuster(); // a listener to the underlaying token sequence, responsible for adjusting the annotations in the face of changes
 	private AnnotationBase modificationSource = null; // the base of the view through which the token sequence is being modified (always null, except if the token sequence is being modified through a MutableAnnotationView belonging to this document)
@@ -78,11 +82,14 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 	
 	private String annotationNestingOrder = Gamta.getAnnotationNestingOrder(); // the nesting order for annotations to this document 
 	private Comparator nestingOrder = AnnotationUtils.getComparator(this.annotationNestingOrder);
-	private Comparator typeNestingOrder = AnnotationUtils.getTypeComparator(this.annotationNestingOrder);
+	private TypeComparator typeNestingOrder = ((TypeComparator) AnnotationUtils.getTypeComparator(this.annotationNestingOrder));
 	private int orderModCount = 0;
 	
 	private ArrayList annotationListeners = null;
 	
+	private int batchDepth = 0; // the nesting depth of modification batches currently open
+	private BatchLog batchLog = null; // the collector for annotation notifications (null unless a batch is open)
+	
 	/**
 	 * Constructor creating an annotation overlay for a mutable token sequence
 	 * @param tokens the Tokens of this document's text
@@ -136,8 +143,13 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		Annotation[] annotations = original.getAnnotations();
 		for (int a = 0; a < annotations.length; a++) {
 			if (DocumentRoot.DOCUMENT_TYPE.equals(annotations[a].getType()))
+				annotations[a] = null;
+		}
+		Annotation[] annots = this.addAnnotations(annotations);
+		for (int a = 0; a < annotations.length; a++) {
+			if (annotations[a] == null)
 				continue;
-			Annotation annot = this.addAnnotation(annotations[a]);
+			Annotation annot = annots[a];
 			if (annot == null) {
 				System.out.println("GamtaDocument: could not copy annotation " + annotations[a].getType() + " at " + annotations[a].getStartIndex() + "-" + annotations[a].getEndIndex());
 				System.out.println("  " + annotations[a].toXML());
@@ -149,9 +161,54 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		this.setAnnotationNestingOrder(original.getAnnotationNestingOrder());
 	}
 	
+	private static long defaultCacheSize = (4 * 1024 * 1024);
+	
+	/**
+	 * Retrieve the default size budget for the caches of derived data of
+	 * newly created documents, in bytes.
+	 * @return the default cache size
+	 */
+	public static long getDefaultCacheSize() {
+		return defaultCacheSize;
+	}
+	
+	/**
+	 * Set the default size budget for the caches of derived data of newly
+	 * created documents, in bytes. This setting does not affect existing
+	 * documents, whose budgets can be changed via their cache managers.
+	 * @param dcs the new default cache size
+	 */
+	public static void setDefaultCacheSize(long dcs) {
+		defaultCacheSize = dcs;
+	}
+	
+	/**
+	 * Retrieve the cache manager holding derived data of this document, like
+	 * the annotations nested in other annotations, e.g. to adjust its size
+	 * budget or to obtain hit and miss statistics.
+	 * @return the cache manager of this document
+	 */
+	public CacheManager getCacheManager() {
+		return this.cacheManager;
+	}
+
+	/**
+	 * Create a frozen copy of this document, i.e., an immutable snapshot of
+	 * its current content, annotations, and attributes packed into compact
+	 * arrays. The snapshot is safe to query from multiple threads without
+	 * any locking, and subsequent modifications to this document do not
+	 * affect it.
+	 * @return a frozen copy of this document
+	 */
+	public FrozenDocument freeze() {
+		return new FrozenDocument(this);
+	}
+
 	public void printSanityCheck(int from, int to) {
 		if (this.tokenData instanceof TokenizedMutableCharSequence)
 			((TokenizedMutableCharSequence) this.tokenData).printSanityCheck(from, to);
+		else if (this.tokenData instanceof CompactTokenizedMutableCharSequence)
+			((CompactTokenizedMutableCharSequence) this.tokenData).printSanityCheck(from, to);
 	}
 	
 	/* (non-Javadoc)
@@ -337,7 +394,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 	public String setAnnotationNestingOrder(String ano) {
 		String old = this.annotationNestingOrder;
 		this.annotationNestingOrder = ((ano == null) ? DEFAULT_ANNOTATION_NESTING_ORDER : ano);
-		this.typeNestingOrder = AnnotationUtils.getTypeComparator(this.annotationNestingOrder);
+		this.typeNestingOrder = ((TypeComparator) AnnotationUtils.getTypeComparator(this.annotationNestingOrder));
 		this.nestingOrder = AnnotationUtils.getComparator(this.annotationNestingOrder);
 		this.orderModCount++;
 		return old;
@@ -748,6 +805,59 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		return this.addAnnotation(type, startIndex, (endIndex - startIndex));
 	}
 	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.BulkMutableAnnotation#addAnnotations(de.uka.ipd.idaho.gamta.Annotation[])
+	 */
+	public MutableAnnotation[] addAnnotations(Annotation[] annotations) {
+		
+		//	create and store AnnotationBases
+		AnnotationBase[] abs = this.addAnnotationsAbsolute(annotations, 0);
+		
+		//	notify listeners and wrap Annotations
+		MutableAnnotation[] added = new MutableAnnotation[abs.length];
+		for (int a = 0; a < abs.length; a++) {
+			if (abs[a] == null)
+				continue;
+			this.notifyAnnotationAdded(abs[a]);
+			added[a] = new MutableAnnotationView(abs[a], this);
+		}
+		
+		//	return Annotations
+		return added;
+	}
+	
+	//	add a batch of Annotations, with start indexes relative to the argument offset
+	private AnnotationBase[] addAnnotationsAbsolute(Annotation[] annotations, int startIndexOffset) {
+		
+		//	create Annotations (all of them before storing any, so an invalid type does not leave us with half a batch)
+		AnnotationBase[] abs = new AnnotationBase[annotations.length];
+		ArrayList toStore = new ArrayList(annotations.length);
+		for (int a = 0; a < annotations.length; a++) {
+			if (annotations[a] == null)
+				continue;
+			int startIndex = annotations[a].getStartIndex();
+			int size = annotations[a].size();
+			if ((startIndex < 0) || (size < 1))
+				continue;
+			abs[a] = new AnnotationBase(annotations[a].getType(), (startIndex + startIndexOffset), size);
+			toStore.add(abs[a]);
+		}
+		
+		//	sort batch once and merge it into index
+		AnnotationBase[] sortedAbs = ((AnnotationBase[]) toStore.toArray(new AnnotationBase[toStore.size()]));
+		Arrays.sort(sortedAbs, annotationBaseOrder);
+		this.annotations.storeAnnotations(sortedAbs);
+		
+		//	copy attributes
+		for (int a = 0; a < abs.length; a++) {
+			if (abs[a] != null)
+				abs[a].copyAttributes(annotations[a]);
+		}
+		
+		//	return Annotations
+		return abs;
+	}
+	
 	//	add an Annotation
 	private AnnotationBase addAnnotationAbsolute(String type, int startIndex, int size) {
 		
@@ -826,7 +936,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		this.notifyAnnotationRemoved(ab);
 		
 		//	create standalone Annotation
-		Annotation ra = new TemporaryAnnotation(this, ab.getType(), ab.absoluteStartIndex, ab.size);
+		Annotation ra = new TemporaryAnnotation(this, ab.getType(), ab.getAbsoluteStartIndex(), ab.size);
 		ra.copyAttributes(ab);
 		
 		//	return Annotation
@@ -859,9 +969,45 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			this.annotationListeners.remove(al);
 	}
 	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.BatchableAnnotation#beginBatch()
+	 */
+	public void beginBatch() {
+		if (this.batchDepth++ == 0)
+			this.batchLog = new BatchLog();
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.BatchableAnnotation#commitBatch()
+	 */
+	public void commitBatch() throws IllegalStateException {
+		if (this.batchDepth == 0)
+			throw new IllegalStateException("No batch to commit");
+		if (--this.batchDepth != 0)
+			return;
+		BatchLog batchLog = this.batchLog;
+		this.batchLog = null;
+		this.annotations.cleanupEmptyTypes();
+		batchLog.deliver();
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.gamta.BatchableAnnotation#abortBatch()
+	 */
+	public void abortBatch() throws IllegalStateException {
+		if (this.batchDepth == 0)
+			throw new IllegalStateException("No batch to abort");
+		this.batchDepth = 1;
+		this.commitBatch();
+	}
+	
 	void notifyAnnotationAdded(AnnotationBase added) {
 		if (this.annotationListeners == null)
 			return;
+		if (this.batchLog != null) {
+			this.batchLog.annotationAdded(this, added);
+			return;
+		}
 		QueriableAnnotation doc = new ImmutableAnnotation(this);
 		Annotation addedAnnotation = new ImmutableAnnotation(new QueriableAnnotationView(added, this));
 		for (int l = 0; l < this.annotationListeners.size(); l++) try {
@@ -874,12 +1020,20 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 	}
 	
 	void notifyAnnotationRemoved(AnnotationBase removed) {
+		this.notifyAnnotationRemoved(removed, removed.getAbsoluteStartIndex());
+	}
+	
+	void notifyAnnotationRemoved(AnnotationBase removed, int absoluteStartIndex) {
 		if (this.annotationListeners == null)
 			return;
+		if (this.batchLog != null) {
+			this.batchLog.annotationRemoved(this, removed, absoluteStartIndex);
+			return;
+		}
 		QueriableAnnotation doc = new ImmutableAnnotation(this);
-		Annotation removedAnnotation = new TemporaryAnnotation(doc, removed.getType(), removed.absoluteStartIndex, removed.size);
+		Annotation removedAnnotation = new TemporaryAnnotation(doc, removed.getType(), absoluteStartIndex, removed.size);
 		removedAnnotation.copyAttributes(removed);
-		removedAnnotation.setAttribute(ANNOTATION_ID_ATTRIBUTE, removed.annotationId);
+		removedAnnotation.setAttribute(ANNOTATION_ID_ATTRIBUTE, removed.getAnnotationID());
 		for (int l = 0; l < this.annotationListeners.size(); l++) try {
 			((AnnotationListener) this.annotationListeners.get(l)).annotationRemoved(doc, removedAnnotation);
 		}
@@ -892,6 +1046,10 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 	void notifyAnnotationTypeChanged(AnnotationBase reTyped, String oldType) {
 		if (this.annotationListeners == null)
 			return;
+		if (this.batchLog != null) {
+			this.batchLog.annotationTypeChanged(this, reTyped, oldType);
+			return;
+		}
 		QueriableAnnotation doc = new ImmutableAnnotation(this);
 		Annotation reTypedAnnotation = new ImmutableAnnotation(new QueriableAnnotationView(reTyped, this));
 		for (int l = 0; l < this.annotationListeners.size(); l++) try {
@@ -906,6 +1064,10 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 	void notifyAnnotationAttributeChanged(AnnotationBase target, String attributeName, Object oldValue) {
 		if (this.annotationListeners == null)
 			return;
+		if (this.batchLog != null) {
+			this.batchLog.annotationAttributeChanged(this, target, attributeName, oldValue);
+			return;
+		}
 		QueriableAnnotation doc = new ImmutableAnnotation(this);
 		Annotation targetAnnotation = ((target == null) ? doc : new ImmutableAnnotation(new QueriableAnnotationView(target, this)));
 		for (int l = 0; l < this.annotationListeners.size(); l++) try {
@@ -917,6 +1079,202 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		}
 	}
 	
+	private static final int BATCH_ANNOTATION_ADDED = 0;
+	private static final int BATCH_ANNOTATION_REMOVED = 1;
+	private static final int BATCH_ANNOTATION_TYPE_CHANGED = 2;
+	private static final int BATCH_ANNOTATION_ATTRIBUTE_CHANGED = 3;
+	
+	/* a single annotation notification held back by a modification batch,
+	 * source is either the document proper or a MutableAnnotationView */
+	private static class BatchEntry {
+		final int kind;
+		final Object source;
+		final AnnotationBase target;
+		final String name; // old type or attribute name
+		final Object oldValue;
+		final int absoluteStartIndex;
+		boolean cancelled = false;
+		BatchEntry(int kind, Object source, AnnotationBase target, String name, Object oldValue, int absoluteStartIndex) {
+			this.kind = kind;
+			this.source = source;
+			this.target = target;
+			this.name = name;
+			this.oldValue = oldValue;
+			this.absoluteStartIndex = absoluteStartIndex;
+		}
+	}
+	
+	/* collector for annotation notifications issued while a modification batch
+	 * is open, coalescing them per target annotation, regardless of whether the
+	 * changes were made through the document proper or through any view:
+	 * - an annotation added and removed again within the batch vanishes
+	 * - type and attribute changes to an annotation added in the batch are
+	 *   covered by the addition
+	 * - repeated type changes (and repeated changes to the same attribute)
+	 *   collapse into one, reporting the value from before the batch
+	 * - changes that end up restoring the value from before the batch vanish */
+	private class BatchLog {
+		private ArrayList entries = new ArrayList();
+		private IdentityHashMap entriesByTarget = new IdentityHashMap(); // all views of an annotation share its AnnotationBase
+		
+		private ArrayList getEntries(AnnotationBase target, boolean create) {
+			ArrayList targetEntries = ((ArrayList) this.entriesByTarget.get(target));
+			if ((targetEntries == null) && create) {
+				targetEntries = new ArrayList(2);
+				this.entriesByTarget.put(target, targetEntries);
+			}
+			return targetEntries;
+		}
+		
+		private void log(BatchEntry be) {
+			this.entries.add(be);
+			this.getEntries(be.target, true).add(be);
+		}
+		
+		private BatchEntry findAddition(ArrayList targetEntries) {
+			if (targetEntries == null)
+				return null;
+			for (int e = 0; e < targetEntries.size(); e++) {
+				BatchEntry be = ((BatchEntry) targetEntries.get(e));
+				if (!be.cancelled && (be.kind == BATCH_ANNOTATION_ADDED))
+					return be;
+			}
+			return null;
+		}
+		
+		void annotationAdded(Object source, AnnotationBase added) {
+			this.log(new BatchEntry(BATCH_ANNOTATION_ADDED, source, added, null, null, -1));
+		}
+		
+		void annotationRemoved(Object source, AnnotationBase removed, int absoluteStartIndex) {
+			ArrayList targetEntries = this.getEntries(removed, false);
+			boolean addedInBatch = (this.findAddition(targetEntries) != null);
+			
+			//	earlier changes are moot now that annotation is gone
+			if (targetEntries != null) {
+				for (int e = 0; e < targetEntries.size(); e++)
+					((BatchEntry) targetEntries.get(e)).cancelled = true;
+				targetEntries.clear();
+			}
+			
+			//	annotation never visible to listeners, nothing to report
+			if (addedInBatch)
+				return;
+			this.log(new BatchEntry(BATCH_ANNOTATION_REMOVED, source, removed, null, null, absoluteStartIndex));
+		}
+		
+		void annotationTypeChanged(Object source, AnnotationBase reTyped, String oldType) {
+			ArrayList targetEntries = this.getEntries(reTyped, false);
+			if (this.findAddition(targetEntries) != null)
+				return;
+			if (targetEntries != null)
+				for (int e = 0; e < targetEntries.size(); e++) {
+					BatchEntry be = ((BatchEntry) targetEntries.get(e));
+					if (!be.cancelled && (be.kind == BATCH_ANNOTATION_TYPE_CHANGED))
+						return; // keep type from before the batch
+				}
+			this.log(new BatchEntry(BATCH_ANNOTATION_TYPE_CHANGED, source, reTyped, oldType, null, -1));
+		}
+		
+		void annotationAttributeChanged(Object source, AnnotationBase target, String attributeName, Object oldValue) {
+			ArrayList targetEntries = this.getEntries(target, false);
+			if ((target != null) && (this.findAddition(targetEntries) != null))
+				return;
+			if (targetEntries != null)
+				for (int e = 0; e < targetEntries.size(); e++) {
+					BatchEntry be = ((BatchEntry) targetEntries.get(e));
+					if (!be.cancelled && (be.kind == BATCH_ANNOTATION_ATTRIBUTE_CHANGED) && be.name.equals(attributeName))
+						return; // keep value from before the batch
+				}
+			this.log(new BatchEntry(BATCH_ANNOTATION_ATTRIBUTE_CHANGED, source, target, attributeName, oldValue, -1));
+		}
+		
+		void deliver() {
+			
+			//	collect surviving notifications
+			ArrayList toDeliver = new ArrayList(this.entries.size());
+			for (int e = 0; e < this.entries.size(); e++) {
+				BatchEntry be = ((BatchEntry) this.entries.get(e));
+				if (be.cancelled)
+					continue;
+				if ((be.kind == BATCH_ANNOTATION_TYPE_CHANGED) && be.name.equals(be.target.getType()))
+					continue;
+				if (be.kind == BATCH_ANNOTATION_ATTRIBUTE_CHANGED) {
+					Object value = ((be.target == null) ? GamtaDocument.this.getAttribute(be.name) : be.target.getAttribute(be.name));
+					if ((value == null) ? (be.oldValue == null) : value.equals(be.oldValue))
+						continue;
+				}
+				toDeliver.add(be);
+			}
+			if (toDeliver.isEmpty())
+				return;
+			
+			//	collect annotations whose listeners will receive notifications
+			ArrayList notified = new ArrayList();
+			IdentityHashMap notifiedSet = new IdentityHashMap();
+			for (int e = 0; e < toDeliver.size(); e++) {
+				Object source = ((BatchEntry) toDeliver.get(e)).source;
+				while (source instanceof QueriableAnnotationView) {
+					if ((source instanceof MutableAnnotationView) && (notifiedSet.put(source, source) == null))
+						notified.add(source);
+					source = ((QueriableAnnotationView) source).base;
+				}
+			}
+			notified.add(GamtaDocument.this);
+			
+			//	deliver notifications, bracketed for batch listeners
+			this.notifyBatchListeners(notified, true);
+			for (int e = 0; e < toDeliver.size(); e++) {
+				BatchEntry be = ((BatchEntry) toDeliver.get(e));
+				if (be.source == GamtaDocument.this) {
+					if (be.kind == BATCH_ANNOTATION_ADDED)
+						GamtaDocument.this.notifyAnnotationAdded(be.target);
+					else if (be.kind == BATCH_ANNOTATION_REMOVED)
+						GamtaDocument.this.notifyAnnotationRemoved(be.target, be.absoluteStartIndex);
+					else if (be.kind == BATCH_ANNOTATION_TYPE_CHANGED)
+						GamtaDocument.this.notifyAnnotationTypeChanged(be.target, be.name);
+					else GamtaDocument.this.notifyAnnotationAttributeChanged(be.target, be.name, be.oldValue);
+				}
+				else {
+					MutableAnnotationView source = ((MutableAnnotationView) be.source);
+					if (be.kind == BATCH_ANNOTATION_ADDED)
+						source.notifyAnnotationAdded(be.target);
+					else if (be.kind == BATCH_ANNOTATION_REMOVED)
+						source.notifyAnnotationRemoved(be.target, be.absoluteStartIndex);
+					else if (be.kind == BATCH_ANNOTATION_TYPE_CHANGED)
+						source.notifyAnnotationTypeChanged(be.target, be.name);
+					else source.notifyAnnotationAttributeChanged(be.target, be.name, be.oldValue);
+				}
+			}
+			this.notifyBatchListeners(notified, false);
+		}
+		
+		private void notifyBatchListeners(ArrayList notified, boolean started) {
+			for (int n = 0; n < notified.size(); n++) {
+				Object target = notified.get(n);
+				ArrayList listeners = ((target == GamtaDocument.this) ? annotationListeners : ((MutableAnnotationView) target).annotationListeners);
+				if (listeners == null)
+					continue;
+				QueriableAnnotation doc = null;
+				for (int l = 0; l < listeners.size(); l++) {
+					if (!(listeners.get(l) instanceof BatchAnnotationListener))
+						continue;
+					if (doc == null)
+						doc = new ImmutableAnnotation((QueriableAnnotation) target);
+					try {
+						if (started)
+							((BatchAnnotationListener) listeners.get(l)).batchStarted(doc);
+						else ((BatchAnnotationListener) listeners.get(l)).batchFinished(doc);
+					}
+					catch (Exception e) {
+						System.out.println("Exception notifying batch " + (started ? "start" : "end") + ": " + e.getMessage());
+						e.printStackTrace(System.out);
+					}
+				}
+			}
+		}
+	}
+	
 	private class AnnotationAdjuster implements TokenSequenceListener {
 		/* (non-Javadoc)
 		 * @see de.gamta.TokenSequenceListener#tokenSequenceChanged(de.gamta.MutableTokenSequence.TokenSequenceEvent)
@@ -991,7 +1349,9 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			if (obj instanceof Annotation) {
 				int c = AnnotationUtils.compare(this, ((Annotation) obj));
 				if (c != 0) return c;
-				c = typeNestingOrder.compare(this.getType(), ((Annotation) obj).getType());
+				if (obj instanceof QueriableAnnotationView)
+					c = typeNestingOrder.compareTypeIDs(this.data.typeId, ((QueriableAnnotationView) obj).data.typeId);
+				else c = typeNestingOrder.compare(this.getType(), ((Annotation) obj).getType());
 				if (c != 0) return c;
 				return this.getType().compareTo(((Annotation) obj).getType());
 			}
@@ -1019,7 +1379,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		 * @see de.gamta.defaultImplementation.GamtaDocument.AnnotationBase#getAbsoluteStartIndex()
 		 */
 		public int getAbsoluteStartIndex() {
-			return this.data.absoluteStartIndex;
+			return this.data.getAbsoluteStartIndex();
 		}
 		/* (non-Javadoc)
 		 * @see de.gamta.defaultImplementation.GamtaDocument.AnnotationBase#getAbsoluteStartOffset()
@@ -1110,7 +1470,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		 * @see de.gamta.defaultImplementation.GamtaDocument.AnnotationBase#getStartIndex()
 		 */
 		public int getStartIndex() {
-			return (this.data.absoluteStartIndex - this.base.getAbsoluteStartIndex());
+			return (this.data.getAbsoluteStartIndex() - this.base.getAbsoluteStartIndex());
 		}
 		/* (non-Javadoc)
 		 * @see de.gamta.defaultImplementation.GamtaDocument.AnnotationBase#getStartOffset()
@@ -1349,7 +1709,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 	
 	/**	a mutable view of an annotation, behaving relative to the annotation its was retrieved from
 	 */
-	private class MutableAnnotationView extends QueriableAnnotationView implements MutableAnnotation {
+	private class MutableAnnotationView extends QueriableAnnotationView implements MutableAnnotation, BatchableAnnotation, BulkMutableAnnotation {
 		private ArrayList charListeners = null;
 		private ArrayList tokenListeners = null;
 		private ArrayList annotationListeners = null;
@@ -1403,6 +1763,24 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		public MutableAnnotation addAnnotation(int startIndex, int endIndex, String type) {
 			return this.addAnnotation(type, startIndex, (endIndex - startIndex));
 		}
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.BulkMutableAnnotation#addAnnotations(de.uka.ipd.idaho.gamta.Annotation[])
+		 */
+		public MutableAnnotation[] addAnnotations(Annotation[] annotations) {
+			AnnotationBase[] abs = this.data.addAnnotations(annotations);
+			
+			//	notify own listeners and wrap Annotations
+			MutableAnnotation[] added = new MutableAnnotation[abs.length];
+			for (int a = 0; a < abs.length; a++) {
+				if (abs[a] == null)
+					continue;
+				this.notifyAnnotationAdded(abs[a]);
+				added[a] = new MutableAnnotationView(abs[a], this);
+			}
+			
+			//	return new Annotations
+			return added;
+		}
 		/* (non-Javadoc)
 		 * @see de.gamta.defaultImplementation.GamtaDocument.AnnotationBase#addChar(char)
 		 */
@@ -1655,8 +2033,30 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			if (this.annotationListeners != null)
 				this.annotationListeners.remove(al);
 		}
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.BatchableAnnotation#beginBatch()
+		 */
+		public void beginBatch() {
+			GamtaDocument.this.beginBatch();
+		}
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.BatchableAnnotation#commitBatch()
+		 */
+		public void commitBatch() throws IllegalStateException {
+			GamtaDocument.this.commitBatch();
+		}
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.BatchableAnnotation#abortBatch()
+		 */
+		public void abortBatch() throws IllegalStateException {
+			GamtaDocument.this.abortBatch();
+		}
 		
 		void notifyAnnotationAdded(AnnotationBase added) {
+			if (batchLog != null) {
+				batchLog.annotationAdded(this, added);
+				return;
+			}
 			if (this.annotationListeners != null) {
 				QueriableAnnotation doc = new ImmutableAnnotation(this);
 				Annotation addedAnnotation = new ImmutableAnnotation(new QueriableAnnotationView(added, this));
@@ -1680,9 +2080,17 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		}
 		
 		void notifyAnnotationRemoved(AnnotationBase removed) {
+			this.notifyAnnotationRemoved(removed, removed.getAbsoluteStartIndex());
+		}
+		
+		void notifyAnnotationRemoved(AnnotationBase removed, int absoluteStartIndex) {
+			if (batchLog != null) {
+				batchLog.annotationRemoved(this, removed, absoluteStartIndex);
+				return;
+			}
 			if (this.annotationListeners != null) {
 				QueriableAnnotation doc = new ImmutableAnnotation(this);
-				Annotation removedAnnotation = new TemporaryAnnotation(doc, removed.getType(), (removed.absoluteStartIndex - this.getAbsoluteStartIndex()), removed.size);
+				Annotation removedAnnotation = new TemporaryAnnotation(doc, removed.getType(), (absoluteStartIndex - this.getAbsoluteStartIndex()), removed.size);
 				removedAnnotation.copyAttributes(removed);
 				for (int l = 0; l < this.annotationListeners.size(); l++)
 					((AnnotationListener) this.annotationListeners.get(l)).annotationRemoved(doc, removedAnnotation);
@@ -1691,7 +2099,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			QueriableAnnotation base = this.base;
 			while (base != GamtaDocument.this) {
 				if (base instanceof MutableAnnotationView) {
-					((MutableAnnotationView) base).notifyAnnotationRemoved(removed);
+					((MutableAnnotationView) base).notifyAnnotationRemoved(removed, absoluteStartIndex);
 					return;
 				}
 				else if (base instanceof QueriableAnnotationView)
@@ -1700,10 +2108,14 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 				else base = GamtaDocument.this;
 			}
 			if (base == GamtaDocument.this)
-				GamtaDocument.this.notifyAnnotationRemoved(removed);
+				GamtaDocument.this.notifyAnnotationRemoved(removed, absoluteStartIndex);
 		}
 		
 		void notifyAnnotationTypeChanged(AnnotationBase reTyped, String oldType) {
+			if (batchLog != null) {
+				batchLog.annotationTypeChanged(this, reTyped, oldType);
+				return;
+			}
 			if ((reTyped != this.data) && (this.annotationListeners != null)) {
 				QueriableAnnotation doc = new ImmutableAnnotation(this);
 				Annotation reTypedAnnotation = new ImmutableAnnotation(new QueriableAnnotationView(reTyped, this));
@@ -1727,6 +2139,10 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		}
 		
 		void notifyAnnotationAttributeChanged(AnnotationBase target, String attributeName, Object oldValue) {
+			if (batchLog != null) {
+				batchLog.annotationAttributeChanged(this, target, attributeName, oldValue);
+				return;
+			}
 			if (this.annotationListeners != null) {
 				QueriableAnnotation doc = new ImmutableAnnotation(this);
 				Annotation targetAnnotation = new ImmutableAnnotation(new QueriableAnnotationView(target, this));
@@ -1883,13 +2299,18 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 	//	the basic implementation of an Annotation at this Document, which backs the view(s)
 	private class AnnotationBase extends AbstractAttributed {
 		String type; // the type of the Annotation, corresponding to the XML element name
+		int typeId; // the numerical ID of the type, for comparing and indexing by int
 		
 //		private int absoluteStartIndex; // the index of this Annotation's first token in the TokenSequence of the surrounding GamtaDocument 
 //		private int size; // the number of tokens contained in this Annotation
-		int absoluteStartIndex; // the index of this Annotation's first token in the TokenSequence of the surrounding GamtaDocument 
+		int absoluteStartIndex; // the index of this Annotation's first token in the TokenSequence of the surrounding GamtaDocument, less any index shifts still pending at indexPosition
 		int size; // the number of tokens contained in this Annotation
+		int indexPosition = -1; // the position of this Annotation in the master annotation list, for looking up pending index shifts (-1 if not stored)
+		int typeIndexPosition = -1; // the position of this Annotation in the annotation list for its type, for updating size indexes
 		
-		String annotationId = Gamta.getAnnotationID(); // the ID for this Annotation
+		private long annotationIdHigh = Gamta.getAnnotationIdBits(); // the ID for this Annotation, as 128 random bits ...
+		private long annotationIdLow = Gamta.getAnnotationIdBits();
+		private String annotationId = null; // ... rendered as a String only on demand (or set explicitly)
 		
 //		private long timestamp = System.currentTimeMillis(); // creation time stamp, for maintaining insertion order
 		final long createOrderNumber = getCreateOrderNumber(); // creation order number, for maintaining insertion order
@@ -1899,30 +2320,42 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 //		private Vector views = new Vector(); // the views currently referring to this AbbotationBase, for event notification purposes
 		private ArrayList views = new ArrayList(2); // the views currently referring to this AbbotationBase, for event notification purposes
 		
-		final AnnotationCache subAnnotationsByType = new AnnotationCache(16);
+		private HashMap subAnnotationCache = null; // cache entries for nested annotations by type (null for all types), created on demand
 		
 		AnnotationBase(String type, int startIndex, int size) {
 //			if ((type == null) || (type.trim().length() == 0))
 			if ((type == null) || !AnnotationUtils.isValidAnnotationType(type))
 				throw new IllegalArgumentException("'" + type + "' is not a valid Annotation type");
 			this.type = type;
+			this.typeId = AnnotationUtils.getTypeID(type);
 			this.absoluteStartIndex = startIndex;
 			this.size = size;
 		}
 		
-		void cleanCaches() {
-			if (this.subAnnotationsByType.isEmpty())
-				return;
-			for (Iterator kit = this.subAnnotationsByType.keySet().iterator(); kit.hasNext();) {
-				AnnotationCacheEntry ace = ((AnnotationCacheEntry) this.subAnnotationsByType.get(kit.next()));
-				if (ace.isInvalid())
-					kit.remove();
-			}
+		int getAbsoluteStartIndex() {
+			return annotations.getAbsoluteStartIndex(this);
+		}
+		
+		AnnotationCacheEntry getCachedSubAnnotations(AnnotationList parent) {
+			CacheManager.Entry ce = ((this.subAnnotationCache == null) ? null : ((CacheManager.Entry) this.subAnnotationCache.get(parent.type)));
+			AnnotationCacheEntry ace = ((ce == null) ? null : ((AnnotationCacheEntry) ce.getValue()));
+			if ((ace != null) && ace.isInvalid(parent))
+				cacheManager.remove(ce); // stale, release memory right away (lookup below counts as miss)
+			ace = ((AnnotationCacheEntry) cacheManager.lookup(ce));
+			if ((ace == null) && (ce != null))
+				this.subAnnotationCache.remove(parent.type);
+			return ace;
 		}
 		
-		void clearCaches() {
-			this.subAnnotationsByType.clear();
-//			this.subAnnotationsByTypeAndRange.clear();
+		void cacheSubAnnotations(AnnotationList parent, AnnotationCacheEntry ace) {
+			if (this.subAnnotationCache == null)
+				this.subAnnotationCache = new HashMap(4);
+			this.subAnnotationCache.put(parent.type, cacheManager.cache(ace, ace.getSize()));
+		}
+		
+		void uncacheSubAnnotations(String type) {
+			if (this.subAnnotationCache != null)
+				cacheManager.remove((CacheManager.Entry) this.subAnnotationCache.remove(type));
 		}
 		
 		/* (non-Javadoc)
@@ -1948,7 +2381,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			else if (ANNOTATION_VALUE_ATTRIBUTE.equals(name))
 				return this.getValue();
 			else if (ANNOTATION_ID_ATTRIBUTE.equals(name))
-				return this.annotationId;
+				return this.getAnnotationID();
 			else return super.getAttribute(name, def);
 		}
 		
@@ -1966,7 +2399,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			if (START_INDEX_ATTRIBUTE.equals(name) || SIZE_ATTRIBUTE.equals(name) || END_INDEX_ATTRIBUTE.equals(name) || ANNOTATION_VALUE_ATTRIBUTE.equals(name))
 				return value;
 			else if (ANNOTATION_ID_ATTRIBUTE.equals(name)) {
-				if ((value != null) && (value instanceof String) && (value.toString().trim().length() == this.annotationId.length())) {
+				if ((value != null) && (value instanceof String) && (value.toString().trim().length() == this.getAnnotationID().length())) {
 					String oldId = this.annotationId;
 					this.annotationId = value.toString();
 //					annotations.annotationIDs.remove(oldId);
@@ -1987,7 +2420,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		}
 		synchronized void tokenSequeceChanged(TokenSequenceEvent tse) {
 			if (DEBUG_CHANGE || this.printDebugInfo()) {
-				System.out.println(this.type + " (" + this.absoluteStartIndex + "): Token Sequence Changed at " + tse.index);
+				System.out.println(this.type + " (" + this.getAbsoluteStartIndex() + "): Token Sequence Changed at " + tse.index);
 				System.out.println("  inserted (" + tse.inserted.size() + ") '" + tse.inserted + "'");
 				System.out.println("  removed (" + tse.removed.size() + ") '" + tse.removed + "'");
 			}
@@ -2000,10 +2433,10 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			}
 			
 			//	change ends before start of this annotation, adjust start index
-			if ((tse.index + tse.removed.size()) < this.absoluteStartIndex) {
+			if ((tse.index + tse.removed.size()) < this.getAbsoluteStartIndex()) {
 				this.change = new Change((tse.inserted.size() - tse.removed.size()), 0, null);
 				if (DEBUG_CHANGE || this.printDebugInfo())
-					System.out.println("  before start (" + this.absoluteStartIndex + ")");
+					System.out.println("  before start (" + this.getAbsoluteStartIndex() + ")");
 				
 				//	we are done
 				return;
@@ -2018,10 +2451,10 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 				if (DEBUG_CHANGE || this.printDebugInfo()) System.out.println("  plain removal");
 				
 				//	removal starts befor this Annotation
-				if (tse.index < this.absoluteStartIndex) {
+				if (tse.index < this.getAbsoluteStartIndex()) {
 					if (DEBUG_CHANGE || this.printDebugInfo()) System.out.println("  removal before start");
 					
-					int removedBefore = (this.absoluteStartIndex - tse.index);
+					int removedBefore = (this.getAbsoluteStartIndex() - tse.index);
 					int removedInside = Math.min((tse.removed.size() - removedBefore), this.size);
 					
 					TokenSequence removedTokens = tse.removed.getSubsequence(removedBefore, removedInside);
@@ -2032,7 +2465,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 				}
 				
 				//	removal starts at first token
-				else if (tse.index == this.absoluteStartIndex) {
+				else if (tse.index == this.getAbsoluteStartIndex()) {
 					if (DEBUG_CHANGE || this.printDebugInfo()) System.out.println("  removal at start");
 					
 					int removedInside = Math.min(tse.removed.size(), this.size);
@@ -2051,8 +2484,8 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 					int removedInside = Math.min(tse.removed.size(), (this.getEndIndex() - tse.index));
 					
 					TokenSequence removedTokens = tse.removed.getSubsequence(0, removedInside);
-					relCse = new CharSequenceEvent(GamtaDocument.this, (((tse.index == tokenData.size()) ? tokenData.length() : tokenData.tokenAt(tse.index).getStartOffset()) - tokenData.tokenAt(this.absoluteStartIndex).getStartOffset()), "", removedTokens.toString());
-					relTse = new TokenSequenceEvent(GamtaDocument.this, (tse.index - this.absoluteStartIndex), null, removedTokens, relCse);
+					relCse = new CharSequenceEvent(GamtaDocument.this, (((tse.index == tokenData.size()) ? tokenData.length() : tokenData.tokenAt(tse.index).getStartOffset()) - tokenData.tokenAt(this.getAbsoluteStartIndex()).getStartOffset()), "", removedTokens.toString());
+					relTse = new TokenSequenceEvent(GamtaDocument.this, (tse.index - this.getAbsoluteStartIndex()), null, removedTokens, relCse);
 					
 					this.change = new Change(0, -removedInside, relTse);
 				} // ignore removals at end index
@@ -2063,7 +2496,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 				if (DEBUG_CHANGE || this.printDebugInfo()) System.out.println("  plain insertion");
 				
 				//	insertion at start index, check nesting
-				if (tse.index == this.absoluteStartIndex) {
+				if (tse.index == this.getAbsoluteStartIndex()) {
 					if (DEBUG_CHANGE || this.printDebugInfo()) System.out.println("  insertion at start");
 					
 					//	tokens belong to this Annotation
@@ -2088,7 +2521,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 				else if (tse.index < this.getEndIndex()) {
 					if (DEBUG_CHANGE || this.printDebugInfo()) System.out.println("  insertion inside");
 					
-					relCse = new CharSequenceEvent(GamtaDocument.this, (tokenData.tokenAt(tse.index).getStartOffset() - tokenData.tokenAt(this.absoluteStartIndex).getStartOffset()), tse.inserted.toString(), "");
+					relCse = new CharSequenceEvent(GamtaDocument.this, (tokenData.tokenAt(tse.index).getStartOffset() - tokenData.tokenAt(this.getAbsoluteStartIndex()).getStartOffset()), tse.inserted.toString(), "");
 					relTse = new TokenSequenceEvent(GamtaDocument.this, 0, tse.inserted, null, relCse);
 					
 					//	tokens belong to this Annotation
@@ -2103,7 +2536,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 					if (this.isNestedInThis(modificationSource)) {
 						if (DEBUG_CHANGE || this.printDebugInfo()) System.out.println("  ... and inside");
 						
-						relCse = new CharSequenceEvent(GamtaDocument.this, (tokenData.tokenAt(tse.index).getStartOffset() - tokenData.tokenAt(this.absoluteStartIndex).getStartOffset()), tse.inserted.toString(), "");
+						relCse = new CharSequenceEvent(GamtaDocument.this, (tokenData.tokenAt(tse.index).getStartOffset() - tokenData.tokenAt(this.getAbsoluteStartIndex()).getStartOffset()), tse.inserted.toString(), "");
 						relTse = new TokenSequenceEvent(GamtaDocument.this, 0, tse.inserted, null, relCse);
 						
 						this.change = new Change(0, tse.inserted.size(), relTse);
@@ -2115,7 +2548,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			}
 			
 			//	replacement before start of Annotation
-			else if ((tse.index + tse.removed.size()) == this.absoluteStartIndex) {
+			else if ((tse.index + tse.removed.size()) == this.getAbsoluteStartIndex()) {
 				if (DEBUG_CHANGE || this.printDebugInfo()) System.out.println("  replacement before");
 				this.change = new Change((tse.inserted.size() - tse.removed.size()), 0, null);
 			}
@@ -2131,39 +2564,39 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 				if (DEBUG_CHANGE || this.printDebugInfo()) System.out.println("  replacement overlapping");
 				
 				//	replacement spans both borders of Annotation, remove it
-				if ((tse.index < this.absoluteStartIndex) && ((tse.index + tse.removed.size()) > this.getEndIndex())) {
+				if ((tse.index < this.getAbsoluteStartIndex()) && ((tse.index + tse.removed.size()) > this.getEndIndex())) {
 					if (DEBUG_CHANGE || this.printDebugInfo()) System.out.println("  replacement covering");
 					
-					int removedBefore = (this.absoluteStartIndex - tse.index);
+					int removedBefore = (this.getAbsoluteStartIndex() - tse.index);
 					
 					TokenSequence removedTokens = tse.removed.getSubsequence(removedBefore, this.size);
 					relCse = new CharSequenceEvent(GamtaDocument.this, 0, "", removedTokens.toString());
 					relTse = new TokenSequenceEvent(GamtaDocument.this, 0, null, removedTokens, relCse);
 					
-					this.change = new Change((tse.index - this.absoluteStartIndex), -this.size, relTse);
+					this.change = new Change((tse.index - this.getAbsoluteStartIndex()), -this.size, relTse);
 				}
 				
 				//	replacement completely inside Annotation
-				else if ((tse.index >= this.absoluteStartIndex) && ((tse.index + tse.removed.size()) <= this.getEndIndex())) {
+				else if ((tse.index >= this.getAbsoluteStartIndex()) && ((tse.index + tse.removed.size()) <= this.getEndIndex())) {
 					if (DEBUG_CHANGE || this.printDebugInfo()) System.out.println("  replacement inside");
 					
 					int relOffset = tse.cause.offset - this.getAbsoluteStartOffset();
 					
 					relCse = new CharSequenceEvent(GamtaDocument.this, relOffset, tse.cause.inserted, tse.cause.removed);
-					relTse = new TokenSequenceEvent(GamtaDocument.this, (tse.index - this.absoluteStartIndex), tse.inserted, tse.removed, relCse);
+					relTse = new TokenSequenceEvent(GamtaDocument.this, (tse.index - this.getAbsoluteStartIndex()), tse.inserted, tse.removed, relCse);
 					
 					this.change = new Change(0, (tse.inserted.size() - tse.removed.size()), relTse);
 				}
 				
 				//	replacement spans start of Annotation
-				else if (tse.index < this.absoluteStartIndex) {
+				else if (tse.index < this.getAbsoluteStartIndex()) {
 					if (DEBUG_CHANGE || this.printDebugInfo()) System.out.println("  replacement over start");
 					
 					//	insertion ends before Annotation, we've lost some tokens
-					if ((tse.index + tse.inserted.size()) <= this.absoluteStartIndex) {
+					if ((tse.index + tse.inserted.size()) <= this.getAbsoluteStartIndex()) {
 						if (DEBUG_CHANGE || this.printDebugInfo()) System.out.println("  tokens cut at start");
 						
-						int removedBefore = (this.absoluteStartIndex - tse.index);
+						int removedBefore = (this.getAbsoluteStartIndex() - tse.index);
 						int removedInside = Math.min((tse.removed.size() - removedBefore), this.size);
 						
 						TokenSequence removedTokens = tse.removed.getSubsequence(removedBefore, removedInside);
@@ -2177,7 +2610,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 					else {
 						if (DEBUG_CHANGE || this.printDebugInfo()) System.out.println("  tokens changed over start");
 						
-						int changedBefore = (this.absoluteStartIndex - tse.index);
+						int changedBefore = (this.getAbsoluteStartIndex() - tse.index);
 						int removedInside = Math.min((tse.removed.size() - changedBefore), this.size);
 						int insertedInside = (tse.inserted.size() - changedBefore);
 						
@@ -2199,7 +2632,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 						if (DEBUG_CHANGE || this.printDebugInfo()) System.out.println("  tokens inserted at end");
 						
 						int relOffset = (tokenData.tokenAt(tse.index).getStartOffset() - this.getAbsoluteStartOffset());
-						int relIndex = (tse.index - this.absoluteStartIndex);
+						int relIndex = (tse.index - this.getAbsoluteStartIndex());
 						int removedInside = (this.size - relIndex);
 						int insertedInside = Math.min(tse.inserted.size(), removedInside);
 						
@@ -2216,7 +2649,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 						if (DEBUG_CHANGE || this.printDebugInfo()) System.out.println("  tokens changed over end");
 						
 						int relOffset = (tokenData.tokenAt(tse.index).getStartOffset() - this.getAbsoluteStartOffset());
-						int relIndex = (tse.index - this.absoluteStartIndex);
+						int relIndex = (tse.index - this.getAbsoluteStartIndex());
 						int changedInside = (this.size - relIndex);
 						
 						TokenSequence removedTokens = tse.removed.getSubsequence(0, changedInside);
@@ -2236,13 +2669,13 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 				return true;
 			if (ab == null)
 				return false;
-			if (ab.absoluteStartIndex < this.absoluteStartIndex)
+			if (ab.getAbsoluteStartIndex() < this.getAbsoluteStartIndex())
 				return false;
 			if (ab.getEndIndex() > this.getEndIndex())
 				return false;
-			if ((ab.absoluteStartIndex == this.absoluteStartIndex) && (ab.size == this.size)) {
+			if ((ab.getAbsoluteStartIndex() == this.getAbsoluteStartIndex()) && (ab.size == this.size)) {
 //				int ano = annotationNestingOrder.getNestingOrder(this.type, ab.type);
-				int ano = typeNestingOrder.compare(this.type, ab.type);
+				int ano = typeNestingOrder.compareTypeIDs(this.typeId, ab.typeId);
 //				if (ano == 0)
 //					return (this.timestamp < ab.timestamp);
 				if (ano == 0)
@@ -2284,14 +2717,17 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 				throw new IllegalArgumentException("'" + newType + "' is not a valid Annotation type");
 			String oldType = this.type;
 			this.type = newType;
+			this.typeId = AnnotationUtils.getTypeID(newType);
 			annotations.annotationTypeChanged(this, oldType);
 			return oldType;
 		}
 		String getAnnotationID() {
+			if (this.annotationId == null)
+				this.annotationId = Gamta.getAnnotationID(this.annotationIdHigh, this.annotationIdLow);
 			return this.annotationId;
 		}
 		int getEndIndex() {
-			return (this.absoluteStartIndex + this.size);
+			return (this.getAbsoluteStartIndex() + this.size);
 		}
 		String getType() {
 			return this.type;
@@ -2322,7 +2758,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		}
 		void clear() {
 			modificationSource = this;
-			tokenData.removeTokensAt(this.absoluteStartIndex, this.size);
+			tokenData.removeTokensAt(this.getAbsoluteStartIndex(), this.size);
 			modificationSource = null;
 		}
 		protected void finalize() throws Throwable {
@@ -2344,10 +2780,10 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			this.views.clear();
 		}
 		Token firstToken() {
-			return tokenData.tokenAt(this.absoluteStartIndex);
+			return tokenData.tokenAt(this.getAbsoluteStartIndex());
 		}
 		String firstValue() {
-			return tokenData.valueAt(this.absoluteStartIndex);
+			return tokenData.valueAt(this.getAbsoluteStartIndex());
 		}
 		String getLeadingWhitespace() {
 			return "";
@@ -2355,12 +2791,12 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		MutableTokenSequence getMutableSubsequence(int start, int size) {
 			if ((start + size) > this.size)
 				throw new IndexOutOfBoundsException("" + start + "+" + size + " > " + this.size);
-			return tokenData.getMutableSubsequence((start + this.absoluteStartIndex), size);
+			return tokenData.getMutableSubsequence((start + this.getAbsoluteStartIndex()), size);
 		}
 		TokenSequence getSubsequence(int start, int size) {
 			if ((start + size) > this.size)
 				throw new IndexOutOfBoundsException("" + start + "+" + size + " > " + this.size);
-			return tokenData.getSubsequence((start + this.absoluteStartIndex), size);
+			return tokenData.getSubsequence((start + this.getAbsoluteStartIndex()), size);
 		}
 		Tokenizer getTokenizer() {
 			return tokenData.getTokenizer();
@@ -2370,13 +2806,13 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 				throw new IndexOutOfBoundsException("" + index + " >= " + this.size);
 			if ((index + 1) == this.size)
 				return "";
-			return tokenData.getWhitespaceAfter(index + this.absoluteStartIndex);
+			return tokenData.getWhitespaceAfter(index + this.getAbsoluteStartIndex());
 		}
 		void insertChar(char ch, int offset) {
 //			if (offset > this.length())
 //				throw new IndexOutOfBoundsException("" + offset + " > " + this.length());
 			//	allow char modification in whitespace after last token
-			if (offset > (this.length() + tokenData.getWhitespaceAfter(this.absoluteStartIndex + this.size - 1).length()))
+			if (offset > (this.length() + tokenData.getWhitespaceAfter(this.getAbsoluteStartIndex() + this.size - 1).length()))
 				throw new IndexOutOfBoundsException("" + offset + " > " + this.length());
 			modificationSource = this;
 			tokenData.insertChar(ch, (offset + this.getAbsoluteStartOffset()));
@@ -2386,7 +2822,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 //			if (offset > this.length())
 //				throw new IndexOutOfBoundsException("" + offset + " > " + this.length());
 			//	allow char modification in whitespace after last token
-			if (offset > (this.length() + tokenData.getWhitespaceAfter(this.absoluteStartIndex + this.size - 1).length()))
+			if (offset > (this.length() + tokenData.getWhitespaceAfter(this.getAbsoluteStartIndex() + this.size - 1).length()))
 				throw new IndexOutOfBoundsException("" + offset + " > " + this.length());
 			modificationSource = this;
 			tokenData.insertChars(chars, (offset + this.getAbsoluteStartOffset()));
@@ -2396,15 +2832,15 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			if (index > this.size)
 				throw new IndexOutOfBoundsException("" + index + " > " + this.size);
 			modificationSource = this;
-			CharSequence ch = tokenData.insertTokensAt(tokens, (index + this.absoluteStartIndex));
+			CharSequence ch = tokenData.insertTokensAt(tokens, (index + this.getAbsoluteStartIndex()));
 			modificationSource = null;
 			return ch;
 		}
 		Token lastToken() {
-			return tokenData.tokenAt(this.absoluteStartIndex + this.size - 1);
+			return tokenData.tokenAt(this.getAbsoluteStartIndex() + this.size - 1);
 		}
 		String lastValue() {
-			return tokenData.valueAt(this.absoluteStartIndex + this.size - 1);
+			return tokenData.valueAt(this.getAbsoluteStartIndex() + this.size - 1);
 		}
 		int length() {
 			return (this.getEndOffset() - this.getAbsoluteStartOffset());
@@ -2429,7 +2865,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			if ((index + size) > this.size)
 				throw new IndexOutOfBoundsException("" + index + "+" + size + " > " + this.size);
 			modificationSource = this;
-			TokenSequence ts = tokenData.removeTokensAt((index + this.absoluteStartIndex), size);
+			TokenSequence ts = tokenData.removeTokensAt((index + this.getAbsoluteStartIndex()), size);
 			modificationSource = null;
 			return ts;
 		}
@@ -2437,7 +2873,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 //			if ((offset + 1) > this.length())
 //				throw new IndexOutOfBoundsException("" + offset + "+" + 1 + " > " + this.length());
 			//	allow char modification in whitespace after last token
-			if ((offset + 1) > (this.length() + tokenData.getWhitespaceAfter(this.absoluteStartIndex + this.size - 1).length()))
+			if ((offset + 1) > (this.length() + tokenData.getWhitespaceAfter(this.getAbsoluteStartIndex() + this.size - 1).length()))
 				throw new IndexOutOfBoundsException("" + offset + "+" + 1 + " > " + this.length());
 			modificationSource = this;
 			char c = tokenData.setChar(ch, (offset + this.getAbsoluteStartOffset()));
@@ -2448,7 +2884,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 //			if ((offset + length) > this.length())
 //				throw new IndexOutOfBoundsException("" + offset + "+" + length + " > " + this.length());
 			//	allow char modification in whitespace after last token
-			if ((offset + length) > (this.length() + tokenData.getWhitespaceAfter(this.absoluteStartIndex + this.size - 1).length()))
+			if ((offset + length) > (this.length() + tokenData.getWhitespaceAfter(this.getAbsoluteStartIndex() + this.size - 1).length()))
 				throw new IndexOutOfBoundsException("" + offset + "+" + length + " > " + this.length());
 			modificationSource = this;
 			CharSequence cs = tokenData.setChars(chars, (offset + this.getAbsoluteStartOffset()), length);
@@ -2463,7 +2899,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			if (index >= this.size)
 				throw new IndexOutOfBoundsException("" + index + " >= " + this.size);
 			modificationSource = this;
-			CharSequence cs = tokenData.setValueAt(value, (index + this.absoluteStartIndex));
+			CharSequence cs = tokenData.setValueAt(value, (index + this.getAbsoluteStartIndex()));
 			modificationSource = null;
 			return cs;
 		}
@@ -2473,7 +2909,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 //			else if ((index+1) == this.size)
 //				return whitespace;
 			modificationSource = this;
-			CharSequence cs = tokenData.setWhitespaceAfter(whitespace, (index + this.absoluteStartIndex));
+			CharSequence cs = tokenData.setWhitespaceAfter(whitespace, (index + this.getAbsoluteStartIndex()));
 			modificationSource = null;
 			return cs;
 		}
@@ -2490,7 +2926,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		Token tokenAt(int index) {
 			if (index >= this.size)
 				throw new IndexOutOfBoundsException("" + index + " >= " + this.size);
-			return tokenData.tokenAt(index + this.absoluteStartIndex);
+			return tokenData.tokenAt(index + this.getAbsoluteStartIndex());
 		}
 		String getValue() {
 			return tokenData.subSequence(this.getAbsoluteStartOffset(), this.getEndOffset()).toString();
@@ -2498,7 +2934,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		String valueAt(int index) {
 			if (index >= this.size)
 				throw new IndexOutOfBoundsException("" + index + " >= " + this.size);
-			return tokenData.valueAt(index + this.absoluteStartIndex);
+			return tokenData.valueAt(index + this.getAbsoluteStartIndex());
 		}
 		MutableCharSequence mutableSubSequence(int start, int end) {
 			if (start < 0)
@@ -2507,9 +2943,6 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 				throw new IndexOutOfBoundsException("" + end + " > " + this.length());
 			return tokenData.mutableSubSequence((start + this.getAbsoluteStartOffset()), (end + this.getAbsoluteStartOffset()));
 		}
-//		int getAbsoluteStartIndex() {
-//			return this.absoluteStartIndex;
-//		}
 		int getAbsoluteStartOffset() {
 			return this.firstToken().getStartOffset();
 		}
@@ -2517,7 +2950,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			AnnotationBase ab = annotations.getAnnotation(id);
 			if (ab == null)
 				return null;
-			if (ab.absoluteStartIndex < this.absoluteStartIndex)
+			if (ab.getAbsoluteStartIndex() < this.getAbsoluteStartIndex())
 				return null;
 			if (this.getEndIndex() < ab.getEndIndex())
 				return null;
@@ -2559,6 +2992,9 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			//	return Annotation
 			return ab;
 		}
+		AnnotationBase[] addAnnotations(Annotation[] annotations) {
+			return addAnnotationsAbsolute(annotations, this.getAbsoluteStartIndex());
+		}
 		AnnotationBase addAnnotationAbsolute(String type, int startIndex, int size) {
 			
 			//	check parameters
@@ -2566,7 +3002,7 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 				return null;
 			
 			//	create Annotation
-			AnnotationBase ab = new AnnotationBase(type, (startIndex + this.absoluteStartIndex), size);
+			AnnotationBase ab = new AnnotationBase(type, (startIndex + this.getAbsoluteStartIndex()), size);
 			annotations.storeAnnotation(ab);
 			
 			//	return Annotation
@@ -2583,15 +3019,15 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			return ts;
 		}
 		int compareTo(AnnotationBase ab) {
-			int c = (this.absoluteStartIndex - ab.absoluteStartIndex);
+			int c = (this.getAbsoluteStartIndex() - ab.getAbsoluteStartIndex());
 			if (c != 0)
 				return c;
 			c = (ab.size - this.size);
 			if (c != 0)
 				return c;
 //			c = annotationNestingOrder.getNestingOrder(this.type, ab.type);
-			if (!this.type.equals(ab.type)) {
-				c = typeNestingOrder.compare(this.type, ab.type);
+			if (this.typeId != ab.typeId) {
+				c = typeNestingOrder.compareTypeIDs(this.typeId, ab.typeId);
 				if (c != 0)
 					return c;
 			}
@@ -2763,22 +3199,67 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 //		}
 //	}
 	
-	private static class CacheCleaningTrigger {
-		private AnnotationList annotList;
-		CacheCleaningTrigger(AnnotationList annotList) {
-			this.annotList = annotList;
+	/* Fenwick tree over the positions of the annotations in the master
+	 * annotation list, holding the start index shifts that token sequence
+	 * changes have caused for the annotations after them. This way, a change
+	 * has to touch only the annotations it actually affects, while shifting
+	 * the start indexes of all the annotations after it takes O(log n). */
+	private static class IndexShiftTree {
+		private int[] shifts;
+		private boolean isEmpty = true;
+		IndexShiftTree(int capacity) {
+			this.shifts = new int[capacity + 1];
+		}
+		void addShift(int fromPosition, int shift) {
+			for (int p = (fromPosition + 1); p < this.shifts.length; p += (p & -p))
+				this.shifts[p] += shift;
+			this.isEmpty = false;
+		}
+		int getShift(int position) {
+			if (this.isEmpty)
+				return 0;
+			int shift = 0;
+			for (int p = (position + 1); p > 0; p -= (p & -p))
+				shift += this.shifts[p];
+			return shift;
 		}
-		protected void finalize() throws Throwable {
-			this.annotList.cleanCaches();
+		boolean isEmpty() {
+			return this.isEmpty;
 		}
-	}
-	private static class CacheClearingTrigger {
-		private AnnotationList annotList;
-		CacheClearingTrigger(AnnotationList annotList) {
-			this.annotList = annotList;
+		void clear() {
+			if (this.isEmpty)
+				return;
+			Arrays.fill(this.shifts, 0);
+			this.isEmpty = true;
 		}
-		protected void finalize() throws Throwable {
-			this.annotList.clearCaches();
+	}
+	
+	/* Implicit binary tree over the positions of the annotations in a sorted
+	 * annotation list, holding the maximum size of the annotations under each
+	 * node. As the annotations are sorted by start index, the last start index
+	 * in a node plus the maximum size is an upper bound for the end indexes of
+	 * all the annotations in the node, which prunes range queries to O(log n +
+	 * k), no matter how long the longest annotations are. Unlike end indexes,
+	 * sizes remain valid when start indexes shift. */
+	private static class AnnotationSizeTree {
+		private final int[] maxSizes;
+		private final int leafOffset;
+		AnnotationSizeTree(AnnotationBase[] annots, int annotCount) {
+			int leafOffset = 1;
+			while (leafOffset < annotCount)
+				leafOffset <<= 1;
+			this.leafOffset = leafOffset;
+			this.maxSizes = new int[this.leafOffset * 2];
+			for (int a = 0; a < annotCount; a++)
+				this.maxSizes[this.leafOffset + a] = annots[a].size;
+			for (int n = (this.leafOffset - 1); n > 0; n--)
+				this.maxSizes[n] = Math.max(this.maxSizes[n * 2], this.maxSizes[(n * 2) + 1]);
+		}
+		void setSize(int position, int size) {
+			int n = (this.leafOffset + position);
+			this.maxSizes[n] = size;
+			for (n /= 2; n > 0; n /= 2)
+				this.maxSizes[n] = Math.max(this.maxSizes[n * 2], this.maxSizes[(n * 2) + 1]);
 		}
 	}
 	
@@ -2798,38 +3279,98 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		private int cleanTypeModCount = 0;
 		private int cleanOrderModCount = orderModCount;
 		private final String type;
+		private IndexShiftTree indexShifts; // only used in master list (the one holding annotations of all types)
 		
-		private int maxAnnotSize = 0;
-		private SoftReference cacheCleaningTrigger;
-		private SoftReference cacheClearingTrigger;
+		private AnnotationSizeTree sizeTree = null; // built on demand, and discarded on changes to order
 		
 		AnnotationList(String type) {
 			this.type = type;
-			this.cacheCleaningTrigger = new SoftReference(new CacheCleaningTrigger(this));
-			this.cacheClearingTrigger = new SoftReference(new CacheClearingTrigger(this));
+			if (this.type == null)
+				this.indexShifts = new IndexShiftTree(this.annots.length);
 		}
 		void addAnnotation(AnnotationBase ab) {
 			if (ab == null)
 				return;
-			this.removed.remove(ab);
+			if (this.removed.remove(ab)) /* still in array, only pending removal (e.g. after changing type back and forth) */ {
+				this.annotationSizeChanged(ab);
+				this.modCount++;
+				return;
+			}
 			if (this.annotCount == this.annots.length) {
+				this.applyIndexShifts();
 				AnnotationBase[] annots = new AnnotationBase[this.annots.length * 2];
 				System.arraycopy(this.annots, 0, annots, 0, this.annots.length);
 				this.annots = annots;
+				if (this.indexShifts != null)
+					this.indexShifts = new IndexShiftTree(this.annots.length);
 			}
+			if (this.indexShifts != null) {
+				ab.absoluteStartIndex -= this.indexShifts.getShift(this.annotCount); // store start index relative to shifts pending at new position
+				ab.indexPosition = this.annotCount;
+			}
+			else ab.typeIndexPosition = this.annotCount;
 			this.annots[this.annotCount++] = ab;
-			if (this.maxAnnotSize < ab.size)
-				this.maxAnnotSize = ab.size;
+			this.sizeTree = null;
 			this.modCount++;
 			this.addCount++;
-			this.cacheClearingTrigger.get(); // touch clearing trigger, so cleaning trigger gets reclaimed first
+		}
+		void addAnnotations(AnnotationBase[] abs) {
+			
+			//	bring existing annotations in order (no-op unless there are single additions pending)
+			this.ensureSorted();
+			this.applyIndexShifts();
+			
+			//	make room
+			int annotCount = (this.annotCount + abs.length);
+			if (this.annots.length < annotCount) {
+				int length = this.annots.length;
+				while (length < annotCount)
+					length *= 2;
+				AnnotationBase[] annots = new AnnotationBase[length];
+				System.arraycopy(this.annots, 0, annots, 0, this.annotCount);
+				this.annots = annots;
+				if (this.indexShifts != null)
+					this.indexShifts = new IndexShiftTree(this.annots.length);
+			}
+			
+			/* token sequence changes can collapse annotations onto the same
+			 * start index without re-sorting, so check existing annotations
+			 * are still in order, and simply append and sort if they're not */
+			boolean existingSorted = true;
+			for (int a = 1; a < this.annotCount; a++)
+				if (this.annots[a-1].compareTo(this.annots[a]) > 0) {
+					existingSorted = false;
+					break;
+				}
+			
+			//	merge pre-sorted batch in from the end
+			int e = (this.annotCount - 1);
+			if (existingSorted) {
+				int b = (abs.length - 1);
+				for (int a = (annotCount - 1); b >= 0; a--) {
+					if ((e >= 0) && (abs[b].compareTo(this.annots[e]) < 0))
+						this.annots[a] = this.annots[e--];
+					else this.annots[a] = abs[b--];
+				}
+			}
+			else {
+				System.arraycopy(abs, 0, this.annots, this.annotCount, abs.length);
+				Arrays.sort(this.annots, 0, annotCount, annotationBaseOrder);
+				e = -1;
+			}
+			this.annotCount = annotCount;
+			
+			//	update positions from first moved annotation onward
+			this.updateIndexPositions(e + 1);
+			this.modCount++;
+			this.addCount += abs.length;
+			this.cleanAddCount = this.addCount;
 		}
 		void removeAnnotation(AnnotationBase ab) {
 			if (ab == null)
 				return;
 			this.removed.add(ab);
 			this.modCount++;
-			this.cacheClearingTrigger.get(); // touch clearing trigger, so cleaning trigger gets reclaimed first
 		}
 		AnnotationBase getAnnotation(int index) {
 			this.ensureSorted();
@@ -2851,103 +3392,118 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			this.ensureSorted();
 			return Arrays.copyOfRange(this.annots, 0, this.annotCount);
 		}
+		AnnotationBase[] getAnnotationsAffectedBy(int changeIndex, int changeEndIndex) {
+			return this.getAnnotationsIn(0, changeEndIndex, changeIndex, Integer.MAX_VALUE);
+		}
 		AnnotationBase[] getAnnotations(int maxAbsoluteStartIndex, int minAbsoluteEndIndex) {
 			//	no use caching ranges, way too little chance of cache hits
-			int minAbsoluteStartIndex = Math.max(0, (minAbsoluteEndIndex - this.maxAnnotSize));
-			int maxAbsoluteEndIndex = Math.min(GamtaDocument.this.size(), (maxAbsoluteStartIndex + this.maxAnnotSize));
-			return this.getAnnotationsIn(minAbsoluteStartIndex, maxAbsoluteStartIndex, minAbsoluteEndIndex, maxAbsoluteEndIndex);
+			return this.getAnnotationsIn(0, maxAbsoluteStartIndex, minAbsoluteEndIndex, Integer.MAX_VALUE);
 		}
 		AnnotationBase[] getAnnotationsIn(AnnotationBase base) {
-			AnnotationCacheEntry annots = base.subAnnotationsByType.lookup(this.type);
-			if ((annots == null) || annots.isInvalid(this)) /* cache miss, or entry stale */ {
-				AnnotationBase[] abs = this.getAnnotationsIn(base.absoluteStartIndex, (base.getEndIndex()-1), (base.absoluteStartIndex+1), base.getEndIndex());
+			AnnotationCacheEntry annots = base.getCachedSubAnnotations(this);
+			if (annots == null) /* cache miss, or entry stale or evicted */ {
+				AnnotationBase[] abs = this.getAnnotationsIn(base.getAbsoluteStartIndex(), (base.getEndIndex()-1), (base.getAbsoluteStartIndex()+1), base.getEndIndex());
 				annots = new AnnotationCacheEntry(abs, this);
-				base.subAnnotationsByType.cache(this.type, annots);
+				base.cacheSubAnnotations(this, annots);
 			}
 			return annots.annotations;
 		}
 		AnnotationBase[] getAnnotationsIn(AnnotationBase base, int maxRelativeStartIndex, int minRelativeEndIndex) {
+			//	no use caching ranges, way too little chance of cache hits
+			int baseStartIndex = base.getAbsoluteStartIndex();
+			return this.getAnnotationsIn(baseStartIndex, (baseStartIndex + maxRelativeStartIndex), (baseStartIndex + minRelativeEndIndex), base.getEndIndex());
+		}
+		private AnnotationBase[] getAnnotationsIn(int minAbsoluteStartIndex, int maxAbsoluteStartIndex, int minAbsoluteEndIndex, int maxAbsoluteEndIndex) {
 			
-			//	get all contained annotations (no use caching ranges, way too little chance of cache hits)
-			AnnotationBase[] allAnnots = this.getAnnotationsIn(base);
+			//	make sure we're good to go
+			this.ensureSorted();
+			if (this.sizeTree == null)
+				this.sizeTree = new AnnotationSizeTree(this.annots, this.annotCount);
 			
-			//	make indexes absolute
-			int maxAbsoluteStartIndex = (base.absoluteStartIndex + maxRelativeStartIndex);
-			int minAbsoluteEndIndex = (base.absoluteStartIndex + minRelativeEndIndex);
+			//	find range of start indexes
+			int left = this.findPosition(minAbsoluteStartIndex);
+			int right = this.findPosition(maxAbsoluteStartIndex + 1);
 			
-			//	get qualifying annotations
+			//	collect and return matching annotations
 			ArrayList annotList = new ArrayList();
-			for (int a = 0; a < allAnnots.length; a++) {
-				if (maxAbsoluteStartIndex < allAnnots[a].absoluteStartIndex)
-					break;
-				if (minAbsoluteEndIndex <= allAnnots[a].getEndIndex())
-					annotList.add(this.annots[a]);
-			}
+			if (left < right)
+				this.collectAnnotations(1, 0, this.sizeTree.leafOffset, left, right, minAbsoluteEndIndex, maxAbsoluteEndIndex, annotList);
 			return ((AnnotationBase[]) annotList.toArray(new AnnotationBase[annotList.size()]));
 		}
-		private AnnotationBase[] getAnnotationsIn(int minAbsoluteStartIndex, int maxAbsoluteStartIndex, int minAbsoluteEndIndex, int maxAbsoluteEndIndex) {
-			
-			//	make sure we're good to go
-			this.ensureSorted();
+		private void collectAnnotations(int node, int nodeLeft, int nodeRight, int left, int right, int minAbsoluteEndIndex, int maxAbsoluteEndIndex, ArrayList annotList) {
+			if ((nodeRight <= left) || (right <= nodeLeft))
+				return; // outside start index range
+			int last = (Math.min(nodeRight, right) - 1);
+			if ((this.annots[last].getAbsoluteStartIndex() + this.sizeTree.maxSizes[node]) < minAbsoluteEndIndex)
+				return; // all annotations in node end before range
+			if ((nodeRight - nodeLeft) == 1) {
+				int endIndex = this.annots[nodeLeft].getEndIndex();
+				if ((minAbsoluteEndIndex <= endIndex) && (endIndex <= maxAbsoluteEndIndex)) // end index in range, we have a match
+					annotList.add(this.annots[nodeLeft]);
+				return;
+			}
+			int nodeMiddle = ((nodeLeft + nodeRight) / 2);
+			this.collectAnnotations((node * 2), nodeLeft, nodeMiddle, left, right, minAbsoluteEndIndex, maxAbsoluteEndIndex, annotList);
+			this.collectAnnotations(((node * 2) + 1), nodeMiddle, nodeRight, left, right, minAbsoluteEndIndex, maxAbsoluteEndIndex, annotList);
+		}
+		private int findPosition(int absoluteStartIndex) {
 			
-			//	binary search first annotation
+			//	binary search first annotation starting at or after argument index
 			int left = 0;
 			int right = this.annotCount;
-			
-			//	narrow staring point with binary search down to a 2 interval
-			int start = -1;
-			for (int c; (start == -1) && ((right - left) > 2);) {
+			while (left < right) {
 				int middle = ((left + right) / 2);
-				
-				//	start linear search if interval down to 4
-				if ((right - left) < 4)
-					c = 0;
-				else c = (this.annots[middle].absoluteStartIndex - minAbsoluteStartIndex);
-				
-				if (c < 0)
-					left = middle; // starting point is right of middle
-				else if (c == 0) { // start of Annotation at middle is equal to base start of base, scan leftward for others at same start
-					start = middle;
-					while ((start != 0) && (minAbsoluteStartIndex <= this.annots[start].absoluteStartIndex))
-						start --; // count down to 0 at most
-				}
-				else right = middle; // starting point is left of middle
+				if (this.annots[middle].getAbsoluteStartIndex() < absoluteStartIndex)
+					left = (middle + 1);
+				else right = middle;
 			}
+			return left;
+		}
+		void annotationSizeChanged(AnnotationBase ab) {
+			if (this.sizeTree == null)
+				return;
+			int position = ((this.indexShifts == null) ? ab.typeIndexPosition : ab.indexPosition);
+			if ((position != -1) && (position < this.annotCount) && (this.annots[position] == ab))
+				this.sizeTree.setSize(position, ab.size);
+			else this.sizeTree = null;
+		}
+		int getAbsoluteStartIndex(AnnotationBase ab) {
+			if (ab.indexPosition == -1)
+				return ab.absoluteStartIndex;
+			return (ab.absoluteStartIndex + this.indexShifts.getShift(ab.indexPosition));
+		}
+		void shiftIndexes(int minAbsoluteStartIndex, int shift) {
+			if (shift == 0)
+				return;
+			this.ensureSorted();
 			
-			//	ensure valid index
-			start = Math.max(start, 0);
-			
-			//	move right to exact staring point
-			while ((start < this.annotCount) && (this.annots[start].absoluteStartIndex < minAbsoluteStartIndex))
-				start++;
-			
-			//	move left to exact staring point
-			while ((start != 0) && (minAbsoluteStartIndex <= this.annots[start-1].absoluteStartIndex))
-				start--;
-			
-			//	collect and return matching annotations
-			ArrayList annotList = new ArrayList();
-			for (int a = start; a < this.annotCount; a++) {
-				if (maxAbsoluteStartIndex < this.annots[a].absoluteStartIndex) // to right of last potential match
-					break;
-				if ((minAbsoluteEndIndex <= this.annots[a].getEndIndex()) && (this.annots[a].getEndIndex() <= maxAbsoluteEndIndex)) // end index in range, we have a match
-					annotList.add(this.annots[a]);
-			}
-			return ((AnnotationBase[]) annotList.toArray(new AnnotationBase[annotList.size()]));
+			//	shift start indexes from first annotation starting at or after argument index onward
+			int left = this.findPosition(minAbsoluteStartIndex);
+			if (left < this.annotCount)
+				this.indexShifts.addShift(left, shift);
 		}
-		void cleanup() {
+		private void applyIndexShifts() {
+			if ((this.indexShifts == null) || this.indexShifts.isEmpty())
+				return;
 			for (int a = 0; a < this.annotCount; a++)
-				if (this.annots[a].size <= 0) {
-					this.removed.add(this.annots[a]);
-					this.modCount++;
-					if (AnnotationBase.DEBUG_CHANGE || this.annots[a].printDebugInfo())
-						System.out.println("REMOVED: " + this.annots[a].type + " at " + this.annots[a].absoluteStartIndex + " sized " + this.annots[a].size);
-				}
-			this.ensureClean();
+				this.annots[a].absoluteStartIndex += this.indexShifts.getShift(a);
+			this.indexShifts.clear();
+		}
+		private void updateIndexPositions(int from) {
+			if (this.indexShifts == null)
+				for (int a = from; a < this.annotCount; a++)
+					this.annots[a].typeIndexPosition = a;
+			else for (int a = from; a < this.annotCount; a++)
+				this.annots[a].indexPosition = a;
+			this.sizeTree = null;
 		}
 		void clear() {
+			this.applyIndexShifts();
+			for (int a = 0; (this.indexShifts != null) && (a < this.annotCount); a++)
+				this.annots[a].indexPosition = -1;
 			Arrays.fill(this.annots, 0, this.annotCount, null); // free up references to help GC
 			this.annotCount = 0;
+			this.sizeTree = null;
 			this.removed.clear();
 			this.modCount++;
 		}
@@ -2961,61 +3517,37 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			/* TODOnot if order and types unmodified, we can even save sorting the whole list:
 			 * - sort only added annotations ...
 			 * - ... and then merge them into main list in single pass
-			 * ==> but then, TimSort already does pretty much that ... */
+			 * ==> but then, TimSort already does pretty much that ...
+			 * ==> bulk additions via addAnnotations() do merge right away */
+			this.applyIndexShifts();
 			Arrays.sort(this.annots, 0, this.annotCount, annotationBaseOrder);
+			this.updateIndexPositions(0);
 			this.cleanAddCount = this.addCount;
 			this.cleanTypeModCount = this.typeModCount;
 			this.cleanOrderModCount = orderModCount;
 		}
 		private void ensureClean() {
-			this.cacheClearingTrigger.get(); // touch clearing trigger, so cleaning trigger gets reclaimed first
 			if (this.removed.isEmpty())
 				return;
+			this.applyIndexShifts();
 			int removed = 0;
-			int maxAnnotSize = 0;
 			for (int a = 0; a < this.annotCount; a++) {
-				if (this.removed.contains(this.annots[a]))
+				if (this.removed.contains(this.annots[a])) {
+					if (this.indexShifts != null)
+						this.annots[a].indexPosition = -1;
 					removed++;
+				}
 				else {
-					this.annots[a].subAnnotationsByType.remove(this.type); // cache entries are invalid now
-					if (maxAnnotSize < this.annots[a].size)
-						maxAnnotSize = this.annots[a].size;
+					this.annots[a].uncacheSubAnnotations(this.type); // cache entries are invalid now
 					if (removed != 0)
 						this.annots[a - removed] = this.annots[a];
 				}
 			}
 			Arrays.fill(this.annots, (this.annotCount - removed), this.annotCount, null); // free up references to help GC
 			this.annotCount -= removed;
-			this.maxAnnotSize = maxAnnotSize;
+			this.updateIndexPositions(0);
 			this.removed.clear();
 		}
-		void cleanCaches() {
-			for (int a = 0; a < this.annotCount; a++)
-				this.annots[a].cleanCaches();
-			this.cacheCleaningTrigger = new SoftReference(new CacheCleaningTrigger(this));
-		}
-		void clearCaches() {
-			for (int a = 0; a < this.annotCount; a++)
-				this.annots[a].clearCaches();
-			this.cacheClearingTrigger = new SoftReference(new CacheClearingTrigger(this));
-		}
-	}
-	
-	private static class AnnotationCache extends LinkedHashMap {
-		private int maxCapacity;
-		AnnotationCache(int maxCapacity) {
-			super(8, 0.9f, true);
-			this.maxCapacity = maxCapacity;
-		}
-		AnnotationCacheEntry lookup(String key) {
-			return ((AnnotationCacheEntry) this.get(key));
-		}
-		void cache(String key, AnnotationCacheEntry entry) {
-			this.put(key, entry);
-		}
-		protected boolean removeEldestEntry(Entry eldest) {
-			return (this.maxCapacity < this.size());
-		}
 	}
 	
 	private static class AnnotationCacheEntry {
@@ -3030,34 +3562,76 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		boolean isInvalid(AnnotationList parent) {
 			return ((parent != this.parent) || (this.createModCount != this.parent.modCount));
 		}
-		boolean isInvalid() {
-			return (this.createModCount != this.parent.modCount);
+		long getSize() {
+			return (96 + (this.annotations.length * 4)); // estimate: entry objects, array header, and compressed references
 		}
 	}
 	
 	private static final AnnotationBase[] emptyAnnotationBaseArray = {};
 	private class AnnotationStore {
 		private AnnotationList annotations = new AnnotationList(null);
-		private HashMap annotationsByType = new HashMap();
-		private HashMap annotationsByID = new HashMap();
+		private AnnotationList[] annotationsByTypeId = new AnnotationList[16]; // indexed by type ID
+		private HashMap annotationsByID = null; // built on first lookup, as it requires rendering all annotation IDs
+		private HashSet emptyTypeCandidates = new HashSet();
 		
 		private AnnotationList getAnnotationList(String type, boolean create) {
 			if (type == null)
 				return this.annotations;
-			AnnotationList al = ((AnnotationList) this.annotationsByType.get(type));
-			if ((al == null) && create) {
-				al = new AnnotationList(type);
-				this.annotationsByType.put(type, al);
+			int typeId = AnnotationUtils.getTypeID(type, create);
+			if (typeId == -1)
+				return null; // never seen this type before, so we can't have any annotations of it
+			if (typeId < this.annotationsByTypeId.length) {
+				if ((this.annotationsByTypeId[typeId] != null) || !create)
+					return this.annotationsByTypeId[typeId];
 			}
-			return al;
+			else if (create) {
+				AnnotationList[] annotationsByTypeId = new AnnotationList[Math.max((this.annotationsByTypeId.length * 2), (typeId + 1))];
+				System.arraycopy(this.annotationsByTypeId, 0, annotationsByTypeId, 0, this.annotationsByTypeId.length);
+				this.annotationsByTypeId = annotationsByTypeId;
+			}
+			else return null;
+			this.annotationsByTypeId[typeId] = new AnnotationList(type);
+			return this.annotationsByTypeId[typeId];
+		}
+		
+		private void removeAnnotationList(int typeId) {
+			if (typeId < this.annotationsByTypeId.length)
+				this.annotationsByTypeId[typeId] = null;
 		}
 		
 		synchronized void storeAnnotation(AnnotationBase ab) {
-			if (this.annotationsByID.containsKey(ab.annotationId))
+			if ((this.annotationsByID != null) && this.annotationsByID.containsKey(ab.getAnnotationID()))
 				return; // do not insert an Annotation twice
 			this.annotations.addAnnotation(ab);
 			this.getAnnotationList(ab.type, true).addAnnotation(ab);
-			this.annotationsByID.put(ab.annotationId, ab);
+			if (this.annotationsByID != null)
+				this.annotationsByID.put(ab.getAnnotationID(), ab);
+		}
+		
+		synchronized void storeAnnotations(AnnotationBase[] abs) {
+			if (abs.length == 0)
+				return;
+			
+			//	merge batch into main list
+			this.annotations.addAnnotations(abs);
+			
+			//	split batch up by type (preserving order) and merge into type lists
+			HashMap absByType = new HashMap();
+			for (int a = 0; a < abs.length; a++) {
+				ArrayList typeAbs = ((ArrayList) absByType.get(abs[a].type));
+				if (typeAbs == null) {
+					typeAbs = new ArrayList();
+					absByType.put(abs[a].type, typeAbs);
+				}
+				typeAbs.add(abs[a]);
+				if (this.annotationsByID != null)
+					this.annotationsByID.put(abs[a].getAnnotationID(), abs[a]);
+			}
+			for (Iterator tit = absByType.keySet().iterator(); tit.hasNext();) {
+				String type = ((String) tit.next());
+				ArrayList typeAbs = ((ArrayList) absByType.get(type));
+				this.getAnnotationList(type, true).addAnnotations((AnnotationBase[]) typeAbs.toArray(new AnnotationBase[typeAbs.size()]));
+			}
 		}
 		
 		synchronized AnnotationBase removeAnnotation(Annotation annot) {
@@ -3070,17 +3644,34 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			AnnotationList typeAnnots = this.getAnnotationList(ab.type, false);
 			if (typeAnnots != null) {
 				typeAnnots.removeAnnotation(ab);
-				if (typeAnnots.isEmpty())
-					this.annotationsByType.remove(ab.type);
+				if (batchLog != null)
+					this.emptyTypeCandidates.add(ab.type); // defer emptiness check to end of batch
+				else if (typeAnnots.isEmpty())
+					this.removeAnnotationList(ab.typeId);
 			}
-			this.annotationsByID.remove(ab.annotationId);
+			if (this.annotationsByID != null)
+				this.annotationsByID.remove(ab.getAnnotationID());
 			
 			return ab;
 		}
 		
-		void annotationIdChanged(AnnotationBase ab, String oldId) {
+		synchronized void cleanupEmptyTypes() {
+			if (this.emptyTypeCandidates.isEmpty())
+				return;
+			for (Iterator tit = this.emptyTypeCandidates.iterator(); tit.hasNext();) {
+				String type = ((String) tit.next());
+				AnnotationList typeAnnots = this.getAnnotationList(type, false);
+				if ((typeAnnots != null) && typeAnnots.isEmpty())
+					this.removeAnnotationList(AnnotationUtils.getTypeID(type));
+			}
+			this.emptyTypeCandidates.clear();
+		}
+		
+		synchronized void annotationIdChanged(AnnotationBase ab, String oldId) {
+			if (this.annotationsByID == null)
+				return;
 			this.annotationsByID.remove(oldId);
-			this.annotationsByID.put(ab.annotationId, ab);
+			this.annotationsByID.put(ab.getAnnotationID(), ab);
 		}
 		
 		void annotationTypeChanged(AnnotationBase ab, String oldType) {
@@ -3091,10 +3682,20 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 			this.annotations.annotationTypeChanged();
 		}
 		
-		AnnotationBase getAnnotation(String id) {
+		synchronized AnnotationBase getAnnotation(String id) {
+			if (this.annotationsByID == null) {
+				AnnotationBase[] abs = this.annotations.getAnnotations();
+				this.annotationsByID = new HashMap((abs.length * 2) + 16);
+				for (int a = 0; a < abs.length; a++)
+					this.annotationsByID.put(abs[a].getAnnotationID(), abs[a]);
+			}
 			return ((AnnotationBase) this.annotationsByID.get(id));
 		}
 		
+		int getAbsoluteStartIndex(AnnotationBase ab) {
+			return this.annotations.getAbsoluteStartIndex(ab);
+		}
+		
 		AnnotationBase[] getAnnotations(String type) {
 			AnnotationList al = this.getAnnotationList(type, false);
 			return ((al == null) ? emptyAnnotationBaseArray : al.getAnnotations());
@@ -3126,7 +3727,12 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		}
 		
 		String[] getAnnotationTypes() {
-			TreeSet annotTypes = new TreeSet(this.annotationsByType.keySet());
+			this.cleanupEmptyTypes();
+			TreeSet annotTypes = new TreeSet();
+			for (int t = 0; t < this.annotationsByTypeId.length; t++) {
+				if (this.annotationsByTypeId[t] != null)
+					annotTypes.add(this.annotationsByTypeId[t].type);
+			}
 			return ((String[]) annotTypes.toArray(new String[annotTypes.size()]));
 		}
 		
@@ -3140,28 +3746,48 @@ public class GamtaDocument extends AbstractAttributed implements DocumentRoot {
 		
 		synchronized void tokenSequenceChanged(TokenSequenceEvent change) {
 			
+			//	get annotations affected by change (ones ending before it remain unchanged, and ones starting after it only shift)
+			int changeEndIndex = (change.index + change.removed.size());
+			AnnotationBase[] affected = this.annotations.getAnnotationsAffectedBy(change.index, changeEndIndex);
+			
 			//	prepare changes
-			for (int a = 0; (a < this.annotations.size()); a++)
-				this.annotations.getAnnotation(a).tokenSequeceChanged(change);
+			for (int a = 0; a < affected.length; a++)
+				affected[a].tokenSequeceChanged(change);
+			
+			//	shift annotations after change (before committing, as order of affected annotations is yet unchanged)
+			this.annotations.shiftIndexes((changeEndIndex + 1), (change.inserted.size() - change.removed.size()));
 			
 			//	commit changes
-			for (int a = 0; (a < this.annotations.size()); a++)
-				this.annotations.getAnnotation(a).commitChange();
+			for (int a = 0; a < affected.length; a++)
+				affected[a].commitChange();
 			
 			//	clean up
-			this.cleanup();
+			this.cleanup(affected);
 		}
 		
-		void cleanup() {
-			this.annotations.cleanup();
-			for (Iterator atit = this.annotationsByType.keySet().iterator(); atit.hasNext();)
-				((AnnotationList) this.annotationsByType.get(atit.next())).cleanup();
+		void cleanup(AnnotationBase[] changed) {
+			for (int a = 0; a < changed.length; a++) {
+				AnnotationList typeAnnots = this.getAnnotationList(changed[a].type, false);
+				if (changed[a].size > 0) {
+					this.annotations.annotationSizeChanged(changed[a]);
+					if (typeAnnots != null)
+						typeAnnots.annotationSizeChanged(changed[a]);
+					continue;
+				}
+				this.annotations.removeAnnotation(changed[a]);
+				if (typeAnnots != null)
+					typeAnnots.removeAnnotation(changed[a]);
+				if (AnnotationBase.DEBUG_CHANGE || changed[a].printDebugInfo())
+					System.out.println("REMOVED: " + changed[a].type + " at " + changed[a].getAbsoluteStartIndex() + " sized " + changed[a].size);
+			}
 		}
 		
 		void clear() {
 			this.annotations.clear();
-			this.annotationsByType.clear();
-			this.annotationsByID.clear();
+			Arrays.fill(this.annotationsByTypeId, null);
+			this.emptyTypeCandidates.clear();
+			this.annotationsByID = null;
+			cacheManager.clear();
 		}
 	}
 //	/**	the storage for Annotations
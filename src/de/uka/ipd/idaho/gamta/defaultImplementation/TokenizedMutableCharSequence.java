@@ -256,6 +256,18 @@ public class TokenizedMutableCharSequence extends TokenizedCharSequence implemen
 	 * @return true if a padding whitespace needs to be inserted between the two char sequences so tokenization is not hampered
 	 */
 	private boolean tokensMergeAtBoundary(CharSequence cs1, int o1, CharSequence cs2, int o2) {
+		return tokensMergeAtBoundary(this.tokenizer, cs1, o1, cs2, o2);
+	}
+	
+	/* determine if two char sequences need padding in order not to hamper tokenization (shared with CompactTokenizedMutableCharSequence)
+	 * @param	tokenizer	the tokenizer to check against
+	 * @param	cs1		the first char sequence
+	 * @param	o1		the offset before which to check the first char sequence backward (exclusive, thus 1 to length())
+	 * @param	cs2		the second char sequence
+	 * @param	o2		the offset from which to check the second char sequence forward (inclusive, thus 0 to length()-1)
+	 * @return true if a padding whitespace needs to be inserted between the two char sequences so tokenization is not hampered
+	 */
+	static boolean tokensMergeAtBoundary(Tokenizer tokenizer, CharSequence cs1, int o1, CharSequence cs2, int o2) {
 		
 		//	insertion at start of first sequence, or first sequence has whitespace in ending position
 		if ((o1 == 0) || (cs1.charAt(o1 - 1) < 33)) return false;
@@ -273,7 +285,7 @@ public class TokenizedMutableCharSequence extends TokenizedCharSequence implemen
 		
 		//	count tokens in own last block
 		int lbTokens = 0;
-		ti = this.tokenizer.getTokenIterator(lb);
+		ti = tokenizer.getTokenIterator(lb);
 		while (ti.hasMoreTokens()) {
 			lbTokens++;
 			ti.getNextToken();
@@ -286,7 +298,7 @@ public class TokenizedMutableCharSequence extends TokenizedCharSequence implemen
 		
 		//	count tokens in parameter's first block
 		int fbTokens = 0;
-		ti = this.tokenizer.getTokenIterator(fb);
+		ti = tokenizer.getTokenIterator(fb);
 		while (ti.hasMoreTokens()) {
 			fbTokens++;
 			ti.getNextToken();
@@ -294,7 +306,7 @@ public class TokenizedMutableCharSequence extends TokenizedCharSequence implemen
 		
 		//	count tokens in concatenation of both blocks
 		int concatTokens = 0;
-		ti = this.tokenizer.getTokenIterator(lb + fb);
+		ti = tokenizer.getTokenIterator(lb + fb);
 		while (ti.hasMoreTokens()) {
 			concatTokens++;
 			ti.getNextToken();
@@ -34,6 +34,8 @@ import java.io.Reader;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.Set;
 
 import de.uka.ipd.idaho.gamta.AnnotationUtils.XmlOutputOptions;
@@ -49,10 +51,11 @@ import de.uka.ipd.idaho.gamta.QueriableAnnotation;
  */
 public class AnnotationInputStream extends InputStream {
 	private Charset encoding;
+	private CharsetEncoder encoder;
 	private Reader annotationReader;
 	
+	private CharBuffer charBuffer;
 	private ByteBuffer byteBuffer;
-	private int byteBufferPos = 0;
 	
 	/**
 	 * Constructor
@@ -301,7 +304,15 @@ public class AnnotationInputStream extends InputStream {
 	public AnnotationInputStream(QueriableAnnotation source, String indent, Charset charset, XmlOutputOptions options) {
 		this.annotationReader = new AnnotationReader(source, indent, options);
 		this.encoding = ((charset == null) ? Charset.defaultCharset() : charset);
-		this.byteBuffer = this.encoding.encode(CharBuffer.wrap("<?xml version=\"1.0\" encoding=\"" + this.encoding.name() + "\"?>\n"));
+		this.encoder = this.encoding.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		
+		//	the byte buffer is large enough to take a full char buffer, so encoding never overflows
+		this.charBuffer = CharBuffer.allocate(8192);
+		this.byteBuffer = ByteBuffer.allocate((int) Math.ceil(this.encoder.maxBytesPerChar() * this.charBuffer.capacity()));
+		
+		//	encode XML declaration with the same encoder as the data, so any byte order mark is written only once
+		this.encoder.encode(CharBuffer.wrap("<?xml version=\"1.0\" encoding=\"" + this.encoding.name() + "\"?>\n"), this.byteBuffer, false);
+		this.byteBuffer.flip();
 	}
 	
 	/* 
@@ -315,18 +326,58 @@ public class AnnotationInputStream extends InputStream {
 	 * @see java.io.InputStream#read()
 	 */
 	public int read() throws IOException {
-		if ((this.byteBuffer == null) || (this.byteBufferPos == this.byteBuffer.limit())) {
-			char[] ch = new char[1024];
-			
-			int read = this.annotationReader.read(ch, 0, 1024);
-			if (read == -1)
-				return -1;
-			
-			this.byteBuffer = this.encoding.encode(CharBuffer.wrap(ch, 0, read));
-			this.byteBufferPos = 0;
+		if (this.fillByteBuffer())
+			return (this.byteBuffer.get() & 0xFF);
+		else return -1;
+	}
+	
+	/*
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		int read = 0;
+		while ((read < len) && this.fillByteBuffer()) {
+			int chunk = Math.min((len - read), this.byteBuffer.remaining());
+			this.byteBuffer.get(b, (off + read), chunk);
+			read += chunk;
+		}
+		return ((read == 0) ? -1 : read);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#available()
+	 */
+	public int available() throws IOException {
+		return this.byteBuffer.remaining();
+	}
+	
+	/* encode the next block of characters if all bytes are consumed, keeping
+	 * the encoder state across blocks so surrogate pairs split between blocks
+	 * come out right
+	 * @return true if there are bytes left, false at the end of the data
+	 */
+	private boolean fillByteBuffer() throws IOException {
+		while (!this.byteBuffer.hasRemaining()) {
+			if (this.charBuffer == null)
+				return false;
+			this.byteBuffer.clear();
+			int read = this.annotationReader.read(this.charBuffer.array(), this.charBuffer.position(), this.charBuffer.remaining());
+			if (read == -1) {
+				this.charBuffer.flip();
+				this.encoder.encode(this.charBuffer, this.byteBuffer, true);
+				this.encoder.flush(this.byteBuffer);
+				this.charBuffer = null;
+			}
+			else {
+				this.charBuffer.position(this.charBuffer.position() + read);
+				this.charBuffer.flip();
+				this.encoder.encode(this.charBuffer, this.byteBuffer, false);
+				this.charBuffer.compact();
+			}
+			this.byteBuffer.flip();
 		}
-		if ((this.byteBuffer == null) || (this.byteBufferPos == this.byteBuffer.limit()))
-			return -1;
-		else return this.byteBuffer.get(this.byteBufferPos++);
+		return true;
 	}
 }
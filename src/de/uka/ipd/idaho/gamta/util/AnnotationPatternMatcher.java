@@ -32,11 +32,13 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.TreeSet;
 import java.util.regex.PatternSyntaxException;
@@ -65,6 +67,8 @@ import de.uka.ipd.idaho.htmlXmlUtil.grammars.Grammar;
 import de.uka.ipd.idaho.htmlXmlUtil.grammars.StandardGrammar;
 import de.uka.ipd.idaho.stringUtils.Dictionary;
 import de.uka.ipd.idaho.stringUtils.StringUtils;
+import de.uka.ipd.idaho.stringUtils.regExUtils.PatternCache;
+import de.uka.ipd.idaho.stringUtils.regExUtils.PatternCache.PatternCompiler;
 
 /**
  * Matcher for patterns over annotations and intermediate literals. Annotations
@@ -151,8 +155,24 @@ public class AnnotationPatternMatcher {
 	
 	private static class AnnotationPattern {
 		AnnotationPatternElement[] elements;
+		PatternLevel rootLevel;
+		int levelCount = 0;
 		AnnotationPattern(AnnotationPatternElement[] elements) {
 			this.elements = elements;
+			this.rootLevel = this.compileLevel(this.elements);
+		}
+		private PatternLevel compileLevel(AnnotationPatternElement[] elements) {
+			PatternLevel level = new PatternLevel(this.levelCount++, elements);
+			for (int e = 0; e < elements.length; e++) {
+				if (elements[e].sequenceElements != null)
+					level.subLevels[e] = new PatternLevel[] {this.compileLevel(elements[e].sequenceElements)};
+				else if (elements[e].alternativeElements != null) {
+					level.subLevels[e] = new PatternLevel[elements[e].alternativeElements.length];
+					for (int a = 0; a < elements[e].alternativeElements.length; a++)
+						level.subLevels[e][a] = this.compileLevel(new AnnotationPatternElement[] {elements[e].alternativeElements[a]});
+				}
+			}
+			return level;
 		}
 		public String toString() {
 			return this.toString("");
@@ -168,23 +188,44 @@ public class AnnotationPatternMatcher {
 		}
 	}
 	
+	/*
+	 * A sequence of pattern elements to match, i.e., the whole pattern, a
+	 * sequence sub pattern, or a single alternative of a disjunction sub
+	 * pattern, together with the levels nested in its elements. Together with
+	 * the index of an element and the number of matches of that element so
+	 * far, a level forms a state of the automaton a pattern compiles into.
+	 */
+	private static class PatternLevel {
+		final int id;
+		final AnnotationPatternElement[] elements;
+		final PatternLevel[][] subLevels; // per element, the sequence level or the levels of the alternatives (null for atoms)
+		PatternLevel(int id, AnnotationPatternElement[] elements) {
+			this.id = id;
+			this.elements = elements;
+			this.subLevels = new PatternLevel[elements.length][];
+		}
+	}
+	
 	private static class AnnotationPatternElement {
 		String annotationType = null;
 		TreeNodeAttributeSet annotationAttributes = null;
 		String[] annotationAttributeNames = null;
 		GPathExpression annotationTest = null;
 		String patternLiteral = null;
+		String patternLiteralMatchType = null;
 		TokenSequence tokenLiteral = null;
 		AnnotationPatternElement[] sequenceElements = null;
 		AnnotationPatternElement[] alternativeElements = null;
 		int minCount = 1;
 		int maxCount = 1;
 		ArrayList matchAttributeSetters = null;
+		int matchTypeId = -1; // ID of annotation type or pattern literal match type, resolved on first lookup
 		AnnotationPatternElement(TokenSequence tokenLiteral) {
 			this.tokenLiteral = tokenLiteral;
 		}
 		AnnotationPatternElement(String patternLiteral) {
 			this.patternLiteral = patternLiteral;
+			this.patternLiteralMatchType = ("regEx" + this.patternLiteral.hashCode());
 		}
 		AnnotationPatternElement(String annotationType, TreeNodeAttributeSet annotationAttributes) {
 			this.annotationType = annotationType;
@@ -520,18 +561,23 @@ public class AnnotationPatternMatcher {
 	
 	/**
 	 * An annotation index provides quick access to individual annotations by
-	 * type and start index to speed up matching. To assist garbage collection,
+	 * type and start index to speed up matching. Annotations are held in
+	 * arrays indexed by numerical type ID and start index, so lookups do not
+	 * create any objects. An index built for a document can be re-used for
+	 * matching any number of patterns, and an observing index keeps itself
+	 * up to date as the document changes. To assist garbage collection,
 	 * instances of this class should be dissolved via the
 	 * <code>dispose()</code> method once they are done with.
 	 * 
 	 * @author sautter
 	 */
 	public static class AnnotationIndex {
-		HashMap index = new HashMap();
+		ArrayList[][] index = new ArrayList[16][]; // indexed by type ID and start index, see getAnnotationList()
 		CountingSet annotTypes = new CountingSet();
 		AnnotationIndex defIndex;
 		QueriableAnnotation data;
 		HashSet dataRetrievedTypes;
+		BitSet dataRetrievedTypeIDs;
 		
 		/** Constructor
 		 */
@@ -548,8 +594,10 @@ public class AnnotationPatternMatcher {
 		public AnnotationIndex(QueriableAnnotation data, AnnotationIndex defIndex) {
 			this.defIndex = defIndex;
 			this.data = data;
-			if (this.data != null)
+			if (this.data != null) {
 				this.dataRetrievedTypes = new HashSet();
+				this.dataRetrievedTypeIDs = new BitSet();
+			}
 		}
 		
 		/**
@@ -609,7 +657,7 @@ public class AnnotationPatternMatcher {
 			if (al.remove(annot))
 				this.annotTypes.remove(type);
 			if (al.isEmpty())
-				this.index.remove("" + annot.getStartIndex() + " " + type);
+				this.removeAnnotationList(type, annot.getStartIndex());
 		}
 		
 		/**
@@ -655,16 +703,35 @@ public class AnnotationPatternMatcher {
 		 * @return an array holding the matching annotations
 		 */
 		public Annotation[] getAnnotations(String type, int startIndex) {
-			ArrayList al = this.getAnnotationList(type, startIndex, false);
-			if ((al == null) && (this.data != null) && this.dataRetrievedTypes.add(type)) {
+			return this.getAnnotations(type, AnnotationUtils.getTypeID(type, false), startIndex);
+		}
+		
+		/**
+		 * Retrieve annotations of a specific type starting at a specific
+		 * index. The type ID has to be the one <code>AnnotationUtils</code>
+		 * assigns to the argument type, or -1 if the type does not have an ID
+		 * (yet). Repeated lookups should use this method, as it saves
+		 * resolving the type ID on every call.
+		 * @param type the type of the sought annotations
+		 * @param typeId the numerical ID of the type of the sought annotations
+		 * @param startIndex the start index of the sought annotations
+		 * @return an array holding the matching annotations
+		 */
+		public Annotation[] getAnnotations(String type, int typeId, int startIndex) {
+			if ((this.data != null) && ((typeId == -1) || !this.dataRetrievedTypeIDs.get(typeId)) && this.dataRetrievedTypes.add(type)) {
 				this.addAnnotations(this.data.getAnnotations(type), type);
-				al = this.getAnnotationList(type, startIndex, false);
+				typeId = AnnotationUtils.getTypeID(type, false); // type might have been assigned an ID by now
+				if (typeId != -1)
+					this.dataRetrievedTypeIDs.set(typeId);
 			}
+			if (typeId == -1)
+				return new Annotation[0]; // type never seen before, so we cannot have any annotations of it
+			ArrayList al = this.getAnnotationList(typeId, startIndex, false);
 			if (this.defIndex != null) {
 				if (al == null)
-					return this.defIndex.getAnnotations(type, startIndex);
+					return this.defIndex.getAnnotations(type, typeId, startIndex);
 				al = new ArrayList(al);
-				ArrayList dal = this.defIndex.getAnnotationList(type, startIndex, false);
+				ArrayList dal = this.defIndex.getAnnotationList(typeId, startIndex, false);
 				if (dal != null)
 					al.addAll(dal);
 			}
@@ -672,15 +739,48 @@ public class AnnotationPatternMatcher {
 		}
 		
 		ArrayList getAnnotationList(String type, int startIndex, boolean create) {
-			String alk = ("" + startIndex + " " + type);
-			ArrayList al = ((ArrayList) this.index.get(alk));
+			int typeId = AnnotationUtils.getTypeID(type, create);
+			if (typeId == -1)
+				return null; // type never seen before, so we cannot have any annotations of it
+			return this.getAnnotationList(typeId, startIndex, create);
+		}
+		
+		ArrayList getAnnotationList(int typeId, int startIndex, boolean create) {
+			if (typeId >= this.index.length) {
+				if (!create)
+					return null;
+				ArrayList[][] index = new ArrayList[Math.max((this.index.length * 2), (typeId + 1))][];
+				System.arraycopy(this.index, 0, index, 0, this.index.length);
+				this.index = index;
+			}
+			ArrayList[] typeIndex = this.index[typeId];
+			if ((typeIndex == null) || (startIndex >= typeIndex.length)) {
+				if (!create)
+					return null;
+				ArrayList[] cTypeIndex = new ArrayList[Math.max(((typeIndex == null) ? 16 : (typeIndex.length * 2)), (startIndex + 1))];
+				if (typeIndex != null)
+					System.arraycopy(typeIndex, 0, cTypeIndex, 0, typeIndex.length);
+				typeIndex = cTypeIndex;
+				this.index[typeId] = typeIndex;
+			}
+			ArrayList al = typeIndex[startIndex];
 			if ((al == null) && create) {
 				al = new AnnotationIndexList();
-				this.index.put(alk, al);
+				typeIndex[startIndex] = al;
 			}
 			return al;
 		}
 		
+		void removeAnnotationList(String type, int startIndex) {
+			int typeId = AnnotationUtils.getTypeID(type, false);
+			if ((typeId != -1) && (typeId < this.index.length) && (this.index[typeId] != null) && (startIndex < this.index[typeId].length))
+				this.index[typeId][startIndex] = null;
+		}
+		
+		void clearIndex() {
+			Arrays.fill(this.index, null);
+		}
+		
 		private static class AnnotationIndexList extends ArrayList {
 			AnnotationIndexList() {
 				super(2);
@@ -701,11 +801,12 @@ public class AnnotationPatternMatcher {
 		 * @param disposeDefIndex also dispose of the default index?
 		 */
 		public void dispose(boolean disposeDefIndex) {
-			this.index.clear();
+			this.clearIndex();
 			if (this.data != null) {
 				this.data = null;
 				this.dataRetrievedTypes.clear();
 				this.dataRetrievedTypes = null;
+				this.dataRetrievedTypeIDs = null;
 			}
 			if (disposeDefIndex && (this.defIndex != null))
 				this.defIndex.dispose(disposeDefIndex);
@@ -737,8 +838,9 @@ public class AnnotationPatternMatcher {
 			data.addAnnotationListener(this);
 		}
 		public void tokenSequenceChanged(TokenSequenceEvent change) {
-			this.index.clear();
+			this.clearIndex();
 			this.dataRetrievedTypes.clear();
+			this.dataRetrievedTypeIDs.clear();
 		}
 		public void annotationAdded(QueriableAnnotation doc, Annotation annotation) {
 			if (this.dataRetrievedTypes.contains(annotation.getType()))
@@ -753,7 +855,7 @@ public class AnnotationPatternMatcher {
 					al.remove(a--);
 			}
 			if (al.isEmpty())
-				this.index.remove("" + annotation.getStartIndex() + " " + annotation.getType());
+				this.removeAnnotationList(annotation.getType(), annotation.getStartIndex());
 		}
 		public void annotationTypeChanged(QueriableAnnotation doc, Annotation annotation, String oldType) {
 			if (this.dataRetrievedTypes.contains(annotation.getType()))
@@ -766,7 +868,7 @@ public class AnnotationPatternMatcher {
 					al.remove(a--);
 			}
 			if (al.isEmpty())
-				this.index.remove("" + annotation.getStartIndex() + " " + oldType);
+				this.removeAnnotationList(oldType, annotation.getStartIndex());
 		}
 		public void annotationAttributeChanged(QueriableAnnotation doc, Annotation annotation, String attributeName, Object oldValue) {}
 		public void dispose(boolean disposeDefIndex) {
@@ -776,16 +878,6 @@ public class AnnotationPatternMatcher {
 		}
 	}
 	
-	private static class MatchTreeList extends LinkedList {
-		private HashSet matchKeys = new HashSet();
-		public boolean add(Object obj) {
-			MatchTree mt = ((MatchTree) obj);
-			if (this.matchKeys.add(mt.match.getType() + "@" + mt.match.getStartIndex() + "-" + mt.match.getEndIndex()))
-				return super.add(obj);
-			else return false;
-		}
-	}
-	
 	/**
 	 * Attempt to match an annotation pattern against a queriable annotation.
 	 * The children of the argument queriable annotation will be indexed
@@ -814,7 +906,10 @@ public class AnnotationPatternMatcher {
 	 * Attempt to match an annotation pattern against a queriable annotation.
 	 * The children of the argument queriable annotation will be indexed
 	 * automatically. The argument annotation index can contain further
-	 * annotations.
+	 * annotations. If the argument annotation index is an observing index
+	 * created for the argument queriable annotation, it is used as is, so
+	 * matching multiple patterns against the same data indexes the latter only
+	 * once.
 	 * @param data the queriable annotation to match against
 	 * @param annotationIndex an index holding additional annotations belonging
 	 *            to the token sequence underneath the argument queriable
@@ -823,14 +918,17 @@ public class AnnotationPatternMatcher {
 	 * @return an array holding the matches of the pattern
 	 */
 	public static Annotation[] getMatches(QueriableAnnotation data, AnnotationIndex annotationIndex, String pattern) {
-		return getMatches(((TokenSequence) data), new AnnotationIndex(data, annotationIndex), pattern);
+		return getMatches(((TokenSequence) data), getDataIndex(data, annotationIndex), pattern);
 	}
 	
 	/**
 	 * Attempt to match an annotation pattern against a queriable annotation.
 	 * The children of the argument queriable annotation will be indexed
 	 * automatically. The argument annotation index can contain further
-	 * annotations.
+	 * annotations. If the argument annotation index is an observing index
+	 * created for the argument queriable annotation, it is used as is, so
+	 * matching multiple patterns against the same data indexes the latter only
+	 * once.
 	 * @param data the queriable annotation to match against
 	 * @param annotationIndex an index holding additional annotations belonging
 	 *            to the token sequence underneath the argument queriable
@@ -839,7 +937,13 @@ public class AnnotationPatternMatcher {
 	 * @return an array holding the matches of the pattern
 	 */
 	public static MatchTree[] getMatchTrees(QueriableAnnotation data, AnnotationIndex annotationIndex, String pattern) {
-		return getMatchTrees(((TokenSequence) data), new AnnotationIndex(data, annotationIndex), pattern);
+		return getMatchTrees(((TokenSequence) data), getDataIndex(data, annotationIndex), pattern);
+	}
+	
+	private static AnnotationIndex getDataIndex(QueriableAnnotation data, AnnotationIndex annotationIndex) {
+		if ((annotationIndex instanceof ObservingAnnotationIndex) && (annotationIndex.data == data))
+			return annotationIndex; // argument index already covers data and keeps up with changes to it, re-use it
+		else return new AnnotationIndex(data, annotationIndex);
 	}
 	
 	/**
@@ -875,17 +979,28 @@ public class AnnotationPatternMatcher {
 		
 		//	resolve pattern literals into temporary annotations
 		AnnotationIndex patternLiteralMatchIndex = new AnnotationIndex();
-		HashSet indexedPatternLiteralMatchTypes = new HashSet();
+		LinkedHashMap patternLiteralsByMatchType = new LinkedHashMap();
 		for (int e = 0; e < ap.elements.length; e++)
-			indexPatternLiteralMatches(tokens, ap.elements[e], patternLiteralMatchIndex, indexedPatternLiteralMatchTypes);
+			collectPatternLiterals(ap.elements[e], patternLiteralsByMatchType);
+		if (patternLiteralsByMatchType.size() != 0) {
+			MultiPatternExtractor mpe = new MultiPatternExtractor(false, true);
+			for (Iterator pltit = patternLiteralsByMatchType.values().iterator(); pltit.hasNext();)
+				mpe.addPattern(((String) pltit.next()), 0, null, null, true);
+			Annotation[][] plms = mpe.extractAllMatchesByPattern(tokens);
+			int p = 0;
+			for (Iterator pltit = patternLiteralsByMatchType.keySet().iterator(); pltit.hasNext();)
+				patternLiteralMatchIndex.addAnnotations(plms[p++], ((String) pltit.next()));
+		}
 		
 		//	do matching
-		LinkedList matches = new MatchTreeList();
-		LinkedList matchTree = new LinkedList();
-		LinkedList matchAttributes = new LinkedList();
+		PatternMatchRun pmr = new PatternMatchRun(ap, tokens, annotationIndex, patternLiteralMatchIndex);
+		LinkedList matches = new LinkedList();
 		for (int s = 0; s < tokens.size(); s++) {
-			step(tokens, s, s, ap.elements, 0, 0, annotationIndex, patternLiteralMatchIndex, matches, matchTree, matchAttributes);
-			matchTree.clear();
+			MatchState ms = pmr.getState(ap.rootLevel, 0, 0, s);
+			for (int e = 0; e < ms.endCount; e++) {
+				if (ms.ends[e] != s) // ignore empty match
+					matches.add(pmr.buildMatchTree(ap.rootLevel, ms, s, ms.ends[e]));
+			}
 		}
 		
 		//	sort matches
@@ -896,164 +1011,309 @@ public class AnnotationPatternMatcher {
 		return mts;
 	}
 	
-	private static void indexPatternLiteralMatches(TokenSequence tokens, AnnotationPatternElement ape, AnnotationIndex patternLiteralMatchIndex, HashSet indexedPatternLiteralMatchTypes) {
+	private static void collectPatternLiterals(AnnotationPatternElement ape, LinkedHashMap patternLiteralsByMatchType) {
 		
 		//	pattern literal
 		if (ape.patternLiteral != null) {
-			String patternLiteralMatchType = ("regEx" + ape.patternLiteral.hashCode());
-			if (indexedPatternLiteralMatchTypes.add(patternLiteralMatchType)) {
-				Annotation[] plms = Gamta.extractAllMatches(tokens, ape.patternLiteral, true, false);
-				patternLiteralMatchIndex.addAnnotations(plms, patternLiteralMatchType);
-			}
+			if (!patternLiteralsByMatchType.containsKey(ape.patternLiteralMatchType))
+				patternLiteralsByMatchType.put(ape.patternLiteralMatchType, ape.patternLiteral);
 		}
 		
 		//	sub pattern
 		else if (ape.sequenceElements != null) {
 			for (int e = 0; e < ape.sequenceElements.length; e++)
-				indexPatternLiteralMatches(tokens, ape.sequenceElements[e], patternLiteralMatchIndex, indexedPatternLiteralMatchTypes);
+				collectPatternLiterals(ape.sequenceElements[e], patternLiteralsByMatchType);
 		}
 		
 		//	disjunction
 		else if (ape.alternativeElements != null) {
 			for (int e = 0; e < ape.alternativeElements.length; e++)
-				indexPatternLiteralMatches(tokens, ape.alternativeElements[e], patternLiteralMatchIndex, indexedPatternLiteralMatchTypes);
+				collectPatternLiterals(ape.alternativeElements[e], patternLiteralsByMatchType);
 		}
 	}
 	
-	private static void step(TokenSequence tokens, int matchStart, int matchFrom, AnnotationPatternElement[] pattern, int elementIndex, int elementMatchCount, AnnotationIndex annotationIndex, AnnotationIndex patternLiteralMatchIndex, LinkedList matches, LinkedList matchTree, LinkedList matchAttributes) {
-		
-		//	end of pattern reached, we have a match
-		if (pattern.length == elementIndex) {
-			if (matchStart < matchFrom) {
-				Annotation match = Gamta.newAnnotation(tokens, null, matchStart, (matchFrom-matchStart));
-				if (matchAttributes.size() != 0) // catch empty match
-					match.copyAttributes((Attributed) matchAttributes.getLast());
-				MatchTree mt = new MatchTree(match);
-				for (Iterator mtit = matchTree.iterator(); mtit.hasNext();)
-					mt.addChild((MatchTreeNode) mtit.next());
-				matches.add(mt);
+	/*
+	 * Matching works as a memoized dynamic program over the states of the
+	 * automaton a pattern compiles into, i.e., pattern levels, element
+	 * indexes, and element match counts, each combined with a token position.
+	 * For each state, the evaluation computes the distinct end positions of
+	 * all ways of matching the rest of its level from its position, together
+	 * with the first transition (in the order recursive backtracking used to
+	 * explore them) that leads to each end position. As element matches
+	 * consume tokens, states only depend upon states further right, or upon
+	 * states of other levels at the same position, and each state is
+	 * evaluated only once, no matter from how many start positions
+	 * and along how many paths it is reached. The match tree and attributes
+	 * of a match are then built by replaying the first transitions from the
+	 * start state to the end position of the match, which yields the same
+	 * results as the first match found by backtracking.
+	 */
+	private static class MatchState {
+		boolean complete = false;
+		int[] ends = new int[2];
+		Transition[] transitions = new Transition[2];
+		int endCount = 0;
+		private int[] transitionIndexes = null; // transition indexes by end position relative to minimum end, built on demand
+		private int minEnd = Integer.MAX_VALUE;
+		void addEnd(int end, Transition transition) {
+			if (this.endCount == this.ends.length) {
+				int[] ends = new int[this.ends.length * 2];
+				System.arraycopy(this.ends, 0, ends, 0, this.endCount);
+				this.ends = ends;
+				Transition[] transitions = new Transition[this.transitions.length * 2];
+				System.arraycopy(this.transitions, 0, transitions, 0, this.endCount);
+				this.transitions = transitions;
+			}
+			this.ends[this.endCount] = end;
+			this.transitions[this.endCount] = transition;
+			this.endCount++;
+			this.minEnd = Math.min(this.minEnd, end);
+		}
+		Transition getTransition(int end) {
+			if (this.endCount <= 8) {
+				for (int e = 0; e < this.endCount; e++) {
+					if (this.ends[e] == end)
+						return this.transitions[e];
+				}
+				return null;
+			}
+			if (this.transitionIndexes == null) {
+				int maxEnd = this.minEnd;
+				for (int e = 0; e < this.endCount; e++)
+					maxEnd = Math.max(maxEnd, this.ends[e]);
+				this.transitionIndexes = new int[maxEnd - this.minEnd + 1];
+				for (int e = 0; e < this.endCount; e++)
+					this.transitionIndexes[this.ends[e] - this.minEnd] = (e + 1);
 			}
-			return;
+			int index = (((end < this.minEnd) || ((end - this.minEnd) >= this.transitionIndexes.length)) ? 0 : this.transitionIndexes[end - this.minEnd]);
+			return ((index == 0) ? null : this.transitions[index - 1]);
+		}
+	}
+	
+	private static class Transition {
+		final int elementIndex;
+		final MatchState next; // null for end of level
+		final boolean isSkip;
+		final Annotation match; // literal, annotation, or pattern literal match (null for sub patterns)
+		final PatternLevel subLevel;
+		final MatchState subState;
+		final int subStart;
+		final int subEnd;
+		Transition(int elementIndex, MatchState next, boolean isSkip, Annotation match, PatternLevel subLevel, MatchState subState, int subStart, int subEnd) {
+			this.elementIndex = elementIndex;
+			this.next = next;
+			this.isSkip = isSkip;
+			this.match = match;
+			this.subLevel = subLevel;
+			this.subState = subState;
+			this.subStart = subStart;
+			this.subEnd = subEnd;
+		}
+	}
+	private static final Transition END_OF_LEVEL = new Transition(-1, null, false, null, null, null, -1, -1);
+	
+	private static class PatternMatchRun {
+		private TokenSequence tokens;
+		private AnnotationIndex annotationIndex;
+		private AnnotationIndex patternLiteralMatchIndex;
+		private HashMap[][] states; // per level and element index, keyed by match count class and position
+		private HashMap[][] elementMatches; // per level and element index, keyed by position
+		private int[] endStamps; // for collecting distinct end positions
+		private int endStamp = 0;
+		PatternMatchRun(AnnotationPattern pattern, TokenSequence tokens, AnnotationIndex annotationIndex, AnnotationIndex patternLiteralMatchIndex) {
+			this.tokens = tokens;
+			this.annotationIndex = annotationIndex;
+			this.patternLiteralMatchIndex = patternLiteralMatchIndex;
+			this.states = new HashMap[pattern.levelCount][];
+			this.elementMatches = new HashMap[pattern.levelCount][];
+			this.endStamps = new int[tokens.size() + 1];
 		}
 		
-		//	we can do without (further) matches of current element
-		if (pattern[elementIndex].minCount <= elementMatchCount)
-			step(tokens, matchStart, matchFrom, pattern, (elementIndex+1), 0, annotationIndex, patternLiteralMatchIndex, matches, matchTree, matchAttributes);
-		
-		//	we cannot do with any further matches of current element
-		if (pattern[elementIndex].maxCount <= elementMatchCount)
-			return;
+		MatchState getState(PatternLevel level, int elementIndex, int elementMatchCount, int position) {
+			if (this.states[level.id] == null)
+				this.states[level.id] = new HashMap[level.elements.length + 1];
+			if (this.states[level.id][elementIndex] == null)
+				this.states[level.id][elementIndex] = new HashMap();
+			
+			/* Once an element has its minimum number of matches, states with
+			 * different match counts behave the same as long as the remaining
+			 * tokens do not suffice for reaching the maximum number of matches,
+			 * so they share a count class */
+			int countClass = elementMatchCount;
+			if ((elementIndex < level.elements.length) && (level.elements[elementIndex].minCount <= elementMatchCount) && ((level.elements[elementIndex].maxCount - elementMatchCount) >= (this.tokens.size() - position)))
+				countClass = -1;
+			Long stateKey = new Long((((long) countClass) << 32) | (position & 0xFFFFFFFFL));
+			MatchState state = ((MatchState) this.states[level.id][elementIndex].get(stateKey));
+			if (state == null) {
+				state = new MatchState();
+				this.states[level.id][elementIndex].put(stateKey, state);
+				this.computeState(state, level, elementIndex, elementMatchCount, position);
+				state.complete = true;
+			}
+			return state;
+		}
 		
-		//	literal
-		if (pattern[elementIndex].tokenLiteral != null) {
-			if (TokenSequenceUtils.startsWith(tokens, pattern[elementIndex].tokenLiteral, matchFrom)) {
-				Annotation mAnnot = Gamta.newAnnotation(tokens, "literal", matchFrom, pattern[elementIndex].tokenLiteral.size());
-				matchTree.addLast(new MatchTreeLeaf(pattern[elementIndex], mAnnot));
-				matchAttributes.addLast(pattern[elementIndex].getMatchAttributes((matchAttributes.isEmpty() ? null : ((Attributed) matchAttributes.getLast())), mAnnot));
-				step(tokens, matchStart, (matchFrom + pattern[elementIndex].tokenLiteral.size()), pattern, elementIndex, (elementMatchCount + 1), annotationIndex, patternLiteralMatchIndex, matches, matchTree, matchAttributes);
-				matchTree.removeLast();
-				matchAttributes.removeLast();
+		private void computeState(MatchState state, PatternLevel level, int elementIndex, int elementMatchCount, int position) {
+			
+			//	end of level reached
+			if (level.elements.length == elementIndex) {
+				state.addEnd(position, END_OF_LEVEL);
+				return;
+			}
+			
+			//	collect transitions in the order backtracking would explore them
+			AnnotationPatternElement element = level.elements[elementIndex];
+			ArrayList transitions = new ArrayList();
+			
+			//	we can do without (further) matches of current element
+			if (element.minCount <= elementMatchCount)
+				transitions.add(new Transition(elementIndex, this.getState(level, (elementIndex + 1), 0, position), true, null, null, null, -1, -1));
+			
+			//	we can do with further matches of current element
+			if (elementMatchCount < element.maxCount) {
+				
+				//	sub patterns (sequence, or alternatives in order)
+				if (level.subLevels[elementIndex] != null)
+					for (int l = 0; l < level.subLevels[elementIndex].length; l++) {
+						PatternLevel subLevel = level.subLevels[elementIndex][l];
+						MatchState subState = this.getState(subLevel, 0, 0, position);
+						for (int e = 0; e < subState.endCount; e++) {
+							if (subState.ends[e] != position) // ignore empty sub matches
+								transitions.add(new Transition(elementIndex, this.getState(level, elementIndex, (elementMatchCount + 1), subState.ends[e]), false, null, subLevel, subState, position, subState.ends[e]));
+						}
+					}
+				
+				//	literals, pattern literals, and annotations
+				else {
+					Annotation[] matches = this.getElementMatches(level, elementIndex, position);
+					for (int m = 0; m < matches.length; m++)
+						transitions.add(new Transition(elementIndex, this.getState(level, elementIndex, (elementMatchCount + 1), (position + matches[m].size())), false, matches[m], null, null, -1, -1));
+				}
+			}
+			
+			//	collect distinct end positions with first transition leading there
+			this.endStamp++;
+			for (int t = 0; t < transitions.size(); t++) {
+				Transition transition = ((Transition) transitions.get(t));
+				if (!transition.next.complete)
+					continue; // empty element match looping back to state under evaluation, cannot reach anything new
+				for (int e = 0; e < transition.next.endCount; e++) {
+					int end = transition.next.ends[e];
+					if (this.endStamps[end] == this.endStamp)
+						continue;
+					this.endStamps[end] = this.endStamp;
+					state.addEnd(end, transition);
+				}
 			}
-			return;
 		}
 		
-		//	pattern literal
-		if (pattern[elementIndex].patternLiteral != null) {
-			Annotation[] annots = patternLiteralMatchIndex.getAnnotations(("regEx" + pattern[elementIndex].patternLiteral.hashCode()), matchFrom);
-			for (int a = 0; a < annots.length; a++) {
-				matchTree.addLast(new MatchTreeLeaf(pattern[elementIndex], annots[a]));
-				matchAttributes.addLast(pattern[elementIndex].getMatchAttributes((matchAttributes.isEmpty() ? null : ((Attributed) matchAttributes.getLast())), annots[a]));
-				step(tokens, matchStart, (matchFrom + annots[a].size()), pattern, elementIndex, (elementMatchCount + 1), annotationIndex, patternLiteralMatchIndex, matches, matchTree, matchAttributes);
-				matchTree.removeLast();
-				matchAttributes.removeLast();
+		private Annotation[] getElementMatches(PatternLevel level, int elementIndex, int position) {
+			if (this.elementMatches[level.id] == null)
+				this.elementMatches[level.id] = new HashMap[level.elements.length];
+			if (this.elementMatches[level.id][elementIndex] == null)
+				this.elementMatches[level.id][elementIndex] = new HashMap();
+			Integer matchesKey = new Integer(position);
+			Annotation[] matches = ((Annotation[]) this.elementMatches[level.id][elementIndex].get(matchesKey));
+			if (matches == null) {
+				matches = this.findElementMatches(level.elements[elementIndex], position);
+				this.elementMatches[level.id][elementIndex].put(matchesKey, matches);
 			}
-			return;
+			return matches;
 		}
 		
-		//	annotation
-		if (pattern[elementIndex].annotationType != null) {
-			Annotation[] annots = annotationIndex.getAnnotations(pattern[elementIndex].annotationType, matchFrom);
-			for (int a = 0; a < annots.length; a++) {
-				boolean filterMatch = true;
-				if (pattern[elementIndex].annotationTest != null) try {
-					QueriableAnnotation qAnnot;
-					if (annots[a] instanceof QueriableAnnotation)
-						qAnnot = ((QueriableAnnotation) annots[a]);
-					else qAnnot = new QueriableAnnotationWrapper(annots[a]);
-					filterMatch = GPath.evaluateExpression(pattern[elementIndex].annotationTest, qAnnot, null).asBoolean().value;
-				} catch (GPathException gpe) {}
-				if (filterMatch && pattern[elementIndex].annotationAttributeNames != null)
-					for (int n = 0; n < pattern[elementIndex].annotationAttributeNames.length; n++) {
-						if ("test".equals(pattern[elementIndex].annotationAttributeNames[n]))
-							continue; // we're testing this one above
-						String mValue = pattern[elementIndex].annotationAttributes.getAttribute(pattern[elementIndex].annotationAttributeNames[n]);
-						if (mValue == null)
-							continue;
-						Object aValue = annots[a].getAttribute(pattern[elementIndex].annotationAttributeNames[n]);
-						if ((aValue == null) || (!"".equals(mValue) && !"*".equals(mValue) && !mValue.equals(aValue))) {
-							filterMatch = false;
-							break;
+		private Annotation[] findElementMatches(AnnotationPatternElement element, int position) {
+			
+			//	literal
+			if (element.tokenLiteral != null) {
+				if (TokenSequenceUtils.startsWith(this.tokens, element.tokenLiteral, position))
+					return new Annotation[] {Gamta.newAnnotation(this.tokens, "literal", position, element.tokenLiteral.size())};
+				else return new Annotation[0];
+			}
+			
+			//	pattern literal
+			ArrayList matches = new ArrayList();
+			if (element.patternLiteral != null) {
+				if (element.matchTypeId == -1)
+					element.matchTypeId = AnnotationUtils.getTypeID(element.patternLiteralMatchType, false);
+				Annotation[] annots = this.patternLiteralMatchIndex.getAnnotations(element.patternLiteralMatchType, element.matchTypeId, position);
+				matches.addAll(Arrays.asList(annots));
+			}
+			
+			//	annotation
+			else if (element.annotationType != null) {
+				if (element.matchTypeId == -1)
+					element.matchTypeId = AnnotationUtils.getTypeID(element.annotationType, false);
+				Annotation[] annots = this.annotationIndex.getAnnotations(element.annotationType, element.matchTypeId, position);
+				for (int a = 0; a < annots.length; a++) {
+					boolean filterMatch = true;
+					if (element.annotationTest != null) try {
+						QueriableAnnotation qAnnot;
+						if (annots[a] instanceof QueriableAnnotation)
+							qAnnot = ((QueriableAnnotation) annots[a]);
+						else qAnnot = new QueriableAnnotationWrapper(annots[a]);
+						filterMatch = GPath.evaluateExpression(element.annotationTest, qAnnot, null).asBoolean().value;
+					} catch (GPathException gpe) {}
+					if (filterMatch && element.annotationAttributeNames != null)
+						for (int n = 0; n < element.annotationAttributeNames.length; n++) {
+							if ("test".equals(element.annotationAttributeNames[n]))
+								continue; // we're testing this one above
+							String mValue = element.annotationAttributes.getAttribute(element.annotationAttributeNames[n]);
+							if (mValue == null)
+								continue;
+							Object aValue = annots[a].getAttribute(element.annotationAttributeNames[n]);
+							if ((aValue == null) || (!"".equals(mValue) && !"*".equals(mValue) && !mValue.equals(aValue))) {
+								filterMatch = false;
+								break;
+							}
 						}
-					}
-				if (filterMatch) {
-					matchTree.addLast(new MatchTreeLeaf(pattern[elementIndex], annots[a]));
-					matchAttributes.addLast(pattern[elementIndex].getMatchAttributes((matchAttributes.isEmpty() ? null : ((Attributed) matchAttributes.getLast())), annots[a]));
-					step(tokens, matchStart, (matchFrom + annots[a].size()), pattern, elementIndex, (elementMatchCount + 1), annotationIndex, patternLiteralMatchIndex, matches, matchTree, matchAttributes);
-					matchTree.removeLast();
-					matchAttributes.removeLast();
+					if (filterMatch)
+						matches.add(annots[a]);
 				}
 			}
-			return;
+			return ((Annotation[]) matches.toArray(new Annotation[matches.size()]));
 		}
 		
-		//	sequence sub pattern
-		if (pattern[elementIndex].sequenceElements != null) {
-			LinkedList subMatches = new LinkedList();
-			LinkedList subMatchTree = new LinkedList();
-			LinkedList subMatchAttributes = new LinkedList();
-			step(tokens, matchFrom, matchFrom, pattern[elementIndex].sequenceElements, 0, 0, annotationIndex, patternLiteralMatchIndex, subMatches, subMatchTree, subMatchAttributes);
-			for (Iterator smtit = subMatches.iterator(); smtit.hasNext();) {
-				MatchTree smt = ((MatchTree) smtit.next());
-				Annotation mAnnot = smt.getMatch();
-				mAnnot.changeTypeTo("sequence");
-				MatchTreeNode mtn = new MatchTreeNode(pattern[elementIndex], mAnnot);
-				for (Iterator cit = smt.children.iterator(); cit.hasNext();)
-					mtn.addChild((MatchTreeNode) cit.next());
-				matchTree.addLast(mtn);
-				if (matchAttributes.size() != 0)
-					mAnnot.copyAttributes((Attributed) matchAttributes.getLast());
-				matchAttributes.addLast(pattern[elementIndex].getMatchAttributes(mAnnot, mAnnot));
-				step(tokens, matchStart, (matchFrom + smt.getMatch().size()), pattern, elementIndex, (elementMatchCount + 1), annotationIndex, patternLiteralMatchIndex, matches, matchTree, matchAttributes);
-				matchTree.removeLast();
-				matchAttributes.removeLast();
-			}
+		MatchTree buildMatchTree(PatternLevel level, MatchState state, int start, int end) {
+			LinkedList matchTree = new LinkedList();
+			LinkedList matchAttributes = new LinkedList();
+			this.replay(level, state, end, matchTree, matchAttributes);
+			Annotation match = Gamta.newAnnotation(this.tokens, null, start, (end - start));
+			if (matchAttributes.size() != 0) // catch empty match
+				match.copyAttributes((Attributed) matchAttributes.getLast());
+			MatchTree mt = new MatchTree(match);
+			for (Iterator mtit = matchTree.iterator(); mtit.hasNext();)
+				mt.addChild((MatchTreeNode) mtit.next());
+			return mt;
 		}
 		
-		//	disjunction sub pattern
-		if (pattern[elementIndex].alternativeElements != null) {
-			AnnotationPatternElement[] subPattern = {null};
-			LinkedList subMatches = new LinkedList();
-			LinkedList subMatchTree = new LinkedList();
-			LinkedList subMatchAttributes = new LinkedList();
-			for (int a = 0; a < pattern[elementIndex].alternativeElements.length; a++) {
-				subPattern[0] = pattern[elementIndex].alternativeElements[a];
-				step(tokens, matchFrom, matchFrom, subPattern, 0, 0, annotationIndex, patternLiteralMatchIndex, subMatches, subMatchTree, subMatchAttributes);
-				for (Iterator smtit = subMatches.iterator(); smtit.hasNext();) {
-					MatchTree smt = ((MatchTree) smtit.next());
+		private void replay(PatternLevel level, MatchState state, int end, LinkedList matchTree, LinkedList matchAttributes) {
+			for (Transition transition; (transition = state.getTransition(end)).next != null; state = transition.next) {
+				if (transition.isSkip)
+					continue;
+				AnnotationPatternElement element = level.elements[transition.elementIndex];
+				
+				//	sub pattern match
+				if (transition.subLevel != null) {
+					MatchTree smt = this.buildMatchTree(transition.subLevel, transition.subState, transition.subStart, transition.subEnd);
 					Annotation mAnnot = smt.getMatch();
-					mAnnot.changeTypeTo("alternative");
-					MatchTreeNode mtn = new MatchTreeNode(pattern[elementIndex], mAnnot);
+					mAnnot.changeTypeTo((element.sequenceElements == null) ? "alternative" : "sequence");
+					MatchTreeNode mtn = new MatchTreeNode(element, mAnnot);
 					for (Iterator cit = smt.children.iterator(); cit.hasNext();)
 						mtn.addChild((MatchTreeNode) cit.next());
 					matchTree.addLast(mtn);
 					if (matchAttributes.size() != 0)
 						mAnnot.copyAttributes((Attributed) matchAttributes.getLast());
-					matchAttributes.addLast(pattern[elementIndex].getMatchAttributes(mAnnot, mAnnot));
-					step(tokens, matchStart, (matchFrom + smt.getMatch().size()), pattern, elementIndex, (elementMatchCount + 1), annotationIndex, patternLiteralMatchIndex, matches, matchTree, matchAttributes);
-					matchTree.removeLast();
-					matchAttributes.removeLast();
+					matchAttributes.addLast(element.getMatchAttributes(mAnnot, mAnnot));
+				}
+				
+				//	literal, pattern literal, or annotation match
+				else {
+					Annotation mAnnot = transition.match;
+					if (element.tokenLiteral != null)
+						mAnnot = Gamta.newAnnotation(this.tokens, "literal", mAnnot.getStartIndex(), mAnnot.size());
+					matchTree.addLast(new MatchTreeLeaf(element, mAnnot));
+					matchAttributes.addLast(element.getMatchAttributes((matchAttributes.isEmpty() ? null : ((Attributed) matchAttributes.getLast())), mAnnot));
 				}
-				subMatches.clear();
 			}
 		}
 	}
@@ -1107,19 +1367,19 @@ public class AnnotationPatternMatcher {
 //		return ((String) indents.get(depth));
 //	}
 //	
-	private static HashMap patternCache = new HashMap();
-	private static AnnotationPattern getPattern(Tokenizer tokenizer, String pattern) {
-		AnnotationPattern ap = ((AnnotationPattern) patternCache.get(pattern));
-		if (ap == null) try {
-			ap = parsePattern(tokenizer, pattern);
-			patternCache.put(pattern, ap);
-		}
-		catch (IOException ioe) {
-			if (ioe instanceof AnnotationPatternParseException)
-				throw new PatternSyntaxException(ioe.getMessage(), pattern, ((AnnotationPatternParseException) ioe).getIndex());
-			else return null; // never gonna happen, but Java don't know ...
-		}
-		return ap;
+	private static AnnotationPattern getPattern(final Tokenizer tokenizer, String pattern) {
+		return ((AnnotationPattern) PatternCache.getSharedCache().get(pattern, new PatternCompiler() {
+			public Object compile(String pattern) {
+				try {
+					return parsePattern(tokenizer, pattern);
+				}
+				catch (IOException ioe) {
+					if (ioe instanceof AnnotationPatternParseException)
+						throw new PatternSyntaxException(ioe.getMessage(), pattern, ((AnnotationPatternParseException) ioe).getIndex());
+					else return null; // never gonna happen, but Java don't know ...
+				}
+			}
+		}));
 	}
 	
 	private static AnnotationPattern parsePattern(final Tokenizer tokenizer, String pattern) throws IOException {
@@ -33,7 +33,6 @@ import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.Set;
 import java.util.Stack;
 
@@ -67,11 +66,10 @@ public class AnnotationReader extends Reader {
 	private boolean lastWasLineBreak = true;
 //	private boolean lastWasTag = true;
 	
-	private StringBuffer lineAssembler = new StringBuffer();
-	private LinkedList lineBuffer = new LinkedList();
-	private int bufferLevel = 0;
-	private String string = "";
-	private int stringOffset = 0;
+	private char[] buffer = new char[8192];
+	private int bufferStart = 0;
+	private int bufferEnd = 0;
+	private StringBuffer escapeBuffer = new StringBuffer(); // re-used for escaping token values
 	
 	private HashSet lineBroken = new HashSet();
 	
@@ -256,9 +254,7 @@ public class AnnotationReader extends Reader {
 	public void close() throws IOException {
 		this.source = null;
 		
-		this.lineBuffer = null;
-		this.lineAssembler = null;
-		this.string = null;
+		this.buffer = null;
 		
 		this.nestedAnnotations = null;
 		this.stack = null;
@@ -273,40 +269,56 @@ public class AnnotationReader extends Reader {
 		if (this.source == null)
 			throw new IOException("Stream closed");
 		
-		if (this.bufferLevel < len) {
-			int added = this.fillBuffer((len - this.bufferLevel));
-			
-			if ((this.bufferLevel == 0) && (added == 0))
-				return -1;
-			else this.bufferLevel += added;
-		}
-		
-		int w = 0;
-		while (w < len) {
-			if (this.stringOffset == this.string.length()) {
-				if (this.lineBuffer.isEmpty())
-					return w;
-				this.string = ((String) this.lineBuffer.removeFirst());
-				this.stringOffset = 0;
-			}
-			else {
-				cbuf[off] = this.string.charAt(this.stringOffset);
-				this.stringOffset++;
-				this.bufferLevel--;
-				off++;
-				w++;
+		//	produce more characters if required (moving remainder to start of buffer)
+		if ((this.bufferEnd - this.bufferStart) < len) {
+			if (this.bufferStart != 0) {
+				System.arraycopy(this.buffer, this.bufferStart, this.buffer, 0, (this.bufferEnd - this.bufferStart));
+				this.bufferEnd -= this.bufferStart;
+				this.bufferStart = 0;
 			}
+			this.fillBuffer(len - this.bufferEnd);
+			if (this.bufferEnd == 0)
+				return -1;
 		}
 		
-		return len;
+		//	hand out characters in bulk
+		int w = Math.min(len, (this.bufferEnd - this.bufferStart));
+		System.arraycopy(this.buffer, this.bufferStart, cbuf, off, w);
+		this.bufferStart += w;
+		return w;
 	}
 	
-	/*	produce some Strings for the buffer
+	/* append a string to the buffer, growing the latter if required */
+	private void append(String str) {
+		this.ensureCapacity(str.length());
+		str.getChars(0, str.length(), this.buffer, this.bufferEnd);
+		this.bufferEnd += str.length();
+	}
+	
+	/* append a string to the buffer, escaping it via a re-used StringBuffer
+	 * rather than creating an intermediate string */
+	private void appendEscaped(String str) {
+		this.escapeBuffer.setLength(0);
+		AnnotationUtils.escapeForXml(str, false, this.escapeBuffer);
+		this.ensureCapacity(this.escapeBuffer.length());
+		this.escapeBuffer.getChars(0, this.escapeBuffer.length(), this.buffer, this.bufferEnd);
+		this.bufferEnd += this.escapeBuffer.length();
+	}
+	
+	private void ensureCapacity(int chars) {
+		if ((this.bufferEnd + chars) <= this.buffer.length)
+			return;
+		char[] buffer = new char[Math.max((this.buffer.length * 2), (this.bufferEnd + chars))];
+		System.arraycopy(this.buffer, 0, buffer, 0, this.bufferEnd);
+		this.buffer = buffer;
+	}
+	
+	/*	produce some characters for the buffer
 	 * @param	minChars	the minimum number of chars to produce
 	 * @return the number of chars actually produced (if less than minChars, the end is near)
 	 */
 	private int fillBuffer(int minChars) {
-		int newChars = 0;
+		int bufferEnd = this.bufferEnd;
 		
 		while (this.tokenIndex < this.source.size()) {
 			
@@ -320,40 +332,33 @@ public class AnnotationReader extends Reader {
 				
 				//	line break only if nested annotations
 				if (!this.lastWasLineBreak && this.lineBroken.contains(annotation.getAnnotationID())) {
-					this.lineAssembler.append(this.outputOptions.getLineBreak());
-					this.lineBuffer.addLast(this.lineAssembler.toString());
-					newChars += this.lineAssembler.length();
-					this.lineAssembler = new StringBuffer();
+					this.append(this.outputOptions.getLineBreak());
 					this.lastWasLineBreak = true;
 				}
 				
 				//	add indent (TODO maybe only for line broken annotations)
 				if (this.lastWasLineBreak && (this.indent != null)) {
 					for (int i = 0; i < this.stack.size(); i++)
-						this.lineAssembler.append(this.indent);
+						this.append(this.indent);
 				}
 				
 				//	add end tag
-				this.lineAssembler.append("</" + annotation.getType() + ">");
+				this.append("</");
+				this.append(annotation.getType());
+				this.append(">");
 				this.lastWasLineBreak = false;
 				
 				//	store line (omit if in-line)
 				if (this.outputOptions.writeInLine(annotation.getType()))
 					continue;
-				this.lineAssembler.append(this.outputOptions.getLineBreak());
-				this.lineBuffer.addLast(this.lineAssembler.toString());
-				newChars += this.lineAssembler.length();
-				this.lineAssembler = new StringBuffer();
+				this.append(this.outputOptions.getLineBreak());
 				this.lastWasLineBreak = true;
 				//this.lastWasTag = true;
 			}
 			
 			//	insert line break if required
 			if (!this.lastWasLineBreak && (this.lastToken != null) && this.lastToken.hasAttribute(Token.PARAGRAPH_END_ATTRIBUTE)) {
-				this.lineAssembler.append(this.outputOptions.getLineBreak());
-				this.lineBuffer.addLast(this.lineAssembler.toString());
-				newChars += this.lineAssembler.length();
-				this.lineAssembler = new StringBuffer();
+				this.append(this.outputOptions.getLineBreak());
 				this.lastWasLineBreak = true;
 			}
 			
@@ -362,7 +367,7 @@ public class AnnotationReader extends Reader {
 					(this.lastToken != null) && !this.lastToken.hasAttribute(Token.PARAGRAPH_END_ATTRIBUTE) && 
 					Gamta.insertSpace(this.lastToken, this.token) && 
 					(this.tokenIndex != 0) && (this.source.getWhitespaceAfter(this.tokenIndex-1).length() != 0)
-				) this.lineAssembler.append(this.outputOptions.getSpace());
+				) this.append(this.outputOptions.getSpace());
 			
 			//	write start tags for Annotations beginning at current Token
 			while ((this.annotationPointer < this.nestedAnnotations.length) && (this.nestedAnnotations[this.annotationPointer].getStartIndex() == this.tokenIndex)) {
@@ -370,20 +375,17 @@ public class AnnotationReader extends Reader {
 				
 				//	line break  (omit if in-line)
 				if (!this.lastWasLineBreak && !this.outputOptions.writeInLine(annotation.getType())) {
-					this.lineAssembler.append(this.outputOptions.getLineBreak());
-					this.lineBuffer.addLast(this.lineAssembler.toString());
-					newChars += this.lineAssembler.length();
-					this.lineAssembler = new StringBuffer();
+					this.append(this.outputOptions.getLineBreak());
 				}
 				
 				//	add indent (TODO maybe only for line broken annotations)
 				if (this.lastWasLineBreak && (this.indent != null)) {
 					for (int i = 0; i < this.stack.size(); i++)
-						this.lineAssembler.append(this.indent);
+						this.append(this.indent);
 				}
 				
 				//	write start tag
-				this.lineAssembler.append(AnnotationUtils.produceStartTag(annotation, this.outputOptions));
+				this.append(AnnotationUtils.produceStartTag(annotation, this.outputOptions));
 				//this.lastWasTag = true;
 				this.stack.push(annotation);
 				
@@ -391,18 +393,14 @@ public class AnnotationReader extends Reader {
 				if (this.outputOptions.writeInLine(annotation.getType()))
 					continue;
 				if ((this.annotationPointer < this.nestedAnnotations.length) && AnnotationUtils.contains(annotation, this.nestedAnnotations[this.annotationPointer])) {
-					this.lineAssembler.append(this.outputOptions.getLineBreak());
-					this.lineBuffer.addLast(this.lineAssembler.toString());
-					newChars += this.lineAssembler.length();
-					this.lineAssembler = new StringBuffer();
+					this.append(this.outputOptions.getLineBreak());
 					this.lineBroken.add(annotation.getAnnotationID());
 					this.lastWasLineBreak = true;
 				}
 			}
 			
 			//	append current token
-			String tokenValue = this.token.getValue();
-			this.lineAssembler.append(AnnotationUtils.escapeForXml(tokenValue));
+			this.appendEscaped(this.token.getValue());
 			this.lastWasLineBreak = false;
 			//this.lastWasTag = false;
 			
@@ -410,8 +408,8 @@ public class AnnotationReader extends Reader {
 			this.tokenIndex++;
 			
 			//	some token is left for triggering the stack flush, and we've written enough characters, return
-			if ((this.tokenIndex < this.source.size()) && (newChars >= minChars))
-				return newChars;
+			if ((this.tokenIndex < this.source.size()) && ((this.bufferEnd - bufferEnd) >= minChars))
+				return (this.bufferEnd - bufferEnd);
 		}
 		
 		//	write end tags for annotations not closed so far
@@ -420,28 +418,23 @@ public class AnnotationReader extends Reader {
 			
 			//	line break only if nested annotations
 			if (!this.lastWasLineBreak && this.lineBroken.contains(annotation.getAnnotationID())) {
-				this.lineAssembler.append(this.outputOptions.getLineBreak());
-				this.lineBuffer.addLast(this.lineAssembler.toString());
-				newChars += this.lineAssembler.length();
-				this.lineAssembler = new StringBuffer();
+				this.append(this.outputOptions.getLineBreak());
 				this.lastWasLineBreak = true;
 			}
 			
 			//	add indent (TODO maybe only for line broken annotations)
 			if (this.lastWasLineBreak && (this.indent != null)) {
 				for (int i = 0; i < this.stack.size(); i++)
-					this.lineAssembler.append(this.indent);
+					this.append(this.indent);
 			}
 			
 			//	add end tag
-			this.lineAssembler.append("</" + annotation.getType() + ">");
+			this.append("</");
+			this.append(annotation.getType());
+			this.append(">");
 			this.lastWasLineBreak = false;
 		}
 		
-		this.lineBuffer.addLast(this.lineAssembler.toString());
-		newChars += this.lineAssembler.length();
-		this.lineAssembler = new StringBuffer();
-		
-		return newChars;
+		return (this.bufferEnd - bufferEnd);
 	}
 }
\ No newline at end of file
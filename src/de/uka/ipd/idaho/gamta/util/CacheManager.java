@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.gamta.util;
+
+/**
+ * Memory bounded cache for data derived from documents, e.g. the results of
+ * frequent queries. Instead of relying on the garbage collector to signal
+ * memory shortage, client code registers each cached value with an estimate
+ * of its size in bytes, and the cache manager evicts the least recently used
+ * values once the total exceeds the configured budget. This keeps both the
+ * memory footprint and the cost of re-computing values predictable.<br>
+ * Client code keeps the <code>Entry</code> objects returned by the
+ * <code>cache()</code> method in its own data structures and retrieves the
+ * cached value via the <code>lookup()</code> method, which keeps track of
+ * hit and miss statistics. After eviction, an entry stays with the client
+ * code, but no longer references the cached value, so the latter can be
+ * reclaimed right away. Client code should then re-compute the value and
+ * cache it anew. Clients can also remove entries explicitly, e.g. when a
+ * cached value goes stale.
+ * 
+ * @author sautter
+ */
+public class CacheManager {
+	
+	/**
+	 * Handle for a value held in a cache manager.
+	 * 
+	 * @author sautter
+	 */
+	public static final class Entry {
+		private volatile Object value;
+		private final long size;
+		private Entry prev = null;
+		private Entry next = null;
+		Entry(Object value, long size) {
+			this.value = value;
+			this.size = size;
+		}
+		
+		/**
+		 * Retrieve the cached value without recording a cache access, e.g. to
+		 * check whether it is still valid.
+		 * @return the cached value, or null if the entry has been evicted
+		 */
+		public Object getValue() {
+			return this.value;
+		}
+		
+		/**
+		 * Check whether or not the entry still holds its value, i.e., has not
+		 * been evicted or removed from the cache manager.
+		 * @return true if the entry holds its value
+		 */
+		public boolean isValid() {
+			return (this.value != null);
+		}
+		
+		/**
+		 * @return the estimated size of the cached value in bytes
+		 */
+		public long getSize() {
+			return this.size;
+		}
+	}
+	
+	private final Entry lru = new Entry(null, 0); // sentinel of circular list, least recently used entry at next, most recently used one at prev
+	private long maxSize;
+	private long size = 0;
+	private int entryCount = 0;
+	
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long removals = 0;
+	
+	/** Constructor
+	 * @param maxSize the maximum total size of cached values, in bytes
+	 */
+	public CacheManager(long maxSize) {
+		this.maxSize = maxSize;
+		this.lru.next = this.lru;
+		this.lru.prev = this.lru;
+	}
+	
+	/**
+	 * Add a value to the cache. If this takes the total estimated size of the
+	 * cached values over the budget, the least recently used entries are
+	 * evicted. A value larger than the whole budget is not cached at all.
+	 * @param value the value to cache
+	 * @param size the estimated size of the value, in bytes
+	 * @return the entry for retrieving the value later on
+	 */
+	public synchronized Entry cache(Object value, long size) {
+		Entry entry = new Entry(value, size);
+		if (this.maxSize < size) {
+			entry.value = null;
+			this.evictions++;
+			return entry;
+		}
+		this.link(entry);
+		this.size += size;
+		this.entryCount++;
+		while (this.maxSize < this.size)
+			this.evict(this.lru.next);
+		return entry;
+	}
+	
+	/**
+	 * Retrieve a cached value and record the access. The argument entry may
+	 * be null, which counts as a cache miss, so client code can have all its
+	 * accesses counted in the statistics.
+	 * @param entry the entry holding the sought value
+	 * @return the cached value, or null if the argument entry is null or has
+	 *         been evicted
+	 */
+	public synchronized Object lookup(Entry entry) {
+		Object value = ((entry == null) ? null : entry.value);
+		if (value == null) {
+			this.misses++;
+			return null;
+		}
+		this.unlink(entry);
+		this.link(entry);
+		this.hits++;
+		return value;
+	}
+	
+	/**
+	 * Remove an entry from the cache, e.g. because the cached value has gone
+	 * stale. This releases the value right away, rather than waiting for it
+	 * to be evicted. If the argument entry is null or has been evicted
+	 * already, this method has no effect.
+	 * @param entry the entry to remove
+	 */
+	public synchronized void remove(Entry entry) {
+		if ((entry == null) || (entry.value == null))
+			return;
+		this.release(entry);
+		this.removals++;
+	}
+	
+	/**
+	 * Evict all cached values.
+	 */
+	public synchronized void clear() {
+		while (this.lru.next != this.lru)
+			this.evict(this.lru.next);
+	}
+	
+	/**
+	 * @return the maximum total size of cached values, in bytes
+	 */
+	public synchronized long getMaxSize() {
+		return this.maxSize;
+	}
+	
+	/**
+	 * Set the maximum total size of cached values. If the current total size
+	 * exceeds the new maximum, the least recently used entries are evicted
+	 * right away.
+	 * @param maxSize the new maximum size, in bytes
+	 */
+	public synchronized void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		while (this.maxSize < this.size)
+			this.evict(this.lru.next);
+	}
+	
+	/**
+	 * @return the current total estimated size of cached values, in bytes
+	 */
+	public synchronized long getSize() {
+		return this.size;
+	}
+	
+	/**
+	 * @return the number of values currently cached
+	 */
+	public synchronized int getEntryCount() {
+		return this.entryCount;
+	}
+	
+	/**
+	 * @return the number of lookups that found their value
+	 */
+	public synchronized long getHitCount() {
+		return this.hits;
+	}
+	
+	/**
+	 * @return the number of lookups that did not find their value
+	 */
+	public synchronized long getMissCount() {
+		return this.misses;
+	}
+	
+	/**
+	 * @return the number of values evicted to stay within the size budget
+	 */
+	public synchronized long getEvictionCount() {
+		return this.evictions;
+	}
+	
+	/**
+	 * @return the number of values removed explicitly by client code
+	 */
+	public synchronized long getRemovalCount() {
+		return this.removals;
+	}
+	
+	/**
+	 * Reset the hit, miss, eviction, and removal counters to zero.
+	 */
+	public synchronized void resetStatistics() {
+		this.hits = 0;
+		this.misses = 0;
+		this.evictions = 0;
+		this.removals = 0;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString() {
+		return ("CacheManager: " + this.entryCount + " entries, " + this.size + " of " + this.maxSize + " bytes, " + this.hits + " hits, " + this.misses + " misses, " + this.evictions + " evictions, " + this.removals + " removals");
+	}
+	
+	private void evict(Entry entry) {
+		this.release(entry);
+		this.evictions++;
+	}
+	
+	private void release(Entry entry) {
+		this.unlink(entry);
+		entry.value = null;
+		this.size -= entry.size;
+		this.entryCount--;
+	}
+	
+	private void link(Entry entry) {
+		entry.prev = this.lru.prev;
+		entry.next = this.lru;
+		this.lru.prev.next = entry;
+		this.lru.prev = entry;
+	}
+	
+	private void unlink(Entry entry) {
+		entry.prev.next = entry.next;
+		entry.next.prev = entry.prev;
+		entry.prev = null;
+		entry.next = null;
+	}
+}
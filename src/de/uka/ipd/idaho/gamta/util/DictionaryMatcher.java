@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.gamta.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import de.uka.ipd.idaho.gamta.Annotation;
+import de.uka.ipd.idaho.gamta.Gamta;
+import de.uka.ipd.idaho.gamta.TokenSequence;
+import de.uka.ipd.idaho.gamta.TokenSequenceUtils;
+import de.uka.ipd.idaho.gamta.Tokenizer;
+import de.uka.ipd.idaho.stringUtils.Dictionary;
+import de.uka.ipd.idaho.stringUtils.StringIterator;
+
+/**
+ * Compiled form of a Dictionary for finding all dictionary entries contained
+ * in a token sequence. The entries are packed into a character trie once on
+ * construction; matching then walks this trie along the token values, with
+ * spaces inserted between tokens exactly as in
+ * <code>TokenSequenceUtils.concatTokens(tokens, true, true)</code>, so it
+ * neither creates intermediate strings nor looks up any candidate string in
+ * the dictionary proper. Walks starting at a token stop as soon as the trie
+ * has no continuation for the next character, so the effort is linear in the
+ * number of tokens for all practical purposes, rather than proportional to the
+ * number of token windows. The matches found are the same as those of
+ * <code>Gamta.extractAllContained()</code> with the same parameters if
+ * whitespace is normalized, or if the dictionary is a StringVector; other
+ * dictionaries might implement case insensitive lookups differently.<br>
+ * Instances of this class are immutable after construction, so they can be
+ * reused across documents and threads. However, they do not reflect any
+ * changes to the dictionary they were compiled from.
+ * 
+ * @author sautter
+ */
+public class DictionaryMatcher {
+	
+	private final Tokenizer tokenizer;
+	private final boolean caseSensitive;
+	private final int maxMatchTokens;
+	private final CharTrie entries;
+	private final CharTrie startTokens; // null if any token can start a match
+	
+	/**
+	 * Constructor
+	 * @param dictionary the dictionary containing the strings to be found
+	 * @param tokenizer the tokenizer to use for splitting dictionary entries
+	 *            into tokens (should be the one of the token sequences to
+	 *            search)
+	 * @param maxTokens the maximum number of tokens a string contained in the
+	 *            dictionary may consist of (0 means no limit)
+	 * @param caseSensitive use case sensitive or case insensitive matching
+	 * @param normalize normalize whitespaces in dictionary entries?
+	 */
+	public DictionaryMatcher(Dictionary dictionary, Tokenizer tokenizer, int maxTokens, boolean caseSensitive, boolean normalize) {
+		this.tokenizer = ((tokenizer == null) ? Gamta.INNER_PUNCTUATION_TOKENIZER : tokenizer);
+		this.caseSensitive = caseSensitive;
+		
+		//	tokenize entries, collecting start tokens and maximum number of tokens
+		int maximumTokens = maxTokens;
+		ArrayList entries = new ArrayList(dictionary.size());
+		ArrayList startTokens = new ArrayList();
+		for (StringIterator si = dictionary.getEntryIterator(); si.hasMoreStrings();) {
+			String entry = si.nextString();
+			TokenSequence ts = this.tokenizer.tokenize(entry);
+			if (ts.size() != 0) {
+				if ((maxTokens == 0) && (ts.size() > maximumTokens))
+					maximumTokens = ts.size();
+				startTokens.add(ts.firstValue());
+				if (normalize)
+					entries.add(TokenSequenceUtils.concatTokens(ts, true, true));
+			}
+			if (!normalize)
+				entries.add(entry);
+		}
+		
+		//	a match window has always been allowed one token beyond the maximum
+		this.maxMatchTokens = (maximumTokens + 1);
+		
+		//	compile tries
+		this.entries = new CharTrie(((String[]) entries.toArray(new String[entries.size()])), this.caseSensitive);
+		this.startTokens = ((maximumTokens == 1) ? null : new CharTrie(((String[]) startTokens.toArray(new String[startTokens.size()])), this.caseSensitive));
+	}
+	
+	/**
+	 * Extract all parts of a token sequence that are contained in the
+	 * dictionary this matcher was compiled from.
+	 * @param tokens the token sequence to search
+	 * @param allowOverlap allow a set of overlapping matches to be all
+	 *            extracted
+	 * @return an array of Annotations marking all subsequences of the argument
+	 *         token sequence whose normalized string representation is
+	 *         contained in the dictionary
+	 */
+	public Annotation[] extractAllContained(TokenSequence tokens, boolean allowOverlap) {
+		ArrayList annotations = new ArrayList();
+		int tokenCount = tokens.size();
+		for (int start = 0; start < tokenCount;) {
+			
+			//	check start token
+			if ((this.startTokens != null) && !this.startTokens.contains(tokens.valueAt(start))) {
+				start++;
+				continue;
+			}
+			
+			//	walk trie along token values
+			int matchEnd = -1;
+			int node = CharTrie.ROOT;
+			String lastValue = null;
+			for (int end = start; (end < tokenCount) && ((end - start) < this.maxMatchTokens); end++) {
+				String value = tokens.valueAt(end);
+				if ((lastValue != null) && Gamta.insertSpace(lastValue, value))
+					node = this.entries.step(node, ' ');
+				node = this.entries.step(node, value);
+				if (node == CharTrie.NONE)
+					break;
+				if (this.entries.isTerminal(node)) {
+					if (allowOverlap)
+						annotations.add(Gamta.newAnnotation(tokens, null, start, (end - start + 1)));
+					else matchEnd = end;
+				}
+				lastValue = value;
+			}
+			
+			//	store longest match (if any), and continue after it
+			if (matchEnd == -1)
+				start++;
+			else {
+				annotations.add(Gamta.newAnnotation(tokens, null, start, (matchEnd - start + 1)));
+				start = (matchEnd + 1);
+			}
+		}
+		return ((Annotation[]) annotations.toArray(new Annotation[annotations.size()]));
+	}
+	
+	/**
+	 * Character trie packed into flat arrays: the outgoing edges of each node
+	 * are stored contiguously and sorted by character, so stepping is a binary
+	 * search. Case insensitive tries fold characters the same way
+	 * <code>String.CASE_INSENSITIVE_ORDER</code> compares them.
+	 */
+	private static class CharTrie {
+		static final int ROOT = 0;
+		static final int NONE = -1;
+		
+		private final boolean caseSensitive;
+		private final int[] edgeStarts; // index of first outgoing edge per node, plus end marker
+		private final char[] edgeChars;
+		private final int[] edgeTargets;
+		private final boolean[] terminal;
+		
+		CharTrie(String[] strings, boolean caseSensitive) {
+			this.caseSensitive = caseSensitive;
+			
+			//	insert strings, keeping children of each node in a linked list (root is never a child, so 0 ends lists)
+			int nodeCount = 1;
+			int[] firstChild = new int[1024];
+			int[] nextSibling = new int[1024];
+			char[] nodeChars = new char[1024];
+			boolean[] terminal = new boolean[1024];
+			for (int s = 0; s < strings.length; s++) {
+				int node = ROOT;
+				for (int c = 0; c < strings[s].length(); c++) {
+					char ch = strings[s].charAt(c);
+					if (!caseSensitive)
+						ch = fold(ch);
+					int child = firstChild[node];
+					while ((child != 0) && (nodeChars[child] != ch))
+						child = nextSibling[child];
+					if (child == 0) {
+						if (nodeCount == terminal.length) {
+							firstChild = grow(firstChild);
+							nextSibling = grow(nextSibling);
+							nodeChars = grow(nodeChars);
+							terminal = grow(terminal);
+						}
+						child = nodeCount++;
+						nodeChars[child] = ch;
+						nextSibling[child] = firstChild[node];
+						firstChild[node] = child;
+					}
+					node = child;
+				}
+				terminal[node] = true;
+			}
+			
+			//	pack edges, keeping node numbers
+			this.edgeStarts = new int[nodeCount + 1];
+			this.edgeChars = new char[nodeCount - 1];
+			this.edgeTargets = new int[nodeCount - 1];
+			int edgeCount = 0;
+			for (int node = 0; node < nodeCount; node++) {
+				this.edgeStarts[node] = edgeCount;
+				for (int child = firstChild[node]; child != 0; child = nextSibling[child]) {
+					this.edgeChars[edgeCount] = nodeChars[child];
+					this.edgeTargets[edgeCount] = child;
+					edgeCount++;
+				}
+				this.sortEdges(this.edgeStarts[node], edgeCount);
+			}
+			this.edgeStarts[nodeCount] = edgeCount;
+			this.terminal = new boolean[nodeCount];
+			System.arraycopy(terminal, 0, this.terminal, 0, nodeCount);
+		}
+		
+		private void sortEdges(int from, int to) {
+			
+			//	insertion sort for the usual handful of edges ...
+			if ((to - from) <= 16) {
+				for (int e = (from + 1); e < to; e++) {
+					char ch = this.edgeChars[e];
+					int target = this.edgeTargets[e];
+					int i = e;
+					for (; (i > from) && (this.edgeChars[i-1] > ch); i--) {
+						this.edgeChars[i] = this.edgeChars[i-1];
+						this.edgeTargets[i] = this.edgeTargets[i-1];
+					}
+					this.edgeChars[i] = ch;
+					this.edgeTargets[i] = target;
+				}
+				return;
+			}
+			
+			//	... and packing into sortable longs for large alphabets
+			long[] edges = new long[to - from];
+			for (int e = from; e < to; e++)
+				edges[e - from] = ((((long) this.edgeChars[e]) << 32) | this.edgeTargets[e]);
+			Arrays.sort(edges);
+			for (int e = from; e < to; e++) {
+				this.edgeChars[e] = ((char) (edges[e - from] >>> 32));
+				this.edgeTargets[e] = ((int) edges[e - from]);
+			}
+		}
+		
+		int step(int node, char ch) {
+			if (node == NONE)
+				return NONE;
+			if (!this.caseSensitive)
+				ch = fold(ch);
+			int left = this.edgeStarts[node];
+			int right = this.edgeStarts[node + 1];
+			while (left < right) {
+				int middle = ((left + right) / 2);
+				char mch = this.edgeChars[middle];
+				if (mch == ch)
+					return this.edgeTargets[middle];
+				else if (mch < ch)
+					left = (middle + 1);
+				else right = middle;
+			}
+			return NONE;
+		}
+		
+		int step(int node, String string) {
+			for (int c = 0; (c < string.length()) && (node != NONE); c++)
+				node = this.step(node, string.charAt(c));
+			return node;
+		}
+		
+		boolean isTerminal(int node) {
+			return this.terminal[node];
+		}
+		
+		boolean contains(String string) {
+			int node = this.step(ROOT, string);
+			return ((node != NONE) && this.terminal[node]);
+		}
+		
+		private static char fold(char ch) {
+			return Character.toLowerCase(Character.toUpperCase(ch));
+		}
+		
+		private static int[] grow(int[] array) {
+			int[] grown = new int[array.length * 2];
+			System.arraycopy(array, 0, grown, 0, array.length);
+			return grown;
+		}
+		
+		private static char[] grow(char[] array) {
+			char[] grown = new char[array.length * 2];
+			System.arraycopy(array, 0, grown, 0, array.length);
+			return grown;
+		}
+		
+		private static boolean[] grow(boolean[] array) {
+			boolean[] grown = new boolean[array.length * 2];
+			System.arraycopy(array, 0, grown, 0, array.length);
+			return grown;
+		}
+	}
+}
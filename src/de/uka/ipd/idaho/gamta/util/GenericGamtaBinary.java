@@ -0,0 +1,999 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.gamta.util;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Properties;
+
+import de.uka.ipd.idaho.gamta.Annotation;
+import de.uka.ipd.idaho.gamta.AnnotationUtils;
+import de.uka.ipd.idaho.gamta.Attributed;
+import de.uka.ipd.idaho.gamta.DocumentRoot;
+import de.uka.ipd.idaho.gamta.Gamta;
+import de.uka.ipd.idaho.gamta.MutableAnnotation;
+import de.uka.ipd.idaho.gamta.QueriableAnnotation;
+import de.uka.ipd.idaho.gamta.Token;
+import de.uka.ipd.idaho.gamta.TokenSequence;
+import de.uka.ipd.idaho.gamta.defaultImplementation.CompactTokenizedCharSequence;
+
+/**
+ * Utility class for storing and reading GAMTA documents in a compact binary
+ * format, as a faster and smaller alternative to the generic GAMTA XML format
+ * handled by GenericGamtaXML. Like the latter, the binary format can represent
+ * annotations that are not properly nested. In addition, it preserves the
+ * exact whitespace between tokens. The layout of the format is as follows,
+ * with all integers encoded as unsigned variable length integers (seven bits
+ * per byte, least significant group first, high bit set on all but the last
+ * byte) and all strings as a byte count followed by the UTF-8 bytes:
+ * <ul>
+ * <li>header: the five bytes <code>GAMTA</code>, followed by the format
+ * version</li>
+ * <li>string table: the number of entries, followed by the entries; holds all
+ * annotation types, attribute names, and document property names, which are
+ * referenced by their index in the table in the remainder of the data</li>
+ * <li>document: annotation ID, attributes, annotation nesting order, and
+ * document properties</li>
+ * <li>tokens: the text of the document, the number of tokens, and for each
+ * token the distance of its start offset from the end offset of its
+ * predecessor plus its length</li>
+ * <li>token attributes: the number of tokens with attributes, and for each of
+ * them the distance of its index from the index of its predecessor plus its
+ * attributes</li>
+ * <li>annotations: the number of annotation types, and for each type the
+ * type, the number of annotations, and for each annotation, ordered by start
+ * index, the distance of its start index from the start index of its
+ * predecessor, its size, annotation ID, and attributes</li>
+ * <li>index: the number of tokens, the offset of the token section, and for
+ * each annotation type the type, the number of annotations, and the offset of
+ * the first annotation</li>
+ * <li>index offset: the offset of the index, as a four byte integer, most
+ * significant byte first</li>
+ * </ul>
+ * Attributes are encoded as their number, followed by name and value of each
+ * attribute. Like in the XML format, only attributes with String values are
+ * stored, and annotations of type 'document' are not stored as annotations.
+ * The index allows for the MappedDocument class to serve individual parts of
+ * a document without decoding the whole data. Data in version 1 of the format
+ * has neither index nor grouping by type, the type is stored with each
+ * annotation instead.
+ * 
+ * @author sautter
+ */
+public class GenericGamtaBinary {
+	
+	private static final byte[] MAGIC_BYTES = {((byte) 'G'), ((byte) 'A'), ((byte) 'M'), ((byte) 'T'), ((byte) 'A')};
+	
+	/** the current version of the binary format, written to the header of the data */
+	public static final int FORMAT_VERSION = 2;
+	
+	private GenericGamtaBinary() {}
+	
+	/**
+	 * Check if the data on an input stream starts with the header of the
+	 * binary GAMTA format. If the argument input stream supports marking, the
+	 * bytes inspected are reset; otherwise, they are consumed.
+	 * @param source the input stream to check
+	 * @return true if the data starts with the binary format header
+	 * @throws IOException
+	 */
+	public static boolean isBinaryDocument(InputStream source) throws IOException {
+		if (source.markSupported())
+			source.mark(MAGIC_BYTES.length);
+		try {
+			for (int b = 0; b < MAGIC_BYTES.length; b++) {
+				if (source.read() != MAGIC_BYTES[b])
+					return false;
+			}
+			return true;
+		}
+		finally {
+			if (source.markSupported())
+				source.reset();
+		}
+	}
+	
+	/** read a document from a file and append it to an existing document
+	 * @param	file		the file to read from
+	 * @param	document	the document to append the file content to
+	 * @return the number of tokens added to the specified document
+	 * @throws IOException
+	 */
+	public static int readDocument(File file, MutableAnnotation document) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			return readDocument(fis, document);
+		}
+		finally {
+			fis.close();
+		}
+	}
+	
+	/** read a document from an input stream and append it to an existing document
+	 * @param	source		the input straem to read from
+	 * @param	document	the document to append the input stream's content to
+	 * @return the number of tokens added to the specified document
+	 * @throws IOException
+	 */
+	public static int readDocument(InputStream source, MutableAnnotation document) throws IOException {
+		int sizeBefore = document.size();
+		DataInputStream in = new DataInputStream((source instanceof BufferedInputStream) ? source : new BufferedInputStream(source));
+		
+		//	read header and string table
+		int version = readHeader(in);
+		String[] strings = readStrings(in);
+		
+		//	read document (ID only applies to new document)
+		String docId = readString(in);
+		if (sizeBefore == 0)
+			document.setAttribute(Annotation.ANNOTATION_ID_ATTRIBUTE, docId);
+		readAttributes(in, strings, document);
+		String nestingOrder = readString(in);
+		if ((nestingOrder.length() != 0) && (document instanceof DocumentRoot))
+			((DocumentRoot) document).setAnnotationNestingOrder(nestingOrder);
+		String[] docProperties = readDocumentProperties(in, strings);
+		if (document instanceof DocumentRoot) {
+			for (int p = 0; p < docProperties.length; p += 2)
+				((DocumentRoot) document).setDocumentProperty(docProperties[p], docProperties[p + 1]);
+		}
+		
+		//	read tokens, mapping token indexes in data to token indexes in document
+		int[] tokenIndexes = readTokens(in, strings, document);
+		
+		//	read annotations
+		ArrayList models = new ArrayList();
+		ArrayList modelData = new ArrayList();
+		if (version == 1)
+			readAnnotations(in, strings, null, readCount(in), document, tokenIndexes, models, modelData);
+		else {
+			int typeCount = readInt(in);
+			for (int t = 0; t < typeCount; t++) {
+				String type = getString(strings, readInt(in));
+				readAnnotations(in, strings, type, readCount(in), document, tokenIndexes, models, modelData);
+			}
+		}
+		
+		//	add annotations in one go, and transfer IDs and attributes
+		Annotation[] annotations = Gamta.addAnnotations(document, (Annotation[]) models.toArray(new Annotation[models.size()]));
+		for (int a = 0; a < annotations.length; a++) {
+			if (annotations[a] != null)
+				setAttributes(annotations[a], ((String[]) modelData.get(a)));
+		}
+		
+		//	we're done
+		return (document.size() - sizeBefore);
+	}
+	
+	private static int readHeader(DataInputStream in) throws IOException {
+		byte[] magicBytes = new byte[MAGIC_BYTES.length];
+		in.readFully(magicBytes);
+		for (int b = 0; b < MAGIC_BYTES.length; b++) {
+			if (magicBytes[b] != MAGIC_BYTES[b])
+				throw new IOException("Invalid binary GAMTA document header.");
+		}
+		int version = readInt(in);
+		if (version > FORMAT_VERSION)
+			throw new IOException("Unsupported binary GAMTA format version " + version + ", can only read up to version " + FORMAT_VERSION + ".");
+		return version;
+	}
+	
+	private static String[] readStrings(DataInputStream in) throws IOException {
+		String[] strings = new String[readCount(in)];
+		for (int s = 0; s < strings.length; s++)
+			strings[s] = readString(in);
+		return strings;
+	}
+	
+	private static String[] readDocumentProperties(DataInputStream in, String[] strings) throws IOException {
+		String[] docProperties = new String[readCount(in) * 2];
+		for (int p = 0; p < docProperties.length; p += 2) {
+			docProperties[p] = getString(strings, readInt(in));
+			docProperties[p + 1] = readString(in);
+		}
+		return docProperties;
+	}
+	
+	private static int[] readTokens(DataInputStream in, String[] strings, MutableAnnotation document) throws IOException {
+		
+		//	read text and token offsets
+		String text = readString(in);
+		int tokenCount = readCount(in);
+		int[] tokenStarts = new int[tokenCount];
+		int[] tokenEnds = new int[tokenCount];
+		readTokenOffsets(in, text, tokenStarts, tokenEnds);
+		
+		//	add tokens, and map token indexes in data to token indexes in document
+		int[] tokenIndexes = addTokens(document, text, tokenStarts, tokenEnds);
+		
+		//	read token attributes
+		int attributedTokenCount = readCount(in);
+		for (int t = 0, index = 0; t < attributedTokenCount; t++) {
+			index = readTokenIndex(in, index, tokenCount);
+			readAttributes(in, strings, document.tokenAt(tokenIndexes[index]));
+		}
+		
+		//	finally ...
+		return tokenIndexes;
+	}
+	
+	//	read annotation records, reading type from each record if argument type is null (as in format version 1)
+	private static void readAnnotations(DataInputStream in, String[] strings, String type, int count, TokenSequence tokens, int[] tokenIndexes, ArrayList models, ArrayList modelData) throws IOException {
+		int tokenCount = (tokenIndexes.length - 1);
+		if ((type != null) && !AnnotationUtils.isValidAnnotationType(type))
+			throw new IOException("Invalid annotation type '" + type + "'.");
+		for (int a = 0, start = 0; a < count; a++) {
+			start = readTokenIndex(in, start, (tokenCount + 1));
+			int size = readCount(in);
+			if (size > (tokenCount - start))
+				throw new IOException("Invalid annotation size " + size + " at token " + start + ", document has " + tokenCount + " tokens.");
+			String aType = type;
+			if (aType == null) {
+				aType = getString(strings, readInt(in));
+				if (!AnnotationUtils.isValidAnnotationType(aType))
+					throw new IOException("Invalid annotation type '" + aType + "'.");
+			}
+			
+			//	store annotation ID with attributes
+			String annotationId = readString(in);
+			String[] attributes = readAttributes(in, strings, null);
+			String[] data = new String[attributes.length + 2];
+			data[0] = Annotation.ANNOTATION_ID_ATTRIBUTE;
+			data[1] = annotationId;
+			System.arraycopy(attributes, 0, data, 2, attributes.length);
+			
+			//	skip empty annotations, just as addAnnotation() would
+			int mStart = tokenIndexes[start];
+			int mEnd = tokenIndexes[start + size];
+			models.add((mStart < mEnd) ? Gamta.newAnnotation(tokens, aType, mStart, (mEnd - mStart)) : null);
+			modelData.add(data);
+		}
+	}
+	
+	//	read token start and end offsets, stored as gap to previous token end and token length
+	private static void readTokenOffsets(InputStream in, String text, int[] tokenStarts, int[] tokenEnds) throws IOException {
+		for (int t = 0, end = 0; t < tokenStarts.length; t++) {
+			tokenStarts[t] = (end + readCount(in));
+			int length = readCount(in);
+			end = tokenEnds[t] = (tokenStarts[t] + length);
+			if ((length == 0) || (tokenStarts[t] < 0) || (end < 0) || (end > text.length()))
+				throw new IOException("Invalid token boundaries at index " + t + ": " + tokenStarts[t] + "-" + end + ", text has " + text.length() + " characters.");
+		}
+	}
+	
+	//	read token index stored as offset from previous one, and check it against the number of tokens
+	private static int readTokenIndex(InputStream in, int previous, int tokenCount) throws IOException {
+		int index = (previous + readCount(in));
+		if ((index < 0) || (index >= tokenCount))
+			throw new IOException("Invalid token index " + index + ", document has " + tokenCount + " tokens.");
+		return index;
+	}
+	
+	private static void setAttributes(Attributed attributed, String[] attributes) {
+		for (int a = 0; a < attributes.length; a += 2)
+			attributed.setAttribute(attributes[a], attributes[a + 1]);
+	}
+	
+	private static int[] addTokens(MutableAnnotation document, String text, int[] tokenStarts, int[] tokenEnds) throws IOException {
+		int sizeBefore = document.size();
+		int[] tokenIndexes = new int[tokenStarts.length + 1];
+		
+		//	add text in one go, and check if tokenization is the same as in the data (the usual case)
+		document.addTokens(text);
+		boolean tokensMatch = ((document.size() - sizeBefore) == tokenStarts.length);
+		for (int t = 0; tokensMatch && (t < tokenStarts.length); t++) {
+			if (!document.valueAt(sizeBefore + t).equals(text.substring(tokenStarts[t], tokenEnds[t])))
+				tokensMatch = false;
+			else tokenIndexes[t] = (sizeBefore + t);
+		}
+		if (tokensMatch) {
+			tokenIndexes[tokenStarts.length] = document.size();
+			return tokenIndexes;
+		}
+		
+		//	tokenization differs, add tokens one by one
+		if (document.size() > sizeBefore)
+			document.removeTokensAt(sizeBefore, (document.size() - sizeBefore));
+		for (int t = 0; t < tokenStarts.length; t++) {
+			tokenIndexes[t] = document.size();
+			document.addTokens(text.substring(tokenStarts[t], tokenEnds[t]));
+			if (document.size() == tokenIndexes[t])
+				throw new IOException("Invalid token at index " + t + ": '" + text.substring(tokenStarts[t], tokenEnds[t]) + "'");
+			int wsEnd = (((t + 1) == tokenStarts.length) ? text.length() : tokenStarts[t + 1]);
+			String whitespace = text.substring(tokenEnds[t], wsEnd);
+			if (whitespace.trim().length() != 0)
+				throw new IOException("Invalid whitespace after token at index " + t + ": '" + whitespace + "'");
+			if (!whitespace.equals(document.getWhitespaceAfter(document.size() - 1)))
+				document.setWhitespaceAfter(whitespace, (document.size() - 1));
+		}
+		tokenIndexes[tokenStarts.length] = document.size();
+		return tokenIndexes;
+	}
+	
+	/** read a document from a file
+	 * @param	file	the file to read from
+	 * @return the document read from the specified file
+	 * @throws IOException
+	 */
+	public static DocumentRoot readDocument(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			return readDocument(fis);
+		}
+		finally {
+			fis.close();
+		}
+	}
+	
+	/** read a document from an input stream
+	 * @param	source	the input straem to read from
+	 * @return the document read from the input stream
+	 * @throws IOException
+	 */
+	public static DocumentRoot readDocument(InputStream source) throws IOException {
+		DocumentRoot document = Gamta.newDocument(Gamta.INNER_PUNCTUATION_TOKENIZER);
+		readDocument(source, document);
+		return document;
+	}
+	
+	/**
+	 * Write a document part to a file in binary GAMTA format.
+	 * @param data the DocumentPart to write
+	 * @param file the File to write to
+	 * @return true if and only if the specified DocumentPart is written
+	 *         successfully
+	 */
+	public static boolean storeDocument(QueriableAnnotation data, File file) {
+		try {
+			FileOutputStream fos = new FileOutputStream(file);
+			try {
+				storeDocument(data, fos);
+			}
+			finally {
+				fos.close();
+			}
+			return true;
+		}
+		catch (IOException ioe) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Write a document part to an arbitrary OutputStream in binary GAMTA
+	 * format. The output stream is flushed, but not closed.
+	 * @param data the DocumentPart to write
+	 * @param output the OutputStream to write to
+	 * @return true
+	 * @throws IOException
+	 */
+	public static boolean storeDocument(QueriableAnnotation data, OutputStream output) throws IOException {
+		CountingOutputStream out = new CountingOutputStream((output instanceof BufferedOutputStream) ? output : new BufferedOutputStream(output));
+		
+		//	collect annotations by type, skipping the ones of type 'document', and strings
+		QueriableAnnotation[] nestedAnnotations = data.getAnnotations();
+		LinkedHashMap annotationListsByType = new LinkedHashMap();
+		StringTable strings = new StringTable();
+		for (int a = 0; a < nestedAnnotations.length; a++) {
+			if (DocumentRoot.DOCUMENT_TYPE.equals(nestedAnnotations[a].getType()))
+				continue;
+			String type = getType(nestedAnnotations[a]);
+			ArrayList annotationList = ((ArrayList) annotationListsByType.get(type));
+			if (annotationList == null) {
+				annotationList = new ArrayList();
+				annotationListsByType.put(type, annotationList);
+			}
+			annotationList.add(nestedAnnotations[a]);
+			strings.add(type);
+			strings.addAll(nestedAnnotations[a].getAttributeNames());
+		}
+		strings.addAll(data.getAttributeNames());
+		String[] docPropertyNames = data.getDocumentPropertyNames();
+		strings.addAll(docPropertyNames);
+		for (int t = 0; t < data.size(); t++)
+			strings.addAll(data.tokenAt(t).getAttributeNames());
+		
+		//	write header
+		out.write(MAGIC_BYTES);
+		writeInt(out, FORMAT_VERSION);
+		
+		//	write string table
+		writeInt(out, strings.size());
+		for (int s = 0; s < strings.size(); s++)
+			writeString(out, strings.get(s));
+		
+		//	write document
+		writeString(out, data.getAnnotationID());
+		writeAttributes(out, strings, data);
+		String nestingOrder = data.getAnnotationNestingOrder();
+		writeString(out, (DocumentRoot.DEFAULT_ANNOTATION_NESTING_ORDER.equals(nestingOrder) ? "" : nestingOrder));
+		writeInt(out, docPropertyNames.length);
+		for (int p = 0; p < docPropertyNames.length; p++) {
+			writeInt(out, strings.indexOf(docPropertyNames[p]));
+			writeString(out, data.getDocumentProperty(docPropertyNames[p]));
+		}
+		
+		//	write text and token offsets
+		int tokenSectionOffset = out.count;
+		StringBuffer text = new StringBuffer();
+		for (int t = 0; t < data.size(); t++) {
+			text.append(data.valueAt(t));
+			text.append(data.getWhitespaceAfter(t));
+		}
+		writeString(out, text.toString());
+		writeInt(out, data.size());
+		for (int t = 0; t < data.size(); t++) {
+			writeInt(out, ((t == 0) ? 0 : data.getWhitespaceAfter(t - 1).length()));
+			writeInt(out, data.valueAt(t).length());
+		}
+		
+		//	write token attributes
+		ArrayList attributedTokenIndexes = new ArrayList();
+		for (int t = 0; t < data.size(); t++) {
+			if (hasStringAttributes(data.tokenAt(t)))
+				attributedTokenIndexes.add(new Integer(t));
+		}
+		writeInt(out, attributedTokenIndexes.size());
+		for (int t = 0, lastIndex = 0; t < attributedTokenIndexes.size(); t++) {
+			int index = ((Integer) attributedTokenIndexes.get(t)).intValue();
+			writeInt(out, (index - lastIndex));
+			writeAttributes(out, strings, data.tokenAt(index));
+			lastIndex = index;
+		}
+		
+		//	write annotations grouped by type (in the order they come in, which is by start index)
+		int[] annotationGroupOffsets = new int[annotationListsByType.size()];
+		writeInt(out, annotationListsByType.size());
+		int typeIndex = 0;
+		for (Iterator tit = annotationListsByType.keySet().iterator(); tit.hasNext(); typeIndex++) {
+			String type = ((String) tit.next());
+			ArrayList annotationList = ((ArrayList) annotationListsByType.get(type));
+			writeInt(out, strings.indexOf(type));
+			writeInt(out, annotationList.size());
+			annotationGroupOffsets[typeIndex] = out.count;
+			for (int a = 0, lastStart = 0; a < annotationList.size(); a++) {
+				Annotation annotation = ((Annotation) annotationList.get(a));
+				writeInt(out, (annotation.getStartIndex() - lastStart));
+				writeInt(out, annotation.size());
+				writeString(out, annotation.getAnnotationID());
+				writeAttributes(out, strings, annotation);
+				lastStart = annotation.getStartIndex();
+			}
+		}
+		
+		//	write index
+		int indexOffset = out.count;
+		writeInt(out, data.size());
+		writeInt(out, tokenSectionOffset);
+		writeInt(out, annotationListsByType.size());
+		typeIndex = 0;
+		for (Iterator tit = annotationListsByType.keySet().iterator(); tit.hasNext(); typeIndex++) {
+			String type = ((String) tit.next());
+			writeInt(out, strings.indexOf(type));
+			writeInt(out, ((ArrayList) annotationListsByType.get(type)).size());
+			writeInt(out, annotationGroupOffsets[typeIndex]);
+		}
+		
+		//	write index offset
+		for (int shift = 24; shift >= 0; shift -= 8)
+			out.write(indexOffset >>> shift);
+		
+		//	we're done
+		out.flush();
+		return true;
+	}
+	
+	private static String getType(Annotation annotation) {
+		String type = annotation.getType();
+		return ((type == null) ? "generic" : type);
+	}
+	
+	private static boolean hasStringAttributes(Attributed attributed) {
+		String[] attributeNames = attributed.getAttributeNames();
+		for (int n = 0; n < attributeNames.length; n++) {
+			if (attributed.getAttribute(attributeNames[n]) instanceof String)
+				return true;
+		}
+		return false;
+	}
+	
+	private static void writeAttributes(OutputStream out, StringTable strings, Attributed attributed) throws IOException {
+		String[] attributeNames = attributed.getAttributeNames();
+		int count = 0;
+		for (int n = 0; n < attributeNames.length; n++) {
+			if (Annotation.ANNOTATION_ID_ATTRIBUTE.equals(attributeNames[n]) || !(attributed.getAttribute(attributeNames[n]) instanceof String))
+				attributeNames[n] = null;
+			else count++;
+		}
+		writeInt(out, count);
+		for (int n = 0; n < attributeNames.length; n++) {
+			if (attributeNames[n] == null)
+				continue;
+			writeInt(out, strings.indexOf(attributeNames[n]));
+			writeString(out, ((String) attributed.getAttribute(attributeNames[n])));
+		}
+	}
+	
+	private static String[] readAttributes(DataInputStream in, String[] strings, Attributed attributed) throws IOException {
+		int count = readCount(in);
+		String[] attributes = ((attributed == null) ? new String[count * 2] : null);
+		for (int a = 0; a < count; a++) {
+			String name = getString(strings, readInt(in));
+			String value = readString(in);
+			if (attributed == null) {
+				attributes[a * 2] = name;
+				attributes[(a * 2) + 1] = value;
+			}
+			else attributed.setAttribute(name, value);
+		}
+		return attributes;
+	}
+	
+	private static void writeInt(OutputStream out, int i) throws IOException {
+		while ((i & ~0x7F) != 0) {
+			out.write((i & 0x7F) | 0x80);
+			i >>>= 7;
+		}
+		out.write(i);
+	}
+	
+	private static int readInt(InputStream in) throws IOException {
+		int i = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.read();
+			if (b == -1)
+				throw new EOFException();
+			i |= ((b & 0x7F) << shift);
+			if ((b & 0x80) == 0)
+				return i;
+		}
+		throw new IOException("Malformed variable length integer.");
+	}
+	
+	//	read a count or length, which cannot be negative in valid data
+	private static int readCount(InputStream in) throws IOException {
+		int count = readInt(in);
+		if (count < 0)
+			throw new IOException("Invalid count " + count + ".");
+		return count;
+	}
+	
+	private static String getString(String[] strings, int index) throws IOException {
+		if ((index < 0) || (index >= strings.length))
+			throw new IOException("Invalid string index " + index + ", string table has " + strings.length + " entries.");
+		return strings[index];
+	}
+	
+	private static void writeString(OutputStream out, String str) throws IOException {
+		byte[] bytes = str.getBytes("UTF-8");
+		writeInt(out, bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[readCount(in)];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+	
+	private static class StringTable {
+		private ArrayList strings = new ArrayList();
+		private HashMap indexes = new HashMap();
+		void add(String str) {
+			if (this.indexes.containsKey(str))
+				return;
+			this.indexes.put(str, new Integer(this.strings.size()));
+			this.strings.add(str);
+		}
+		void addAll(String[] strs) {
+			for (int s = 0; s < strs.length; s++)
+				this.add(strs[s]);
+		}
+		int indexOf(String str) {
+			return ((Integer) this.indexes.get(str)).intValue();
+		}
+		String get(int index) {
+			return ((String) this.strings.get(index));
+		}
+		int size() {
+			return this.strings.size();
+		}
+	}
+	
+	private static class CountingOutputStream extends FilterOutputStream {
+		int count = 0;
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.count++;
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.count += len;
+		}
+	}
+	
+	private static class ByteBufferInputStream extends InputStream {
+		private ByteBuffer buffer;
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+		public int read() throws IOException {
+			return (this.buffer.hasRemaining() ? (this.buffer.get() & 0xFF) : -1);
+		}
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!this.buffer.hasRemaining())
+				return -1;
+			len = Math.min(len, this.buffer.remaining());
+			this.buffer.get(b, off, len);
+			return len;
+		}
+		public int available() throws IOException {
+			return this.buffer.remaining();
+		}
+	}
+	
+	private static DataInputStream getInputStream(ByteBuffer buffer, int offset) {
+		ByteBuffer data = buffer.duplicate();
+		data.position(offset);
+		return new DataInputStream(new ByteBufferInputStream(data));
+	}
+	
+	/**
+	 * Read-only view of a document stored in a file in binary GAMTA format.
+	 * Instances of this class memory-map the file and decode only what client
+	 * code actually asks for: the document ID, attributes, and properties are
+	 * decoded on construction, the text, tokens, and the annotations of
+	 * individual types only on first access. This is helpful for opening
+	 * large documents only to inspect their metadata or a few annotation
+	 * types. The getDocument() method decodes the whole document if need be.
+	 * <br>All the attribute modification methods throw an
+	 * UnsupportedOperationException.
+	 * 
+	 * @author sautter
+	 */
+	public static class MappedDocument implements Attributed {
+		
+		private ByteBuffer data;
+		private String[] strings;
+		
+		private String annotationId;
+		private String annotationNestingOrder;
+		private HashMap attributes = new HashMap();
+		private Properties documentProperties = new Properties();
+		
+		private int tokenCount;
+		private int tokenSectionOffset;
+		private LinkedHashMap annotationGroupsByType = new LinkedHashMap();
+		
+		private String text = null;
+		private TokenSequence tokens = null;
+		private int[] tokenIndexes = null;
+		private HashMap annotationsByType = new HashMap();
+		
+		/**
+		 * Constructor
+		 * @param file the file to map
+		 * @throws IOException
+		 */
+		public MappedDocument(File file) throws IOException {
+			
+			//	map file (the mapping remains valid after the channel is closed)
+			FileInputStream fis = new FileInputStream(file);
+			try {
+				FileChannel channel = fis.getChannel();
+				this.data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			finally {
+				fis.close();
+			}
+			
+			//	read header and string table
+			DataInputStream in = getInputStream(this.data, 0);
+			int version = readHeader(in);
+			if (version < 2)
+				throw new IOException("Binary GAMTA format version " + version + " has no index for lazy loading.");
+			this.strings = readStrings(in);
+			
+			//	read document
+			this.annotationId = readString(in);
+			String[] attributes = readAttributes(in, this.strings, null);
+			for (int a = 0; a < attributes.length; a += 2)
+				this.attributes.put(attributes[a], attributes[a + 1]);
+			String nestingOrder = readString(in);
+			this.annotationNestingOrder = ((nestingOrder.length() == 0) ? DocumentRoot.DEFAULT_ANNOTATION_NESTING_ORDER : nestingOrder);
+			String[] docProperties = readDocumentProperties(in, this.strings);
+			for (int p = 0; p < docProperties.length; p += 2)
+				this.documentProperties.setProperty(docProperties[p], docProperties[p + 1]);
+			
+			//	read index (offset is the last four bytes of the file)
+			if (this.data.limit() < 4)
+				throw new IOException("Truncated binary GAMTA document.");
+			int indexOffset = this.data.getInt(this.data.limit() - 4);
+			checkOffset(indexOffset, (this.data.limit() - 4));
+			in = getInputStream(this.data, indexOffset);
+			this.tokenCount = readCount(in);
+			this.tokenSectionOffset = checkOffset(readInt(in), indexOffset);
+			int typeCount = readCount(in);
+			for (int t = 0; t < typeCount; t++) {
+				String type = getString(this.strings, readInt(in));
+				int count = readCount(in);
+				int offset = checkOffset(readInt(in), indexOffset);
+				this.annotationGroupsByType.put(type, new int[] {count, offset});
+			}
+		}
+		
+		private static int checkOffset(int offset, int limit) throws IOException {
+			if ((offset < 0) || (offset >= limit))
+				throw new IOException("Invalid section offset " + offset + ", data ends at " + limit + ".");
+			return offset;
+		}
+		
+		/**
+		 * @return the ID of the document
+		 */
+		public String getAnnotationID() {
+			return this.annotationId;
+		}
+		
+		/**
+		 * @return the annotation nesting order of the document
+		 */
+		public String getAnnotationNestingOrder() {
+			return this.annotationNestingOrder;
+		}
+		
+		/**
+		 * @return the number of tokens in the document
+		 */
+		public int size() {
+			return this.tokenCount;
+		}
+		
+		/**
+		 * Retrieve the text of the document, including the whitespace between
+		 * the tokens. This does not require tokenizing the text.
+		 * @return the text of the document
+		 */
+		public synchronized String getText() throws IOException {
+			if (this.text == null)
+				this.text = readString(getInputStream(this.data, this.tokenSectionOffset));
+			return this.text;
+		}
+		
+		/**
+		 * Retrieve the tokens of the document, with their attributes. The
+		 * tokens are decoded on the first invocation of this method, using the
+		 * stored token offsets rather than tokenizing the text again.
+		 * @return the tokens of the document
+		 */
+		public synchronized TokenSequence getTokens() throws IOException {
+			if (this.tokens != null)
+				return this.tokens;
+			
+			//	read text and token offsets
+			DataInputStream in = getInputStream(this.data, this.tokenSectionOffset);
+			String text = readString(in);
+			int tokenCount = readCount(in);
+			int[] tokenStarts = new int[tokenCount];
+			int[] tokenEnds = new int[tokenCount];
+			readTokenOffsets(in, text, tokenStarts, tokenEnds);
+			int[] tokenIndexes = new int[tokenCount + 1];
+			for (int t = 0; t <= tokenCount; t++)
+				tokenIndexes[t] = t;
+			TokenSequence tokens = new CompactTokenizedCharSequence(Gamta.INNER_PUNCTUATION_TOKENIZER, text, tokenStarts, tokenEnds);
+			
+			//	read token attributes
+			int attributedTokenCount = readCount(in);
+			for (int t = 0, index = 0; t < attributedTokenCount; t++) {
+				index = readTokenIndex(in, index, tokenCount);
+				readAttributes(in, this.strings, tokens.tokenAt(index));
+			}
+			
+			//	finally ...
+			this.text = text;
+			this.tokenIndexes = tokenIndexes;
+			this.tokens = tokens;
+			return this.tokens;
+		}
+		
+		/**
+		 * @return the types of the annotations present in the document
+		 */
+		public String[] getAnnotationTypes() {
+			return ((String[]) this.annotationGroupsByType.keySet().toArray(new String[this.annotationGroupsByType.size()]));
+		}
+		
+		/**
+		 * Retrieve the number of annotations of a given type. This does not
+		 * require decoding any annotations.
+		 * @param type the annotation type to check
+		 * @return the number of annotations of the argument type
+		 */
+		public int getAnnotationCount(String type) {
+			int[] annotationGroup = ((int[]) this.annotationGroupsByType.get(type));
+			return ((annotationGroup == null) ? 0 : annotationGroup[0]);
+		}
+		
+		/**
+		 * Retrieve the annotations of a given type, ordered by start index.
+		 * This decodes the tokens (if not done before) and the annotations of
+		 * the argument type, but none of the other annotations. The returned
+		 * annotations refer to the token sequence returned by getTokens().
+		 * The annotations of each type are decoded on the first invocation of
+		 * this method for the type; later invocations return the same
+		 * annotation objects, in a new array.
+		 * @param type the type of the annotations to retrieve
+		 * @return the annotations of the argument type
+		 */
+		public synchronized Annotation[] getAnnotations(String type) throws IOException {
+			int[] annotationGroup = ((int[]) this.annotationGroupsByType.get(type));
+			if (annotationGroup == null)
+				return new Annotation[0];
+			Annotation[] annotations = ((Annotation[]) this.annotationsByType.get(type));
+			if (annotations == null) {
+				annotations = this.decodeAnnotations(type, annotationGroup);
+				this.annotationsByType.put(type, annotations);
+			}
+			return ((Annotation[]) annotations.clone());
+		}
+		
+		private Annotation[] decodeAnnotations(String type, int[] annotationGroup) throws IOException {
+			TokenSequence tokens = this.getTokens();
+			ArrayList models = new ArrayList(annotationGroup[0]);
+			ArrayList modelData = new ArrayList(annotationGroup[0]);
+			readAnnotations(getInputStream(this.data, annotationGroup[1]), this.strings, type, annotationGroup[0], tokens, this.tokenIndexes, models, modelData);
+			ArrayList annotations = new ArrayList(models.size());
+			for (int a = 0; a < models.size(); a++) {
+				Annotation annotation = ((Annotation) models.get(a));
+				if (annotation == null)
+					continue;
+				setAttributes(annotation, ((String[]) modelData.get(a)));
+				annotations.add(annotation);
+			}
+			return ((Annotation[]) annotations.toArray(new Annotation[annotations.size()]));
+		}
+		
+		/**
+		 * Decode the whole document. Each invocation of this method creates a
+		 * new document.
+		 * @return the document
+		 */
+		public DocumentRoot getDocument() throws IOException {
+			return readDocument(new ByteBufferInputStream(this.data.duplicate()));
+		}
+		
+		/*
+		 * @see de.uka.ipd.idaho.gamta.Attributed#clearAttributes()
+		 */
+		public void clearAttributes() {
+			throw new UnsupportedOperationException("Mapped documents are read-only.");
+		}
+		
+		/*
+		 * @see de.uka.ipd.idaho.gamta.Attributed#copyAttributes(de.uka.ipd.idaho.gamta.Attributed)
+		 */
+		public void copyAttributes(Attributed source) {
+			throw new UnsupportedOperationException("Mapped documents are read-only.");
+		}
+		
+		/*
+		 * @see de.uka.ipd.idaho.gamta.Attributed#getAttribute(java.lang.String, java.lang.Object)
+		 */
+		public Object getAttribute(String name, Object def) {
+			return (this.attributes.containsKey(name) ? this.attributes.get(name) : def);
+		}
+		
+		/*
+		 * @see de.uka.ipd.idaho.gamta.Attributed#getAttribute(java.lang.String)
+		 */
+		public Object getAttribute(String name) {
+			return this.attributes.get(name);
+		}
+		
+		/*
+		 * @see de.uka.ipd.idaho.gamta.Attributed#getAttributeNames()
+		 */
+		public String[] getAttributeNames() {
+			ArrayList names = new ArrayList(this.attributes.keySet());
+			Collections.sort(names);
+			return ((String[]) names.toArray(new String[names.size()]));
+		}
+		
+		/*
+		 * @see de.uka.ipd.idaho.gamta.Attributed#hasAttribute(java.lang.String)
+		 */
+		public boolean hasAttribute(String name) {
+			return this.attributes.containsKey(name);
+		}
+		
+		/*
+		 * @see de.uka.ipd.idaho.gamta.Attributed#removeAttribute(java.lang.String)
+		 */
+		public Object removeAttribute(String name) {
+			throw new UnsupportedOperationException("Mapped documents are read-only.");
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.Attributed#setAttribute(java.lang.String)
+		 */
+		public void setAttribute(String name) {
+			throw new UnsupportedOperationException("Mapped documents are read-only.");
+		}
+		
+		/*
+		 * @see de.uka.ipd.idaho.gamta.Attributed#setAttribute(java.lang.String, java.lang.Object)
+		 */
+		public Object setAttribute(String name, Object value) {
+			throw new UnsupportedOperationException("Mapped documents are read-only.");
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.gamta.Annotation#getDocumentProperty(java.lang.String)
+		 */
+		public String getDocumentProperty(String propertyName) {
+			return this.getDocumentProperty(propertyName, null);
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.gamta.Annotation#getDocumentProperty(java.lang.String, java.lang.String)
+		 */
+		public String getDocumentProperty(String propertyName, String defaultValue) {
+			return this.documentProperties.getProperty(propertyName, defaultValue);
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.gamta.Annotation#getDocumentPropertyNames()
+		 */
+		public String[] getDocumentPropertyNames() {
+			ArrayList names = new ArrayList(this.documentProperties.keySet());
+			Collections.sort(names);
+			return ((String[]) names.toArray(new String[names.size()]));
+		}
+	}
+}
@@ -53,7 +53,10 @@ import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
@@ -82,117 +85,390 @@ import de.uka.ipd.idaho.htmlXmlUtil.grammars.StandardGrammar;
  * 
  * @author sautter
  */
-public class GenericGamtaXML extends TokenReceiver {
+public class GenericGamtaXML {
 	
 	private static final String DOCUMENT_PROPERTY_PREFIX = "DP_";
 	
-	private MutableAnnotation document;
-	private ArrayList annotations = new ArrayList();
-	private HashMap annotationsByNumber = new HashMap();
-	
-	private TreeNodeAttributeSet tokenAttributes = null;
-	
-	private GenericGamtaXML(MutableAnnotation document) throws IOException {
-		this.document = document;
-	}
-	
-	/** @see de.uka.ipd.idaho.htmlXmlUtil.TokenReceiver#close()
-	 */
-	public void close() throws IOException {
+	/* handler building a document from the parts handed over by streamDocument() */
+	private static class DocumentBuilder implements DocumentHandler {
+		private MutableAnnotation document;
+		private ArrayList annotations = new ArrayList();
+		private HashMap annotationsByNumber = new HashMap();
+		
+		private Map tokenAttributes = null;
+		
+		DocumentBuilder(MutableAnnotation document) {
+			this.document = document;
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.util.GenericGamtaXML.DocumentHandler#startDocument(java.lang.String, java.util.Map, java.util.Map, java.lang.String)
+		 */
+		public void startDocument(String annotationId, Map attributes, Map documentProperties, String annotationNestingOrder) throws IOException {
+			if (annotationId != null)
+				this.document.setAttribute(Annotation.ANNOTATION_ID_ATTRIBUTE, annotationId);
+			setAttributes(this.document, attributes);
+			for (Iterator pit = documentProperties.keySet().iterator(); pit.hasNext();) {
+				String name = ((String) pit.next());
+				if (this.document instanceof DocumentRoot)
+					((DocumentRoot) this.document).setDocumentProperty(name, ((String) documentProperties.get(name)));
+				else this.document.setAttribute((DOCUMENT_PROPERTY_PREFIX + name), documentProperties.get(name));
+			}
+			if ((annotationNestingOrder != null) && (this.document instanceof DocumentRoot))
+				((DocumentRoot) this.document).setAnnotationNestingOrder(annotationNestingOrder);
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.util.GenericGamtaXML.DocumentHandler#startAnnotation(java.lang.String, java.lang.String, java.util.Map)
+		 */
+		public void startAnnotation(String number, String type, Map attributes) throws IOException {
+			GamtaAnnotationContainer gac = new GamtaAnnotationContainer(type, this.document.size(), attributes);
+			this.annotationsByNumber.put(number, gac);
+			this.annotations.add(gac);
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.util.GenericGamtaXML.DocumentHandler#endAnnotation(java.lang.String)
+		 */
+		public void endAnnotation(String number) throws IOException {
+			GamtaAnnotationContainer gac = ((GamtaAnnotationContainer) this.annotationsByNumber.remove(number));
+			if (gac != null)
+				gac.size = (this.document.size() - gac.start);
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.util.GenericGamtaXML.DocumentHandler#tokenAttributes(java.util.Map)
+		 */
+		public void tokenAttributes(Map attributes) throws IOException {
+			this.tokenAttributes = attributes;
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.util.GenericGamtaXML.DocumentHandler#text(java.lang.String)
+		 */
+		public void text(String text) throws IOException {
+			int aTokenIndex = this.document.size();
+			this.document.addTokens(text);
+			if ((this.document.size() > aTokenIndex) && (this.tokenAttributes != null)) {
+				setAttributes(this.document.tokenAt(aTokenIndex), this.tokenAttributes);
+				this.tokenAttributes = null;
+			}
+		}
 		
-		//	write Annotations
-		for (int a = 0; a < this.annotations.size(); a++) {
-			GamtaAnnotationContainer ac = ((GamtaAnnotationContainer) this.annotations.get(a));
-			Annotation annotation;
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.util.GenericGamtaXML.DocumentHandler#paragraphEnd()
+		 */
+		public void paragraphEnd() throws IOException {
+			if (this.document.size() != 0) {
+				this.document.lastToken().setAttribute(Token.PARAGRAPH_END_ATTRIBUTE, Token.PARAGRAPH_END_ATTRIBUTE);
+				this.document.addChar('\n');
+			}
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.gamta.util.GenericGamtaXML.DocumentHandler#endDocument()
+		 */
+		public void endDocument() throws IOException {
 			
-			//	Annotation
-			annotation = this.document.addAnnotation(ac.type, ac.start, ac.size);
+			//	collect Annotations (skipping empty ones, just as addAnnotation() would)
+			Annotation[] models = new Annotation[this.annotations.size()];
+			for (int a = 0; a < this.annotations.size(); a++) {
+				GamtaAnnotationContainer ac = ((GamtaAnnotationContainer) this.annotations.get(a));
+				if (ac.size > 0)
+					models[a] = Gamta.newAnnotation(this.document, ac.type, ac.start, ac.size);
+			}
 			
-			//	transfer attributes
-			if (annotation != null) {
-				String[] attributeNames = ac.attributes.getAttributeNames();
-				for (int n = 0; n < attributeNames.length; n++)
-					annotation.setAttribute(attributeNames[n], unescapeAttributeValue(ac.attributes.getAttribute(attributeNames[n])));
+			//	write Annotations in one go
+			Annotation[] annotations = Gamta.addAnnotations(this.document, models);
+			for (int a = 0; a < this.annotations.size(); a++) {
+				GamtaAnnotationContainer ac = ((GamtaAnnotationContainer) this.annotations.get(a));
+				Annotation annotation = annotations[a];
+				
+				//	transfer attributes
+				if (annotation != null)
+					setAttributes(annotation, ac.attributes);
 			}
+			this.annotations.clear();
 		}
 	}
 	
-	/** @see de.uka.ipd.idaho.htmlXmlUtil.TokenReceiver#storeToken(java.lang.String, int)
+	private static void setAttributes(Attributed attributed, Map attributes) {
+		for (Iterator ait = attributes.keySet().iterator(); ait.hasNext();) {
+			String name = ((String) ait.next());
+			attributed.setAttribute(name, attributes.get(name));
+		}
+	}
+	
+	/**
+	 * Receiver for the parts of a document in generic GAMTA XML format, as
+	 * they are encountered by the streamDocument() method. This allows for
+	 * processing a document without instantiating it as a whole. All
+	 * attribute values handed to the methods of this interface are fully
+	 * un-escaped.
+	 * 
+	 * @author sautter
 	 */
-	public void storeToken(String token, int treeDepth) throws IOException {
+	public static interface DocumentHandler {
 		
-		//	Annotation marker
-		if (GRAMMAR.isTag(token)) {
-			String partType = GRAMMAR.getType(token);
-			
-			TreeNodeAttributeSet attributes = TreeNodeAttributeSet.getTagAttributes(token, GRAMMAR);
-			
-			String type = attributes.getAttribute(TYPE_ATTRIBUTE, partType);
-			attributes.removeAttribute(TYPE_ATTRIBUTE);
-			
-			//	document root
-			if (DocumentRoot.DOCUMENT_TYPE.equals(type)) {
-				String[] attributeNames = attributes.getAttributeNames();
-				for (int n = 0; n < attributeNames.length; n++) {
-					
-					//	document property
-					if ((this.document instanceof DocumentRoot) && attributeNames[n].startsWith(DOCUMENT_PROPERTY_PREFIX))
-						((DocumentRoot) this.document).setDocumentProperty(attributeNames[n].substring(DOCUMENT_PROPERTY_PREFIX.length()), unescapeAttributeValue(attributes.getAttribute(attributeNames[n])));
-					
-					//	annotation nesting order
-					else if (DocumentRoot.ANNOTATION_NESTING_ORDER_ATTRIBUTE.equals(attributeNames[n])) {
-						if (this.document instanceof DocumentRoot)
-							((DocumentRoot) this.document).setAnnotationNestingOrder(attributes.getAttribute(attributeNames[n]));
+		/**
+		 * Receive the ID, attributes, and document properties of the document.
+		 * @param annotationId the ID of the document (null if not given)
+		 * @param attributes the attributes of the document
+		 * @param documentProperties the document properties
+		 * @param annotationNestingOrder the annotation nesting order of the
+		 *            document (null if the default one)
+		 */
+		public abstract void startDocument(String annotationId, Map attributes, Map documentProperties, String annotationNestingOrder) throws IOException;
+		
+		/**
+		 * Receive the start of an annotation. The annotation starts with the
+		 * first token of the next text handed to the text() method.
+		 * @param number the number of the annotation, linking it to its end
+		 *            (the suffix of the start marker, usually an integer)
+		 * @param type the type of the annotation
+		 * @param attributes the attributes of the annotation, including its ID
+		 */
+		public abstract void startAnnotation(String number, String type, Map attributes) throws IOException;
+		
+		/**
+		 * Receive the end of an annotation. The annotation ends with the last
+		 * token of the last text handed to the text() method.
+		 * @param number the number of the annotation, as handed to the
+		 *            startAnnotation() method
+		 */
+		public abstract void endAnnotation(String number) throws IOException;
+		
+		/**
+		 * Receive the attributes of the first token of the next text handed to
+		 * the text() method.
+		 * @param attributes the token attributes
+		 */
+		public abstract void tokenAttributes(Map attributes) throws IOException;
+		
+		/**
+		 * Receive a piece of text. The text is neither tokenized nor trimmed.
+		 * @param text the text
+		 */
+		public abstract void text(String text) throws IOException;
+		
+		/**
+		 * Receive the end of a paragraph, i.e., a line break after the last
+		 * token of the last text handed to the text() method.
+		 */
+		public abstract void paragraphEnd() throws IOException;
+		
+		/**
+		 * Receive the end of the document.
+		 */
+		public abstract void endDocument() throws IOException;
+	}
+	
+	/**
+	 * Stream a document in generic GAMTA XML format to a DocumentHandler. This
+	 * method does not use a generic XML parser, but a scanner specialized for
+	 * the generic GAMTA XML format, and does not build the document, leaving
+	 * any further processing to the argument handler. Comments, processing
+	 * instructions, and CDATA sections are scanned up to their respective end
+	 * and handed to the handler as text, just as the XML parser based reading
+	 * used to. The handler's endDocument() method is invoked at the end of the
+	 * data.
+	 * @param source the reader to read from
+	 * @param handler the handler to hand the parts of the document to
+	 * @throws IOException
+	 */
+	public static void streamDocument(Reader source, DocumentHandler handler) throws IOException {
+		char[] buffer = new char[8192];
+		StringBuffer text = new StringBuffer();
+		StringBuffer tag = new StringBuffer();
+		boolean inTag = false;
+		char quoter = 0;
+		String tagEnd = null;
+		int tagEndMinLength = 0;
+		for (int read; (read = source.read(buffer, 0, buffer.length)) != -1;)
+			for (int c = 0; c < read; c++) {
+				char ch = buffer[c];
+				
+				//	in comment, processing instruction, or CDATA section, look out for specific end (quotes don't count here)
+				if (tagEnd != null) {
+					tag.append(ch);
+					if ((tag.length() >= tagEndMinLength) && endsWith(tag, tagEnd)) {
+						handler.text(AnnotationUtils.unescapeFromXml(tag.toString()));
+						tag.setLength(0);
+						inTag = false;
+						tagEnd = null;
 					}
-					
-					//	reguilar attribute
-					else this.document.setAttribute(attributeNames[n], unescapeAttributeValue(attributes.getAttribute(attributeNames[n])));
 				}
-			}
-			
-			//	end marker of document, ignore it
-			else if (("<" + ANNOTATION_END_PREFIX + "-1/>").equals(token)) {}
-			
-			//	line break
-			else if (LINE_BREAK_TAG.equals(token)) {
-				if (this.document.size() != 0) {
-					this.document.lastToken().setAttribute(Token.PARAGRAPH_END_ATTRIBUTE, Token.PARAGRAPH_END_ATTRIBUTE);
-					this.document.addChar('\n');
+				
+				//	in tag, look out for end (but not in attribute values)
+				else if (inTag) {
+					tag.append(ch);
+					if (quoter != 0) {
+						if (ch == quoter)
+							quoter = 0;
+					}
+					else if ((ch == '"') || (ch == '\''))
+						quoter = ch;
+					else if (ch == '>') {
+						handleTag(tag.toString(), handler);
+						tag.setLength(0);
+						inTag = false;
+					}
+					else if ((tagEnd = getSpecialTagEnd(tag)) != null)
+						tagEndMinLength = (tag.length() + tagEnd.length());
 				}
-			}
-			
-			//	attribute carrier for token
-			else if (TOKEN_TAG.equals(type))
-				this.tokenAttributes = attributes;
 				
-			//	start or end marker for Annotation
-			else {
-				if (partType.startsWith(ANNOTATION_START_PREFIX)) {
-					String annotNumber = partType.substring(ANNOTATION_START_PREFIX.length());
-					GamtaAnnotationContainer gac = new GamtaAnnotationContainer(type, this.document.size(), attributes);
-					this.annotationsByNumber.put(annotNumber, gac);
-					this.annotations.add(gac);
+				//	start of tag, hand over text read so far
+				else if (ch == '<') {
+					if (text.length() != 0) {
+						handler.text(AnnotationUtils.unescapeFromXml(text.toString()));
+						text.setLength(0);
+					}
+					tag.append(ch);
+					inTag = true;
 				}
-				else if (partType.startsWith(ANNOTATION_END_PREFIX)) {
-					String annotNumber = partType.substring(ANNOTATION_END_PREFIX.length());
-					GamtaAnnotationContainer gac = ((GamtaAnnotationContainer) this.annotationsByNumber.get(annotNumber));
-					gac.size = (this.document.size() - gac.start);
+				
+				//	text
+				else text.append(ch);
+			}
+		
+		//	hand over any remaining text (a broken tag included)
+		text.append(tag);
+		if (text.length() != 0)
+			handler.text(AnnotationUtils.unescapeFromXml(text.toString()));
+		handler.endDocument();
+	}
+	
+	/* check if a tag is the start of a comment, processing instruction, or
+	 * CDATA section, and return the respective end marker if so */
+	private static String getSpecialTagEnd(StringBuffer tag) {
+		if ((tag.length() == 2) && (tag.charAt(1) == '?'))
+			return "?>";
+		if ((tag.length() == 4) && "<!--".equals(tag.toString()))
+			return "-->";
+		if ((tag.length() == 9) && "<![CDATA[".equals(tag.toString()))
+			return "]]>";
+		return null;
+	}
+	
+	private static boolean endsWith(StringBuffer sb, String end) {
+		int offset = (sb.length() - end.length());
+		for (int c = 0; c < end.length(); c++) {
+			if (sb.charAt(offset + c) != end.charAt(c))
+				return false;
+		}
+		return true;
+	}
+	
+	private static void handleTag(String tag, DocumentHandler handler) throws IOException {
+		
+		//	not a tag of generic GAMTA XML, treat like text (as the XML parser would)
+		if (!GRAMMAR.isTag(tag)) {
+			handler.text(AnnotationUtils.unescapeFromXml(tag));
+			return;
+		}
+		
+		//	line break
+		if (LINE_BREAK_TAG.equals(tag)) {
+			handler.paragraphEnd();
+			return;
+		}
+		
+		//	parse tag
+		String partType = getTagName(tag);
+		Map attributes = getTagAttributes(tag, partType);
+		String type = removeTypeAttribute(attributes);
+		if (type == null)
+			type = partType;
+		
+		//	document root
+		if (DocumentRoot.DOCUMENT_TYPE.equals(type)) {
+			String annotationId = ((String) attributes.remove(Annotation.ANNOTATION_ID_ATTRIBUTE));
+			String annotationNestingOrder = ((String) attributes.remove(DocumentRoot.ANNOTATION_NESTING_ORDER_ATTRIBUTE));
+			Map documentProperties = new LinkedHashMap();
+			for (Iterator ait = attributes.keySet().iterator(); ait.hasNext();) {
+				String name = ((String) ait.next());
+				if (name.startsWith(DOCUMENT_PROPERTY_PREFIX)) {
+					documentProperties.put(name.substring(DOCUMENT_PROPERTY_PREFIX.length()), attributes.get(name));
+					ait.remove();
 				}
 			}
+			handler.startDocument(annotationId, attributes, documentProperties, annotationNestingOrder);
 		}
 		
-		//	textual content
-		else {
-			int aTokenIndex = this.document.size();
-			this.document.addTokens(AnnotationUtils.unescapeFromXml(token));
-			if ((this.document.size() > aTokenIndex) && (this.tokenAttributes != null)) {
-				Token aToken = this.document.tokenAt(aTokenIndex);
-				String[] attributeNames = this.tokenAttributes.getAttributeNames();
-				for (int n = 0; n < attributeNames.length; n++)
-					aToken.setAttribute(attributeNames[n], unescapeAttributeValue(this.tokenAttributes.getAttribute(attributeNames[n])));
-				this.tokenAttributes = null;
+		//	end marker of document, ignore it
+		else if (("<" + ANNOTATION_END_PREFIX + "-1/>").equals(tag)) {}
+		
+		//	attribute carrier for token
+		else if (TOKEN_TAG.equals(type))
+			handler.tokenAttributes(attributes);
+		
+		//	start or end marker for Annotation
+		else if (partType.startsWith(ANNOTATION_START_PREFIX))
+			handler.startAnnotation(partType.substring(ANNOTATION_START_PREFIX.length()), type, attributes);
+		else if (partType.startsWith(ANNOTATION_END_PREFIX))
+			handler.endAnnotation(partType.substring(ANNOTATION_END_PREFIX.length()));
+	}
+	
+	/* remove the type attribute, matching its name case insensitively, just as
+	 * the XML parser based reading used to */
+	private static String removeTypeAttribute(Map attributes) {
+		String type = ((String) attributes.remove(TYPE_ATTRIBUTE));
+		if (type != null)
+			return type;
+		for (Iterator ait = attributes.keySet().iterator(); ait.hasNext();) {
+			String name = ((String) ait.next());
+			if (TYPE_ATTRIBUTE.equalsIgnoreCase(name)) {
+				type = ((String) attributes.get(name));
+				ait.remove();
+				return type;
 			}
 		}
+		return null;
+	}
+	
+	private static String getTagName(String tag) {
+		int end = 1;
+		while ((end < tag.length()) && (tag.charAt(end) > 32) && (tag.charAt(end) != '/') && (tag.charAt(end) != '>'))
+			end++;
+		return tag.substring(1, end);
+	}
+	
+	/* parse the attributes of a tag in generic GAMTA XML, falling back to the
+	 * generic XML attribute parser for anything that does not look like data
+	 * written by the storeDocument() methods */
+	private static Map getTagAttributes(String tag, String tagName) {
+		Map attributes = new LinkedHashMap();
+		int pos = (1 + tagName.length());
+		while (pos < tag.length()) {
+			char ch = tag.charAt(pos);
+			if (ch <= 32) {
+				pos++;
+				continue;
+			}
+			if ((ch == '/') || (ch == '>'))
+				return attributes;
+			int nameEnd = tag.indexOf('=', pos);
+			if ((nameEnd == -1) || ((nameEnd + 1) >= tag.length()) || (tag.charAt(nameEnd + 1) != '"'))
+				return getTagAttributes(tag);
+			int valueEnd = tag.indexOf('"', (nameEnd + 2));
+			if (valueEnd == -1)
+				return getTagAttributes(tag);
+			String name = tag.substring(pos, nameEnd);
+			if (name.indexOf(' ') != -1)
+				return getTagAttributes(tag);
+			attributes.put(name, unescapeAttributeValue(GRAMMAR.unescape(tag.substring((nameEnd + 2), valueEnd))));
+			pos = (valueEnd + 1);
+		}
+		return attributes;
+	}
+	
+	private static Map getTagAttributes(String tag) {
+		TreeNodeAttributeSet tnas = TreeNodeAttributeSet.getTagAttributes(tag, GRAMMAR);
+		String[] attributeNames = tnas.getAttributeNames();
+		Map attributes = new LinkedHashMap();
+		for (int n = 0; n < attributeNames.length; n++)
+			attributes.put(attributeNames[n], unescapeAttributeValue(tnas.getAttribute(attributeNames[n])));
+		return attributes;
 	}
 	
 	private static final Grammar GRAMMAR = new GenericGamtaGrammar();
@@ -250,9 +526,7 @@ public class GenericGamtaXML extends TokenReceiver {
 	 */
 	public static int readDocument(Reader source, MutableAnnotation document) throws IOException {
 		int sizeBefore = document.size();
-		GenericGamtaXML reader = new GenericGamtaXML(document);
-		PARSER.stream(source, reader);
-		reader.close();
+		streamDocument(source, new DocumentBuilder(document));
 		return (document.size() - sizeBefore);
 	}
 	
@@ -295,9 +569,7 @@ public class GenericGamtaXML extends TokenReceiver {
 	 */
 	public static DocumentRoot readDocument(Reader source) throws IOException {
 		DocumentRoot document = Gamta.newDocument(Gamta.INNER_PUNCTUATION_TOKENIZER);
-		GenericGamtaXML reader = new GenericGamtaXML(document);
-		PARSER.stream(source, reader);
-		reader.close();
+		streamDocument(source, new DocumentBuilder(document));
 		return document;
 	}
 	
@@ -563,9 +835,9 @@ public class GenericGamtaXML extends TokenReceiver {
 		String type;
 		int start;
 		int size;
-		TreeNodeAttributeSet attributes;
+		Map attributes;
 		
-		private GamtaAnnotationContainer(String type, int start, TreeNodeAttributeSet attributes) {
+		private GamtaAnnotationContainer(String type, int start, Map attributes) {
 			this.type = type;
 			this.start = start;
 			this.attributes = attributes;
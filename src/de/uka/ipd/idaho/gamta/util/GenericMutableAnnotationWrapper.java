@@ -30,7 +30,9 @@ package de.uka.ipd.idaho.gamta.util;
 
 import de.uka.ipd.idaho.gamta.Annotation;
 import de.uka.ipd.idaho.gamta.AnnotationListener;
+import de.uka.ipd.idaho.gamta.BulkMutableAnnotation;
 import de.uka.ipd.idaho.gamta.CharSequenceListener;
+import de.uka.ipd.idaho.gamta.Gamta;
 import de.uka.ipd.idaho.gamta.MutableAnnotation;
 import de.uka.ipd.idaho.gamta.MutableCharSequence;
 import de.uka.ipd.idaho.gamta.MutableTokenSequence;
@@ -51,7 +53,7 @@ import de.uka.ipd.idaho.gamta.TokenSequenceListener;
  * 
  * @author sautter
  */
-public class GenericMutableAnnotationWrapper extends GenericQueriableAnnotationWrapper implements MutableAnnotation {
+public class GenericMutableAnnotationWrapper extends GenericQueriableAnnotationWrapper implements BulkMutableAnnotation {
 	
 	/**
 	 * the wrapped annotation (equal to the 'annotationData' and
@@ -80,6 +82,15 @@ public class GenericMutableAnnotationWrapper extends GenericQueriableAnnotationW
 		return this.wrapMutableAnnotation(this.mutableAnnotationData.addAnnotation(startIndex, endIndex, type));
 	}
 	
+	public MutableAnnotation[] addAnnotations(Annotation[] annotations) {
+		MutableAnnotation[] added = Gamta.addAnnotations(this.mutableAnnotationData, annotations);
+		for (int a = 0; a < added.length; a++) {
+			if (added[a] != null)
+				added[a] = this.wrapMutableAnnotation(added[a]);
+		}
+		return added;
+	}
+	
 	public MutableAnnotation getMutableAnnotation(String id) {
 		MutableAnnotation annotation = this.mutableAnnotationData.getMutableAnnotation(id);
 		return ((annotation == null) ? null : this.wrapMutableAnnotation(annotation));
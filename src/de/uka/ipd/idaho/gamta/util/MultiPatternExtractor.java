@@ -0,0 +1,477 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.gamta.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.uka.ipd.idaho.gamta.Annotation;
+import de.uka.ipd.idaho.gamta.Gamta;
+import de.uka.ipd.idaho.gamta.Token;
+import de.uka.ipd.idaho.gamta.TokenSequence;
+import de.uka.ipd.idaho.stringUtils.Dictionary;
+import de.uka.ipd.idaho.stringUtils.StringUtils;
+import de.uka.ipd.idaho.stringUtils.regExUtils.PatternCache;
+import de.uka.ipd.idaho.stringUtils.regExUtils.PatternCache.PatternCompiler;
+import de.uka.ipd.idaho.stringUtils.regExUtils.RegExUtils;
+
+/**
+ * Extractor for the matches of a whole set of regular expression patterns in
+ * a token sequence. Instead of building a normalized copy of the token
+ * sequence and mapping matches back to token boundaries for each pattern
+ * individually, as <code>Gamta.extractAllMatches()</code> used to do, this
+ * class builds the normalized text and the mapping from character offsets to
+ * tokens once per token sequence, and then matches all the patterns against
+ * it. The matches of each pattern are the same as with
+ * <code>Gamta.extractAllMatches()</code> with the same parameters, including
+ * the heuristics that exclude tokens which cannot be part of a match.<br>
+ * Patterns are analyzed and compiled once when added, and the analysis is
+ * kept in the shared <code>PatternCache</code>, so instances of this class
+ * are cheap to create. Once all patterns are added, instances can be used
+ * from multiple threads.
+ * 
+ * @author sautter
+ */
+public class MultiPatternExtractor {
+	
+	/** the name of the attribute holding the ID of the pattern a match belongs to, namely 'patternId' */
+	public static final String PATTERN_ID_ATTRIBUTE = "patternId";
+	
+	private final boolean ignoreLinebreaks;
+	private final boolean normalize;
+	private final ArrayList patterns = new ArrayList();
+	
+	/**
+	 * Constructor
+	 * @param ignoreLinebreaks ignore the endings of lines (paragraphs) while
+	 *            matching? (default is false)
+	 * @param normalize normalize whitespaces? (default is true)
+	 */
+	public MultiPatternExtractor(boolean ignoreLinebreaks, boolean normalize) {
+		this.ignoreLinebreaks = ignoreLinebreaks;
+		this.normalize = normalize;
+	}
+	
+	/**
+	 * Add a pattern to the extractor.
+	 * @param regEx the regular expression whose matches to extract
+	 * @param maxTokens the maximum number of tokens a matching part may contain
+	 *            (0 means no limit)
+	 * @param startExclude a Dictionary of Strings that matches may not start
+	 *            with
+	 * @param exclude a Dictionary of Strings that matches may not contain
+	 * @param allowOverlap allow a set of overlapping matches to be all
+	 *            extracted
+	 * @return the ID of the pattern, i.e., its position in the order of adding
+	 */
+	public int addPattern(String regEx, int maxTokens, Dictionary startExclude, Dictionary exclude, boolean allowOverlap) {
+		this.patterns.add(new PatternEntry(getCompiledPattern(regEx), maxTokens, startExclude, exclude, allowOverlap));
+		return (this.patterns.size() - 1);
+	}
+	
+	/**
+	 * Retrieve the number of patterns added to the extractor.
+	 * @return the number of patterns
+	 */
+	public int getPatternCount() {
+		return this.patterns.size();
+	}
+	
+	/**
+	 * Extract all matches of all patterns from a token sequence. The matches
+	 * are sorted in document order, ties broken by pattern ID, and each match
+	 * has the ID of the pattern it belongs to stored in the
+	 * <code>patternId</code> attribute.
+	 * @param tokens the token sequence to search
+	 * @return an array holding the matches of all patterns
+	 */
+	public Annotation[] extractAllMatches(TokenSequence tokens) {
+		Annotation[][] patternMatches = this.extractAllMatchesByPattern(tokens);
+		ArrayList matches = new ArrayList();
+		for (int p = 0; p < patternMatches.length; p++) {
+			Integer patternId = new Integer(p);
+			for (int m = 0; m < patternMatches[p].length; m++) {
+				patternMatches[p][m].setAttribute(PATTERN_ID_ATTRIBUTE, patternId);
+				matches.add(patternMatches[p][m]);
+			}
+		}
+		Collections.sort(matches); // stable, keeps pattern order for ties
+		return ((Annotation[]) matches.toArray(new Annotation[matches.size()]));
+	}
+	
+	/**
+	 * Extract all matches of all patterns from a token sequence. The returned
+	 * array holds the matches of each pattern at the position of the pattern
+	 * ID.
+	 * @param tokens the token sequence to search
+	 * @return an array holding the matches of each pattern
+	 */
+	public Annotation[][] extractAllMatchesByPattern(TokenSequence tokens) {
+		MatchText text = new MatchText(tokens, this.ignoreLinebreaks, this.normalize);
+		Annotation[][] matches = new Annotation[this.patterns.size()][];
+		for (int p = 0; p < this.patterns.size(); p++)
+			matches[p] = ((PatternEntry) this.patterns.get(p)).extractAllMatches(tokens, text);
+		return matches;
+	}
+	
+	private static class PatternEntry {
+		final CompiledPattern pattern;
+		final int maxTokens;
+		final Dictionary startExclude;
+		final Dictionary exclude;
+		final boolean allowOverlap;
+		PatternEntry(CompiledPattern pattern, int maxTokens, Dictionary startExclude, Dictionary exclude, boolean allowOverlap) {
+			this.pattern = pattern;
+			this.maxTokens = maxTokens;
+			this.startExclude = startExclude;
+			this.exclude = exclude;
+			this.allowOverlap = allowOverlap;
+		}
+		
+		Annotation[] extractAllMatches(TokenSequence tokens, MatchText text) {
+			
+			//	split token sequence into segments of tokens that can be part of matches, and extract pre matches
+			ArrayList preMatches = new ArrayList();
+			int segmentStart = -1;
+			for (int t = 0; t < text.tokenCount; t++) {
+				String value = tokens.valueAt(t);
+				
+				//	current token cannot belong to a match, stop adding tokens and do extraction
+				if (this.pattern.excludePunct.contains(value) || ((this.exclude != null) && this.exclude.lookup(value))) {
+					if (segmentStart != -1) {
+						this.addPreMatches(tokens, text, segmentStart, (t-1), preMatches);
+						segmentStart = -1;
+					}
+					continue; // skip over current (excluded) token
+				}
+				
+				//	not matching spaces, do extraction and afterwards start over with current token
+				if ((segmentStart != -1) && this.pattern.excludeSpace && text.spaceBefore[t]) {
+					this.addPreMatches(tokens, text, segmentStart, (t-1), preMatches);
+					segmentStart = -1;
+				}
+				
+				//	token can start a match, or we are in the middle of a segment
+				if ((segmentStart == -1) && ((this.startExclude == null) || !this.startExclude.lookup(value)))
+					segmentStart = t;
+			}
+			
+			//	process last segment
+			if (segmentStart != -1)
+				this.addPreMatches(tokens, text, segmentStart, (text.tokenCount-1), preMatches);
+			
+			//	sort pre matches
+			Collections.sort(preMatches);
+			
+			//	overlapping matches allowed, return all pre matches
+			if (this.allowOverlap)
+				return ((Annotation[]) preMatches.toArray(new Annotation[preMatches.size()]));
+			
+			//	sort out overlapping pre matches
+			ArrayList matches = new ArrayList();
+			int lastEndIndex = 0;
+			for (int m = 0; m < preMatches.size(); m++) {
+				Annotation preMatch = ((Annotation) preMatches.get(m));
+				if (preMatch.getStartIndex() >= lastEndIndex) {
+					matches.add(preMatch);
+					lastEndIndex = preMatch.getEndIndex();
+				}
+			}
+			return ((Annotation[]) matches.toArray(new Annotation[matches.size()]));
+		}
+		
+		private void addPreMatches(TokenSequence tokens, MatchText text, int firstToken, int lastToken, ArrayList preMatches) {
+			Pattern pattern = this.pattern.pattern;
+			
+			//	matcher works on segment offsets, text on absolute ones
+			int segmentOffset = text.tokenStarts[firstToken];
+			int segmentEnd = text.tokenValueEnds[lastToken];
+			Matcher matcher = pattern.matcher(text.subSequence(segmentOffset, segmentEnd));
+			int matchingStartOffset = 0;
+			
+			//	find matching char sequences
+			while ((matchingStartOffset < (segmentEnd - segmentOffset)) && matcher.find(matchingStartOffset)) {
+				int matchStartOffset = (matcher.start() + segmentOffset);
+				int startToken = text.tokenAtOffset(matchStartOffset, firstToken, lastToken);
+				
+				//	this may happen if regex matches the empty string
+				if (startToken == -1) {
+					matchingStartOffset++;
+					continue;
+				}
+				
+				//	current match starts at token start, and is not filtered
+				if ((text.tokenStarts[startToken] == matchStartOffset) && ((this.startExclude == null) || !this.startExclude.lookup(tokens.valueAt(startToken)))) {
+					int matchEndOffset = (matcher.end() + segmentOffset);
+					int endToken = text.tokenAtOffset((matchEndOffset - 1), firstToken, lastToken);
+					if (endToken != -1) { // this may happen if regex matches the empty string
+						boolean endsAtTokenEnd = (text.tokenValueEnds[endToken] == matchEndOffset);
+						
+						//	current match ends at token end and is below token limit ==> preMatch
+						if (endsAtTokenEnd && (startToken <= endToken) && ((this.maxTokens == 0) || ((endToken - startToken) < this.maxTokens)))
+							preMatches.add(Gamta.newAnnotation(tokens, null, startToken, (endToken - startToken + 1)));
+						
+						//	prefixes of current match might also match (test if overlapping matches allowed, or main match does not end at token border, or main match is longer than token limit)
+						if ((startToken < endToken) && (this.allowOverlap || ((this.maxTokens > 0) && ((endToken - startToken + 1) > this.maxTokens)) || !endsAtTokenEnd)) {
+							while (startToken < endToken) {
+								
+								//	try one token less
+								endToken--;
+								
+								//	size of match below token limit, and found match ending at token border
+								if (((this.maxTokens == 0) || ((endToken - startToken) < this.maxTokens)) && pattern.matcher(text.subSequence(matchStartOffset, text.tokenValueEnds[endToken])).matches()) {
+									preMatches.add(Gamta.newAnnotation(tokens, null, startToken, (endToken - startToken + 1)));
+									
+									//	stop here if overlapping matches not allowed
+									if (!this.allowOverlap)
+										break;
+								}
+							}
+						}
+					}
+				}
+				
+				//	start next
+				matchingStartOffset = (text.tokenEnd(startToken, lastToken) - segmentOffset);
+			}
+		}
+	}
+	
+	/**
+	 * The normalized text of a token sequence, with a mapping from character
+	 * offsets to token indexes. Whitespace between tokens is normalized the
+	 * same way for all patterns, so segments of tokens only differ in where
+	 * they start and end, and matching can work on views of a single array.
+	 */
+	private static class MatchText {
+		final int tokenCount;
+		final char[] chars;
+		final int[] tokenStarts;
+		final int[] tokenValueEnds;
+		final boolean[] spaceBefore;
+		MatchText(TokenSequence tokens, boolean ignoreLinebreaks, boolean normalize) {
+			this.tokenCount = tokens.size();
+			this.tokenStarts = new int[this.tokenCount + 1];
+			this.tokenValueEnds = new int[this.tokenCount];
+			this.spaceBefore = new boolean[this.tokenCount];
+			StringBuffer text = new StringBuffer();
+			Token last = null;
+			for (int t = 0; t < this.tokenCount; t++) {
+				Token current = tokens.tokenAt(t);
+				
+				//	test if whitespace to add
+				this.spaceBefore[t] = ((last != null) && (normalize ? Gamta.insertSpace(last, current) : (tokens.getWhitespaceAfter(t-1).length() != 0)));
+				if (this.spaceBefore[t])
+					text.append((!ignoreLinebreaks && last.hasAttribute(Token.PARAGRAPH_END_ATTRIBUTE)) ? "\r\n" : " ");
+				
+				//	append current token
+				this.tokenStarts[t] = text.length();
+				text.append(current.getValue());
+				this.tokenValueEnds[t] = text.length();
+				last = current;
+			}
+			this.tokenStarts[this.tokenCount] = text.length();
+			this.chars = new char[text.length()];
+			text.getChars(0, text.length(), this.chars, 0);
+		}
+		
+		//	the end of a token in a segment, including any whitespace up to the next token in the segment
+		int tokenEnd(int token, int lastToken) {
+			return ((token < lastToken) ? this.tokenStarts[token + 1] : this.tokenValueEnds[token]);
+		}
+		
+		//	find the token in a segment covering an offset, -1 if there is none
+		int tokenAtOffset(int offset, int firstToken, int lastToken) {
+			if ((offset < this.tokenStarts[firstToken]) || (this.tokenValueEnds[lastToken] <= offset))
+				return -1;
+			int left = firstToken;
+			int right = lastToken;
+			while (left < right) {
+				int middle = ((left + right + 1) / 2);
+				if (this.tokenStarts[middle] <= offset)
+					left = middle;
+				else right = (middle - 1);
+			}
+			return left;
+		}
+		
+		CharSequence subSequence(int start, int end) {
+			return new TextView(this.chars, start, (end - start));
+		}
+	}
+	
+	private static class TextView implements CharSequence {
+		private final char[] chars;
+		private final int offset;
+		private final int length;
+		TextView(char[] chars, int offset, int length) {
+			this.chars = chars;
+			this.offset = offset;
+			this.length = length;
+		}
+		public char charAt(int index) {
+			if ((index < 0) || (this.length <= index))
+				throw new IndexOutOfBoundsException("" + index);
+			return this.chars[this.offset + index];
+		}
+		public int length() {
+			return this.length;
+		}
+		public CharSequence subSequence(int start, int end) {
+			if ((start < 0) || (end > this.length) || (start > end))
+				throw new IndexOutOfBoundsException("" + start + "-" + end);
+			return new TextView(this.chars, (this.offset + start), (end - start));
+		}
+		public String toString() {
+			return new String(this.chars, this.offset, this.length);
+		}
+	}
+	
+	/**
+	 * Compiled pattern together with the result of inspecting the regular
+	 * expression for punctuation marks and spaces it cannot match, which
+	 * keeps segments of tokens to match against short.
+	 */
+	private static class CompiledPattern {
+		final Pattern pattern;
+		final boolean excludeSpace;
+		final Set excludePunct;
+		CompiledPattern(Pattern pattern, boolean excludeSpace, Set excludePunct) {
+			this.pattern = pattern;
+			this.excludeSpace = excludeSpace;
+			this.excludePunct = excludePunct;
+		}
+	}
+	
+	private static final PatternCompiler compiler = new PatternCompiler() {
+		public Object compile(String pattern) {
+			return compilePattern(pattern);
+		}
+	};
+	
+	private static CompiledPattern getCompiledPattern(String regEx) {
+		return ((CompiledPattern) PatternCache.getSharedCache().get(regEx, compiler));
+	}
+	
+	private static Pattern xCharPattern = Pattern.compile("\\\\x([0-9A-Fa-f]{2})");
+	private static Pattern xRangePattern = Pattern.compile("\\\\x([0-9A-Fa-f]{2})\\-\\\\x([0-9A-Fa-f]{2})");
+	private static Pattern uCharPattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})");
+	private static Pattern uRangePattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})\\-\\\\u([0-9A-Fa-f]{4})");
+	
+	private static CompiledPattern compilePattern(String regEx) {
+		
+		/*
+		 * Inspect regex in order to find excludable punctuation marks (keep
+		 * match token sequences short). This is only a heuristic, though,
+		 * better would be inspecting the NFA produced by Pattern.compile() in
+		 * order to check which characters can appear in matches of the regular
+		 * expression.
+		 * 
+		 * Possible representations of punctuation marks in RegEx:
+		 * - . (matches any, if given omit check)
+		 * - \W (non-word character, matches any but _, if given omit check)
+		 * - \S (non-space character, matches any but _, if given omit check)
+		 * - \p{Punct}, \p{Graph}, \p{Print}, \p{ASCII} (matches any, if given omit check)
+		 * - \<mark> (matches punctuation mark <mark>)
+		 * - ^ (negation of something else)
+		 * - inclusions in character ranges
+		 */
+		
+		//	test if we have wildcard matches
+		boolean allDotsEscped = true;
+		String adeTestRegEx = regEx;
+		while (adeTestRegEx.indexOf("\\\\") != -1) // remove all double backslashes
+			adeTestRegEx = adeTestRegEx.replaceAll("\\\\\\\\", "");
+		allDotsEscped = (adeTestRegEx.split("\\.").length == adeTestRegEx.split("\\\\\\.").length);
+		
+		//	collect range-matched characters
+		HashSet encodedMatchedChars = new HashSet();
+		if (allDotsEscped && (regEx.indexOf("\\p{Print}") == -1) && (regEx.indexOf("\\p{ASCII}") == -1) && (regEx.indexOf('^') == -1)) {
+			for (Matcher m = xRangePattern.matcher(regEx); m.find();) {
+				int min = Integer.parseInt(m.group(1), 16);
+				int max = Integer.parseInt(m.group(2), 16);
+				for (int c = Math.max(min, 0x09); c <= Math.min(max, 0x7E); c++)
+					encodedMatchedChars.add("" + ((char) c));
+				for (int c = Math.max(min, 0xA0); c <= Math.min(max, 0xFF); c++)
+					encodedMatchedChars.add("" + ((char) c));
+			}
+			for (Matcher m = xCharPattern.matcher(regEx); m.find();) {
+				int c = Integer.parseInt(m.group(1), 16);
+				if ((0x09 <= c) && (c <= 0x7E))
+					encodedMatchedChars.add("" + ((char) c));
+				else if ((0xA0 <= c) && (c <= 0xFF))
+					encodedMatchedChars.add("" + ((char) c));
+			}
+			for (Matcher m = uRangePattern.matcher(regEx); m.find();) {
+				int min = Integer.parseInt(m.group(1), 16);
+				int max = Integer.parseInt(m.group(2), 16);
+				for (int c = Math.max(min, 0x09); c <= Math.min(max, 0x7E); c++)
+					encodedMatchedChars.add("" + ((char) c));
+				for (int c = Math.max(min, 0xA0); c <= Math.min(max, 0xFF); c++)
+					encodedMatchedChars.add("" + ((char) c));
+			}
+			for (Matcher m = uCharPattern.matcher(regEx); m.find();) {
+				int c = Integer.parseInt(m.group(1), 16);
+				if ((0x09 <= c) && (c <= 0x7E))
+					encodedMatchedChars.add("" + ((char) c));
+				else if ((0xA0 <= c) && (c <= 0xFF))
+					encodedMatchedChars.add("" + ((char) c));
+			}
+		}
+		
+		//	check if space matched
+		boolean excludeSpace = false;
+		if (allDotsEscped && (regEx.indexOf("\\W") == -1) && (regEx.indexOf("\\s") == -1) && (regEx.indexOf("\\p{Blank}") == -1) && (regEx.indexOf("\\p{Space}") == -1) && (regEx.indexOf("\\p{Print}") == -1) && (regEx.indexOf("\\p{ASCII}") == -1) && (regEx.indexOf('^') == -1)) {
+			excludeSpace = true;
+			excludeSpace &= !encodedMatchedChars.contains("" + ((char) 0x20)); // space
+			excludeSpace &= !encodedMatchedChars.contains("" + ((char) 0x09)); // tab
+			excludeSpace &= !encodedMatchedChars.contains("" + ((char) 0x0A)); // newline
+			excludeSpace &= !encodedMatchedChars.contains("" + ((char) 0x0C)); // form feed (also page break)
+			excludeSpace &= !encodedMatchedChars.contains("" + ((char) 0x0D)); // carriage return
+		}
+		
+		//	collect punctuation marks without explicit matcher or range matcher inclusion
+		Set excludePunct = new HashSet(); // hash set is enough, no case insensitivity required for punctuation marks
+		if (allDotsEscped && (regEx.indexOf("\\W") == -1) && (regEx.indexOf("\\S") == -1) && (regEx.indexOf("\\p{Punct}") == -1) && (regEx.indexOf("\\p{Graph}") == -1) && (regEx.indexOf("\\p{Print}") == -1) && (regEx.indexOf("\\p{ASCII}") == -1) && (regEx.indexOf('^') == -1)) {
+			for (int p = 0; p < StringUtils.PUNCTUATION.length(); p++) {
+				String punct = StringUtils.PUNCTUATION.substring(p, (p+1));
+				if ((regEx.indexOf("\\" + punct) == -1) && !encodedMatchedChars.contains(punct))
+					excludePunct.add(punct);
+			}
+		}
+		
+		//	normalize reg ex if necessary, and compile pattern
+		if ((regEx.indexOf("\n") != -1) || (regEx.indexOf("\r") != -1) || (regEx.indexOf("\f") != -1))
+			regEx = RegExUtils.normalizeRegEx(regEx);
+		return new CompiledPattern(Pattern.compile(regEx), excludeSpace, excludePunct);
+	}
+}
@@ -58,6 +58,11 @@ public class GPath implements GPathConstants {
 	
 	GPathStep[] steps = new GPathStep[0];
 	
+	//	set for query plans produced by GPathCompiler, which do not change
+	boolean isCompiled = false;
+	String pathString = null;
+	int firstIndexStep = -1; // first step of a path that can be evaluated on annotation indexes only, -1 if there is none
+	
 	/**	Constructor
 	 */
 	GPath() {}
@@ -84,6 +89,7 @@ public class GPath implements GPathConstants {
 	/**	@see java.lang.Object#toString()
 	 */
 	public String toString() {
+		if (this.pathString != null) return this.pathString;
 		if (this.steps == null) return "";
 		if (this.steps.length == 0) return "";
 		String string = this.steps[0].toString();
@@ -0,0 +1,514 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.gamta.util.gPath;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import de.uka.ipd.idaho.gamta.DocumentRoot;
+import de.uka.ipd.idaho.gamta.Token;
+import de.uka.ipd.idaho.gamta.util.gPath.exceptions.GPathException;
+import de.uka.ipd.idaho.gamta.util.gPath.types.GPathBoolean;
+import de.uka.ipd.idaho.gamta.util.gPath.types.GPathNumber;
+import de.uka.ipd.idaho.gamta.util.gPath.types.GPathObject;
+import de.uka.ipd.idaho.gamta.util.gPath.types.GPathString;
+
+/**
+ * Compiler turning parsed GPath expressions into query plans for a specific
+ * GPath engine. A query plan is a copy of the parsed expression with constant
+ * sub expressions folded into their values, runs of predicates that do not
+ * depend on context position reordered so cheap attribute tests come first,
+ * and axis and type filters of steps resolved up front. Query plans do not
+ * hold any reference to the data they are evaluated against, so they can be
+ * re-used for any number of documents.
+ * 
+ * @author sautter
+ */
+final class GPathCompiler {
+	
+	//	axis flags precomputed for steps, see GPathStep.axisFlags
+	static final int DESCENDANT_AXIS = 0x0001;
+	static final int PRECEDING_SIBLING_AXIS = 0x0002;
+	static final int FOLLOWING_SIBLING_AXIS = 0x0004;
+	static final int INTERLEAVING_AXIS = 0x0008;
+	static final int CHILD_AXIS = 0x0010;
+	static final int ATTRIBUTE_AXIS = 0x0020;
+	static final int TOKEN_AXIS = 0x0040;
+	static final int SELF_AXIS = 0x0080;
+	static final int PARENT_AXIS = 0x0100;
+	static final int INCLUDE_LEFT = 0x0200;
+	static final int INCLUDE_RIGHT = 0x0400;
+	
+	//	token filters precomputed for token axis steps, see GPathStep.tokenFilter
+	static final int ALL_TOKENS = 0;
+	static final int FIRST_TOKEN = 1;
+	static final int LAST_TOKEN = 2;
+	static final int TEXT_TOKENS = 3;
+	static final int WORD_TOKENS = 4;
+	static final int NUMBER_TOKENS = 5;
+	static final int PUNCTUATION_TOKENS = 6;
+	static final int SENTENCE_END_TOKENS = 7;
+	static final int BRACKET_TOKENS = 8;
+	static final int OPENING_BRACKET_TOKENS = 9;
+	static final int CLOSING_BRACKET_TOKENS = 10;
+	static final int NO_TOKENS = 11;
+	
+	/* built-in functions, and the ones that return constant values for
+	 * constant arguments, or a boolean */
+	private static final TreeSet builtInFunctions = new TreeSet(String.CASE_INSENSITIVE_ORDER);
+	private static final TreeSet constantFunctions = new TreeSet(String.CASE_INSENSITIVE_ORDER);
+	private static final TreeSet booleanFunctions = new TreeSet(String.CASE_INSENSITIVE_ORDER);
+	static {
+		booleanFunctions.addAll(Arrays.asList(new String[] {
+			"boolean", "true", "false", "not",
+			"isWord", "isLowerCaseWord", "isFirstLetterUpWord", "isCapitalizedeWord", "isUpperCaseWord", "isNumber", "isPunctuation", "isBracket", "isOpeningBracket", "isClosingBracket", "closes", "opens", "isSentencePunctuation", "isSentenceEnd", "lang",
+			"contains", "starts-with", "ends-with", "matches",
+			"isFunctionAvailable",
+		}));
+		constantFunctions.addAll(Arrays.asList(new String[] {
+			"boolean", "true", "false", "not",
+			"isWord", "isLowerCaseWord", "isFirstLetterUpWord", "isCapitalizedeWord", "isUpperCaseWord", "isNumber", "isPunctuation", "isBracket", "isOpeningBracket", "isClosingBracket", "closes", "opens", "isSentencePunctuation", "isSentenceEnd",
+			"number", "floor", "ceiling", "round", "abs",
+			"default", "choose",
+			"string", "string-length", "contains", "starts-with", "ends-with", "matches", "concat", "normalize-space", "normalize-chars",
+			"substring", "substring-after", "substring-after-last", "substring-before", "substring-before-last", "replace", "replace-all", "translate",
+		}));
+		builtInFunctions.addAll(booleanFunctions);
+		builtInFunctions.addAll(constantFunctions);
+		builtInFunctions.addAll(Arrays.asList(new String[] {
+			"count", "sum", "min", "max", "avg",
+			"last", "position",
+			"local-name", "name", "namespace-uri", "getAttribute",
+			"concat-distinct", "concat-distinct-ordered",
+			"date", "dateUTC", "time", "timeUTC", "dateTime", "dateTimeUTC",
+		}));
+	}
+	
+	private final GPathEngine engine;
+	
+	/**
+	 * Constructor
+	 * @param engine the GPath engine to compile query plans for
+	 */
+	GPathCompiler(GPathEngine engine) {
+		this.engine = engine;
+	}
+	
+	/**
+	 * Compile a parsed GPath into a query plan.
+	 * @param path the path to compile
+	 * @return the compiled path
+	 */
+	GPath compilePath(GPath path) {
+		if (path == null)
+			return null;
+		GPath cPath = new GPath();
+		cPath.steps = new GPathStep[(path.steps == null) ? 0 : path.steps.length];
+		for (int s = 0; s < cPath.steps.length; s++)
+			cPath.steps[s] = this.compileStep(path.steps[s]);
+		cPath.firstIndexStep = getFirstIndexStep(cPath);
+		cPath.pathString = cPath.toString();
+		cPath.isCompiled = true;
+		return cPath;
+	}
+	
+	/* A path can be evaluated on annotation indexes only if after an optional
+	 * document reference it consists of child and descendant steps that test
+	 * for a specific annotation type and do not have any predicates. */
+	private static int getFirstIndexStep(GPath path) {
+		if (path.steps.length == 0)
+			return -1;
+		GPathStep step = path.steps[0];
+		int firstStep;
+		if ((step.axisFlags == (DESCENDANT_AXIS | SELF_AXIS)) && (step.filterType == null))
+			firstStep = 1;
+		else if ((step.axisFlags == CHILD_AXIS) && DocumentRoot.DOCUMENT_TYPE.equals(step.annotationTest))
+			firstStep = 1;
+		else if (step.annotationTest.startsWith("$"))
+			return -1;
+		else firstStep = 0;
+		if ((firstStep != 0) && (step.predicates != null) && (step.predicates.length != 0))
+			return -1;
+		if (firstStep == path.steps.length)
+			return -1;
+		for (int s = firstStep; s < path.steps.length; s++) {
+			step = path.steps[s];
+			if ((step.axisFlags != CHILD_AXIS) && (step.axisFlags != DESCENDANT_AXIS) && (step.axisFlags != (DESCENDANT_AXIS | SELF_AXIS)))
+				return -1;
+			if (step.filterType == null)
+				return -1;
+			if ((step.predicates != null) && (step.predicates.length != 0))
+				return -1;
+		}
+		return firstStep;
+	}
+	
+	private GPathStep compileStep(GPathStep step) {
+		GPathStep cStep = new GPathStep();
+		cStep.axis = ((step.axis == null) ? "child" : step.axis);
+		cStep.annotationTest = step.annotationTest;
+		cStep.predicates = this.compilePredicates(step.predicates);
+		
+		//	resolve axis
+		if (cStep.axis.startsWith("descendant"))
+			cStep.axisFlags |= DESCENDANT_AXIS;
+		else if (cStep.axis.startsWith("preceding-sibling"))
+			cStep.axisFlags |= PRECEDING_SIBLING_AXIS;
+		else if (cStep.axis.startsWith("following-sibling"))
+			cStep.axisFlags |= FOLLOWING_SIBLING_AXIS;
+		else if (cStep.axis.startsWith("interleaving-")) {
+			cStep.axisFlags |= INTERLEAVING_AXIS;
+			if (!cStep.axis.endsWith("right"))
+				cStep.axisFlags |= INCLUDE_LEFT;
+			if (!cStep.axis.endsWith("left"))
+				cStep.axisFlags |= INCLUDE_RIGHT;
+		}
+		else if ("child".equals(cStep.axis))
+			cStep.axisFlags |= CHILD_AXIS;
+		else if ("attribute".equals(cStep.axis))
+			cStep.axisFlags |= ATTRIBUTE_AXIS;
+		else if (Token.TOKEN_ANNOTATION_TYPE.equals(cStep.axis))
+			cStep.axisFlags |= TOKEN_AXIS;
+		if (cStep.axis.endsWith("self"))
+			cStep.axisFlags |= SELF_AXIS;
+		else if ("parent".equals(cStep.axis) || "ancestor".equals(cStep.axis))
+			cStep.axisFlags |= PARENT_AXIS;
+		
+		//	resolve type filter
+		if ("annotation()".equals(cStep.annotationTest) || "*".equals(cStep.annotationTest))
+			cStep.filterType = null;
+		else cStep.filterType = cStep.annotationTest;
+		
+		//	resolve token filter
+		if ((cStep.axisFlags & TOKEN_AXIS) != 0) {
+			if (cStep.filterType == null)
+				cStep.tokenFilter = ALL_TOKENS;
+			else if ("first".equals(cStep.filterType))
+				cStep.tokenFilter = FIRST_TOKEN;
+			else if ("last".equals(cStep.filterType))
+				cStep.tokenFilter = LAST_TOKEN;
+			else if ("text".equals(cStep.filterType))
+				cStep.tokenFilter = TEXT_TOKENS;
+			else if ("word".equals(cStep.filterType))
+				cStep.tokenFilter = WORD_TOKENS;
+			else if ("number".equals(cStep.filterType))
+				cStep.tokenFilter = NUMBER_TOKENS;
+			else if ("punctuation".equals(cStep.filterType))
+				cStep.tokenFilter = PUNCTUATION_TOKENS;
+			else if ("sentenceEnd".equals(cStep.filterType))
+				cStep.tokenFilter = SENTENCE_END_TOKENS;
+			else if ("bracket".equals(cStep.filterType))
+				cStep.tokenFilter = BRACKET_TOKENS;
+			else if ("openingBracket".equals(cStep.filterType))
+				cStep.tokenFilter = OPENING_BRACKET_TOKENS;
+			else if ("closingBracket".equals(cStep.filterType))
+				cStep.tokenFilter = CLOSING_BRACKET_TOKENS;
+			else cStep.tokenFilter = NO_TOKENS;
+		}
+		
+		return cStep;
+	}
+	
+	private GPathPredicate[] compilePredicates(GPathPredicate[] predicates) {
+		if (predicates == null)
+			return null;
+		GPathPredicate[] cPredicates = new GPathPredicate[predicates.length];
+		int[] costs = new int[predicates.length];
+		for (int p = 0; p < predicates.length; p++) {
+			cPredicates[p] = new GPathPredicate();
+			cPredicates[p].expression = this.compileExpression(predicates[p].expression);
+			costs[p] = this.getPredicateCost(cPredicates[p].expression);
+		}
+		
+		/* Predicates that do not depend on context position or size filter
+		 * the same annotations no matter in which order they are applied, so
+		 * we can sort runs of them by cost, stable to keep the order of
+		 * equally expensive ones. Position dependent predicates stay where
+		 * they are, as they depend on what the predicates before them filter
+		 * out. */
+		for (int p = 1; p < cPredicates.length; p++) {
+			if (costs[p] == POSITION_DEPENDENT)
+				continue;
+			for (int s = p; (s > 0) && (costs[s-1] != POSITION_DEPENDENT) && (costs[s] < costs[s-1]); s--) {
+				GPathPredicate cPredicate = cPredicates[s];
+				cPredicates[s] = cPredicates[s-1];
+				cPredicates[s-1] = cPredicate;
+				int cost = costs[s];
+				costs[s] = costs[s-1];
+				costs[s-1] = cost;
+			}
+		}
+		return cPredicates;
+	}
+	
+	private static final int CONSTANT_COST = 0;
+	private static final int ATTRIBUTE_TEST_COST = 1;
+	private static final int GENERIC_COST = 2;
+	private static final int POSITION_DEPENDENT = Integer.MAX_VALUE;
+	
+	private int getPredicateCost(GPathExpression expression) {
+		if (expression == null)
+			return CONSTANT_COST;
+		if (!this.isPositionIndependent(expression))
+			return POSITION_DEPENDENT;
+		if (isConstant(expression))
+			return CONSTANT_COST;
+		if (isAttributeTest(expression))
+			return ATTRIBUTE_TEST_COST;
+		return GENERIC_COST;
+	}
+	
+	/**
+	 * Compile a parsed GPath expression into a query plan.
+	 * @param expression the expression to compile
+	 * @return the compiled expression
+	 */
+	GPathExpression compileExpression(GPathExpression expression) {
+		GPathExpression cExpression;
+		if (expression instanceof GPathBinaryExpression)
+			cExpression = this.compileBinaryExpression((GPathBinaryExpression) expression);
+		else if (expression instanceof GPathUnaryExpression)
+			cExpression = this.compileUnaryExpression((GPathUnaryExpression) expression);
+		else return expression;
+		cExpression.isCompiled = true;
+		return cExpression;
+	}
+	
+	private GPathExpression compileBinaryExpression(GPathBinaryExpression expression) {
+		
+		//	no left expression evaluates to true
+		if (expression.leftExpression == null)
+			return getConstant(new GPathBoolean(true));
+		
+		//	no right expression evaluates to left expression
+		GPathExpression left = this.compileExpression(expression.leftExpression);
+		if (expression.rightExpression == null)
+			return left;
+		
+		//	short-circuit logical operators with constant left expression
+		if (isConstant(left) && "or".equals(expression.operator) && getConstantValue(left).asBoolean().value)
+			return getConstant(new GPathBoolean(true));
+		if (isConstant(left) && "and".equals(expression.operator) && !getConstantValue(left).asBoolean().value)
+			return getConstant(new GPathBoolean(false));
+		
+		GPathBinaryExpression cExpression = new GPathBinaryExpression();
+		cExpression.leftExpression = left;
+		cExpression.operator = expression.operator;
+		cExpression.rightExpression = this.compileExpression(expression.rightExpression);
+		
+		//	fold constant operands
+		if (isConstant(cExpression.leftExpression) && isConstant(cExpression.rightExpression))
+			return this.fold(cExpression);
+		else return cExpression;
+	}
+	
+	private GPathExpression compileUnaryExpression(GPathUnaryExpression expression) {
+		
+		//	literals and constants are as constant as it gets
+		if (expression.constant != null)
+			return getConstant(expression.constant);
+		if (expression.literal != null)
+			return getConstant(expression.literal);
+		
+		//	resolve negative numbers
+		if (expression.number != null)
+			return getConstant(expression.isNegative ? new GPathNumber(-expression.number.value) : expression.number);
+		
+		GPathUnaryExpression cExpression = new GPathUnaryExpression();
+		cExpression.isNegative = expression.isNegative;
+		cExpression.variableName = expression.variableName;
+		if (expression.enclosedExpression != null)
+			cExpression.enclosedExpression = this.compileExpression(expression.enclosedExpression);
+		cExpression.functionName = expression.functionName;
+		if (expression.functionArgs != null) {
+			cExpression.functionArgs = new GPathExpression[expression.functionArgs.length];
+			for (int a = 0; a < expression.functionArgs.length; a++)
+				cExpression.functionArgs[a] = this.compileExpression(expression.functionArgs[a]);
+		}
+		cExpression.predicates = this.compilePredicates(expression.predicates);
+		cExpression.pathExpression = this.compilePath(expression.pathExpression);
+		if (expression.partExpressions != null) {
+			cExpression.partExpressions = new GPathUnaryExpression[expression.partExpressions.length];
+			for (int p = 0; p < expression.partExpressions.length; p++)
+				cExpression.partExpressions[p] = ((GPathUnaryExpression) this.compileExpression(expression.partExpressions[p]));
+		}
+		
+		//	mark plain attribute accesses for direct evaluation
+		if ((cExpression.variableName == null) && (cExpression.enclosedExpression == null) && (cExpression.functionName == null) && (cExpression.partExpressions == null) && ((cExpression.predicates == null) || (cExpression.predicates.length == 0)) && (cExpression.pathExpression != null) && (cExpression.pathExpression.steps.length == 1)) {
+			GPathStep step = cExpression.pathExpression.steps[0];
+			if ((step.axisFlags == ATTRIBUTE_AXIS) && (step.filterType != null) && ((step.predicates == null) || (step.predicates.length == 0)) && !step.annotationTest.startsWith("$"))
+				cExpression.attributeName = step.filterType;
+		}
+		
+		//	fold constant enclosed expressions
+		if ((cExpression.enclosedExpression != null) && isConstant(cExpression.enclosedExpression))
+			return this.fold(cExpression);
+		
+		//	fold calls to built-in functions whose results only depend on constant arguments
+		if ((cExpression.functionName != null) && !hasFilter(cExpression) && constantFunctions.contains(cExpression.functionName) && !this.engine.hasCustomFunction(cExpression.functionName)) {
+			boolean constantArgs = ((cExpression.functionArgs.length != 0) || "true".equalsIgnoreCase(cExpression.functionName) || "false".equalsIgnoreCase(cExpression.functionName));
+			for (int a = 0; a < cExpression.functionArgs.length; a++)
+				constantArgs = (constantArgs && isConstant(cExpression.functionArgs[a]));
+			if (constantArgs)
+				return this.fold(cExpression);
+		}
+		
+		return cExpression;
+	}
+	
+	private GPathExpression fold(GPathExpression expression) {
+		try {
+			return getConstant(this.engine.evaluateConstantExpression(expression));
+		}
+		catch (GPathException gpe) {
+			return expression; // leave error to actual evaluation
+		}
+	}
+	
+	private static boolean hasFilter(GPathUnaryExpression expression) {
+		return (((expression.predicates != null) && (expression.predicates.length != 0)) || ((expression.pathExpression != null) && (expression.pathExpression.steps.length != 0)));
+	}
+	
+	private static GPathUnaryExpression getConstant(GPathObject value) {
+		GPathUnaryExpression constant = new GPathUnaryExpression();
+		constant.constant = value;
+		constant.isCompiled = true;
+		return constant;
+	}
+	
+	private static boolean isConstant(GPathExpression expression) {
+		if (expression instanceof GPathUnaryExpression) {
+			GPathUnaryExpression ue = ((GPathUnaryExpression) expression);
+			return (ue.constant != null);
+		}
+		else return false;
+	}
+	
+	private static GPathObject getConstantValue(GPathExpression expression) {
+		return ((GPathUnaryExpression) expression).constant;
+	}
+	
+	/* An expression is position independent if it neither evaluates to a
+	 * number (which would make it a position test as a predicate) nor reads
+	 * context position or size. */
+	private boolean isPositionIndependent(GPathExpression expression) {
+		if (expression instanceof GPathBinaryExpression) {
+			GPathBinaryExpression be = ((GPathBinaryExpression) expression);
+			if (" + - * mod div ".indexOf(" " + be.operator + " ") != -1)
+				return false;
+			return (this.isContextFree(be.leftExpression) && this.isContextFree(be.rightExpression));
+		}
+		else if (expression instanceof GPathUnaryExpression) {
+			GPathUnaryExpression ue = ((GPathUnaryExpression) expression);
+			if (isConstant(ue))
+				return !(getConstantValue(ue) instanceof GPathNumber);
+			else if (ue.variableName != null)
+				return false; // might be bound to a number
+			else if (ue.enclosedExpression != null)
+				return this.isPositionIndependent(ue.enclosedExpression);
+			else if (ue.functionName != null) {
+				if (!this.isContextFree(ue))
+					return false;
+				else if (hasFilter(ue))
+					return true; // result has to be an annotation set
+				else return booleanFunctions.contains(ue.functionName);
+			}
+			else if (ue.pathExpression != null)
+				return true;
+			else if (ue.partExpressions != null)
+				return this.isContextFree(ue);
+			else return false;
+		}
+		else return false;
+	}
+	
+	/* An expression is context free if it does not read the context position
+	 * or size, i.e., does not call position() or last(), or any custom
+	 * function. Predicates of nested paths and filter expressions are not
+	 * relevant, as they are evaluated against contexts of their own. */
+	private boolean isContextFree(GPathExpression expression) {
+		if (expression == null)
+			return true;
+		else if (expression instanceof GPathBinaryExpression) {
+			GPathBinaryExpression be = ((GPathBinaryExpression) expression);
+			return (this.isContextFree(be.leftExpression) && this.isContextFree(be.rightExpression));
+		}
+		else if (expression instanceof GPathUnaryExpression) {
+			GPathUnaryExpression ue = ((GPathUnaryExpression) expression);
+			if (ue.enclosedExpression != null)
+				return this.isContextFree(ue.enclosedExpression);
+			if (ue.functionName != null) {
+				if (!builtInFunctions.contains(ue.functionName) || this.engine.hasCustomFunction(ue.functionName))
+					return false;
+				if ("last".equalsIgnoreCase(ue.functionName) || "position".equalsIgnoreCase(ue.functionName))
+					return false;
+				for (int a = 0; a < ue.functionArgs.length; a++) {
+					if (!this.isContextFree(ue.functionArgs[a]))
+						return false;
+				}
+				return true;
+			}
+			if (ue.partExpressions != null) {
+				for (int p = 0; p < ue.partExpressions.length; p++) {
+					if (!this.isContextFree(ue.partExpressions[p]))
+						return false;
+				}
+				return true;
+			}
+			return true;
+		}
+		else return false;
+	}
+	
+	/* An attribute test only compares attribute values of the context
+	 * annotation to each other or to constants, which is cheap and cannot
+	 * fail. */
+	private static boolean isAttributeTest(GPathExpression expression) {
+		if (expression instanceof GPathBinaryExpression) {
+			GPathBinaryExpression be = ((GPathBinaryExpression) expression);
+			return (isAttributeTest(be.leftExpression) && isAttributeTest(be.rightExpression));
+		}
+		else if (expression instanceof GPathUnaryExpression) {
+			GPathUnaryExpression ue = ((GPathUnaryExpression) expression);
+			if (isConstant(ue))
+				return true;
+			else if (ue.enclosedExpression != null)
+				return isAttributeTest(ue.enclosedExpression);
+			else if ((ue.functionName != null) || (ue.variableName != null) || (ue.partExpressions != null))
+				return false;
+			else if (ue.pathExpression != null) {
+				if (ue.pathExpression.steps.length != 1)
+					return false;
+				GPathStep step = ue.pathExpression.steps[0];
+				return (((step.axisFlags & ATTRIBUTE_AXIS) != 0) && ((step.predicates == null) || (step.predicates.length == 0)) && !step.annotationTest.startsWith("$"));
+			}
+			else return false;
+		}
+		else return false;
+	}
+}
@@ -31,6 +31,7 @@ package de.uka.ipd.idaho.gamta.util.gPath;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -40,6 +41,7 @@ import java.util.Properties;
 import java.util.TimeZone;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.WeakHashMap;
 import java.util.regex.PatternSyntaxException;
 
 import de.uka.ipd.idaho.gamta.Annotation;
@@ -55,6 +57,7 @@ import de.uka.ipd.idaho.gamta.TokenSequence;
 import de.uka.ipd.idaho.gamta.TokenSequenceListener;
 import de.uka.ipd.idaho.gamta.Tokenizer;
 import de.uka.ipd.idaho.gamta.defaultImplementation.PlainTokenSequence;
+import de.uka.ipd.idaho.gamta.defaultImplementation.RegExTokenizer;
 import de.uka.ipd.idaho.gamta.util.gPath.exceptions.GPathException;
 import de.uka.ipd.idaho.gamta.util.gPath.exceptions.InvalidArgumentsException;
 import de.uka.ipd.idaho.gamta.util.gPath.exceptions.UndefinedFunctionException;
@@ -114,6 +117,14 @@ public class GPathEngine implements GPathConstants {
 		if (variableBindings == null)
 			variableBindings = GPath.getDummyVariableResolver();
 		
+		//	get query plan
+		path = this.getCompiledPath(path);
+		
+		//	try index based evaluation first
+		QueriableAnnotation[] indexResult = this.evaluatePathOnIndexes(context, path);
+		if (indexResult != null)
+			return indexResult;
+		
 		//	wrap query context
 		GPathDocument wrappedContext = new GPathDocument(context);
 		
@@ -153,6 +164,159 @@ public class GPathEngine implements GPathConstants {
 		return ((QueriableAnnotation[]) resultList.toArray(new QueriableAnnotation[resultList.size()]));
 	}
 	
+	/* Evaluate a path consisting of typed child and descendant steps without
+	 * predicates right on the annotation indexes of the context annotation.
+	 * Intermediate results are kept as sorted arrays of int handles, i.e.,
+	 * positions in the array of annotations of the respective type, and only
+	 * the final result is resolved to actual annotations. As both child and
+	 * descendant axis select all annotations contained in a context
+	 * annotation, a step keeps all annotations of its type nested in any
+	 * annotation selected by the previous step, which a merge of the two
+	 * sorted handle arrays finds in linear time. This method returns null if
+	 * the path is not eligible, or if the context annotation or zero-length
+	 * annotations would require special treatment. */
+	private QueriableAnnotation[] evaluatePathOnIndexes(QueriableAnnotation context, GPath path) {
+		if (path.firstIndexStep == -1)
+			return null;
+		
+		HashMap typeIndexes = new HashMap();
+		TypeIndex index = null;
+		int[] handles = null;
+		for (int s = path.firstIndexStep; s < path.steps.length; s++) {
+			GPathStep step = path.steps[s];
+			boolean includeSelf = ((step.axisFlags & GPathCompiler.SELF_AXIS) != 0);
+			TypeIndex stepIndex = ((TypeIndex) typeIndexes.get(step.filterType));
+			if (stepIndex == null) {
+				stepIndex = new TypeIndex(context.getAnnotations(step.filterType));
+				if (!stepIndex.isMergeable)
+					return null;
+				typeIndexes.put(step.filterType, stepIndex);
+			}
+			int[] stepHandles;
+			
+			//	first step, select all annotations nested in context
+			if (index == null) {
+				if (includeSelf && step.filterType.equals(context.getType()))
+					return null;
+				stepHandles = new int[stepIndex.annotations.length];
+				int stepHandleCount = 0;
+				String contextId = context.getAnnotationID();
+				for (int h = 0; h < stepIndex.annotations.length; h++) {
+					if ((stepIndex.starts[h] == 0) && (stepIndex.ends[h] == context.size()) && contextId.equals(stepIndex.annotations[h].getAnnotationID()))
+						continue;
+					stepHandles[stepHandleCount++] = h;
+				}
+				stepHandles = trim(stepHandles, stepHandleCount);
+			}
+			
+			//	subsequent step, select annotations nested in result of previous one
+			else {
+				stepHandles = getNestedHandles(index, handles, stepIndex, (index == stepIndex));
+				if (includeSelf && (index == stepIndex))
+					stepHandles = union(handles, stepHandles);
+			}
+			
+			index = stepIndex;
+			handles = stepHandles;
+		}
+		
+		//	resolve result handles (context proper might be selected as nested in another annotation with the same span)
+		QueriableAnnotation[] result = new QueriableAnnotation[handles.length];
+		String contextId = context.getAnnotationID();
+		for (int h = 0; h < handles.length; h++) {
+			if ((index.starts[handles[h]] == 0) && (index.ends[handles[h]] == context.size()) && contextId.equals(index.annotations[handles[h]].getAnnotationID()))
+				result[h] = context;
+			else result[h] = index.annotations[handles[h]];
+		}
+		Arrays.sort(result, AnnotationUtils.getComparator(context.getAnnotationNestingOrder()));
+		return result;
+	}
+	
+	/* Find the annotations nested in any of a sorted set of others. Both the
+	 * context annotations and the candidates are sorted by start index, so we
+	 * can go through the candidates, keeping track of the two largest end
+	 * indexes of all context annotations starting before or at the current
+	 * candidate. The second largest one comes in if candidates and contexts
+	 * are of the same type, and the context annotation with the largest end
+	 * index is the candidate proper, which is not nested in itself. */
+	private static int[] getNestedHandles(TypeIndex contextIndex, int[] contextHandles, TypeIndex index, boolean sameType) {
+		int[] nestedHandles = new int[index.annotations.length];
+		int nestedHandleCount = 0;
+		int c = 0;
+		int maxEnd = -1;
+		int maxEndHandle = -1;
+		int secondMaxEnd = -1;
+		for (int h = 0; h < index.annotations.length; h++) {
+			while ((c < contextHandles.length) && (contextIndex.starts[contextHandles[c]] <= index.starts[h])) {
+				int end = contextIndex.ends[contextHandles[c]];
+				if (end > maxEnd) {
+					secondMaxEnd = maxEnd;
+					maxEnd = end;
+					maxEndHandle = contextHandles[c];
+				}
+				else if (end > secondMaxEnd)
+					secondMaxEnd = end;
+				c++;
+			}
+			int containerEnd = ((sameType && (maxEndHandle == h)) ? secondMaxEnd : maxEnd);
+			if (index.ends[h] <= containerEnd)
+				nestedHandles[nestedHandleCount++] = h;
+		}
+		return trim(nestedHandles, nestedHandleCount);
+	}
+	
+	private static int[] union(int[] handles1, int[] handles2) {
+		int[] handles = new int[handles1.length + handles2.length];
+		int handleCount = 0;
+		int h1 = 0;
+		int h2 = 0;
+		while ((h1 < handles1.length) || (h2 < handles2.length)) {
+			if (h2 == handles2.length)
+				handles[handleCount++] = handles1[h1++];
+			else if (h1 == handles1.length)
+				handles[handleCount++] = handles2[h2++];
+			else if (handles1[h1] < handles2[h2])
+				handles[handleCount++] = handles1[h1++];
+			else if (handles2[h2] < handles1[h1])
+				handles[handleCount++] = handles2[h2++];
+			else {
+				handles[handleCount++] = handles1[h1++];
+				h2++;
+			}
+		}
+		return trim(handles, handleCount);
+	}
+	
+	private static int[] trim(int[] handles, int handleCount) {
+		if (handleCount == handles.length)
+			return handles;
+		int[] trimmedHandles = new int[handleCount];
+		System.arraycopy(handles, 0, trimmedHandles, 0, handleCount);
+		return trimmedHandles;
+	}
+	
+	/* the annotations of one type nested in a query context, together with
+	 * their start and end indexes relative to the context */
+	private static class TypeIndex {
+		final QueriableAnnotation[] annotations;
+		final int[] starts;
+		final int[] ends;
+		boolean isMergeable = true; // sorted by start index, and no zero-length annotations
+		TypeIndex(QueriableAnnotation[] annotations) {
+			this.annotations = annotations;
+			this.starts = new int[annotations.length];
+			this.ends = new int[annotations.length];
+			for (int a = 0; a < annotations.length; a++) {
+				this.starts[a] = annotations[a].getStartIndex();
+				this.ends[a] = annotations[a].getEndIndex();
+				if (this.ends[a] <= this.starts[a])
+					this.isMergeable = false;
+				else if ((a != 0) && (this.starts[a] < this.starts[a-1]))
+					this.isMergeable = false;
+			}
+		}
+	}
+	
 	private GPathAnnotationSet evaluatePath(GPathDocument document, GPath path, GPathAnnotation startAnnotation, GPathVariableResolver variableBindings) throws GPathException {
 		GPathAnnotationSet result = new GPathAnnotationSet();
 		result.add(startAnnotation);
@@ -218,44 +382,63 @@ public class GPathEngine implements GPathConstants {
 	}
 	
 	private GPathAnnotationSet evaluateStep(GPathDocument document, GPathStep step, GPathAnnotationSet startAnnotations, GPathVariableResolver variableBindings) throws GPathException {
-		if (step.axis == null)
-			step.axis = "child";
 		GPathAnnotationSet result = new GPathAnnotationSet();
 		
-		String filterType;
-		if ("annotation()".equals(step.annotationTest) || "*".equals(step.annotationTest))
-			filterType = null;
-		else filterType = step.annotationTest;
+		//	axis and filters are resolved in query plan
+		int axis = step.axisFlags;
+		String filterType = step.filterType;
+		
+		//	without predicates, the typed descendants (children are all contained annotations as well) of context annotations nested in a preceding one are contained in those of the latter
+		boolean skipNestedContexts = (((axis & (GPathCompiler.DESCENDANT_AXIS | GPathCompiler.CHILD_AXIS)) != 0) && (filterType != null) && ((step.predicates == null) || (step.predicates.length == 0)) && !startAnnotations.isReverseDocOrder);
+		GPathAnnotation outerContext = null;
 		
 		for (int a = 0; a < startAnnotations.size(); a++) {
-			GPathAnnotationSet annotationResult = new GPathAnnotationSet();
 			QueriableAnnotation annotation = startAnnotations.get(a);
 			
+			//	get descendants right from type index of outmost context annotations, and add them to result directly
+			if (skipNestedContexts && ((annotation instanceof GPathAnnotationView) || (annotation instanceof GPathDocument))) {
+				GPathAnnotation context = ((GPathAnnotation) annotation);
+				if ((outerContext != null) && isNestedIn(context, outerContext))
+					continue;
+				if ((outerContext == null) || (outerContext.source.getDocument() != context.source.getDocument()) || (outerContext.getAbsoluteStartIndex() + outerContext.size()) < (context.getAbsoluteStartIndex() + context.size()))
+					outerContext = context;
+				QueriableAnnotation[] annotations = annotation.getAnnotations(filterType);
+				String annotationId = annotation.getAnnotationID();
+				for (int an = 0; an < annotations.length; an++)
+					if (!annotationId.equals(annotations[an].getAnnotationID()))
+						result.add(annotations[an]);
+				if (((axis & GPathCompiler.SELF_AXIS) != 0) && filterType.equals(annotation.getType()))
+					result.add(annotation);
+				continue;
+			}
+			
+			GPathAnnotationSet annotationResult = new GPathAnnotationSet();
+			
 			//	evaluate axis and annotation test
-			if (step.axis.startsWith("descendant")) {
+			if ((axis & GPathCompiler.DESCENDANT_AXIS) != 0) {
 				QueriableAnnotation[] annotations = annotation.getAnnotations(filterType);
 				for (int an = 0; an < annotations.length; an++)
 					if (!annotation.getAnnotationID().equals(annotations[an].getAnnotationID()))
 						annotationResult.add(annotations[an]);
 			}
 			
-			else if (step.axis.startsWith("preceding-sibling"))
+			else if ((axis & GPathCompiler.PRECEDING_SIBLING_AXIS) != 0)
 				annotationResult = getPrecedingSibling(document, annotation, filterType);
 			
-			else if (step.axis.startsWith("following-sibling"))
+			else if ((axis & GPathCompiler.FOLLOWING_SIBLING_AXIS) != 0)
 				annotationResult = getFollowingSibling(document, annotation, filterType);
 			
-			else if (step.axis.startsWith("interleaving-"))
-				annotationResult = getInterleavingSibling(document, annotation, filterType, !step.axis.endsWith("right"), !step.axis.endsWith("left"));
+			else if ((axis & GPathCompiler.INTERLEAVING_AXIS) != 0)
+				annotationResult = getInterleavingSibling(document, annotation, filterType, ((axis & GPathCompiler.INCLUDE_LEFT) != 0), ((axis & GPathCompiler.INCLUDE_RIGHT) != 0));
 			
-			else if ("child".equals(step.axis)) {
+			else if ((axis & GPathCompiler.CHILD_AXIS) != 0) {
 				QueriableAnnotation[] annotations = annotation.getAnnotations(filterType);
 				for (int an = 0; an < annotations.length; an++)
 					if (!annotation.getAnnotationID().equals(annotations[an].getAnnotationID()))
 						annotationResult.add(annotations[an]);
 			}
 			
-			else if ("attribute".equals(step.axis)) {
+			else if ((axis & GPathCompiler.ATTRIBUTE_AXIS) != 0) {
 				if (filterType == null) {
 					String[] attributeNames = annotation.getAttributeNames();
 					for (int an = 0; an < attributeNames.length; an++) {
@@ -275,62 +458,22 @@ public class GPathEngine implements GPathConstants {
 				}
 			}
 			
-			else if (Token.TOKEN_ANNOTATION_TYPE.equals(step.axis)) {
-				if (filterType == null) {
-					for (int t = 0; t < annotation.size(); t++)
-						annotationResult.add(new GPathTokenAnnotation(annotation, t));
-				}
-				else if ("first".equals(filterType))
+			else if ((axis & GPathCompiler.TOKEN_AXIS) != 0) {
+				if (step.tokenFilter == GPathCompiler.FIRST_TOKEN)
 					annotationResult.add(new GPathTokenAnnotation(annotation, 0));
-				
-				else if ("last".equals(filterType))
+				else if (step.tokenFilter == GPathCompiler.LAST_TOKEN)
 					annotationResult.add(new GPathTokenAnnotation(annotation, (annotation.size() - 1)));
-				
-				else if ("text".equals(filterType)) {
-					for (int t = 0; t < annotation.size(); t++)
-						if (Gamta.isWord(annotation.tokenAt(t)) || Gamta.isNumber(annotation.tokenAt(t)))
-							annotationResult.add(new GPathTokenAnnotation(annotation, t));
-				}
-				else if ("word".equals(filterType)) {
-					for (int t = 0; t < annotation.size(); t++)
-						if (Gamta.isWord(annotation.tokenAt(t)))
-							annotationResult.add(new GPathTokenAnnotation(annotation, t));
-				}
-				else if ("number".equals(filterType)) {
-					for (int t = 0; t < annotation.size(); t++)
-						if (Gamta.isNumber(annotation.tokenAt(t)))
-							annotationResult.add(new GPathTokenAnnotation(annotation, t));
-				}
-				else if ("punctuation".equals(filterType)) {
-					for (int t = 0; t < annotation.size(); t++)
-						if (Gamta.isPunctuation(annotation.tokenAt(t)))
-							annotationResult.add(new GPathTokenAnnotation(annotation, t));
-				}
-				else if ("sentenceEnd".equals(filterType)) {
-					for (int t = 0; t < annotation.size(); t++)
-						if (Gamta.isSentenceEnd(annotation.tokenAt(t)))
-							annotationResult.add(new GPathTokenAnnotation(annotation, t));
-				}
-				else if ("bracket".equals(filterType)) {
-					for (int t = 0; t < annotation.size(); t++)
-						if (Gamta.isBracket(annotation.tokenAt(t)))
-							annotationResult.add(new GPathTokenAnnotation(annotation, t));
-				}
-				else if ("openingBracket".equals(filterType)) {
-					for (int t = 0; t < annotation.size(); t++)
-						if (Gamta.isOpeningBracket(annotation.tokenAt(t)))
-							annotationResult.add(new GPathTokenAnnotation(annotation, t));
-				}
-				else if ("closingBracket".equals(filterType)) {
-					for (int t = 0; t < annotation.size(); t++)
-						if (Gamta.isClosingBracket(annotation.tokenAt(t)))
+				else if (step.tokenFilter != GPathCompiler.NO_TOKENS) {
+					for (int t = 0; t < annotation.size(); t++) {
+						if (isTokenFilterMatch(step.tokenFilter, annotation.tokenAt(t)))
 							annotationResult.add(new GPathTokenAnnotation(annotation, t));
+					}
 				}
 			}
 			
-			if (step.axis.endsWith("self"))
+			if ((axis & GPathCompiler.SELF_AXIS) != 0)
 				annotationResult.add(annotation);
-			else if ("parent".equals(step.axis) || "ancestor".equals(step.axis)) {
+			else if ((axis & GPathCompiler.PARENT_AXIS) != 0) {
 				if (filterType == null) {
 					GPathAnnotation parent = ((GPathAnnotation) annotation).getParent();
 					if (parent != null)
@@ -355,7 +498,7 @@ public class GPathEngine implements GPathConstants {
 			}
 			
 			//	don't filter by type on Token axis
-			if (!Token.TOKEN_ANNOTATION_TYPE.equals(step.axis))
+			if ((axis & GPathCompiler.TOKEN_AXIS) == 0)
 				annotationResult = annotationResult.filterByType(filterType);
 			
 			//	apply predicates
@@ -371,6 +514,41 @@ public class GPathEngine implements GPathConstants {
 		return result;
 	}
 	
+	/* Check if a context annotation lies strictly inside another one, so any
+	 * annotation contained in the former is also contained in the latter. The
+	 * outer annotation precedes the inner one in document order, and thus
+	 * wins when identical descendants from both are added to a result. */
+	private static boolean isNestedIn(GPathAnnotation inner, GPathAnnotation outer) {
+		if (inner.size() == 0)
+			return false;
+		if (inner.source.getDocument() != outer.source.getDocument())
+			return false;
+		int innerStart = inner.getAbsoluteStartIndex();
+		int outerStart = outer.getAbsoluteStartIndex();
+		if (innerStart < outerStart)
+			return false;
+		int innerEnd = (innerStart + inner.size());
+		int outerEnd = (outerStart + outer.size());
+		if (outerEnd < innerEnd)
+			return false;
+		return ((outerStart < innerStart) || (innerEnd < outerEnd));
+	}
+	
+	private static boolean isTokenFilterMatch(int tokenFilter, Token token) {
+		switch (tokenFilter) {
+			case GPathCompiler.ALL_TOKENS: return true;
+			case GPathCompiler.TEXT_TOKENS: return (Gamta.isWord(token) || Gamta.isNumber(token));
+			case GPathCompiler.WORD_TOKENS: return Gamta.isWord(token);
+			case GPathCompiler.NUMBER_TOKENS: return Gamta.isNumber(token);
+			case GPathCompiler.PUNCTUATION_TOKENS: return Gamta.isPunctuation(token);
+			case GPathCompiler.SENTENCE_END_TOKENS: return Gamta.isSentenceEnd(token);
+			case GPathCompiler.BRACKET_TOKENS: return Gamta.isBracket(token);
+			case GPathCompiler.OPENING_BRACKET_TOKENS: return Gamta.isOpeningBracket(token);
+			case GPathCompiler.CLOSING_BRACKET_TOKENS: return Gamta.isClosingBracket(token);
+			default: return false;
+		}
+	}
+	
 	private static GPathAnnotationSet getPrecedingSibling(GPathAnnotation document, QueriableAnnotation startAnnotation, String filterType) {
 		GPathAnnotationSet result = new GPathAnnotationSet(true);
 		if (startAnnotation instanceof GPathAnnotation) {
@@ -431,7 +609,7 @@ public class GPathEngine implements GPathConstants {
 		for (int n = 0; n < size; n++) {
 			QueriableAnnotation annotation = annotationSet.get(n);
 			if (annotation instanceof GPathAnnotation) {
-				GPathObject xpo = this.evaluateExpression(document, predicate.expression, ((GPathAnnotation) annotation), (n + 1), size, variableBindings);
+				GPathObject xpo = this.evaluateOperand(document, predicate.expression, ((GPathAnnotation) annotation), (n + 1), size, variableBindings);
 				if (xpo instanceof GPathNumber) {
 					if (xpo.asNumber().value == (n + 1))
 						resultAnnotationSet.add(annotation);
@@ -456,6 +634,9 @@ public class GPathEngine implements GPathConstants {
 		if (variableBindings == null)
 			variableBindings = GPath.getDummyVariableResolver();
 		
+		//	get query plan
+		expression = this.getCompiledExpression(expression);
+		
 		//	wrap query context
 		GPathDocument wrappedContext = new GPathDocument(context);
 		
@@ -463,6 +644,58 @@ public class GPathEngine implements GPathConstants {
 		return this.evaluateExpression(wrappedContext, expression, wrappedContext, 1, 1, variableBindings);
 	}
 	
+	/**
+	 * Compile a GPath expression into a query plan for this engine. Query
+	 * plans have constant sub expressions folded, cheap predicates moved
+	 * before expensive ones where this does not change the result, and axis
+	 * and type filters resolved. They are independent of any document, so
+	 * evaluating the same expression on many documents compiles it only once.
+	 * The evaluation methods of this class compile their arguments on their
+	 * own, and cache the query plans, so client code does not have to call
+	 * this method explicitly. Compiling an expression that already is a query
+	 * plan returns the argument expression.
+	 * @param expression the GPath expression to compile
+	 * @return the query plan for the argument expression
+	 */
+	public GPathExpression getCompiledExpression(GPathExpression expression) {
+		if ((expression == null) || expression.isCompiled)
+			return expression;
+		synchronized (this.queryPlanCache) {
+			GPathExpression compiled = ((GPathExpression) this.queryPlanCache.get(expression));
+			if (compiled == null) {
+				compiled = new GPathCompiler(this).compileExpression(expression);
+				this.queryPlanCache.put(expression, compiled);
+			}
+			return compiled;
+		}
+	}
+	
+	/**
+	 * Compile a GPath into a query plan for this engine. This method works
+	 * just like its counterpart for GPath expressions.
+	 * @param path the GPath to compile
+	 * @return the query plan for the argument GPath
+	 */
+	public GPath getCompiledPath(GPath path) {
+		if ((path == null) || path.isCompiled)
+			return path;
+		synchronized (this.queryPlanCache) {
+			GPath compiled = ((GPath) this.queryPlanCache.get(path));
+			if (compiled == null) {
+				compiled = new GPathCompiler(this).compilePath(path);
+				this.queryPlanCache.put(path, compiled);
+			}
+			return compiled;
+		}
+	}
+	
+	//	query plans by parsed expressions and paths (weak keys, as ad-hoc expressions do not live forever)
+	private final WeakHashMap queryPlanCache = new WeakHashMap();
+	
+	GPathObject evaluateConstantExpression(GPathExpression expression) throws GPathException {
+		return this.evaluateExpression(null, expression, null, 1, 1, GPath.getDummyVariableResolver());
+	}
+	
 	private GPathObject evaluateExpression(GPathDocument document, GPathExpression expression, GPathAnnotation contextAnnotation, int contextPosition, int contextSize, GPathVariableResolver variableBindings) throws GPathException {
 		if (expression instanceof GPathUnaryExpression)
 			return this.evaluateUnaryExpression(document, ((GPathUnaryExpression) expression), contextAnnotation, contextPosition, contextSize, variableBindings);
@@ -472,6 +705,8 @@ public class GPathEngine implements GPathConstants {
 	}
 	
 	private GPathObject evaluateUnaryExpression(GPathDocument document, GPathUnaryExpression expression, GPathAnnotation contextAnnotation, int contextPosition, int contextSize, GPathVariableResolver variableBindings) throws GPathException {
+		if (expression.constant != null)
+			return expression.constant;
 		if (expression.literal != null)
 			return expression.literal;
 		if (expression.number != null)
@@ -533,43 +768,59 @@ public class GPathEngine implements GPathConstants {
 		return new GPathBoolean(false);
 	}
 	
+	/* Evaluate an expression whose result is only used as an operand, i.e.
+	 * compared, converted, or tested, but never returned as such. Plain
+	 * attribute tests marked in the query plan read the attribute value
+	 * directly instead of wrapping it in a single-element annotation set.
+	 * As the wrapper value is the attribute value re-tokenized, this is only
+	 * equivalent with tokenizers that preserve the original character data. */
+	private GPathObject evaluateOperand(GPathDocument document, GPathExpression expression, GPathAnnotation contextAnnotation, int contextPosition, int contextSize, GPathVariableResolver variableBindings) throws GPathException {
+		if ((expression instanceof GPathUnaryExpression) && (((GPathUnaryExpression) expression).attributeName != null) && (contextAnnotation.getTokenizer() instanceof RegExTokenizer)) {
+			Object attribute = contextAnnotation.getAttribute(((GPathUnaryExpression) expression).attributeName);
+			return new GPathAttributeValue((attribute instanceof String) ? ((String) attribute) : null);
+		}
+		else return this.evaluateExpression(document, expression, contextAnnotation, contextPosition, contextSize, variableBindings);
+	}
+	
 	private GPathObject evaluateBinaryExpression(GPathDocument document, GPathBinaryExpression expression, GPathAnnotation contextAnnotation, int contextPosition, int contextSize, GPathVariableResolver variableBindings) throws GPathException {
 		if (expression.leftExpression == null)
 			return new GPathBoolean(true);
 		
-		//	get left result
-		GPathObject left = this.evaluateExpression(document, expression.leftExpression, contextAnnotation, contextPosition, contextSize, variableBindings);
+		//	no right expression, return left result
 		if (expression.rightExpression == null)
-			return left;
+			return this.evaluateExpression(document, expression.leftExpression, contextAnnotation, contextPosition, contextSize, variableBindings);
+		
+		//	get left result
+		GPathObject left = this.evaluateOperand(document, expression.leftExpression, contextAnnotation, contextPosition, contextSize, variableBindings);
 		
 		//	evaluate OR and AND operator
 		if ("or".equals(expression.operator)) {
 			boolean res = left.asBoolean().value;
 			if (res)
 				return new GPathBoolean(true);
-			GPathObject right = this.evaluateExpression(document, expression.rightExpression, contextAnnotation, contextPosition, contextSize, variableBindings);
+			GPathObject right = this.evaluateOperand(document, expression.rightExpression, contextAnnotation, contextPosition, contextSize, variableBindings);
 			return new GPathBoolean(right.asBoolean().value);
 		}
 		else if ("and".equals(expression.operator)) {
 			boolean res = left.asBoolean().value;
 			if (!res)
 				return new GPathBoolean(false);
-			GPathObject right = this.evaluateExpression(document, expression.rightExpression, contextAnnotation, contextPosition, contextSize, variableBindings);
+			GPathObject right = this.evaluateOperand(document, expression.rightExpression, contextAnnotation, contextPosition, contextSize, variableBindings);
 			return new GPathBoolean(right.asBoolean().value);
 		}
 		
 		//	get right result
-		GPathObject right = this.evaluateExpression(document, expression.rightExpression, contextAnnotation, contextPosition, contextSize, variableBindings);
+		GPathObject right = this.evaluateOperand(document, expression.rightExpression, contextAnnotation, contextPosition, contextSize, variableBindings);
 		
 		//	check if annotationSets involved
-		boolean leftIsSet = (left instanceof GPathAnnotationSet);
-		boolean rightIsSet = (right instanceof GPathAnnotationSet);
+		boolean leftIsSet = ((left instanceof GPathAnnotationSet) || (left instanceof GPathAttributeValue));
+		boolean rightIsSet = ((right instanceof GPathAnnotationSet) || (right instanceof GPathAttributeValue));
 		
 		//	evaluate = and != operators
 		if ("!=".equals(expression.operator)) {
 			if (leftIsSet && rightIsSet) {
-				GPathString[] leftStrings = stringValues((GPathAnnotationSet) left);
-				GPathString[] rightStrings = stringValues((GPathAnnotationSet) right);
+				GPathString[] leftStrings = stringValues(left);
+				GPathString[] rightStrings = stringValues(right);
 				
 				if ((leftStrings.length * rightStrings.length) == 0)
 					return new GPathBoolean(false);
@@ -590,7 +841,7 @@ public class GPathEngine implements GPathConstants {
 			else if (leftIsSet) {
 				if (right instanceof GPathBoolean)
 					return new GPathBoolean(right.asBoolean().value != left.asBoolean().value);
-				GPathString[] leftStrings = stringValues((GPathAnnotationSet) left);
+				GPathString[] leftStrings = stringValues(left);
 				if (right instanceof GPathNumber) {
 					for (int l = 0; l < leftStrings.length; l++)
 						if (right.asNumber().value != leftStrings[l].asNumber().value)
@@ -607,7 +858,7 @@ public class GPathEngine implements GPathConstants {
 			else if (rightIsSet) {
 				if (left instanceof GPathBoolean)
 					return new GPathBoolean(left.asBoolean().value != right.asBoolean().value);
-				GPathString[] rightStrings = stringValues((GPathAnnotationSet) right);
+				GPathString[] rightStrings = stringValues(right);
 				if (left instanceof GPathNumber) {
 					for (int r = 0; r < rightStrings.length; r++)
 						if (left.asNumber().value != rightStrings[r].asNumber().value)
@@ -631,8 +882,8 @@ public class GPathEngine implements GPathConstants {
 		}
 		else if ("=".equals(expression.operator)) {
 			if (leftIsSet && rightIsSet) {
-				GPathString[] leftStrings = stringValues((GPathAnnotationSet) left);
-				GPathString[] rightStrings = stringValues((GPathAnnotationSet) right);
+				GPathString[] leftStrings = stringValues(left);
+				GPathString[] rightStrings = stringValues(right);
 				
 				if ((leftStrings.length * rightStrings.length) == 0)
 					return new GPathBoolean(false);
@@ -648,7 +899,7 @@ public class GPathEngine implements GPathConstants {
 			else if (leftIsSet) {
 				if (right instanceof GPathBoolean)
 					return new GPathBoolean(right.asBoolean().value == left.asBoolean().value);
-				GPathString[] leftStrings = stringValues((GPathAnnotationSet) left);
+				GPathString[] leftStrings = stringValues(left);
 				if (right instanceof GPathNumber) {
 					for (int l = 0; l < leftStrings.length; l++)
 						if (right.asNumber().value == leftStrings[l].asNumber().value)
@@ -665,7 +916,7 @@ public class GPathEngine implements GPathConstants {
 			else if (rightIsSet) {
 				if (left instanceof GPathBoolean)
 					return new GPathBoolean(left.asBoolean().value == right.asBoolean().value);
-				GPathString[] rightStrings = stringValues((GPathAnnotationSet) right);
+				GPathString[] rightStrings = stringValues(right);
 				if (left instanceof GPathNumber) {
 					for (int r = 0; r < rightStrings.length; r++)
 						if (left.asNumber().value == rightStrings[r].asNumber().value)
@@ -691,8 +942,8 @@ public class GPathEngine implements GPathConstants {
 		//	evaluate <, <=, >= and > operators
 		if ("<".equals(expression.operator)) {
 			if (leftIsSet && rightIsSet) {
-				GPathString[] leftStrings = stringValues((GPathAnnotationSet) left);
-				GPathString[] rightStrings = stringValues((GPathAnnotationSet) right);
+				GPathString[] leftStrings = stringValues(left);
+				GPathString[] rightStrings = stringValues(right);
 				
 				if ((leftStrings.length * rightStrings.length) == 0)
 					return new GPathBoolean(false);
@@ -706,14 +957,14 @@ public class GPathEngine implements GPathConstants {
 				return new GPathBoolean(false);
 			}
 			else if (leftIsSet) {
-				GPathString[] leftStrings = stringValues((GPathAnnotationSet) left);
+				GPathString[] leftStrings = stringValues(left);
 				for (int l = 0; l < leftStrings.length; l++)
 					if (leftStrings[l].asNumber().value < right.asNumber().value)
 						return new GPathBoolean(true);
 				return new GPathBoolean(false);
 			}
 			else if (rightIsSet) {
-				GPathString[] rightStrings = stringValues((GPathAnnotationSet) right);
+				GPathString[] rightStrings = stringValues(right);
 				for (int r = 0; r < rightStrings.length; r++)
 					if (left.asNumber().value < rightStrings[r].asNumber().value)
 						return new GPathBoolean(true);
@@ -723,8 +974,8 @@ public class GPathEngine implements GPathConstants {
 		}
 		else if ("<=".equals(expression.operator)) {
 			if (leftIsSet && rightIsSet) {
-				GPathString[] leftStrings = stringValues((GPathAnnotationSet) left);
-				GPathString[] rightStrings = stringValues((GPathAnnotationSet) right);
+				GPathString[] leftStrings = stringValues(left);
+				GPathString[] rightStrings = stringValues(right);
 				
 				if ((leftStrings.length * rightStrings.length) == 0)
 					return new GPathBoolean(false);
@@ -738,14 +989,14 @@ public class GPathEngine implements GPathConstants {
 				return new GPathBoolean(false);
 			}
 			else if (leftIsSet) {
-				GPathString[] leftStrings = stringValues((GPathAnnotationSet) left);
+				GPathString[] leftStrings = stringValues(left);
 				for (int l = 0; l < leftStrings.length; l++)
 					if (leftStrings[l].asNumber().value <= right.asNumber().value)
 						return new GPathBoolean(true);
 				return new GPathBoolean(false);
 			}
 			else if (rightIsSet) {
-				GPathString[] rightStrings = stringValues((GPathAnnotationSet) right);
+				GPathString[] rightStrings = stringValues(right);
 				for (int r = 0; r < rightStrings.length; r++)
 					if (left.asNumber().value <= rightStrings[r].asNumber().value)
 						return new GPathBoolean(true);
@@ -755,8 +1006,8 @@ public class GPathEngine implements GPathConstants {
 		}
 		else if (">=".equals(expression.operator)) {
 			if (leftIsSet && rightIsSet) {
-				GPathString[] leftStrings = stringValues((GPathAnnotationSet) left);
-				GPathString[] rightStrings = stringValues((GPathAnnotationSet) right);
+				GPathString[] leftStrings = stringValues(left);
+				GPathString[] rightStrings = stringValues(right);
 				
 				if ((leftStrings.length * rightStrings.length) == 0)
 					return new GPathBoolean(false);
@@ -770,14 +1021,14 @@ public class GPathEngine implements GPathConstants {
 				return new GPathBoolean(false);
 			}
 			else if (leftIsSet) {
-				GPathString[] leftStrings = stringValues((GPathAnnotationSet) left);
+				GPathString[] leftStrings = stringValues(left);
 				for (int l = 0; l < leftStrings.length; l++)
 					if (leftStrings[l].asNumber().value >= right.asNumber().value)
 						return new GPathBoolean(true);
 				return new GPathBoolean(false);
 			}
 			else if (rightIsSet) {
-				GPathString[] rigthStrings = stringValues((GPathAnnotationSet) right);
+				GPathString[] rigthStrings = stringValues(right);
 				for (int r = 0; r < rigthStrings.length; r++)
 					if (left.asNumber().value >= rigthStrings[r].asNumber().value)
 						return new GPathBoolean(true);
@@ -787,8 +1038,8 @@ public class GPathEngine implements GPathConstants {
 		}
 		else if (">".equals(expression.operator)) {
 			if (leftIsSet && rightIsSet) {
-				GPathString[] leftStrings = stringValues((GPathAnnotationSet) left);
-				GPathString[] rightStrings = stringValues((GPathAnnotationSet) right);
+				GPathString[] leftStrings = stringValues(left);
+				GPathString[] rightStrings = stringValues(right);
 				
 				if ((leftStrings.length * rightStrings.length) == 0)
 					return new GPathBoolean(false);
@@ -801,14 +1052,14 @@ public class GPathEngine implements GPathConstants {
 				return new GPathBoolean(false);
 			}
 			else if (leftIsSet) {
-				GPathString[] leftStrings = stringValues((GPathAnnotationSet) left);
+				GPathString[] leftStrings = stringValues(left);
 				for (int l = 0; l < leftStrings.length; l++)
 					if (leftStrings[l].asNumber().value > right.asNumber().value)
 						return new GPathBoolean(true);
 				return new GPathBoolean(false);
 			}
 			else if (rightIsSet) {
-				GPathString[] rightStrings = stringValues((GPathAnnotationSet) right);
+				GPathString[] rightStrings = stringValues(right);
 				for (int r = 0; r < rightStrings.length; r++)
 					if (left.asNumber().value > rightStrings[r].asNumber().value)
 						return new GPathBoolean(true);
@@ -843,6 +1094,12 @@ public class GPathEngine implements GPathConstants {
 		return new GPathString(annotation.getValue());
 	}
 	
+	private static GPathString[] stringValues(GPathObject set) {
+		if (set instanceof GPathAttributeValue)
+			return ((GPathAttributeValue) set).stringValues();
+		return stringValues((GPathAnnotationSet) set);
+	}
+	
 	private static GPathString[] stringValues(GPathAnnotationSet annotationSet) {
 		if (annotationSet == null) return new GPathString[0];
 		GPathString[] strings = new GPathString[annotationSet.size()];
@@ -1482,8 +1739,10 @@ public class GPathEngine implements GPathConstants {
 	 * @param	function		the GPathFunction to be added
 	 */
 	public void addFunction(String functionName, GPathFunction function) {
-		if ((functionName != null) && (function != null))
+		if ((functionName != null) && (function != null)) {
 			this.customFunctions.put(functionName, function);
+			this.clearQueryPlanCache();
+		}
 	}
 	
 	/**	remove a custom function from the function library of this GPathEngine
@@ -1491,7 +1750,22 @@ public class GPathEngine implements GPathConstants {
 	 * @return the function that was just removed, or null if there was no function with the specified name
 	 */
 	public GPathFunction removeFunction(String functionName) {
-		return ((GPathFunction) this.customFunctions.remove(functionName));
+		GPathFunction function = ((GPathFunction) this.customFunctions.remove(functionName));
+		if (function != null)
+			this.clearQueryPlanCache();
+		return function;
+	}
+	
+	/* query plans depend on which built-in functions are overwritten by
+	 * custom ones, so they have to be re-compiled on changes */
+	private void clearQueryPlanCache() {
+		synchronized (this.queryPlanCache) {
+			this.queryPlanCache.clear();
+		}
+	}
+	
+	boolean hasCustomFunction(String functionName) {
+		return this.customFunctions.containsKey(functionName);
 	}
 	
 //	//	!!! TEST ONLY !!!
@@ -1876,6 +2150,31 @@ public class GPathEngine implements GPathConstants {
 	
 	private static final QueriableAnnotation[] emptyLookupResult = {};
 	
+	/* Operand-only stand-in for the zero- or one-element annotation set a
+	 * plain attribute test evaluates to, behaving exactly like that set in
+	 * comparisons and conversions. */
+	private static class GPathAttributeValue extends GPathObject {
+		private String value;
+		GPathAttributeValue(String value) {
+			this.value = value;
+		}
+		GPathString[] stringValues() {
+			if (this.value == null)
+				return new GPathString[0];
+			GPathString[] strings = {new GPathString(this.value)};
+			return strings;
+		}
+		public GPathBoolean asBoolean() {
+			return new GPathBoolean(this.value != null);
+		}
+		public GPathNumber asNumber() {
+			return this.asString().asNumber();
+		}
+		public GPathString asString() {
+			return new GPathString((this.value == null) ? "" : this.value);
+		}
+	}
+	
 	private static class GPathAttributeAnnotation extends GPathAnnotation {
 		private String type;
 		private TokenSequence value;
@@ -36,4 +36,7 @@ package de.uka.ipd.idaho.gamta.util.gPath;
  */
 public abstract class GPathExpression {
 	//	this is just a marker super class for unary and binary expressions
+	
+	//	set for query plans produced by GPathCompiler
+	boolean isCompiled = false;
 }
@@ -40,6 +40,11 @@ public class GPathStep {
 	String annotationTest = "annotation()";
 	GPathPredicate[] predicates = new GPathPredicate[0];
 	
+	//	resolved in query plans produced by GPathCompiler
+	int axisFlags = 0;
+	String filterType = null;
+	int tokenFilter = 0;
+	
 	GPathStep() {}
 	
 	/**	@see java.lang.Object#toString()
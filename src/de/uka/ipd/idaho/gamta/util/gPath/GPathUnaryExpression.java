@@ -28,7 +28,9 @@
 package de.uka.ipd.idaho.gamta.util.gPath;
 
 
+import de.uka.ipd.idaho.gamta.util.gPath.types.GPathBoolean;
 import de.uka.ipd.idaho.gamta.util.gPath.types.GPathNumber;
+import de.uka.ipd.idaho.gamta.util.gPath.types.GPathObject;
 import de.uka.ipd.idaho.gamta.util.gPath.types.GPathString;
 
 /**
@@ -65,9 +67,21 @@ public class GPathUnaryExpression extends GPathExpression {
 	//	for union expressions
 	GPathUnaryExpression[] partExpressions = null;
 	
+	//	for constants folded in query plans
+	GPathObject constant = null;
+	
+	//	for plain attribute tests in query plans
+	String attributeName = null;
+	
 	/**	@see java.lang.Object#toString()
 	 */
 	public String toString() {
+		if (this.constant instanceof GPathBoolean)
+			return (this.constant.asBoolean().value ? "true()" : "false()");
+		if (this.constant instanceof GPathNumber)
+			return ((((int) Math.round(((GPathNumber) this.constant).value)) == ((GPathNumber) this.constant).value) ? ("" + ((int) Math.round(((GPathNumber) this.constant).value))) : ("" + ((GPathNumber) this.constant).value));
+		if (this.constant != null)
+			return ((this.constant.asString().value.indexOf('"') == -1) ? ('"' + this.constant.asString().value + '"') : ("'" + this.constant.asString().value + "'"));
 		if (this.literal != null)
 			return (this.quoter + this.literal.value + this.quoter);
 		if (this.number != null)
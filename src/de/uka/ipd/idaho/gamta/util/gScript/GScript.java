@@ -50,6 +50,7 @@ import de.uka.ipd.idaho.gamta.util.gPath.GPath;
 import de.uka.ipd.idaho.gamta.util.gPath.GPathExpression;
 import de.uka.ipd.idaho.gamta.util.gPath.GPathParser;
 import de.uka.ipd.idaho.gamta.util.gPath.GPathVariableResolver;
+import de.uka.ipd.idaho.gamta.util.gPath.exceptions.GPathException;
 import de.uka.ipd.idaho.gamta.util.gPath.exceptions.VariableNotBoundException;
 import de.uka.ipd.idaho.gamta.util.gPath.types.GPathAnnotationSet;
 import de.uka.ipd.idaho.gamta.util.gPath.types.GPathObject;
@@ -68,6 +69,8 @@ import de.uka.ipd.idaho.gamta.util.gScript.functions.RenameAttributeFunction;
 import de.uka.ipd.idaho.gamta.util.gScript.functions.SetAttributeFunction;
 import de.uka.ipd.idaho.stringUtils.StringUtils;
 import de.uka.ipd.idaho.stringUtils.StringVector;
+import de.uka.ipd.idaho.stringUtils.regExUtils.PatternCache;
+import de.uka.ipd.idaho.stringUtils.regExUtils.PatternCache.PatternCompiler;
 
 /**
  * The Gamta Script main class, holding constants as well as utility functions,
@@ -327,6 +330,12 @@ public class GScript {
 	
 	private static HashMap functions = new HashMap();
 	
+	//	compiled scripts, separate from regular expression patterns, cleared whenever a function is added
+	private static final PatternCache scriptCache = new PatternCache(Integer.getInteger("de.uka.ipd.idaho.gamta.util.gScript.GScript.cacheSize", 256).intValue());
+	
+	//	incremented whenever a function is added, so scripts compiled concurrently with an addition are not cached
+	private static volatile int functionGeneration = 0;
+	
 	static {
 		addFunction(new AnnotateFunction());
 		addFunction(new ParquettFunction());
@@ -632,7 +641,9 @@ public class GScript {
 	}
 	
 	/**
-	 * Add a function to the function library
+	 * Add a function to the function library. Since compiled scripts are
+	 * bound to the functions they invoke, this method also clears the cache
+	 * of compiled scripts.
 	 * @param function the function to add
 	 */
 	public static void addFunction(GScriptFunction function) {
@@ -643,6 +654,8 @@ public class GScript {
 			functions.put(functionName, functionListCs);
 		}
 		functionListCs.add(function);
+		functionGeneration++;
+		scriptCache.clear();
 	}
 	
 	/**
@@ -1550,13 +1563,49 @@ public class GScript {
 	 * Compile a GamtaScript. Executing the returned GScript on a given
 	 * MutableAnnotation has the same effect as invoking the
 	 * executeStript(MutableAnnotation, String) method, but is faster for
-	 * complex scripts because the script is compiled.
+	 * complex scripts because the script is compiled. Compiled scripts are
+	 * cached, so compiling the same script string repeatedly is cheap. Scripts
+	 * that call or include scripts provided by a ScriptNameResolver are not
+	 * cached, however, as the called or included scripts might change.
 	 * @param script the script to compile
 	 * @return a GScript object created from the specified string representation
 	 * @throws GScriptException
 	 */
 	public static GScript compile(String script) throws GScriptException {
-		return compileScript(parseScript(script));
+		try {
+			return ((GScript) scriptCache.get(script, SCRIPT_COMPILER));
+		}
+		catch (UncachedScript us) {
+			if (us.script == null)
+				throw us.gse;
+			else return us.script;
+		}
+	}
+	
+	private static final PatternCompiler SCRIPT_COMPILER = new PatternCompiler() {
+		public Object compile(String script) {
+			int generation = functionGeneration;
+			GScript gs;
+			try {
+				gs = compileScript(parseScript(script));
+			}
+			catch (GScriptException gse) {
+				throw new UncachedScript(null, gse);
+			}
+			if (gs.usesExternalScripts || (generation != functionGeneration))
+				throw new UncachedScript(gs, null);
+			else return gs;
+		}
+	};
+	
+	//	hands compilation errors and non-cacheable scripts past the cache
+	private static class UncachedScript extends RuntimeException {
+		final GScript script;
+		final GScriptException gse;
+		UncachedScript(GScript script, GScriptException gse) {
+			this.script = script;
+			this.gse = gse;
+		}
 	}
 	
 	private static String[][] parseScript(String script) throws GScriptException {
@@ -1641,7 +1690,8 @@ public class GScript {
 		//	link script invocations
 		for (Iterator rit = toResolve.iterator(); rit.hasNext();) {
 			GScriptInvocation gsi = ((GScriptInvocation) rit.next());
-			gsi.resolve(localScriptResolver);
+			if (gsi.resolve(localScriptResolver))
+				main.usesExternalScripts = true;
 		}
 		
 		//	return compiled script
@@ -1934,6 +1984,9 @@ public class GScript {
 		this(body, null);
 	}
 	
+	//	calls or includes scripts obtained from a ScriptNameResolver
+	private boolean usesExternalScripts = false;
+	
 	private GScript(GScriptCommand[] body, Map subScriptsByName) {
 		this.body = body;
 		if (subScriptsByName != null)
@@ -2276,11 +2329,36 @@ public class GScript {
 		final GScriptFunction function;
 		final String[] parameterTypes;
 		final GPathObject[] parameterDefinitions;
+		final GPath[] parameterPaths;
+		final GPathExpression[] parameterExpressions;
 		FunctionInvocation(GScriptFunction function, GPathObject[] parameterDefinitions) {
 			super(function.getName());
 			this.function = function;
 			this.parameterTypes = this.function.getParameterTypes();
 			this.parameterDefinitions = parameterDefinitions;
+			
+			//	parse literal annotation set constructors and expressions right away, so executions need not parse them over and over again
+			this.parameterPaths = new GPath[this.parameterDefinitions.length];
+			this.parameterExpressions = new GPathExpression[this.parameterDefinitions.length];
+			for (int p = 0; p < this.parameterDefinitions.length; p++) {
+				if (!(this.parameterDefinitions[p] instanceof GPathString))
+					continue;
+				String definition = this.parameterDefinitions[p].asString().value;
+				try {
+					if (isAnnotationSetConstructor(definition))
+						this.parameterPaths[p] = GPathParser.parsePath(definition.substring(1, (definition.length() - 1)));
+					else if (isExpression(definition))
+						this.parameterExpressions[p] = GPathParser.parseExpression(definition);
+				}
+				catch (GPathException gpe) {
+					//	leave syntax errors to execution, which reports them as before
+				}
+			}
+		}
+		
+		//	check if a parameter is still the literal it was compiled from, i.e., not replaced by a variable value
+		private boolean isCompiledLiteral(GPathObject[] resolvedParameterDefinitions, int pIndex) {
+			return (resolvedParameterDefinitions[pIndex] == this.parameterDefinitions[pIndex]);
 		}
 		String[] execute(MutableAnnotation data, GPathVariableResolver globalBindings, DebugLogger debug) throws GScriptException {
 			GPathObject[] resolvedParameterDefinitions = new GPathObject[this.parameterDefinitions.length];
@@ -2333,6 +2411,15 @@ public class GScript {
 					if (resolvedParameterDefinitions[pIndex] instanceof GPathAnnotationSet)
 						parameterValues[pIndex] = resolvedParameterDefinitions[pIndex];
 					
+					//	annotation set constructor parsed on compilation
+					else if (this.isCompiledLiteral(resolvedParameterDefinitions, pIndex) && (this.parameterPaths[pIndex] != null)) {
+						GPathAnnotationSet gpas = new GPathAnnotationSet();
+						QueriableAnnotation[] annotations = GPath.evaluatePath(data, this.parameterPaths[pIndex], inLineBindings);
+						for (int a = 0; a < annotations.length; a++)
+							gpas.add(annotations[a]);
+						parameterValues[pIndex] = gpas;
+					}
+					
 					//	create annotation set, interpret value as GPath expression
 					else {
 						GPathAnnotationSet gpas = new GPathAnnotationSet();
@@ -2347,7 +2434,10 @@ public class GScript {
 							
 							//	annotation set constructor coded as expression
 							else if (isExpression(pathExpression)) {
-								GPathObject exRes = GPath.evaluateExpression(pathExpression, data, inLineBindings);
+								GPathObject exRes;
+								if (this.isCompiledLiteral(resolvedParameterDefinitions, pIndex) && (this.parameterExpressions[pIndex] != null))
+									exRes = GPath.evaluateExpression(this.parameterExpressions[pIndex], data, inLineBindings);
+								else exRes = GPath.evaluateExpression(pathExpression, data, inLineBindings);
 								pathExpression = exRes.asString().value;
 								
 								//	write debug info
@@ -2377,6 +2467,14 @@ public class GScript {
 					if (resolvedParameterDefinitions[pIndex] instanceof GPathAnnotationSet)
 						gpas = ((GPathAnnotationSet) resolvedParameterDefinitions[pIndex]);
 					
+					//	annotation set constructor parsed on compilation
+					else if (this.isCompiledLiteral(resolvedParameterDefinitions, pIndex) && (this.parameterPaths[pIndex] != null)) {
+						QueriableAnnotation[] annotations = GPath.evaluatePath(data, this.parameterPaths[pIndex], inLineBindings);
+						gpas = new GPathAnnotationSet();
+						for (int a = 0; a < annotations.length; a++)
+							gpas.add(annotations[a]);
+					}
+					
 					//	check if annotation set constructor
 					else {
 						String pathExpression = resolvedParameterDefinitions[pIndex].asString().value;
@@ -2398,7 +2496,9 @@ public class GScript {
 						
 						//	execute expression if given
 						GPathObject gpo = null;
-						if (isExpression(resolvedParameterDefinitions[pIndex].asString().value)) {
+						if (this.isCompiledLiteral(resolvedParameterDefinitions, pIndex) && (this.parameterExpressions[pIndex] != null))
+							gpo = GPath.evaluateExpression(this.parameterExpressions[pIndex], data, inLineBindings);
+						else if (isExpression(resolvedParameterDefinitions[pIndex].asString().value)) {
 							
 							//	cut expression brackets
 							String pathExpression = resolvedParameterDefinitions[pIndex].asString().value;
@@ -2500,21 +2600,24 @@ public class GScript {
 			toResolve.add(this);
 		}
 		
-		void resolve(Map localScriptNameResolver) throws GScriptException {
+		boolean resolve(Map localScriptNameResolver) throws GScriptException {
 			
 			//	obtain local sub script
 			this.script = ((GScript) localScriptNameResolver.get(this.scriptName));
+			if (this.script != null)
+				return false;
 			
 			//	not found, check global resolvers
-			if (this.script == null) {
-				String scriptString = resolveScriptName(this.scriptName);
-				if (scriptString != null)
-					this.script = compileScript(parseScript(scriptString));
-			}
+			String scriptString = resolveScriptName(this.scriptName);
+			if (scriptString != null)
+				this.script = compileScript(parseScript(scriptString));
 			
 			//	not found
 			if (this.script == null)
 				throw new GScriptException("Cannot resolve included script name: '" + this.scriptName + "'");
+			
+			//	indicate resolved externally
+			return true;
 		}
 		
 		String[] execute(MutableAnnotation data, GPathVariableResolver globalBindings, DebugLogger debug) throws GScriptException {
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.stringUtils;
+
+import java.util.Arrays;
+
+/**
+ * Index for approximate lookups of strings, finding all entries within a
+ * given Levenshtein distance of a string, e.g. to recognize names damaged by
+ * OCR errors. Entries are organized in a BK-tree, where each child of a node
+ * is labeled with its distance from the node. As the Levenshtein distance is
+ * a metric, a lookup only has to descend to children whose labels lie within
+ * the sought distance of the distance between the looked up string and the
+ * node. For distances that are small in comparison to the length of the
+ * entries, this prunes most of the dictionary.<br>
+ * Instances of this class are not thread safe while entries are added, but
+ * lookups can run concurrently.
+ * 
+ * @author sautter
+ */
+public class FuzzyDictionary {
+	
+	private final boolean caseSensitive;
+	
+	private String[] entries = new String[16]; // the entries as added
+	private String[] keys = new String[16]; // the entries case folded if index is case insensitive
+	private int[] distances = new int[16]; // the distance of each entry to its parent
+	private int[] firstChildren = new int[16];
+	private int[] nextSiblings = new int[16];
+	private int[] nextEquals = new int[16]; // entries equal to some node in case insensitive index (chained to that node)
+	private int size = 0;
+	
+	/**	Constructor
+	 * @param	caseSensitive	compare strings case sensitive?
+	 */
+	public FuzzyDictionary(boolean caseSensitive) {
+		this.caseSensitive = caseSensitive;
+	}
+	
+	/**	Constructor indexing the entries of a dictionary
+	 * @param	dictionary		the dictionary whose entries to index
+	 */
+	public FuzzyDictionary(Dictionary dictionary) {
+		this(dictionary, dictionary.isDefaultCaseSensitive());
+	}
+	
+	/**	Constructor indexing the entries of a dictionary
+	 * @param	dictionary		the dictionary whose entries to index
+	 * @param	caseSensitive	compare strings case sensitive?
+	 */
+	public FuzzyDictionary(Dictionary dictionary, boolean caseSensitive) {
+		this(caseSensitive);
+		for (StringIterator sit = dictionary.getEntryIterator(); sit.hasMoreStrings();)
+			this.add(sit.nextString());
+	}
+	
+	/**
+	 * @return true if strings are compared case sensitive
+	 */
+	public boolean isCaseSensitive() {
+		return this.caseSensitive;
+	}
+	
+	/**
+	 * @return the number of entries in the dictionary
+	 */
+	public int size() {
+		return this.size;
+	}
+	
+	/**
+	 * @return true if the dictionary has no entries
+	 */
+	public boolean isEmpty() {
+		return (this.size == 0);
+	}
+	
+	/**
+	 * Add an entry to the dictionary. Adding an entry a second time has no
+	 * effect. In a case insensitive dictionary, entries differing only in
+	 * case are all kept, and lookups return all of them.
+	 * @param entry the entry to add
+	 * @return true if the entry was added, false if it was present before
+	 */
+	public boolean add(String entry) {
+		if (entry == null)
+			return false;
+		String key = (this.caseSensitive ? entry : foldCase(entry));
+		
+		//	first entry becomes root
+		if (this.size == 0) {
+			this.addNode(entry, key, 0);
+			return true;
+		}
+		
+		//	descend to node whose child at the distance of the new entry is free
+		int node = 0;
+		while (true) {
+			int distance = StringUtils.getLevenshteinDistance(key, this.keys[node], 0, true, 1, 1);
+			
+			//	equal key (case variant in case insensitive mode), chain to node unless already present
+			if (distance == 0) {
+				for (int equal = node; equal != -1; equal = this.nextEquals[equal]) {
+					if (this.entries[equal].equals(entry))
+						return false;
+					if (this.nextEquals[equal] == -1) {
+						int added = this.addNode(entry, key, 0); // addNode() might replace the array
+						this.nextEquals[equal] = added;
+						return true;
+					}
+				}
+			}
+			
+			//	find child at distance
+			int child = this.firstChildren[node];
+			while ((child != -1) && (this.distances[child] != distance))
+				child = this.nextSiblings[child];
+			if (child != -1) {
+				node = child;
+				continue;
+			}
+			
+			//	add new child
+			child = this.addNode(entry, key, distance);
+			this.nextSiblings[child] = this.firstChildren[node];
+			this.firstChildren[node] = child;
+			return true;
+		}
+	}
+	
+	private int addNode(String entry, String key, int distance) {
+		if (this.size == this.entries.length) {
+			int capacity = (this.entries.length * 2);
+			String[] entries = new String[capacity];
+			System.arraycopy(this.entries, 0, entries, 0, this.size);
+			this.entries = entries;
+			String[] keys = new String[capacity];
+			System.arraycopy(this.keys, 0, keys, 0, this.size);
+			this.keys = keys;
+			this.distances = growArray(this.distances, capacity, this.size);
+			this.firstChildren = growArray(this.firstChildren, capacity, this.size);
+			this.nextSiblings = growArray(this.nextSiblings, capacity, this.size);
+			this.nextEquals = growArray(this.nextEquals, capacity, this.size);
+		}
+		this.entries[this.size] = entry;
+		this.keys[this.size] = key;
+		this.distances[this.size] = distance;
+		this.firstChildren[this.size] = -1;
+		this.nextSiblings[this.size] = -1;
+		this.nextEquals[this.size] = -1;
+		return this.size++;
+	}
+	
+	private static int[] growArray(int[] array, int capacity, int size) {
+		int[] grown = new int[capacity];
+		System.arraycopy(array, 0, grown, 0, size);
+		return grown;
+	}
+	
+	/**
+	 * Check whether or not the dictionary contains an entry within a given
+	 * Levenshtein distance of a string.
+	 * @param string the string to look up
+	 * @param maxDistance the maximum Levenshtein distance
+	 * @return true if there is at least one entry within the specified
+	 *         distance of the argument string
+	 */
+	public boolean lookup(String string, int maxDistance) {
+		return (this.lookup(string, maxDistance, true).length != 0);
+	}
+	
+	/**
+	 * Retrieve all entries within a given Levenshtein distance of a string.
+	 * The entries are ordered by ascending distance, ties in the order they
+	 * were added to the dictionary in.
+	 * @param string the string to look up
+	 * @param maxDistance the maximum Levenshtein distance
+	 * @return an array holding the entries within the specified distance of
+	 *         the argument string
+	 */
+	public String[] getEntries(String string, int maxDistance) {
+		return this.lookup(string, maxDistance, false);
+	}
+	
+	private String[] lookup(String string, int maxDistance, boolean stopAtFirst) {
+		if ((string == null) || (this.size == 0) || (maxDistance < 0))
+			return new String[0];
+		String key = (this.caseSensitive ? string : foldCase(string));
+		StringUtils.BitParallelPattern keyPattern = (((key.length() != 0) && (key.length() <= 64)) ? new StringUtils.BitParallelPattern(key, true) : null);
+		
+		//	collect matching nodes, with distance in high bits for sorting
+		long[] matches = new long[16];
+		int matchCount = 0;
+		int[] stack = new int[16];
+		int stackSize = 0;
+		stack[stackSize++] = 0;
+		while (stackSize != 0) {
+			int node = stack[--stackSize];
+			int distance = ((keyPattern == null) ? StringUtils.getLevenshteinDistance(key, this.keys[node], 0, true, 1, 1) : keyPattern.getDistance(this.keys[node]));
+			if (distance <= maxDistance) {
+				for (int equal = node; equal != -1; equal = this.nextEquals[equal]) {
+					if (matchCount == matches.length) {
+						long[] grown = new long[matches.length * 2];
+						System.arraycopy(matches, 0, grown, 0, matchCount);
+						matches = grown;
+					}
+					matches[matchCount++] = ((((long) distance) << 32) | equal);
+				}
+				if (stopAtFirst)
+					break;
+			}
+			
+			//	descend only to children whose distance can lie within range (triangle inequality)
+			for (int child = this.firstChildren[node]; child != -1; child = this.nextSiblings[child]) {
+				if (Math.abs(this.distances[child] - distance) > maxDistance)
+					continue;
+				if (stackSize == stack.length)
+					stack = growArray(stack, (stack.length * 2), stackSize);
+				stack[stackSize++] = child;
+			}
+		}
+		
+		//	sort matches by distance, then by position
+		Arrays.sort(matches, 0, matchCount);
+		String[] result = new String[matchCount];
+		for (int m = 0; m < matchCount; m++)
+			result[m] = this.entries[(int) (matches[m] & 0x7FFFFFFFL)];
+		return result;
+	}
+	
+	//	fold case char by char, the same way as case insensitive Levenshtein distance computation
+	private static String foldCase(String string) {
+		char[] chars = new char[string.length()];
+		for (int c = 0; c < chars.length; c++)
+			chars[c] = Character.toLowerCase(string.charAt(c));
+		return new String(chars);
+	}
+}
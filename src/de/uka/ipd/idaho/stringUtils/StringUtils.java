@@ -2316,92 +2316,142 @@ public class StringUtils {
 	 * Note: a threshold of 0 will compute the entire editing distance, regardless of its value
 	 */
 	public static int getLevenshteinDistance(String string1, String string2, int threshold, boolean caseSensitive, int insertCost, int deleteCost) {
+		int length1 = ((string1 == null) ? 0 : string1.length());
+		int length2 = ((string2 == null) ? 0 : string2.length());
 		
-		int[][] distanceMatrix; // matrix
-		int length1; // length of s
-		int length2; // length of t
-		int minLength; // the limit for the quadratic computation
-		int cost; // cost
-		int substitutionFactor = ((insertCost + deleteCost) / 2);
-		int distance = 0;
-		
-		//	fill the matrix top-left to bottom-right instead of line-wise
-		int limit = 1;
-		
-		// Step 1
-		length1 = ((string1 == null) ? 0 : string1.length());
-		length2 = ((string2 == null) ? 0 : string2.length());
-		minLength = ((length1 > length2) ? length2 : length1);
+		//	length difference alone exceeds threshold
+		if ((threshold > 0) && ((Math.abs(length1 - length2) * Math.min(insertCost, deleteCost)) > threshold))
+			return (threshold + 1);
 		
-		//	Step 1.5
-		if ((Math.abs(length1 - length2) > threshold) && (threshold > 0)) return (threshold + 1);
-		
-		// Step 2
-		distanceMatrix = new int[length1 + 1][length2 + 1];
-		distanceMatrix[0][0] = 0;
-		
-		while (limit <= minLength) {
-			distanceMatrix[limit][0] = (limit * insertCost);
-			distanceMatrix[0][limit] = (limit * deleteCost);
-			
-			//	compute line
-			for (int c = 1; c < limit; c++) {
-				cost = getCost(string1.charAt(c - 1), string2.charAt(limit - 1), substitutionFactor, caseSensitive);
-				distance = min3(distanceMatrix[c - 1][limit] + deleteCost, distanceMatrix[c][limit - 1] + insertCost, distanceMatrix[c - 1][limit - 1] + cost);
-				distanceMatrix[c][limit] = distance;
-			}
-			
-			//	compute column
-			for (int l = 1; l < limit; l++) {
-				cost = getCost(string1.charAt(limit - 1), string2.charAt(l - 1), substitutionFactor, caseSensitive);
-				distance = min3(distanceMatrix[limit - 1][l] + deleteCost, distanceMatrix[limit][l - 1] + insertCost, distanceMatrix[limit - 1][l - 1] + cost);
-				distanceMatrix[limit][l] = distance;
-			}
-			
-			//	compute new corner
-			cost = getCost(string1.charAt(limit - 1), string2.charAt(limit - 1), substitutionFactor, caseSensitive);
-			distance = min3(distanceMatrix[limit - 1][limit] + deleteCost, distanceMatrix[limit][limit - 1] + insertCost, distanceMatrix[limit - 1][limit - 1] + cost);
-			if ((distance > threshold) && (threshold > 0)) return (threshold + 1);
-			distanceMatrix[limit][limit] = distance;
-			
-			//	increment limit
-			limit ++;
+		//	compute distance, bit-parallel for unit costs and short strings
+		int distance;
+		if ((insertCost == 1) && (deleteCost == 1) && (Math.min(length1, length2) <= 64))
+			distance = ((length1 < length2) ? getBitParallelLevenshteinDistance(string1, length1, string2, length2, caseSensitive) : getBitParallelLevenshteinDistance(string2, length2, string1, length1, caseSensitive));
+		else distance = getBandedLevenshteinDistance(string1, length1, string2, length2, threshold, caseSensitive, insertCost, deleteCost);
+		return (((threshold > 0) && (distance > threshold)) ? (threshold + 1) : distance);
+	}
+	
+	private static int getBitParallelLevenshteinDistance(String pattern, int patternLength, String text, int textLength, boolean caseSensitive) {
+		if (patternLength == 0)
+			return textLength;
+		return new BitParallelPattern(pattern, caseSensitive).getDistance(text);
+	}
+	
+	/**
+	 * Pattern for computing the Levenshtein distance to many other strings
+	 * with Myers' bit-parallel algorithm (in Hyyroe's formulation for the
+	 * distance of whole strings). A column of the distance matrix is encoded
+	 * as vertical deltas in two bit vectors, so each character of the other
+	 * string takes a constant number of operations on longs instead of a
+	 * whole column. The pattern itself is preprocessed only once, and must be
+	 * between 1 and 64 characters long.
+	 */
+	static final class BitParallelPattern {
+		private final int length;
+		private final boolean caseSensitive;
+		private final char[] distinctChars;
+		private final long[] matchVectors; // bit vector of positions in pattern for each distinct character
+		private int distinctCharCount = 0;
+		BitParallelPattern(String pattern, boolean caseSensitive) {
+			this.length = pattern.length();
+			this.caseSensitive = caseSensitive;
+			this.distinctChars = new char[this.length];
+			this.matchVectors = new long[this.length];
+			for (int p = 0; p < this.length; p++) {
+				char ch = (caseSensitive ? pattern.charAt(p) : Character.toLowerCase(pattern.charAt(p)));
+				int index = Arrays.binarySearch(this.distinctChars, 0, this.distinctCharCount, ch);
+				if (index < 0) {
+					index = -(index + 1);
+					System.arraycopy(this.distinctChars, index, this.distinctChars, (index + 1), (this.distinctCharCount - index));
+					System.arraycopy(this.matchVectors, index, this.matchVectors, (index + 1), (this.distinctCharCount - index));
+					this.distinctChars[index] = ch;
+					this.matchVectors[index] = 0;
+					this.distinctCharCount++;
+				}
+				this.matchVectors[index] |= (1L << p);
+			}
+		}
+		int getDistance(String text) {
+			long positiveVertical = -1L;
+			long negativeVertical = 0L;
+			long lastBit = (1L << (this.length - 1));
+			int distance = this.length;
+			for (int t = 0; t < text.length(); t++) {
+				char ch = (this.caseSensitive ? text.charAt(t) : Character.toLowerCase(text.charAt(t)));
+				int index = Arrays.binarySearch(this.distinctChars, 0, this.distinctCharCount, ch);
+				long match = ((index < 0) ? 0L : this.matchVectors[index]);
+				long xVertical = (match | negativeVertical);
+				long xHorizontal = ((((match & positiveVertical) + positiveVertical) ^ positiveVertical) | match);
+				long positiveHorizontal = (negativeVertical | ~(xHorizontal | positiveVertical));
+				long negativeHorizontal = (positiveVertical & xHorizontal);
+				if ((positiveHorizontal & lastBit) != 0)
+					distance++;
+				else if ((negativeHorizontal & lastBit) != 0)
+					distance--;
+				positiveHorizontal = ((positiveHorizontal << 1) | 1L);
+				negativeHorizontal = (negativeHorizontal << 1);
+				positiveVertical = (negativeHorizontal | ~(xVertical | positiveHorizontal));
+				negativeVertical = (positiveHorizontal & xVertical);
+			}
+			return distance;
 		}
+	}
+	
+	/*
+	 * Dynamic programming over two rows of the distance matrix instead of the
+	 * whole matrix. With a threshold, computation is restricted to the band of
+	 * diagonals a path within the threshold can visit, and stops as soon as a
+	 * whole row exceeds the threshold, as row minimums never decrease.
+	 */
+	private static int getBandedLevenshteinDistance(String string1, int length1, String string2, int length2, int threshold, boolean caseSensitive, int insertCost, int deleteCost) {
+		int substitutionFactor = ((insertCost + deleteCost) / 2);
 		
-		//	Step 2.5 (compute remaining columns)
-		while (limit <= length1) {
-			distanceMatrix[limit][0] = (limit * insertCost);
-			
-			//	compute column
-			for (int l = 1; l <= length2; l++) {
-				cost = getCost(string1.charAt(limit - 1), string2.charAt(l - 1), substitutionFactor, caseSensitive);
-				distance = min3(distanceMatrix[limit - 1][l] + deleteCost, distanceMatrix[limit][l - 1] + insertCost, distanceMatrix[limit - 1][l - 1] + cost);
-				distanceMatrix[limit][l] = distance;
-			}
-			if ((distance > threshold) && (threshold > 0)) return (threshold + 1);
-			
-			//	increment limit
-			limit ++;
-		}
+		//	compute band of diagonals (offsets of row index from column index)
+		int minOffset = -length1;
+		int maxOffset = length2;
+		int minEditCost = Math.min(insertCost, deleteCost);
+		if ((threshold > 0) && (minEditCost > 0)) {
+			int lengthDifference = (length2 - length1);
+			int bandExtension = (((threshold / minEditCost) - Math.abs(lengthDifference)) / 2);
+			minOffset = Math.max(minOffset, (Math.min(0, lengthDifference) - bandExtension));
+			maxOffset = Math.min(maxOffset, (Math.max(0, lengthDifference) + bandExtension));
+		}
+		int outOfBand = ((threshold > 0) ? (threshold + 1) : Integer.MAX_VALUE);
 		
-		//	Step 2.5b (compute remaining rows)
-		while (limit <= length2) {
-			distanceMatrix[0][limit] = (limit * deleteCost);
-			
-			//	compute line
-			for (int c = 1; c <= length1; c++) {
-				cost = getCost(string1.charAt(c - 1), string2.charAt(limit - 1), substitutionFactor, caseSensitive);
-				distance = min3(distanceMatrix[c - 1][limit] + deleteCost, distanceMatrix[c][limit - 1] + insertCost, distanceMatrix[c - 1][limit - 1] + cost);
-				distanceMatrix[c][limit] = distance;
-			}
-			if ((distance > threshold) && (threshold > 0)) return (threshold + 1);
-			
-			//	increment limit
-			limit ++;
-		}
+		//	initialize first row
+		int[] lastRow = new int[length2 + 1];
+		int[] row = new int[length2 + 1];
+		for (int l = 0; l <= length2; l++)
+			lastRow[l] = ((l <= maxOffset) ? (l * deleteCost) : outOfBand);
 		
-		// Step 7
-		return distanceMatrix[length1][length2];
+		//	compute remaining rows
+		for (int c = 1; c <= length1; c++) {
+			int from = Math.max(0, (c + minOffset));
+			int to = Math.min(length2, (c + maxOffset));
+			if (from > 0)
+				row[from - 1] = outOfBand;
+			int rowMin = outOfBand;
+			for (int l = from; l <= to; l++) {
+				int distance;
+				if (l == 0)
+					distance = (c * insertCost);
+				else {
+					int cost = getCost(string1.charAt(c - 1), string2.charAt(l - 1), substitutionFactor, caseSensitive);
+					distance = Math.min(min3(lastRow[l] + deleteCost, row[l - 1] + insertCost, lastRow[l - 1] + cost), outOfBand);
+				}
+				row[l] = distance;
+				if (distance < rowMin)
+					rowMin = distance;
+			}
+			if (to < length2)
+				row[to + 1] = outOfBand;
+			if ((threshold > 0) && (rowMin > threshold))
+				return (threshold + 1);
+			int[] swap = lastRow;
+			lastRow = row;
+			row = swap;
+		}
+		return lastRow[length2];
 	}
 	
 	/**	the constants for the levenshtein edit sequences
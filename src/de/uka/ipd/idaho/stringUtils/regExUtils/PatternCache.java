@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.stringUtils.regExUtils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Size bounded, thread safe cache for compiled patterns, e.g. regular
+ * expressions or the annotation patterns of GAMTA. The cache is split into a
+ * number of segments, each with its own lock, so threads looking up different
+ * patterns rarely wait for one another. Within each segment, the least
+ * recently used patterns are evicted once the segment is full.<br>
+ * Patterns are compiled by <code>PatternCompiler</code>s, which also serve as
+ * the namespace of the cached patterns: the same pattern string compiled by
+ * compilers of different classes results in different cache entries, while
+ * compilers of the same class are expected to produce interchangeable
+ * results. This allows all the different kinds of patterns used throughout
+ * GAMTA to share a single cache via the <code>getSharedCache()</code> method,
+ * whose size limit applies to all of them together.
+ * 
+ * @author sautter
+ */
+public class PatternCache {
+	
+	/**
+	 * Compiler for patterns to be cached, producing the compiled pattern from
+	 * a pattern string. Compilers may throw runtime exceptions on invalid
+	 * patterns, which are passed through to client code without caching
+	 * anything.
+	 * 
+	 * @author sautter
+	 */
+	public static interface PatternCompiler {
+		
+		/**
+		 * Compile a pattern.
+		 * @param pattern the pattern to compile
+		 * @return the compiled pattern
+		 */
+		public abstract Object compile(String pattern);
+	}
+	
+	/** compiler for plain java.util.regex patterns */
+	public static final PatternCompiler REGEX_COMPILER = new PatternCompiler() {
+		public Object compile(String pattern) {
+			return Pattern.compile(pattern);
+		}
+	};
+	
+	private static final int SEGMENT_COUNT = 16;
+	
+	private static class Key {
+		final Class compilerClass;
+		final String pattern;
+		final int hash;
+		Key(Class compilerClass, String pattern) {
+			this.compilerClass = compilerClass;
+			this.pattern = pattern;
+			this.hash = ((31 * compilerClass.hashCode()) + pattern.hashCode());
+		}
+		public boolean equals(Object obj) {
+			if (obj == this)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key key = ((Key) obj);
+			return ((this.compilerClass == key.compilerClass) && this.pattern.equals(key.pattern));
+		}
+		public int hashCode() {
+			return this.hash;
+		}
+	}
+	
+	private static class Segment extends LinkedHashMap {
+		int maxSize;
+		long hits = 0;
+		long misses = 0;
+		long evictions = 0;
+		Segment(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			if (this.size() <= this.maxSize)
+				return false;
+			this.evictions++;
+			return true;
+		}
+		void trim() {
+			for (Iterator eit = this.entrySet().iterator(); (this.maxSize < this.size()) && eit.hasNext();) {
+				eit.next();
+				eit.remove();
+				this.evictions++;
+			}
+		}
+	}
+	
+	private final Segment[] segments = new Segment[SEGMENT_COUNT];
+	private int maxSize;
+	
+	/** Constructor
+	 * @param maxSize the maximum number of patterns to cache
+	 */
+	public PatternCache(int maxSize) {
+		this.maxSize = maxSize;
+		for (int s = 0; s < this.segments.length; s++)
+			this.segments[s] = new Segment(this.getSegmentMaxSize(s));
+	}
+	
+	//	distribute size limit over segments so the segment limits add up to the overall one
+	private int getSegmentMaxSize(int segment) {
+		return ((this.maxSize / SEGMENT_COUNT) + ((segment < (this.maxSize % SEGMENT_COUNT)) ? 1 : 0));
+	}
+	
+	private Segment getSegment(Key key) {
+		int hash = key.hash;
+		hash ^= (hash >>> 16);
+		return this.segments[(hash ^ (hash >>> 8)) & (SEGMENT_COUNT - 1)];
+	}
+	
+	/**
+	 * Retrieve a compiled pattern from the cache, compiling and caching it if
+	 * it is not cached yet. Compilation happens outside the locks of the
+	 * cache, so a slowly compiling pattern does not block lookups of other
+	 * patterns. Two threads asking for the same uncached pattern at the same
+	 * time might both compile it, however.
+	 * @param pattern the pattern to retrieve
+	 * @param compiler the compiler to use if the pattern is not cached
+	 * @return the compiled pattern
+	 */
+	public Object get(String pattern, PatternCompiler compiler) {
+		Key key = new Key(compiler.getClass(), pattern);
+		Segment segment = this.getSegment(key);
+		synchronized (segment) {
+			Object compiled = segment.get(key);
+			if (compiled != null) {
+				segment.hits++;
+				return compiled;
+			}
+			segment.misses++;
+		}
+		Object compiled = compiler.compile(pattern);
+		if (compiled != null) synchronized (segment) {
+			segment.put(key, compiled);
+		}
+		return compiled;
+	}
+	
+	/**
+	 * Retrieve a compiled regular expression pattern from the cache,
+	 * compiling and caching it if it is not cached yet.
+	 * @param regEx the regular expression to retrieve the pattern for
+	 * @return the compiled pattern
+	 */
+	public Pattern getPattern(String regEx) {
+		return ((Pattern) this.get(regEx, REGEX_COMPILER));
+	}
+	
+	/**
+	 * Remove all patterns from the cache.
+	 */
+	public void clear() {
+		for (int s = 0; s < this.segments.length; s++)
+			synchronized (this.segments[s]) {
+				this.segments[s].clear();
+			}
+	}
+	
+	/**
+	 * @return the maximum number of patterns to cache
+	 */
+	public synchronized int getMaxSize() {
+		return this.maxSize;
+	}
+	
+	/**
+	 * Set the maximum number of patterns to cache. If more patterns are
+	 * cached, the least recently used ones are evicted right away.
+	 * @param maxSize the new maximum number of patterns
+	 */
+	public synchronized void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		for (int s = 0; s < this.segments.length; s++)
+			synchronized (this.segments[s]) {
+				this.segments[s].maxSize = this.getSegmentMaxSize(s);
+				this.segments[s].trim();
+			}
+	}
+	
+	/**
+	 * @return the number of patterns currently cached
+	 */
+	public int getSize() {
+		int size = 0;
+		for (int s = 0; s < this.segments.length; s++)
+			synchronized (this.segments[s]) {
+				size += this.segments[s].size();
+			}
+		return size;
+	}
+	
+	/**
+	 * @return the number of lookups that found their pattern in the cache
+	 */
+	public long getHitCount() {
+		long hits = 0;
+		for (int s = 0; s < this.segments.length; s++)
+			synchronized (this.segments[s]) {
+				hits += this.segments[s].hits;
+			}
+		return hits;
+	}
+	
+	/**
+	 * @return the number of lookups that had to compile their pattern
+	 */
+	public long getMissCount() {
+		long misses = 0;
+		for (int s = 0; s < this.segments.length; s++)
+			synchronized (this.segments[s]) {
+				misses += this.segments[s].misses;
+			}
+		return misses;
+	}
+	
+	/**
+	 * @return the number of patterns evicted to stay within the size limit
+	 */
+	public long getEvictionCount() {
+		long evictions = 0;
+		for (int s = 0; s < this.segments.length; s++)
+			synchronized (this.segments[s]) {
+				evictions += this.segments[s].evictions;
+			}
+		return evictions;
+	}
+	
+	/**
+	 * Reset the hit, miss, and eviction counters to zero.
+	 */
+	public void resetStatistics() {
+		for (int s = 0; s < this.segments.length; s++)
+			synchronized (this.segments[s]) {
+				this.segments[s].hits = 0;
+				this.segments[s].misses = 0;
+				this.segments[s].evictions = 0;
+			}
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return ("PatternCache: " + this.getSize() + " of " + this.getMaxSize() + " patterns, " + this.getHitCount() + " hits, " + this.getMissCount() + " misses, " + this.getEvictionCount() + " evictions");
+	}
+	
+	private static PatternCache sharedCache = new PatternCache(Integer.getInteger("de.uka.ipd.idaho.stringUtils.regExUtils.PatternCache.maxSize", 4096).intValue());
+	
+	/**
+	 * Retrieve the JVM wide pattern cache shared by the pattern matching
+	 * facilities of GAMTA. The size limit of the shared cache defaults to
+	 * 4096 patterns, which can be changed via the system property
+	 * <code>de.uka.ipd.idaho.stringUtils.regExUtils.PatternCache.maxSize</code>
+	 * or the <code>setMaxSize()</code> method.
+	 * @return the shared pattern cache
+	 */
+	public static PatternCache getSharedCache() {
+		return sharedCache;
+	}
+}
@@ -31,6 +31,8 @@ package de.uka.ipd.idaho.stringUtils.regExUtils;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 import de.uka.ipd.idaho.stringUtils.StringVector;
@@ -51,8 +53,25 @@ public class PatternSet implements Set {
 	private StringVector patterns = new StringVector();
 	
 	private Set positiveSet = new HashSet();
-	private Set matchCacheSet = new HashSet();
-	private Set noMatchCacheSet = new HashSet();
+	private ResultCache matchCacheSet = new ResultCache();
+	private ResultCache noMatchCacheSet = new ResultCache();
+	
+	//	size bounded cache for strings tested against the patterns, evicting the least recently tested ones
+	private static class ResultCache extends LinkedHashMap {
+		private static final int MAX_SIZE = 1024;
+		ResultCache() {
+			super(16, 0.75f, true);
+		}
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return (MAX_SIZE < this.size());
+		}
+		boolean contains(Object o) {
+			return (this.get(o) != null);
+		}
+		void add(Object o) {
+			this.put(o, Boolean.TRUE);
+		}
+	}
 	
 	/**	Constructor for a new empty PatternSet
 	 */
@@ -146,8 +165,8 @@ public class PatternSet implements Set {
 		//	do list lookup
 		for (int t = 0; t < this.patterns.size(); t++) {
 			try {
-				//	try regular expression match
-				if (o.toString().matches(this.patterns.get(t))) {
+				//	try regular expression match, using shared compiled pattern
+				if (PatternCache.getSharedCache().getPattern(this.patterns.get(t)).matcher(o.toString()).matches()) {
 					this.matchCacheSet.add(o);
 					return true;
 				}